@@ -115,6 +115,7 @@ public class BuildManager implements ApplicationComponent{
   private static final String LOGGER_CONFIG = "log.xml";
   private static final String DEFAULT_LOGGER_CONFIG = "defaultLogConfig.xml";
   private static final int MAKE_TRIGGER_DELAY = 3 * 1000 /*3 seconds*/;
+  private static final long DAEMON_HANDOFF_TIMEOUT = 10 * 1000 /*10 seconds*/;
   private final boolean IS_UNIT_TEST_MODE;
   private static final String IWS_EXTENSION = ".iws";
   private static final String IPR_EXTENSION = ".ipr";
@@ -314,6 +315,7 @@ public class BuildManager implements ApplicationComponent{
         data.dropChanges();
       }
     }
+    myMessageDispatcher.stopIdleDaemon(projectPath);
     scheduleAutoMake();
   }
 
@@ -561,7 +563,15 @@ public class BuildManager implements ApplicationComponent{
                     return;
                   }
                   myBuildsInProgress.put(projectPath, future);
-                  final OSProcessHandler processHandler = launchBuildProcess(project, myListenPort, sessionId);
+                  final boolean daemonMode = Registry.is("compiler.process.daemon");
+                  if (daemonMode) {
+                    final Channel idleDaemon = myMessageDispatcher.awaitIdleDaemonChannel(projectPath, DAEMON_HANDOFF_TIMEOUT);
+                    if (idleDaemon != null && myMessageDispatcher.startSession(sessionId, idleDaemon)) {
+                      future.waitFor();
+                      return;
+                    }
+                  }
+                  final OSProcessHandler processHandler = launchBuildProcess(project, myListenPort, sessionId, daemonMode);
                   final StringBuilder stdErrOutput = new StringBuilder();
                   processHandler.addProcessListener(new ProcessAdapter() {
                     @Override
@@ -576,8 +586,20 @@ public class BuildManager implements ApplicationComponent{
                       }
                     }
                   });
+                  if (daemonMode) {
+                    myMessageDispatcher.registerDaemon(sessionId, projectPath, processHandler);
+                  }
                   processHandler.startNotify();
-                  final boolean terminated = processHandler.waitFor();
+                  boolean terminated = false;
+                  if (daemonMode) {
+                    // the daemon outlives the session, so the session is over as soon as its connection is closed
+                    while (!future.isDone() && !terminated) {
+                      terminated = processHandler.waitFor(500L);
+                    }
+                  }
+                  else {
+                    terminated = processHandler.waitFor();
+                  }
                   if (terminated) {
                     final int exitValue = processHandler.getProcess().exitValue();
                     if (exitValue != 0) {
@@ -684,7 +706,8 @@ public class BuildManager implements ApplicationComponent{
     return cmdBuilder.build();
   }
 
-  private OSProcessHandler launchBuildProcess(Project project, final int port, final UUID sessionId) throws ExecutionException {
+  private OSProcessHandler launchBuildProcess(Project project, final int port, final UUID sessionId, boolean daemonMode)
+    throws ExecutionException {
     // choosing sdk with which the build process should be run
     Sdk projectJdk = null;
     JavaSdkVersion sdkVersion = null;
@@ -795,6 +818,14 @@ public class BuildManager implements ApplicationComponent{
       cmdLine.addParameter("-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=" + debugPort);
     }
 
+    if (daemonMode) {
+      cmdLine.addParameter("-D"+ GlobalOptions.BUILD_PROCESS_DAEMON_OPTION + "=true");
+    }
+
+    if (Registry.is("compiler.artifacts.store.jars.in.exploded")) {
+      cmdLine.addParameter("-D"+ GlobalOptions.STORE_JARS_IN_EXPLODED_ARTIFACTS_OPTION + "=true");
+    }
+
     if (Registry.is("compiler.process.use.memory.temp.cache")) {
       cmdLine.addParameter("-D"+ GlobalOptions.USE_MEMORY_TEMP_CACHE_OPTION);
     }
@@ -1034,7 +1065,9 @@ public class BuildManager implements ApplicationComponent{
 
     @Override
     public void projectClosed(Project project) {
-      myProjectDataMap.remove(getProjectPath(project));
+      final String projectPath = getProjectPath(project);
+      myProjectDataMap.remove(projectPath);
+      myMessageDispatcher.stopIdleDaemon(projectPath);
       final MessageBusConnection conn = myConnections.remove(project);
       if (conn != null) {
         conn.disconnect();
@@ -15,6 +15,9 @@
  */
 package com.intellij.compiler.server;
 
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.containers.ConcurrentHashSet;
@@ -23,6 +26,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.api.CmdlineProtoUtil;
 import org.jetbrains.jps.api.CmdlineRemoteProto;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -36,6 +40,8 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
   private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.server.BuildMessageDispatcher");
   private final Map<UUID, SessionData> myMessageHandlers = new ConcurrentHashMap<UUID, SessionData>();
   private final Set<UUID> myCanceledSessions = new ConcurrentHashSet<UUID>();
+  // launch session id -> build process running in daemon mode; guarded by itself
+  private final Map<UUID, DaemonData> myDaemons = new HashMap<UUID, DaemonData>();
 
   public void registerBuildMessageHandler(UUID sessionId,
                                           BuilderMessageHandler handler,
@@ -50,6 +56,134 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
     return data != null? data.handler : null;
   }
 
+  public void registerDaemon(final UUID launchSessionId, String projectPath, ProcessHandler processHandler) {
+    synchronized (myDaemons) {
+      myDaemons.put(launchSessionId, new DaemonData(projectPath, processHandler));
+    }
+    processHandler.addProcessListener(new ProcessAdapter() {
+      @Override
+      public void processTerminated(ProcessEvent event) {
+        unregisterDaemon(launchSessionId);
+      }
+    });
+  }
+
+  private void unregisterDaemon(UUID launchSessionId) {
+    synchronized (myDaemons) {
+      myDaemons.remove(launchSessionId);
+      myDaemons.notifyAll();
+    }
+  }
+
+  @Nullable
+  private DaemonData findDaemon(String projectPath) {
+    for (DaemonData daemon : myDaemons.values()) {
+      if (daemon.projectPath.equals(projectPath)) {
+        return daemon;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Waits for the daemon of the project to finish handing off its previous session, so that no other build process is launched on the
+   * same build data while the daemon is alive. If the daemon has not reconnected within the timeout, it is killed.
+   * @return the connection of the idle daemon, or null if there is no daemon for the project and a new build process should be launched
+   */
+  @Nullable
+  public Channel awaitIdleDaemonChannel(String projectPath, long timeout) {
+    final long deadline = System.currentTimeMillis() + timeout;
+    DaemonData busyDaemon = null;
+    synchronized (myDaemons) {
+      while (true) {
+        final DaemonData daemon = findDaemon(projectPath);
+        if (daemon == null) {
+          return null;
+        }
+        final Channel channel = daemon.idleChannel;
+        daemon.idleChannel = null;
+        if (channel != null && channel.isConnected()) {
+          return channel;
+        }
+        // otherwise the daemon is either reconnecting or exiting after its connection was closed
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0L) {
+          busyDaemon = daemon;
+          break;
+        }
+        try {
+          myDaemons.wait(remaining);
+        }
+        catch (InterruptedException e) {
+          busyDaemon = daemon;
+          break;
+        }
+      }
+    }
+    LOG.info("Build process of " + projectPath + " has not become idle in " + timeout + " ms, terminating it");
+    busyDaemon.processHandler.destroyProcess();
+    busyDaemon.processHandler.waitFor();
+    synchronized (myDaemons) {
+      myDaemons.values().remove(busyDaemon);
+    }
+    return null;
+  }
+
+  /**
+   * Makes the idle daemon quit, it exits as soon as its connection is closed
+   */
+  public void stopIdleDaemon(String projectPath) {
+    final Channel channel;
+    synchronized (myDaemons) {
+      final DaemonData daemon = findDaemon(projectPath);
+      if (daemon == null) {
+        return;
+      }
+      channel = daemon.idleChannel;
+      daemon.idleChannel = null;
+    }
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  /**
+   * Starts the registered session on the connection of an idle daemon.
+   * @return false if the session cannot be started on the channel and a new build process should be launched for it
+   */
+  public boolean startSession(UUID sessionId, Channel channel) {
+    final SessionData sessionData = myMessageHandlers.get(sessionId);
+    final ChannelHandlerContext ctx = channel.getPipeline().getContext(this);
+    if (sessionData == null || ctx == null) {
+      return false;
+    }
+    sessionData.channel = channel;
+    ctx.setAttachment(sessionData);
+    if (!channel.isConnected()) {
+      // the daemon has gone meanwhile; whoever unregisters the handler first notifies it
+      final BuilderMessageHandler handler = unregisterBuildMessageHandler(sessionId);
+      if (handler != null) {
+        handler.handleFailure(sessionId, CmdlineProtoUtil.createFailure("Disconnected from build process", null));
+        handler.sessionTerminated(sessionId);
+      }
+      return true;
+    }
+    sendParams(channel, sessionData);
+    return true;
+  }
+
+  private void sendParams(Channel channel, SessionData sessionData) {
+    final CmdlineRemoteProto.Message.ControllerMessage params = sessionData.params;
+    if (params != null) {
+      sessionData.handler.buildStarted(sessionData.sessionId);
+      sessionData.params = null;
+      Channels.write(channel, CmdlineProtoUtil.toMessage(sessionData.sessionId, params));
+    }
+    else {
+      cancelSession(sessionData.sessionId);
+    }
+  }
+
   public void cancelSession(UUID sessionId) {
     if (myCanceledSessions.add(sessionId)) {
       final Channel channel = getConnectedChannel(sessionId);
@@ -98,6 +232,22 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
     }
 
     final BuilderMessageHandler handler = sessionData != null? sessionData.handler : null;
+    if (handler == null && isIdleSignal(message)) {
+      Channel displaced = null;
+      synchronized (myDaemons) {
+        final DaemonData daemon = myDaemons.get(sessionId);
+        if (daemon != null) {
+          displaced = daemon.idleChannel;
+          daemon.idleChannel = ctx.getChannel();
+          myDaemons.notifyAll();
+        }
+      }
+      if (displaced != null && displaced != ctx.getChannel()) {
+        // a stale connection of the same daemon, nothing is going to be run on it
+        displaced.close();
+      }
+      return;
+    }
     if (handler == null) {
       // todo
       LOG.info("No message handler registered for session " + sessionId);
@@ -114,15 +264,7 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
         final CmdlineRemoteProto.Message.BuilderMessage builderMessage = message.getBuilderMessage();
         final CmdlineRemoteProto.Message.BuilderMessage.Type msgType = builderMessage.getType();
         if (msgType == CmdlineRemoteProto.Message.BuilderMessage.Type.PARAM_REQUEST) {
-          final CmdlineRemoteProto.Message.ControllerMessage params = sessionData.params;
-          if (params != null) {
-            handler.buildStarted(sessionId);
-            sessionData.params = null;
-            Channels.write(ctx.getChannel(), CmdlineProtoUtil.toMessage(sessionId, params));
-          }
-          else {
-            cancelSession(sessionId);
-          }
+          sendParams(ctx.getChannel(), sessionData);
         }
         else {
           handler.handleBuildMessage(ctx.getChannel(), sessionId, builderMessage);
@@ -149,9 +291,26 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
           handler.sessionTerminated(sessionData.sessionId);
         }
       }
+      else {
+        synchronized (myDaemons) {
+          for (DaemonData daemon : myDaemons.values()) {
+            if (daemon.idleChannel == ctx.getChannel()) {
+              daemon.idleChannel = null;
+            }
+          }
+        }
+      }
     }
   }
 
+  /**
+   * A daemon that has finished its session reconnects and requests parameters on behalf of the session it was launched for
+   */
+  private static boolean isIdleSignal(CmdlineRemoteProto.Message message) {
+    return message.getType() == CmdlineRemoteProto.Message.Type.BUILDER_MESSAGE &&
+           message.getBuilderMessage().getType() == CmdlineRemoteProto.Message.BuilderMessage.Type.PARAM_REQUEST;
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
     final Throwable cause = e.getCause();
@@ -180,6 +339,18 @@ class BuildMessageDispatcher extends SimpleChannelHandler {
     }
   }
 
+  private static final class DaemonData {
+    final String projectPath;
+    final ProcessHandler processHandler;
+    // connection on which the daemon waits for the next build, guarded by myDaemons
+    Channel idleChannel;
+
+    private DaemonData(String projectPath, ProcessHandler processHandler) {
+      this.projectPath = projectPath;
+      this.processHandler = processHandler;
+    }
+  }
+
   private static final class SessionData {
     final UUID sessionId;
     final BuilderMessageHandler handler;
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.compiler.server;
+
+import com.intellij.execution.process.ProcessHandler;
+import junit.framework.TestCase;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.local.DefaultLocalServerChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
+import org.jetbrains.jps.api.CmdlineProtoUtil;
+
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Bookkeeping of the build processes running in daemon mode
+ */
+public class BuildMessageDispatcherTest extends TestCase {
+  private static final String PROJECT_PATH = "/project";
+
+  private BuildMessageDispatcher myDispatcher;
+  private Channel myServerChannel;
+  private ClientBootstrap myClient;
+  private LocalAddress myAddress;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDispatcher = new BuildMessageDispatcher();
+    final ServerBootstrap server = new ServerBootstrap(new DefaultLocalServerChannelFactory());
+    server.setPipelineFactory(new ChannelPipelineFactory() {
+      @Override
+      public ChannelPipeline getPipeline() throws Exception {
+        return Channels.pipeline(myDispatcher);
+      }
+    });
+    myAddress = new LocalAddress(LocalAddress.EPHEMERAL);
+    myServerChannel = server.bind(myAddress);
+    myClient = new ClientBootstrap(new DefaultLocalClientChannelFactory());
+    myClient.setPipelineFactory(new ChannelPipelineFactory() {
+      @Override
+      public ChannelPipeline getPipeline() throws Exception {
+        return Channels.pipeline(new SimpleChannelHandler());
+      }
+    });
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myServerChannel.close().awaitUninterruptibly();
+    super.tearDown();
+  }
+
+  public void testIdleDaemonIsReused() throws Exception {
+    final UUID daemonId = UUID.randomUUID();
+    myDispatcher.registerDaemon(daemonId, PROJECT_PATH, startProcess());
+    becomeIdle(daemonId);
+
+    final Channel idle = myDispatcher.awaitIdleDaemonChannel(PROJECT_PATH, 5000L);
+    assertNotNull(idle);
+    assertTrue(idle.isConnected());
+    assertNull(myDispatcher.awaitIdleDaemonChannel("/other", 5000L));
+  }
+
+  public void testBuildWaitsForDaemonHandingOff() throws Exception {
+    final UUID daemonId = UUID.randomUUID();
+    final TestProcessHandler process = startProcess();
+    myDispatcher.registerDaemon(daemonId, PROJECT_PATH, process);
+    final Thread reconnect = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(300L);
+          becomeIdle(daemonId);
+        }
+        catch (InterruptedException ignored) {
+        }
+      }
+    };
+    reconnect.start();
+
+    assertNotNull(myDispatcher.awaitIdleDaemonChannel(PROJECT_PATH, 10000L));
+    assertFalse(process.isProcessTerminated());
+    reconnect.join();
+  }
+
+  public void testDaemonWhichDoesNotReconnectIsKilled() throws Exception {
+    final TestProcessHandler process = startProcess();
+    myDispatcher.registerDaemon(UUID.randomUUID(), PROJECT_PATH, process);
+
+    assertNull(myDispatcher.awaitIdleDaemonChannel(PROJECT_PATH, 200L));
+    assertTrue(process.isProcessTerminated());
+    // there is no daemon to wait for anymore
+    final long start = System.currentTimeMillis();
+    assertNull(myDispatcher.awaitIdleDaemonChannel(PROJECT_PATH, 10000L));
+    assertTrue(System.currentTimeMillis() - start < 5000L);
+  }
+
+  public void testTerminatedDaemonIsNotWaitedFor() throws Exception {
+    final TestProcessHandler process = startProcess();
+    myDispatcher.registerDaemon(UUID.randomUUID(), PROJECT_PATH, process);
+    process.destroyProcess();
+    process.waitFor();
+
+    final long start = System.currentTimeMillis();
+    assertNull(myDispatcher.awaitIdleDaemonChannel(PROJECT_PATH, 10000L));
+    assertTrue(System.currentTimeMillis() - start < 5000L);
+  }
+
+  public void testDisplacedIdleConnectionIsClosed() throws Exception {
+    final UUID daemonId = UUID.randomUUID();
+    myDispatcher.registerDaemon(daemonId, PROJECT_PATH, startProcess());
+    final Channel first = becomeIdle(daemonId);
+    final Channel second = becomeIdle(daemonId);
+
+    assertTrue(first.getCloseFuture().awaitUninterruptibly(5000L));
+    assertTrue(second.isConnected());
+    final Channel idle = myDispatcher.awaitIdleDaemonChannel(PROJECT_PATH, 5000L);
+    assertNotNull(idle);
+    assertTrue(idle.isConnected());
+  }
+
+  public void testStoppedIdleDaemonIsDisconnected() throws Exception {
+    final UUID daemonId = UUID.randomUUID();
+    myDispatcher.registerDaemon(daemonId, PROJECT_PATH, startProcess());
+    final Channel client = becomeIdle(daemonId);
+
+    myDispatcher.stopIdleDaemon(PROJECT_PATH);
+    assertTrue(client.getCloseFuture().awaitUninterruptibly(5000L));
+  }
+
+  /**
+   * Connects on behalf of the daemon and requests parameters the way a daemon does after its session is over
+   */
+  private Channel becomeIdle(UUID daemonId) {
+    final ChannelFuture connect = myClient.connect(myAddress).awaitUninterruptibly();
+    assertTrue(connect.isSuccess());
+    final Channel channel = connect.getChannel();
+    channel.write(CmdlineProtoUtil.toMessage(daemonId, CmdlineProtoUtil.createParamRequest())).awaitUninterruptibly();
+    return channel;
+  }
+
+  private static TestProcessHandler startProcess() {
+    final TestProcessHandler process = new TestProcessHandler();
+    process.startNotify();
+    return process;
+  }
+
+  private static class TestProcessHandler extends ProcessHandler {
+    @Override
+    protected void destroyProcessImpl() {
+      notifyProcessTerminated(1);
+    }
+
+    @Override
+    protected void detachProcessImpl() {
+      notifyProcessDetached();
+    }
+
+    @Override
+    public boolean detachIsDefault() {
+      return false;
+    }
+
+    @Override
+    public OutputStream getProcessInput() {
+      return null;
+    }
+  }
+}
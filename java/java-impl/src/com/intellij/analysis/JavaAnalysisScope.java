@@ -30,6 +30,7 @@ import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.PackageScope;
 import com.intellij.psi.search.SearchScope;
+import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 
@@ -113,15 +114,7 @@ public class JavaAnalysisScope extends AnalysisScope {
   @Override
   protected void accept(@NotNull final PsiElementVisitor visitor, final boolean needReadAction) {
     if (myElement instanceof PsiPackage) {
-      final PsiPackage pack = (PsiPackage)myElement;
-      final Set<PsiDirectory> dirs = new HashSet<PsiDirectory>();
-      ApplicationManager.getApplication().runReadAction(new Runnable() {
-        @Override
-        public void run() {
-          ContainerUtil.addAll(dirs, pack.getDirectories(GlobalSearchScope.projectScope(myElement.getProject())));
-        }
-      });
-      for (PsiDirectory dir : dirs) {
+      for (PsiDirectory dir : getPackageDirectories()) {
         accept(dir, visitor, needReadAction);
       }
     } else {
@@ -129,6 +122,30 @@ public class JavaAnalysisScope extends AnalysisScope {
     }
   }
 
+  @Override
+  public boolean accept(@NotNull Processor<VirtualFile> processor) {
+    if (myElement instanceof PsiPackage) {
+      for (PsiDirectory dir : getPackageDirectories()) {
+        if (!accept(dir, processor)) return false;
+      }
+      return true;
+    }
+    return super.accept(processor);
+  }
+
+  @NotNull
+  private Set<PsiDirectory> getPackageDirectories() {
+    final PsiPackage pack = (PsiPackage)myElement;
+    final Set<PsiDirectory> dirs = new HashSet<PsiDirectory>();
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        ContainerUtil.addAll(dirs, pack.getDirectories(GlobalSearchScope.projectScope(myElement.getProject())));
+      }
+    });
+    return dirs;
+  }
+
   @NotNull
   @Override
   public SearchScope toSearchScope() {
@@ -83,6 +83,9 @@ public class JavaCodeBlockModificationListener implements PsiTreeChangePreproces
       if (containsClassesInside(child1) || child2 != child1 && containsClassesInside(child2)) {
         myModificationTracker.incCounter();
       }
+      else {
+        myModificationTracker.incCodeBlockModificationCounter();
+      }
     }
     catch (PsiInvalidElementAccessException e) {
       myModificationTracker.incCounter(); // Shall not happen actually, just a pre-release paranoia
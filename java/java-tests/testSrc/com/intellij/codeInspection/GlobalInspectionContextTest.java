@@ -21,9 +21,22 @@ import com.intellij.codeInsight.CodeInsightTestCase;
 import com.intellij.codeInspection.actions.RunInspectionIntention;
 import com.intellij.codeInspection.ex.*;
 import com.intellij.codeInspection.visibility.VisibilityInspection;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.profile.codeInspection.InspectionProfileManager;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.TimeoutUtil;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Dmitry Avdeev
@@ -68,6 +81,46 @@ public class GlobalInspectionContextTest extends CodeInsightTestCase {
     fail("No disabled tools found");
   }
 
+  public void testGlobalSimpleToolChecksOneFileAtATime() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      createFile("C" + i + ".java", "class C" + i + " {}");
+    }
+    FileCheckingInspection.reset();
+    InspectionProfileImpl profile = InspectionProfileImpl.createSimple("Foo", new FileCheckingInspection());
+    GlobalInspectionContextImpl context = ((InspectionManagerEx)InspectionManager.getInstance(getProject())).createNewGlobalContext(false);
+    context.setExternalProfile(profile);
+
+    RegistryValue concurrently = Registry.get("inspect.files.concurrently");
+    boolean wasConcurrent = concurrently.asBoolean();
+    concurrently.setValue(true);
+    try {
+      context.doInspections(new AnalysisScope(myModule), InspectionManager.getInstance(getProject()));
+    }
+    finally {
+      concurrently.setValue(wasConcurrent);
+    }
+    assertEquals(20, FileCheckingInspection.ourCheckedFiles.size());
+    assertFalse(FileCheckingInspection.ourCalledConcurrently);
+  }
+
+  public void testScopeFilesAreVisitedWithoutPsi() throws Exception {
+    createFile("A.java", "class A {}");
+    createFile("B.txt", "text");
+    AnalysisScope scope = new AnalysisScope(myModule);
+
+    final Set<VirtualFile> psiFiles = new HashSet<VirtualFile>();
+    scope.accept(new PsiElementVisitor() {
+      @Override
+      public void visitFile(PsiFile file) {
+        psiFiles.add(file.getVirtualFile());
+      }
+    });
+    final Set<VirtualFile> files = new HashSet<VirtualFile>();
+    assertTrue(scope.accept(new CommonProcessors.CollectProcessor<VirtualFile>(files)));
+    assertEquals(psiFiles, files);
+    assertEquals(2, files.size());
+  }
+
   @Override
   public void setUp() throws Exception {
     super.setUp();
@@ -84,4 +137,53 @@ public class GlobalInspectionContextTest extends CodeInsightTestCase {
   protected String getTestDataPath() {
     return JavaTestUtil.getJavaTestDataPath() + "/inspection/globalContext/";
   }
+
+  public static class FileCheckingInspection extends GlobalSimpleInspectionTool {
+    private static final AtomicInteger ourRunning = new AtomicInteger();
+    private static final Set<String> ourCheckedFiles = Collections.synchronizedSet(new HashSet<String>());
+    private static volatile boolean ourCalledConcurrently;
+
+    private static void reset() {
+      ourCheckedFiles.clear();
+      ourCalledConcurrently = false;
+    }
+
+    @Override
+    public void checkFile(@NotNull PsiFile file,
+                          @NotNull InspectionManager manager,
+                          @NotNull ProblemsHolder problemsHolder,
+                          @NotNull GlobalInspectionContext globalContext,
+                          @NotNull ProblemDescriptionsProcessor problemDescriptionsProcessor) {
+      if (ourRunning.incrementAndGet() > 1) {
+        ourCalledConcurrently = true;
+      }
+      try {
+        TimeoutUtil.sleep(5);
+        ourCheckedFiles.add(file.getName());
+      }
+      finally {
+        ourRunning.decrementAndGet();
+      }
+    }
+
+    @Nls
+    @NotNull
+    @Override
+    public String getGroupDisplayName() {
+      return "test";
+    }
+
+    @Nls
+    @NotNull
+    @Override
+    public String getDisplayName() {
+      return "File checking";
+    }
+
+    @NotNull
+    @Override
+    public String getShortName() {
+      return "FileChecking";
+    }
+  }
 }
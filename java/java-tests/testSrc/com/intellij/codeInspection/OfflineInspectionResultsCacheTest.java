@@ -0,0 +1,189 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection;
+
+import com.intellij.codeInspection.ex.OfflineInspectionResultsCache;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.Result;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.PsiTestCase;
+import com.intellij.testFramework.PsiTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class OfflineInspectionResultsCacheTest extends PsiTestCase {
+  private static final List<String> OUTPUT = Arrays.asList("Tool", "<problem/>");
+
+  private File myCacheDir;
+  private OfflineInspectionResultsCache myCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCacheDir = createTempDirectory();
+    myCache = new OfflineInspectionResultsCache(myProject, myCacheDir, "profile");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myCache.dispose();
+    super.tearDown();
+  }
+
+  public void testOutputIsReusedForUnchangedFiles() throws Exception {
+    final VirtualFile a = createFile("A.java", "class A extends B {}").getVirtualFile();
+    final VirtualFile b = createFile("B.java", "class B {}").getVirtualFile();
+    record(a, Collections.singletonList(b), Collections.<String>emptyList());
+    recordDependencies(b, Collections.<VirtualFile>emptyList());
+
+    nextRun();
+    assertEquals(OUTPUT, getOutput(a));
+
+    setText(b, "class B { int i; }");
+    nextRun();
+    assertNull(getOutput(a));
+  }
+
+  public void testTransitiveDependencyChangeDropsOutput() throws Exception {
+    final VirtualFile a = createFile("A.java", "class A extends B { void f() { m(); } }").getVirtualFile();
+    final VirtualFile b = createFile("B.java", "class B extends C {}").getVirtualFile();
+    final VirtualFile c = createFile("C.java", "class C { void m() {} }").getVirtualFile();
+    record(a, Collections.singletonList(b), Collections.<String>emptyList());
+    recordDependencies(b, Collections.singletonList(c));
+    recordDependencies(c, Collections.<VirtualFile>emptyList());
+
+    nextRun();
+    assertEquals(OUTPUT, getOutput(a));
+    assertNull(getOutput(c)); // only the dependencies of C are known, it hasn't been inspected
+
+    setText(c, "class C {}");
+    nextRun();
+    assertNull(getOutput(a));
+
+    assertTrue(hasDependencies(a));
+    assertFalse(hasDependencies(b));
+    assertFalse(hasDependencies(c));
+    record(a, Collections.singletonList(b), Collections.<String>emptyList());
+    recordDependencies(b, Collections.singletonList(c));
+    recordDependencies(c, Collections.<VirtualFile>emptyList());
+    nextRun();
+    assertEquals(OUTPUT, getOutput(a));
+
+    setText(c, "class C { void m() {} }");
+    nextRun();
+    assertNull(getOutput(a));
+  }
+
+  public void testOutputIsDroppedWhenDependenciesOfDependencyAreUnknown() throws Exception {
+    final VirtualFile a = createFile("A.java", "class A extends B {}").getVirtualFile();
+    final VirtualFile b = createFile("B.java", "class B {}").getVirtualFile();
+    record(a, Collections.singletonList(b), Collections.<String>emptyList());
+
+    nextRun();
+    assertNull(getOutput(a));
+  }
+
+  public void testOutputIsDroppedWhenUnresolvedNameAppears() throws Exception {
+    final VirtualFile a = createFile("A.java", "class A extends Bar {}").getVirtualFile();
+    final VirtualFile b = createFile("B.java", "class B {}").getVirtualFile();
+    record(a, Collections.<VirtualFile>emptyList(), Collections.singletonList("Bar"));
+
+    nextRun();
+    assertEquals(OUTPUT, getOutput(a));
+
+    setText(b, "class B {} class Bar {}");
+    nextRun();
+    assertNull(getOutput(a));
+
+    record(a, Collections.<VirtualFile>emptyList(), Collections.singletonList("Baz"));
+    createFile("Baz.java", "class Baz {}");
+    nextRun();
+    assertNull(getOutput(a));
+  }
+
+  public void testOutputIsDroppedWhenClassPathChanges() throws Exception {
+    final VirtualFile a = createFile("A.java", "class A {}").getVirtualFile();
+    record(a, Collections.<VirtualFile>emptyList(), Collections.<String>emptyList());
+    nextRun();
+    assertEquals(OUTPUT, getOutput(a));
+
+    final File libDir = createTempDirectory();
+    assertTrue(new File(libDir, "classes").mkdir());
+    PsiTestUtil.addLibrary(myModule, "lib", libDir.getPath(), "classes");
+    nextRun();
+    assertNull(getOutput(a));
+  }
+
+  private void record(final VirtualFile file, final Collection<VirtualFile> dependencies, final Collection<String> unresolvedNames) {
+    myCache.startRecording();
+    myCache.recordOutput(OUTPUT.get(0), OUTPUT.get(1));
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        myCache.finishRecording(file, dependencies, unresolvedNames);
+      }
+    });
+  }
+
+  private void recordDependencies(final VirtualFile file, final Collection<VirtualFile> dependencies) {
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        myCache.recordDependencies(file, dependencies, Collections.<String>emptyList());
+      }
+    });
+  }
+
+  private boolean hasDependencies(final VirtualFile file) {
+    return ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
+      @Override
+      public Boolean compute() {
+        return myCache.hasDependencies(file);
+      }
+    }).booleanValue();
+  }
+
+  private List<String> getOutput(final VirtualFile file) {
+    return ApplicationManager.getApplication().runReadAction(new Computable<List<String>>() {
+      @Override
+      public List<String> compute() {
+        return myCache.getOutput(file);
+      }
+    });
+  }
+
+  private static void setText(final VirtualFile file, final String text) throws IOException {
+    new WriteAction() {
+      @Override
+      protected void run(Result result) throws Throwable {
+        VfsUtil.saveText(file, text);
+      }
+    }.execute().throwException();
+  }
+
+  private void nextRun() throws IOException {
+    myCache.dispose();
+    myCache = new OfflineInspectionResultsCache(myProject, myCacheDir, "profile");
+  }
+}
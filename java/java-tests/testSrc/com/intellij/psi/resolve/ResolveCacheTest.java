@@ -0,0 +1,77 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.resolve;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.impl.source.resolve.ResolveCache;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+
+public class ResolveCacheTest extends LightCodeInsightFixtureTestCase {
+  public void testChangeInsideCodeBlockKeepsResultsOfOtherFiles() {
+    PsiFile a = myFixture.addFileToProject("A.java", "class A { void foo() { int i = 0; } }");
+    PsiReference ref = findReference(myFixture.addFileToProject("B.java", "class B { A a; }"), "A a");
+    assertInstanceOf(ref.resolve(), PsiClass.class);
+
+    long localInvalidations = getResolveCache().getLocalInvalidationCount();
+    insert(a, "int i = 0;", "i++; ");
+    assertEquals(localInvalidations + 1, getResolveCache().getLocalInvalidationCount());
+
+    long hits = getResolveCache().getHitCount();
+    assertInstanceOf(ref.resolve(), PsiClass.class);
+    assertTrue(getResolveCache().getHitCount() > hits);
+  }
+
+  public void testChangeOutsideCodeBlockInvalidatesOtherFiles() {
+    PsiFile a = myFixture.addFileToProject("A.java", "class A { void foo() { int i = 0; } }");
+    PsiReference ref = findReference(myFixture.addFileToProject("B.java", "class B { A a; }"), "A a");
+    assertInstanceOf(ref.resolve(), PsiClass.class);
+
+    long localInvalidations = getResolveCache().getLocalInvalidationCount();
+    insert(a, "void foo()", "int field; ");
+    assertEquals(localInvalidations, getResolveCache().getLocalInvalidationCount());
+
+    long misses = getResolveCache().getMissCount();
+    assertInstanceOf(ref.resolve(), PsiClass.class);
+    assertTrue(getResolveCache().getMissCount() > misses);
+  }
+
+  private ResolveCache getResolveCache() {
+    return ResolveCache.getInstance(getProject());
+  }
+
+  private static PsiReference findReference(PsiFile file, String marker) {
+    PsiReference ref = file.findReferenceAt(file.getText().indexOf(marker));
+    assertNotNull(ref);
+    return ref;
+  }
+
+  private void insert(PsiFile file, final String marker, final String text) {
+    final Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+    assertNotNull(document);
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        document.insertString(document.getText().indexOf(marker), text);
+        PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+      }
+    }.execute().throwException();
+  }
+}
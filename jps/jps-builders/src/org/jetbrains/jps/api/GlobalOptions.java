@@ -25,4 +25,7 @@ public interface GlobalOptions {
   String GENERATE_CLASSPATH_INDEX_OPTION = "generate.classpath.index";
   String COMPILE_PARALLEL_OPTION = "compile.parallel";
   String COMPILE_PARALLEL_MAX_THREADS_OPTION = "compile.parallel.max.threads";
+  String BUILD_PROCESS_DAEMON_OPTION = "compile.daemon";
+  String BUILD_PROCESS_DAEMON_IDLE_TIMEOUT_OPTION = "compile.daemon.idle.timeout";
+  String STORE_JARS_IN_EXPLODED_ARTIFACTS_OPTION = "artifacts.store.jars.in.exploded";
 }
@@ -31,11 +31,14 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.api.CmdlineProtoUtil;
 import org.jetbrains.jps.api.CmdlineRemoteProto;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.incremental.Utils;
 import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.File;
 import java.net.InetSocketAddress;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
 
 /**
@@ -46,7 +49,10 @@ public class BuildMain {
   public static final Key<String> FORCE_MODEL_LOADING_PARAMETER = Key.create("_force_model_loading");
   private static final String LOG_FILE_NAME = "log.xml";
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.BuildMain");
+  private static final long DAEMON_IDLE_TIMEOUT = Long.parseLong(System.getProperty(GlobalOptions.BUILD_PROCESS_DAEMON_IDLE_TIMEOUT_OPTION, "30")) * 60L * 1000L;
   private static NioClientSocketChannelFactory ourChannelFactory;
+  private static ClientBootstrap ourBootstrap;
+  private static InetSocketAddress ourAddress;
 
   public static void main(String[] args){
     System.out.println("Build process started. Classpath: " + System.getProperty("java.class.path"));
@@ -60,6 +66,8 @@ public class BuildMain {
 
     ourChannelFactory = new NioClientSocketChannelFactory(SharedThreadPool.getInstance(), SharedThreadPool.getInstance(), 1);
     final ClientBootstrap bootstrap = new ClientBootstrap(ourChannelFactory);
+    ourBootstrap = bootstrap;
+    ourAddress = new InetSocketAddress(host, port);
     bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
       public ChannelPipeline getPipeline() throws Exception {
         return Channels.pipeline(
@@ -74,7 +82,18 @@ public class BuildMain {
     bootstrap.setOption("tcpNoDelay", true);
     bootstrap.setOption("keepAlive", true);
 
-    final ChannelFuture future = bootstrap.connect(new InetSocketAddress(host, port));
+    if (!requestParameters(sessionId)) {
+      System.err.println("Exiting.");
+      System.exit(-1);
+    }
+  }
+
+  /**
+   * Connects to the IDE and asks for the parameters of the next build. In daemon mode the request is repeated on a new connection after
+   * every build, the IDE keeps such a connection until there is another build of the project to run.
+   */
+  private static boolean requestParameters(UUID sessionId) {
+    final ChannelFuture future = ourBootstrap.connect(ourAddress);
     future.awaitUninterruptibly();
 
     final boolean success = future.isSuccess();
@@ -84,21 +103,58 @@ public class BuildMain {
     }
     else {
       final Throwable reason = future.getCause();
-      System.err.println("Error connecting to " + host + ":" + port + "; reason: " + (reason != null? reason.getMessage() : "unknown"));
+      System.err.println("Error connecting to " + ourAddress + "; reason: " + (reason != null? reason.getMessage() : "unknown"));
       if (reason != null) {
         reason.printStackTrace(System.err);
       }
-      System.err.println("Exiting.");
-      System.exit(-1);
     }
+    return success;
+  }
+
+  private static void shutdown() {
+    new Thread("Shutdown thread") {
+      public void run() {
+        try {
+          DaemonProjectCache.clear();
+          ourChannelFactory.releaseExternalResources();
+        }
+        finally {
+          System.exit(0);
+        }
+      }
+    }.start();
   }
 
   private static class MyMessageHandler extends SimpleChannelHandler {
     private final UUID mySessionId;
     private volatile BuildSession mySession;
+    private volatile boolean mySessionFinished;
+    @Nullable private final Timer myIdleTimer;
 
     private MyMessageHandler(UUID sessionId) {
       mySessionId = sessionId;
+      if (DaemonProjectCache.ENABLED) {
+        myIdleTimer = new Timer("Build daemon idle timer", true);
+      }
+      else {
+        myIdleTimer = null;
+      }
+    }
+
+    @Override
+    public void channelConnected(final ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+      super.channelConnected(ctx, e);
+      if (myIdleTimer != null) {
+        myIdleTimer.schedule(new TimerTask() {
+          @Override
+          public void run() {
+            if (mySession == null) {
+              LOG.info("No builds requested for " + DAEMON_IDLE_TIMEOUT / 60000L + " min, exiting");
+              ctx.getChannel().close();
+            }
+          }
+        }, DAEMON_IDLE_TIMEOUT);
+      }
     }
 
     @Override
@@ -113,8 +169,13 @@ public class BuildMain {
 
           case BUILD_PARAMETERS: {
             if (mySession == null) {
+              if (myIdleTimer != null) {
+                myIdleTimer.cancel();
+              }
               final CmdlineRemoteProto.Message.ControllerMessage.FSEvent delta = controllerMessage.hasFsEvent()? controllerMessage.getFsEvent() : null;
-              final BuildSession session = new BuildSession(mySessionId, channel, controllerMessage.getParamsMessage(), delta);
+              // a daemon runs sessions started by the IDE after the one it was launched for
+              final UUID sessionId = DaemonProjectCache.ENABLED? toUUID(message.getSessionId()) : mySessionId;
+              final BuildSession session = new BuildSession(sessionId, channel, controllerMessage.getParamsMessage(), delta);
               mySession = session;
               SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
                 public void run() {
@@ -122,8 +183,14 @@ public class BuildMain {
                     session.run();
                   }
                   finally {
+                    mySessionFinished = true;
                     channel.close();
-                    System.exit(0);
+                    if (!DaemonProjectCache.ENABLED) {
+                      System.exit(0);
+                    }
+                    else if (!requestParameters(mySessionId)) {
+                      shutdown();
+                    }
                   }
                 }
               });
@@ -173,16 +240,17 @@ public class BuildMain {
         super.channelClosed(ctx, e);
       }
       finally {
-        new Thread("Shutdown thread") {
-          public void run() {
-            try {
-              ourChannelFactory.releaseExternalResources();
-            }
-            finally {
-              System.exit(0);
-            }
+        final BuildSession session = mySession;
+        if (!DaemonProjectCache.ENABLED || session == null) {
+          if (myIdleTimer != null) {
+            myIdleTimer.cancel();
           }
-        }.start();
+          shutdown();
+        }
+        else if (!mySessionFinished) {
+          // the IDE has dropped the connection, the daemon reconnects when the session is over
+          session.cancel();
+        }
       }
     }
 
@@ -197,6 +265,10 @@ public class BuildMain {
     }
   }
 
+  private static UUID toUUID(CmdlineRemoteProto.Message.UUID id) {
+    return new UUID(id.getMostSigBits(), id.getLeastSigBits());
+  }
+
   private static void initLoggers() {
     if (new File(LOG_FILE_NAME).exists()) {
       DOMConfigurator.configure(LOG_FILE_NAME);
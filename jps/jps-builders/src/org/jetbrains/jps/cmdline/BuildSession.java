@@ -62,6 +62,8 @@ final class BuildSession implements Runnable, CanceledStatus {
   private final Channel myChannel;
   private volatile boolean myCanceled = false;
   private String myProjectPath;
+  private final String myGlobalOptionsPath;
+  private final Map<String, String> myPathVariables;
   @Nullable
   private CmdlineRemoteProto.Message.ControllerMessage.FSEvent myInitialFSDelta;
   // state
@@ -72,6 +74,8 @@ final class BuildSession implements Runnable, CanceledStatus {
   private final ConstantSearch myConstantSearch = new ConstantSearch();
   private final BuildRunner myBuildRunner;
   private final boolean myForceModelLoading;
+  private boolean myKeepProjectDescriptor;
+  private long myLoadTime;
   private BuildType myBuildType;
 
   BuildSession(UUID sessionId,
@@ -91,6 +95,8 @@ final class BuildSession implements Runnable, CanceledStatus {
     // session params
     myProjectPath = FileUtil.toCanonicalPath(params.getProjectId());
     String globalOptionsPath = FileUtil.toCanonicalPath(globals.getGlobalOptionsPath());
+    myGlobalOptionsPath = globalOptionsPath;
+    myPathVariables = pathVars;
     myBuildType = convertCompileType(params.getBuildType());
     List<TargetTypeBuildScope> scopes = params.getScopeList();
     List<String> filePaths = params.getFilePathList();
@@ -182,6 +188,14 @@ final class BuildSession implements Runnable, CanceledStatus {
       myBuildType = BuildType.PROJECT_REBUILD;
     }
 
+    final DaemonProjectCache.Entry cached = DaemonProjectCache.ENABLED && !myForceModelLoading?
+                                            DaemonProjectCache.take(myProjectPath, myGlobalOptionsPath, myPathVariables) : null;
+    if (cached != null) {
+      runBuildWithKeptDescriptor(msgHandler, cs, dataStorageRoot, cached);
+      return;
+    }
+
+    final long loadStart = System.currentTimeMillis();
     final DataInputStream fsStateStream = createFSDataStream(dataStorageRoot);
 
     if (fsStateStream != null) {
@@ -213,6 +227,7 @@ final class BuildSession implements Runnable, CanceledStatus {
         }
       }
       myLastEventOrdinal = myInitialFSDelta != null? myInitialFSDelta.getOrdinal() : 0L;
+      myLoadTime = System.currentTimeMillis() - loadStart;
 
       // free memory
       myInitialFSDelta = null;
@@ -220,12 +235,42 @@ final class BuildSession implements Runnable, CanceledStatus {
       myEventsProcessor.startProcessing();
 
       myBuildRunner.runBuild(pd, cs, myConstantSearch, msgHandler, myBuildType);
+      myKeepProjectDescriptor = DaemonProjectCache.ENABLED;
     }
     finally {
       saveData(fsState, dataStorageRoot);
     }
   }
 
+  private void runBuildWithKeptDescriptor(MessageHandler msgHandler, CanceledStatus cs, File dataStorageRoot,
+                                          DaemonProjectCache.Entry cached) throws Throwable {
+    final ProjectDescriptor pd = cached.descriptor;
+    myProjectDescriptor = pd;
+    try {
+      if (myInitialFSDelta != null && cached.lastEventOrdinal + 1L == myInitialFSDelta.getOrdinal()) {
+        applyFSEvent(pd, myInitialFSDelta, false);
+      }
+      else {
+        // changes made since the previous build are unknown, force FS rescan
+        pd.fsState.clearAll();
+      }
+      myLastEventOrdinal = myInitialFSDelta != null? myInitialFSDelta.getOrdinal() : 0L;
+      myLoadTime = cached.loadTime;
+      LOG.info("Build data of the previous build reused, " + myLoadTime + " ms of loading saved");
+      msgHandler.processMessage(new ProgressMessage("Build data reused (" + myLoadTime + " ms saved)"));
+
+      // free memory
+      myInitialFSDelta = null;
+      myEventsProcessor.startProcessing();
+
+      myBuildRunner.runBuild(pd, cs, myConstantSearch, msgHandler, myBuildType);
+      myKeepProjectDescriptor = true;
+    }
+    finally {
+      saveData(pd.fsState, dataStorageRoot);
+    }
+  }
+
   private static boolean scopeContainsModulesOnly(List<TargetTypeBuildScope> scopes) {
     for (TargetTypeBuildScope scope : scopes) {
       String typeId = scope.getTypeId();
@@ -242,6 +287,9 @@ final class BuildSession implements Runnable, CanceledStatus {
       saveFsState(dataStorageRoot, fsState);
       final ProjectDescriptor pd = myProjectDescriptor;
       if (pd != null) {
+        if (myKeepProjectDescriptor) {
+          DaemonProjectCache.put(pd, myLastEventOrdinal, myLoadTime, myProjectPath, myGlobalOptionsPath, myPathVariables);
+        }
         pd.release();
       }
     }
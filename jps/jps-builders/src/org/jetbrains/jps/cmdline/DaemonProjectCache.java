@@ -0,0 +1,148 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.cmdline;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Comparing;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.model.serialization.JpsModelSerializationDataService;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the project descriptor of the last build with all its storages open while the build process runs as a daemon, so the next
+ * build of the same project neither loads the model nor reopens the dependency graph and the other build data. The descriptor is
+ * dropped as soon as any of the project configuration files changes.
+ *
+ * @see GlobalOptions#BUILD_PROCESS_DAEMON_OPTION
+ */
+final class DaemonProjectCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.DaemonProjectCache");
+  static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(GlobalOptions.BUILD_PROCESS_DAEMON_OPTION, "false"));
+
+  private static Entry ourEntry;
+
+  private DaemonProjectCache() {
+  }
+
+  static final class Entry {
+    final ProjectDescriptor descriptor;
+    final long lastEventOrdinal;
+    final long loadTime;
+    private final String myProjectPath;
+    private final String myGlobalOptionsPath;
+    private final Map<String, String> myPathVariables;
+    private final Map<String, Long> myConfigurationStamps;
+
+    private Entry(ProjectDescriptor descriptor, long lastEventOrdinal, long loadTime, String projectPath, String globalOptionsPath,
+                  Map<String, String> pathVariables) {
+      this.descriptor = descriptor;
+      this.lastEventOrdinal = lastEventOrdinal;
+      this.loadTime = loadTime;
+      myProjectPath = projectPath;
+      myGlobalOptionsPath = globalOptionsPath;
+      myPathVariables = pathVariables;
+      myConfigurationStamps = collectConfigurationStamps(descriptor, projectPath, globalOptionsPath);
+    }
+  }
+
+  /**
+   * @return the descriptor kept for the project if its configuration has not changed since, null otherwise. The caller takes over the
+   * descriptor usage held by the cache.
+   */
+  @Nullable
+  static synchronized Entry take(@NotNull String projectPath, String globalOptionsPath, @NotNull Map<String, String> pathVariables) {
+    final Entry entry = ourEntry;
+    ourEntry = null;
+    if (entry == null) {
+      return null;
+    }
+    if (entry.myProjectPath.equals(projectPath) &&
+        Comparing.equal(entry.myGlobalOptionsPath, globalOptionsPath) &&
+        entry.myPathVariables.equals(pathVariables) &&
+        entry.myConfigurationStamps.equals(collectConfigurationStamps(entry.descriptor, projectPath, globalOptionsPath))) {
+      return entry;
+    }
+    LOG.info("Project configuration has changed, the kept build data is dropped");
+    entry.descriptor.release();
+    return null;
+  }
+
+  static synchronized void put(@NotNull ProjectDescriptor descriptor, long lastEventOrdinal, long loadTime, @NotNull String projectPath,
+                               String globalOptionsPath, @NotNull Map<String, String> pathVariables) {
+    clear();
+    descriptor.incUsageCounter();
+    ourEntry = new Entry(descriptor, lastEventOrdinal, loadTime, projectPath, globalOptionsPath, pathVariables);
+  }
+
+  static synchronized void clear() {
+    final Entry entry = ourEntry;
+    ourEntry = null;
+    if (entry != null) {
+      entry.descriptor.release();
+    }
+  }
+
+  private static Map<String, Long> collectConfigurationStamps(ProjectDescriptor descriptor, String projectPath, String globalOptionsPath) {
+    final Map<String, Long> stamps = new HashMap<String, Long>();
+    final File projectFile = new File(projectPath);
+    if (projectFile.isFile()) {
+      addStamp(stamps, projectFile);
+      final String path = projectFile.getPath();
+      if (path.endsWith(".ipr")) {
+        addStamp(stamps, new File(path.substring(0, path.length() - ".ipr".length()) + ".iws"));
+      }
+    }
+    else {
+      addStamps(stamps, new File(projectFile, ".idea"));
+    }
+    if (globalOptionsPath != null) {
+      addStamps(stamps, new File(globalOptionsPath));
+    }
+    for (JpsModule module : descriptor.getProject().getModules()) {
+      final File baseDir = JpsModelSerializationDataService.getBaseDirectory(module);
+      if (baseDir != null) {
+        addStamp(stamps, new File(baseDir, module.getName() + ".iml"));
+        addStamp(stamps, new File(baseDir, module.getName() + ".eml"));
+        addStamp(stamps, new File(baseDir, ".classpath"));
+      }
+    }
+    return stamps;
+  }
+
+  private static void addStamps(Map<String, Long> stamps, File dir) {
+    final File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          addStamps(stamps, child);
+        }
+        else {
+          addStamp(stamps, child);
+        }
+      }
+    }
+  }
+
+  private static void addStamp(Map<String, Long> stamps, File file) {
+    stamps.put(file.getPath(), file.lastModified());
+  }
+}
@@ -15,17 +15,33 @@
  */
 package org.jetbrains.jps.incremental;
 
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileAttributes;
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import gnu.trove.THashMap;
+import gnu.trove.TObjectLongHashMap;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.incremental.storage.DirectoryListingStorage;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * @author Eugene Zhuravlev
 *         Date: 12/7/12
 */
 public class FSCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.FSCache");
 
   public static final FSCache NO_CACHE = new FSCache() {
     @Nullable
@@ -33,11 +49,35 @@ public class FSCache {
     public File[] getChildren(File file) {
       return file.listFiles();
     }
+
+    @Override
+    public long lastModified(File file) {
+      return FileSystemUtil.lastModified(file);
+    }
+
+    @Override
+    public void prefetch(@NotNull Collection<File> roots, @NotNull FileFilter directoryFilter) {
+    }
   };
 
   private static final File[] NULL_VALUE = new File[0];
   private static final File[] EMPTY_FILE_ARRAY = new File[0];
+  private static final int PREFETCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+  // listings of directories modified more recently may miss changes made within the file system timestamp granularity
+  private static final long LISTING_STAMP_GAP = 2000L;
   private final Map<File, File[]> myMap = new THashMap<File, File[]>();
+  // timestamps of the files found while listing directories, each one is used once; the ones not used by the time the traversal
+  // leaves the directory are dropped, see directoryProcessed(), and those of the directories never traversed stay until clear()
+  private final TObjectLongHashMap<File> myStamps = new TObjectLongHashMap<File>();
+  @Nullable private final DirectoryListingStorage myListings;
+
+  public FSCache() {
+    this(null);
+  }
+
+  public FSCache(@Nullable DirectoryListingStorage listings) {
+    myListings = listings;
+  }
 
   @Nullable
   public File[] getChildren(File file) {
@@ -46,15 +86,185 @@ public class FSCache {
       if (children != null) {
         return children == NULL_VALUE? null : children;
       }
-      final File[] files = file.listFiles();
+    }
+    final File[] files = listChildren(file);
+    synchronized (myMap) {
       myMap.put(file, files == null? NULL_VALUE : (files.length == 0? EMPTY_FILE_ARRAY : files));
-      return files;
+    }
+    return files;
+  }
+
+  public long lastModified(File file) {
+    synchronized (myMap) {
+      if (myStamps.containsKey(file)) {
+        return myStamps.remove(file);
+      }
+    }
+    return FileSystemUtil.lastModified(file);
+  }
+
+  /**
+   * Lists the given roots with all their subdirectories accepted by the filter on several threads, so the following traversal of
+   * the roots is served from memory.
+   */
+  public void prefetch(@NotNull Collection<File> roots, @NotNull final FileFilter directoryFilter) {
+    final BoundedTaskExecutor executor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), PREFETCH_THREADS);
+    final AtomicInteger pending = new AtomicInteger();
+    final Object finished = new Object();
+
+    class PrefetchTask implements Runnable {
+      private final File myDir;
+
+      PrefetchTask(File dir) {
+        myDir = dir;
+      }
+
+      @Override
+      public void run() {
+        try {
+          final File[] children = getChildren(myDir);
+          if (children != null) {
+            for (File child : children) {
+              if (isKnownFile(child) || !directoryFilter.accept(child)) continue;
+              pending.incrementAndGet();
+              executor.execute(new PrefetchTask(child));
+            }
+          }
+        }
+        catch (Throwable e) {
+          // the directory will be listed again while traversing
+          LOG.info(e);
+        }
+        finally {
+          if (pending.decrementAndGet() == 0) {
+            synchronized (finished) {
+              finished.notifyAll();
+            }
+          }
+        }
+      }
+    }
+
+    pending.incrementAndGet();
+    for (File root : roots) {
+      pending.incrementAndGet();
+      executor.execute(new PrefetchTask(root));
+    }
+    synchronized (finished) {
+      pending.decrementAndGet();
+      while (pending.get() > 0) {
+        try {
+          finished.wait();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the timestamps of the files of the directory collected while listing it and not requested yet, e.g. of the files skipped
+   * by a filter, so that they aren't served later in the build when the files may have changed already.
+   */
+  public void directoryProcessed(File dir) {
+    synchronized (myMap) {
+      final File[] children = myMap.get(dir);
+      if (children == null || myStamps.isEmpty()) return;
+      for (File child : children) {
+        myStamps.remove(child);
+      }
     }
   }
 
   public void clear() {
     synchronized (myMap) {
       myMap.clear();
+      myStamps.clear();
+    }
+  }
+
+  private boolean isKnownFile(File file) {
+    synchronized (myMap) {
+      return myMap.get(file) == NULL_VALUE;
+    }
+  }
+
+  @Nullable
+  private File[] listChildren(File file) {
+    final FileAttributes attributes = FileSystemUtil.getAttributes(file);
+    if (attributes == null) {
+      return null;
+    }
+    if (attributes.type != FileAttributes.Type.DIRECTORY) {
+      synchronized (myMap) {
+        myStamps.put(file, attributes.lastModified);
+      }
+      return null;
+    }
+
+    final DirectoryListingStorage.Listing listing = getListing(file);
+    if (listing != null && listing.timestamp == attributes.lastModified) {
+      final File[] children = new File[listing.files.length + listing.directories.length];
+      int i = 0;
+      synchronized (myMap) {
+        for (String name : listing.files) {
+          final File child = new File(file, name);
+          myMap.put(child, NULL_VALUE);
+          children[i++] = child;
+        }
+      }
+      for (String name : listing.directories) {
+        children[i++] = new File(file, name);
+      }
+      return children;
+    }
+
+    final File[] children = file.listFiles();
+    if (children == null) {
+      return null;
+    }
+    final List<String> files = new ArrayList<String>();
+    final List<String> directories = new ArrayList<String>();
+    for (File child : children) {
+      final FileAttributes childAttributes = FileSystemUtil.getAttributes(child);
+      if (childAttributes != null && childAttributes.type == FileAttributes.Type.DIRECTORY) {
+        directories.add(child.getName());
+      }
+      else {
+        files.add(child.getName());
+        synchronized (myMap) {
+          myMap.put(child, NULL_VALUE);
+          if (childAttributes != null) {
+            myStamps.put(child, childAttributes.lastModified);
+          }
+        }
+      }
+    }
+    if (myListings != null && attributes.lastModified < System.currentTimeMillis() - LISTING_STAMP_GAP) {
+      try {
+        myListings.update(file, new DirectoryListingStorage.Listing(attributes.lastModified, ArrayUtil.toStringArray(files),
+                                                                    ArrayUtil.toStringArray(directories)));
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+    return children;
+  }
+
+  @Nullable
+  private DirectoryListingStorage.Listing getListing(File dir) {
+    if (myListings == null) {
+      return null;
+    }
+    try {
+      return myListings.getState(dir);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
     }
   }
 }
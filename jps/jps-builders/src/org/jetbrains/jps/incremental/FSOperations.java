@@ -16,7 +16,6 @@
 package org.jetbrains.jps.incremental;
 
 import com.intellij.openapi.util.Key;
-import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
@@ -29,6 +28,7 @@ import org.jetbrains.jps.builders.impl.BuildTargetChunk;
 import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
 import org.jetbrains.jps.incremental.storage.Timestamps;
+import org.jetbrains.jps.indices.IgnoredFileIndex;
 import org.jetbrains.jps.model.java.JpsJavaClasspathKind;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
 import org.jetbrains.jps.model.module.JpsModule;
@@ -36,7 +36,9 @@ import org.jetbrains.jps.model.module.JpsModule;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -141,12 +143,18 @@ public class FSOperations {
                              boolean forceMarkDirty,
                              @Nullable THashSet<File> currentFiles,
                              @Nullable FileFilter filter) throws IOException {
+    final List<BuildRootDescriptor> roots = new ArrayList<BuildRootDescriptor>();
     for (BuildRootDescriptor rd : context.getProjectDescriptor().getBuildRootIndex().getTargetRoots(target, context)) {
       if (!rd.getRootFile().exists() ||
           //temp roots are managed by compilers themselves
           (rd instanceof JavaSourceRootDescriptor && ((JavaSourceRootDescriptor)rd).isTemp)) {
         continue;
       }
+      roots.add(rd);
+    }
+    prefetchRoots(context, roots);
+
+    for (BuildRootDescriptor rd : roots) {
       if (filter == null) {
         context.getProjectDescriptor().fsState.clearRecompile(rd);
       }
@@ -155,6 +163,28 @@ public class FSOperations {
     }
   }
 
+  private static void prefetchRoots(CompileContext context, List<BuildRootDescriptor> roots) {
+    final FSCache fsCache = context.getProjectDescriptor().getFSCache();
+    final List<File> rootFiles = new ArrayList<File>();
+    final Set<File> excluded = new THashSet<File>(FileUtil.FILE_HASHING_STRATEGY);
+    for (BuildRootDescriptor rd : roots) {
+      if (rd.canUseFileCache()) {
+        rootFiles.add(rd.getRootFile());
+        excluded.addAll(rd.getExcludedRoots());
+      }
+    }
+    if (rootFiles.isEmpty()) {
+      return;
+    }
+    final IgnoredFileIndex ignoredFileIndex = context.getProjectDescriptor().getIgnoredFileIndex();
+    fsCache.prefetch(rootFiles, new FileFilter() {
+      @Override
+      public boolean accept(File dir) {
+        return !ignoredFileIndex.isIgnored(dir.getName()) && !excluded.contains(dir);
+      }
+    });
+  }
+
   private static void traverseRecursively(CompileContext context,
                                           final BuildRootDescriptor rd,
                                           final File file,
@@ -171,12 +201,13 @@ public class FSOperations {
           traverseRecursively(context, rd, child, tsStorage, forceDirty, currentFiles, filter, fsCache);
         }
       }
+      fsCache.directoryProcessed(file);
     }
     else { // is file
       if (filter == null || filter.accept(file)) {
         boolean markDirty = forceDirty;
         if (!markDirty) {
-          markDirty = tsStorage.getStamp(file, rd.getTarget()) != FileSystemUtil.lastModified(file);
+          markDirty = tsStorage.getStamp(file, rd.getTarget()) != fsCache.lastModified(file);
         }
         if (markDirty) {
           // if it is full project rebuild, all storages are already completely cleared;
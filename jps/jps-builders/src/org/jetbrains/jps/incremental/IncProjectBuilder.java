@@ -69,6 +69,7 @@ import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -227,6 +228,7 @@ public class IncProjectBuilder {
     if (context != null) {
       final ProjectDescriptor pd = context.getProjectDescriptor();
       pd.timestamps.getStorage().force();
+      pd.timestamps.getDirectoryListings().force();
       pd.dataManager.flush(false);
     }
     final ExternalJavacDescriptor descriptor = ExternalJavacDescriptor.KEY.get(context);
@@ -326,7 +328,7 @@ public class IncProjectBuilder {
     );
     // in project rebuild mode performance gain is hard to observe, so it is better to save memory
     // in make mode it is critical to traverse file system as fast as possible, so we choose speed over memory savings
-    myProjectDescriptor.setFSCache(isProjectRebuild? FSCache.NO_CACHE : new FSCache());
+    myProjectDescriptor.setFSCache(isProjectRebuild? FSCache.NO_CACHE : new FSCache(myProjectDescriptor.timestamps.getDirectoryListings()));
     JavaBuilderUtil.CONSTANT_SEARCH_SERVICE.set(context, myConstantSearch);
     return context;
   }
@@ -506,7 +508,10 @@ public class IncProjectBuilder {
 
         for (BuildTargetChunk chunk : targetIndex.getSortedTargetChunks(context)) {
           try {
-            buildChunkIfAffected(context, scope, chunk);
+            final long started = System.currentTimeMillis();
+            if (buildChunkIfAffected(context, scope, chunk)) {
+              recordBuildTime(pd, chunk, System.currentTimeMillis() - started);
+            }
           }
           finally {
             context.updateCompilationStartStamp();
@@ -521,10 +526,20 @@ public class IncProjectBuilder {
     }
   }
 
+  private static void recordBuildTime(ProjectDescriptor pd, BuildTargetChunk chunk, long time) {
+    final Set<? extends BuildTarget<?>> targets = chunk.getTargets();
+    for (BuildTarget<?> target : targets) {
+      pd.dataManager.addBuildTime(target, time / targets.size());
+    }
+  }
+
   private static class BuildChunkTask {
     private final BuildTargetChunk myChunk;
     private final Set<BuildChunkTask> myNotBuiltDependencies = new THashSet<BuildChunkTask>();
     private final List<BuildChunkTask> myTasksDependsOnThis = new ArrayList<BuildChunkTask>();
+    // expected time to build this chunk and all the chunks depending on it one after another
+    private long myCriticalPathLength;
+    private volatile long myBuildTime;
 
     private BuildChunkTask(BuildTargetChunk chunk) {
       myChunk = chunk;
@@ -544,6 +559,14 @@ public class IncProjectBuilder {
       }
     }
 
+    public void computeCriticalPathLength(long expectedBuildTime) {
+      long longestDependentPath = 0;
+      for (BuildChunkTask task : myTasksDependsOnThis) {
+        longestDependentPath = Math.max(longestDependentPath, task.myCriticalPathLength);
+      }
+      myCriticalPathLength = expectedBuildTime + longestDependentPath;
+    }
+
     public List<BuildChunkTask> markAsFinishedAndGetNextReadyTasks() {
       List<BuildChunkTask> nextTasks = new SmartList<BuildChunkTask>();
       for (BuildChunkTask task : myTasksDependsOnThis) {
@@ -559,14 +582,22 @@ public class IncProjectBuilder {
   }
 
   private class BuildParallelizer {
-    private final BoundedTaskExecutor myParallelBuildExecutor =
-      new BoundedTaskExecutor(SharedThreadPool.getInstance(),
-                              Math.min(MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors())));
+    private static final int CHUNKS_TO_REPORT = 10;
+    private final int myThreadCount = Math.min(MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private final BoundedTaskExecutor myParallelBuildExecutor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), myThreadCount);
     private final CompileContext myContext;
     private final AtomicReference<Throwable> myException = new AtomicReference<Throwable>();
     private final Object myQueueLock = new Object();
     private final CountDownLatch myTasksCountDown;
     private final List<BuildChunkTask> myTasks;
+    // ready tasks, guarded by myQueueLock; the one heading the longest chain of chunks left to build is taken first
+    private final PriorityQueue<BuildChunkTask> myReadyTasks = new PriorityQueue<BuildChunkTask>(11, new Comparator<BuildChunkTask>() {
+      @Override
+      public int compare(BuildChunkTask o1, BuildChunkTask o2) {
+        return o1.myCriticalPathLength > o2.myCriticalPathLength ? -1 : o1.myCriticalPathLength < o2.myCriticalPathLength ? 1 : 0;
+      }
+    });
+    private final AtomicLong myBusyTime = new AtomicLong();
 
     private BuildParallelizer(CompileContext context) {
       myContext = context;
@@ -595,10 +626,30 @@ public class IncProjectBuilder {
         }
       }
 
+      // chunks are sorted so that dependencies go first, hence all dependent chunks are processed before the chunk itself
+      final CompileScope scope = myContext.getScope();
+      for (int i = myTasks.size() - 1; i >= 0; i--) {
+        BuildChunkTask task = myTasks.get(i);
+        task.computeCriticalPathLength(getExpectedBuildTime(scope, task.getChunk()));
+      }
+
       myTasksCountDown = new CountDownLatch(myTasks.size());
     }
 
+    private long getExpectedBuildTime(CompileScope scope, BuildTargetChunk chunk) {
+      if (!isAffected(scope, chunk)) {
+        return 0;
+      }
+      long time = 0;
+      for (BuildTarget<?> target : chunk.getTargets()) {
+        // targets never built before count as the cheapest ones so the length of the chain still matters for them
+        time += Math.max(1, myProjectDescriptor.dataManager.getAverageBuildTime(target));
+      }
+      return time;
+    }
+
     public void buildInParallel() throws IOException, ProjectBuildException {
+      final long started = System.currentTimeMillis();
       List<BuildChunkTask> initialTasks = new ArrayList<BuildChunkTask>();
       for (BuildChunkTask task : myTasks) {
         if (task.isReady()) {
@@ -613,6 +664,7 @@ public class IncProjectBuilder {
       catch (InterruptedException e) {
         LOG.info(e);
       }
+      reportBuildTimes(System.currentTimeMillis() - started);
 
       final Throwable throwable = myException.get();
       if (throwable instanceof ProjectBuildException) {
@@ -646,15 +698,26 @@ public class IncProjectBuilder {
       }
     }
 
-    private void queueTask(final BuildChunkTask task) {
-      final CompileContext chunkLocalContext = createContextWrapper(myContext);
+    private void queueTask(BuildChunkTask readyTask) {
+      synchronized (myQueueLock) {
+        myReadyTasks.add(readyTask);
+      }
+      // the task to build is chosen only when the executor has a free thread, so the most important of the tasks ready by then is taken
       myParallelBuildExecutor.execute(new Runnable() {
         @Override
         public void run() {
+          final BuildChunkTask task;
+          synchronized (myQueueLock) {
+            task = myReadyTasks.poll();
+          }
+          final CompileContext chunkLocalContext = createContextWrapper(myContext);
+          final long started = System.currentTimeMillis();
           try {
             try {
               if (myException.get() == null) {
-                buildChunkIfAffected(chunkLocalContext, myContext.getScope(), task.getChunk());
+                if (buildChunkIfAffected(chunkLocalContext, myContext.getScope(), task.getChunk())) {
+                  recordBuildTime(myProjectDescriptor, task.getChunk(), System.currentTimeMillis() - started);
+                }
               }
             }
             finally {
@@ -668,7 +731,11 @@ public class IncProjectBuilder {
             LOG.info(e);
           }
           finally {
-            LOG.debug("Finished compilation of " + task.getChunk().toString());
+            task.myBuildTime = System.currentTimeMillis() - started;
+            myBusyTime.addAndGet(task.myBuildTime);
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Finished compilation of " + task.getChunk().toString() + " in " + task.myBuildTime + " ms");
+            }
             myTasksCountDown.countDown();
             List<BuildChunkTask> nextTasks;
             synchronized (myQueueLock) {
@@ -681,15 +748,37 @@ public class IncProjectBuilder {
         }
       });
     }
+
+    private void reportBuildTimes(long wallTime) {
+      final long busyTime = myBusyTime.get();
+      final long idleTime = Math.max(0, wallTime * myThreadCount - busyTime);
+      LOG.info("Built " + myTasks.size() + " chunks in " + wallTime + " ms using " + myThreadCount + " threads: busy " + busyTime +
+               " ms, idle " + idleTime + " ms");
+
+      final List<BuildChunkTask> tasks = new ArrayList<BuildChunkTask>(myTasks);
+      Collections.sort(tasks, new Comparator<BuildChunkTask>() {
+        @Override
+        public int compare(BuildChunkTask o1, BuildChunkTask o2) {
+          return o1.myBuildTime > o2.myBuildTime ? -1 : o1.myBuildTime < o2.myBuildTime ? 1 : 0;
+        }
+      });
+      final StringBuilder logBuilder = new StringBuilder("Longest chunks: ");
+      for (int i = 0; i < Math.min(CHUNKS_TO_REPORT, tasks.size()) && tasks.get(i).myBuildTime > 0; i++) {
+        logBuilder.append(tasks.get(i).getChunk().toString()).append(" - ").append(tasks.get(i).myBuildTime).append(" ms; ");
+      }
+      LOG.info(logBuilder.toString());
+    }
   }
 
-  private void buildChunkIfAffected(CompileContext context, CompileScope scope, BuildTargetChunk chunk) throws ProjectBuildException {
+  /**
+   * @return true if something was done to build the chunk, i.e. its build time tells how long the chunk takes to build
+   */
+  private boolean buildChunkIfAffected(CompileContext context, CompileScope scope, BuildTargetChunk chunk) throws ProjectBuildException {
     if (isAffected(scope, chunk)) {
-      buildTargetsChunk(context, chunk);
-    }
-    else {
-      updateDoneFraction(context, chunk.getTargets().size());
+      return buildTargetsChunk(context, chunk);
     }
+    updateDoneFraction(context, chunk.getTargets().size());
+    return false;
   }
 
   private static boolean isAffected(CompileScope scope, BuildTargetChunk chunk) {
@@ -739,7 +828,7 @@ public class IncProjectBuilder {
     context.setDone(processed / myTotalTargetsWork);
   }
 
-  private void buildTargetsChunk(CompileContext context, final BuildTargetChunk chunk) throws ProjectBuildException {
+  private boolean buildTargetsChunk(CompileContext context, final BuildTargetChunk chunk) throws ProjectBuildException {
     boolean doneSomething;
     try {
       Utils.ERRORS_DETECTED_KEY.set(context, Boolean.FALSE);
@@ -764,6 +853,7 @@ public class IncProjectBuilder {
       //    }
       //  }));
       //}
+      return doneSomething;
     }
     catch (ProjectBuildException e) {
       throw e;
@@ -15,13 +15,16 @@
  */
 package org.jetbrains.jps.incremental.artifacts;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.MultiMap;
+import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.builders.*;
 import org.jetbrains.jps.builders.artifacts.ArtifactBuildTaskProvider;
 import org.jetbrains.jps.builders.artifacts.impl.ArtifactOutToSourceStorageProvider;
@@ -37,6 +40,7 @@ import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.incremental.messages.ProgressMessage;
 import org.jetbrains.jps.model.artifact.JpsArtifact;
+import org.jetbrains.jps.model.artifact.elements.JpsArchivePackagingElement;
 import org.jetbrains.jps.service.JpsServiceManager;
 
 import java.io.File;
@@ -48,6 +52,9 @@ import java.util.*;
  */
 public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, ArtifactBuildTarget> {
   public static final String BUILDER_NAME = "Artifacts builder";
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.artifacts.IncArtifactBuilder");
+  private static final boolean STORE_JARS_IN_EXPLODED_ARTIFACTS = Boolean.parseBoolean(
+    System.getProperty(GlobalOptions.STORE_JARS_IN_EXPLODED_ARTIFACTS_OPTION, "false"));
 
   public IncArtifactBuilder() {
     super(Collections.singletonList(ArtifactBuildTargetType.INSTANCE));
@@ -124,43 +131,50 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
         }
       });
 
-      BuildOperations.cleanOutputsCorrespondingToChangedFiles(context, holder);
-      for (String outputPath : changedOutputPaths) {
-        outSrcMapping.remove(outputPath);
-      }
-      if (filesToDelete.isEmpty() && filesToProcess.isEmpty()) {
-        return;
-      }
-
-      deleteOutdatedFiles(filesToDelete, context, srcOutMapping, outSrcMapping);
-      context.checkCanceled();
+      final Map<String, File> previousArchives = preservePreviousArchives(filesToDelete.keySet(), target, context);
+      try {
+        BuildOperations.cleanOutputsCorrespondingToChangedFiles(context, holder);
+        for (String outputPath : changedOutputPaths) {
+          outSrcMapping.remove(outputPath);
+        }
+        if (filesToDelete.isEmpty() && filesToProcess.isEmpty()) {
+          return;
+        }
 
-      final Set<JarInfo> changedJars = new THashSet<JarInfo>();
-      for (ArtifactRootDescriptor descriptor : pd.getBuildRootIndex().getTargetRoots(target, context)) {
+        deleteOutdatedFiles(filesToDelete, context, srcOutMapping, outSrcMapping);
         context.checkCanceled();
-        final Set<String> sourcePaths = filesToProcess.get(descriptor.getRootIndex());
-        if (sourcePaths == null) continue;
 
-        for (String sourcePath : sourcePaths) {
-          DestinationInfo destination = descriptor.getDestinationInfo();
-          if (destination instanceof ExplodedDestinationInfo) {
-            descriptor.copyFromRoot(sourcePath, descriptor.getRootIndex(), destination.getOutputPath(), context,
-                                    outputConsumer, outSrcMapping);
-          }
-          else {
-            List<ArtifactOutputToSourceMapping.SourcePathAndRootIndex> sources = outSrcMapping.getState(destination.getOutputFilePath());
-            if (sources == null || sources.size() > 0 && sources.get(0).getRootIndex() == descriptor.getRootIndex()) {
-              outSrcMapping.update(destination.getOutputFilePath(),
-                                   Collections.<ArtifactOutputToSourceMapping.SourcePathAndRootIndex>emptyList());
-              changedJars.add(((JarDestinationInfo)destination).getJarInfo());
+        final Set<JarInfo> changedJars = new THashSet<JarInfo>();
+        for (ArtifactRootDescriptor descriptor : pd.getBuildRootIndex().getTargetRoots(target, context)) {
+          context.checkCanceled();
+          final Set<String> sourcePaths = filesToProcess.get(descriptor.getRootIndex());
+          if (sourcePaths == null) continue;
+
+          for (String sourcePath : sourcePaths) {
+            DestinationInfo destination = descriptor.getDestinationInfo();
+            if (destination instanceof ExplodedDestinationInfo) {
+              descriptor.copyFromRoot(sourcePath, descriptor.getRootIndex(), destination.getOutputPath(), context,
+                                      outputConsumer, outSrcMapping);
+            }
+            else {
+              List<ArtifactOutputToSourceMapping.SourcePathAndRootIndex> sources = outSrcMapping.getState(destination.getOutputFilePath());
+              if (sources == null || sources.size() > 0 && sources.get(0).getRootIndex() == descriptor.getRootIndex()) {
+                outSrcMapping.update(destination.getOutputFilePath(),
+                                     Collections.<ArtifactOutputToSourceMapping.SourcePathAndRootIndex>emptyList());
+                changedJars.add(((JarDestinationInfo)destination).getJarInfo());
+              }
             }
           }
         }
-      }
-      context.checkCanceled();
+        context.checkCanceled();
 
-      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping);
-      builder.buildJars();
+        final boolean storeJarEntries = STORE_JARS_IN_EXPLODED_ARTIFACTS && !(artifact.getRootElement() instanceof JpsArchivePackagingElement);
+        JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping, previousArchives, storeJarEntries);
+        builder.buildJars();
+      }
+      finally {
+        deletePreviousArchives(previousArchives);
+      }
       runArtifactTasks(context, artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase.POST_PROCESSING);
     }
     catch (IOException e) {
@@ -178,6 +192,47 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     }
   }
 
+  /**
+   * Moves archives which are going to be rebuilt to temporary files instead of deleting them, so {@link JarsBuilder} can take
+   * unchanged entries from them
+   */
+  private static Map<String, File> preservePreviousArchives(Collection<String> outputsToDelete, ArtifactBuildTarget target,
+                                                            CompileContext context) {
+    final Set<String> archivePaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+    for (ArtifactRootDescriptor descriptor : context.getProjectDescriptor().getBuildRootIndex().getTargetRoots(target, context)) {
+      final DestinationInfo destination = descriptor.getDestinationInfo();
+      if (destination instanceof JarDestinationInfo) {
+        archivePaths.add(destination.getOutputFilePath());
+      }
+    }
+
+    final Map<String, File> previousArchives = new THashMap<String, File>(FileUtil.PATH_HASHING_STRATEGY);
+    for (String outputPath : outputsToDelete) {
+      if (!archivePaths.contains(outputPath) || previousArchives.containsKey(outputPath)) continue;
+
+      final File archive = new File(FileUtil.toSystemDependentName(outputPath));
+      if (!archive.isFile()) continue;
+      try {
+        final File previous = FileUtil.createTempFile("artifactCompiler", "previous");
+        // renaming fails if there is a file already, it is copied then
+        FileUtil.delete(previous);
+        FileUtil.rename(archive, previous);
+        previousArchives.put(outputPath, previous);
+      }
+      catch (IOException e) {
+        // the archive will be built from scratch
+        LOG.info(e);
+      }
+    }
+    return previousArchives;
+  }
+
+  private static void deletePreviousArchives(Map<String, File> previousArchives) {
+    for (File file : previousArchives.values()) {
+      FileUtil.delete(file);
+    }
+  }
+
   private static void addFileToProcess(TIntObjectHashMap<Set<String>> filesToProcess,
                                        final int rootIndex,
                                        final String path,
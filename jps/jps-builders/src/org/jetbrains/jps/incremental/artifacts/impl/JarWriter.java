@@ -0,0 +1,180 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.artifacts.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a jar file. The compressed data of an entry is copied as is from the previous version of the archive if the entry content
+ * hasn't changed, so only modified entries are compressed again. Entries larger than {@link #MAX_IN_MEMORY_ENTRY_SIZE} are compressed
+ * as they are read instead of being loaded into memory.
+ */
+class JarWriter {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.artifacts.impl.JarWriter");
+  static final int MAX_IN_MEMORY_ENTRY_SIZE = 1024 * 1024;
+  private final JBZipFile myArchive;
+  @Nullable private final JBZipFile myPreviousArchive;
+  private final boolean myStoreEntries;
+  private final CRC32 myCrc = new CRC32();
+  private int myReusedEntriesCount;
+
+  /**
+   * @param previousArchive previous version of the jar to take unchanged entries from
+   * @param storeEntries    if true entries are stored without compression
+   */
+  JarWriter(@NotNull File jarFile, @Nullable File previousArchive, boolean storeEntries) throws IOException {
+    myArchive = new JBZipFile(jarFile);
+    myPreviousArchive = previousArchive != null ? openPreviousArchive(previousArchive) : null;
+    myStoreEntries = storeEntries;
+  }
+
+  public void addManifest(@NotNull Manifest manifest) throws IOException {
+    final BufferExposingByteArrayOutputStream output = new BufferExposingByteArrayOutputStream();
+    manifest.write(output);
+    addEntry(JarFile.MANIFEST_NAME, output.toByteArray(), System.currentTimeMillis());
+  }
+
+  public void addDirectoryEntry(@NotNull String relativePath) throws IOException {
+    final JBZipEntry entry = myArchive.getOrCreateEntry(relativePath);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setData(ArrayUtil.EMPTY_BYTE_ARRAY, System.currentTimeMillis());
+  }
+
+  public void addEntry(@NotNull String relativePath, @NotNull byte[] content, long timestamp) throws IOException {
+    final int method = myStoreEntries || content.length == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    final JBZipEntry entry = myArchive.getOrCreateEntry(relativePath);
+    entry.setTime(timestamp);
+    final JBZipEntry previous = myPreviousArchive != null ? myPreviousArchive.getEntry(relativePath) : null;
+    if (previous != null && previous.getMethod() == method && previous.getSize() == content.length &&
+        previous.getCrc() == computeCrc(content)) {
+      entry.setDataFromEntry(previous);
+      myReusedEntriesCount++;
+    }
+    else {
+      entry.setMethod(method);
+      entry.setData(content, timestamp);
+    }
+  }
+
+  public void addFileEntry(@NotNull String relativePath, @NotNull File file) throws IOException {
+    final long length = file.length();
+    if (length <= MAX_IN_MEMORY_ENTRY_SIZE) {
+      addEntry(relativePath, FileUtil.loadFileBytes(file), file.lastModified());
+      return;
+    }
+
+    final int method = myStoreEntries ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    final JBZipEntry entry = myArchive.getOrCreateEntry(relativePath);
+    entry.setTime(file.lastModified());
+    final JBZipEntry previous = myPreviousArchive != null ? myPreviousArchive.getEntry(relativePath) : null;
+    if (previous != null && previous.getMethod() == method && previous.getSize() == length && previous.getCrc() == computeCrc(file)) {
+      entry.setDataFromEntry(previous);
+      myReusedEntriesCount++;
+      return;
+    }
+    entry.setMethod(method);
+    final InputStream input = new BufferedInputStream(new FileInputStream(file));
+    try {
+      entry.setData(input, file.lastModified());
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Adds an entry whose size isn't known in advance. The stream is closed by the caller.
+   */
+  public void addEntry(@NotNull String relativePath, @NotNull InputStream input, long timestamp) throws IOException {
+    final BufferExposingByteArrayOutputStream head = new BufferExposingByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+    int read;
+    while (head.size() <= MAX_IN_MEMORY_ENTRY_SIZE && (read = input.read(buffer)) > 0) {
+      head.write(buffer, 0, read);
+    }
+    if (head.size() <= MAX_IN_MEMORY_ENTRY_SIZE) {
+      addEntry(relativePath, head.toByteArray(), timestamp);
+      return;
+    }
+
+    // too large to be checked against the previous version of the entry, it is compressed again
+    final JBZipEntry entry = myArchive.getOrCreateEntry(relativePath);
+    entry.setMethod(myStoreEntries ? ZipEntry.STORED : ZipEntry.DEFLATED);
+    entry.setData(new SequenceInputStream(new ByteArrayInputStream(head.getInternalBuffer(), 0, head.size()), input), timestamp);
+  }
+
+  public int getReusedEntriesCount() {
+    return myReusedEntriesCount;
+  }
+
+  public void close() throws IOException {
+    try {
+      myArchive.close();
+    }
+    finally {
+      if (myPreviousArchive != null) {
+        myPreviousArchive.close();
+      }
+    }
+  }
+
+  private long computeCrc(byte[] content) {
+    myCrc.reset();
+    myCrc.update(content);
+    return myCrc.getValue();
+  }
+
+  private long computeCrc(File file) throws IOException {
+    myCrc.reset();
+    final InputStream input = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        myCrc.update(buffer, 0, read);
+      }
+    }
+    finally {
+      input.close();
+    }
+    return myCrc.getValue();
+  }
+
+  @Nullable
+  private static JBZipFile openPreviousArchive(File file) {
+    try {
+      return new JBZipFile(file);
+    }
+    catch (IOException e) {
+      // the archive will be built from scratch
+      LOG.debug(e);
+      return null;
+    }
+  }
+}
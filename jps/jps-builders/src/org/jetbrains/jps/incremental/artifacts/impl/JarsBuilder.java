@@ -23,10 +23,10 @@ import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
 import com.intellij.util.graph.GraphGenerator;
-import com.intellij.util.io.ZipUtil;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -41,30 +41,47 @@ import org.jetbrains.jps.incremental.artifacts.instructions.*;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.incremental.messages.ProgressMessage;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * @author nik
  */
 public class JarsBuilder {
   private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.packagingCompiler.JarsBuilder");
+  private static final int PACKING_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
   private final Set<JarInfo> myJarsToBuild;
   private final CompileContext myContext;
   private Map<JarInfo, File> myBuiltJars;
   private final BuildOutputConsumer myOutputConsumer;
   private final ArtifactOutputToSourceMapping myOutSrcMapping;
+  private final Map<String, File> myPreviousArchives;
+  private final boolean myStoreEntries;
 
   public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
                      ArtifactOutputToSourceMapping outSrcMapping) {
+    this(jarsToBuild, context, outputConsumer, outSrcMapping, Collections.<String, File>emptyMap(), false);
+  }
+
+  /**
+   * @param previousArchives previous versions of the archives to be rebuilt, by archive output path. Unchanged entries are copied from
+   *                         them without compressing again
+   * @param storeEntries     if true, entries are stored in the archives without compression
+   */
+  public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
+                     ArtifactOutputToSourceMapping outSrcMapping, Map<String, File> previousArchives, boolean storeEntries) {
     myOutputConsumer = outputConsumer;
     myOutSrcMapping = outSrcMapping;
+    myPreviousArchives = previousArchives;
+    myStoreEntries = storeEntries;
     DependentJarsEvaluator evaluator = new DependentJarsEvaluator();
     for (JarInfo jarInfo : jarsToBuild) {
       evaluator.addJarWithDependencies(jarInfo);
@@ -81,11 +98,11 @@ public class JarsBuilder {
       return false;
     }
 
-    myBuiltJars = new HashMap<JarInfo, File>();
+    myBuiltJars = Collections.synchronizedMap(new HashMap<JarInfo, File>());
     try {
-      for (JarInfo jar : sortedJars) {
+      for (List<JarInfo> jars : groupIndependentJars(sortedJars)) {
         myContext.checkCanceled();
-        buildJar(jar);
+        buildJars(jars);
       }
 
       myContext.processMessage(new ProgressMessage("Copying archives..."));
@@ -99,6 +116,126 @@ public class JarsBuilder {
     return true;
   }
 
+  /**
+   * Splits jars into groups which can be built in parallel: a jar gets to a group following the groups of all jars nested into it
+   */
+  private static List<List<JarInfo>> groupIndependentJars(JarInfo[] sortedJars) {
+    final Map<JarInfo, Integer> levels = new HashMap<JarInfo, Integer>();
+    final List<List<JarInfo>> groups = new ArrayList<List<JarInfo>>();
+    for (JarInfo jar : sortedJars) {
+      final int level = getLevel(jar, levels);
+      while (groups.size() <= level) {
+        groups.add(new ArrayList<JarInfo>());
+      }
+      groups.get(level).add(jar);
+    }
+    return groups;
+  }
+
+  private static int getLevel(JarInfo jar, Map<JarInfo, Integer> levels) {
+    final Integer cached = levels.get(jar);
+    if (cached != null) {
+      return cached;
+    }
+    int level = 0;
+    for (Pair<String, Object> pair : jar.getContent()) {
+      if (pair.getSecond() instanceof JarInfo) {
+        level = Math.max(level, getLevel((JarInfo)pair.getSecond(), levels) + 1);
+      }
+    }
+    levels.put(jar, level);
+    return level;
+  }
+
+  private void buildJars(List<JarInfo> jars) throws IOException, ProjectBuildException {
+    final List<PackedJar> packedJars = new ArrayList<PackedJar>(jars.size());
+    if (jars.size() == 1) {
+      packedJars.add(buildJar(jars.get(0)));
+    }
+    else {
+      final BoundedTaskExecutor executor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), PACKING_THREADS);
+      final List<Future<PackedJar>> futures = new ArrayList<Future<PackedJar>>(jars.size());
+      final AtomicBoolean failed = new AtomicBoolean();
+      for (final JarInfo jar : jars) {
+        futures.add(executor.submit(new Callable<PackedJar>() {
+          @Override
+          public PackedJar call() throws Exception {
+            if (failed.get()) {
+              // the build stops anyway, don't start packing another jar
+              return null;
+            }
+            boolean built = false;
+            try {
+              myContext.checkCanceled();
+              final PackedJar packedJar = buildJar(jar);
+              built = true;
+              return packedJar;
+            }
+            finally {
+              if (!built) {
+                failed.set(true);
+              }
+            }
+          }
+        }));
+      }
+      // all tasks are waited for even if one of them has failed: temporary jars must not be deleted while they are being written
+      Throwable error = null;
+      for (Future<PackedJar> future : futures) {
+        while (true) {
+          try {
+            packedJars.add(future.get());
+            break;
+          }
+          catch (ExecutionException e) {
+            if (error == null) {
+              error = e.getCause();
+            }
+            break;
+          }
+          catch (InterruptedException e) {
+            failed.set(true);
+            if (error == null) {
+              error = e;
+            }
+          }
+        }
+      }
+      if (error instanceof IOException) {
+        throw (IOException)error;
+      }
+      if (error instanceof ProjectBuildException) {
+        throw (ProjectBuildException)error;
+      }
+      if (error != null) {
+        throw new ProjectBuildException(error);
+      }
+    }
+
+    // output mappings are updated in the same order as if the jars were built one by one
+    for (PackedJar packedJar : packedJars) {
+      registerPackedJar(packedJar);
+    }
+  }
+
+  private void registerPackedJar(PackedJar packedJar) throws IOException {
+    final JarInfo jar = packedJar.jar;
+    if (!packedJar.sources.isEmpty()) {
+      myOutSrcMapping.appendData(packedJar.targetJarPath, packedJar.sources);
+    }
+    if (packedJar.isEmpty) {
+      final String emptyArchiveMessage = "Archive '" + jar.getPresentableDestination() + "' doesn't contain files so it won't be created";
+      myContext.processMessage(new CompilerMessage(IncArtifactBuilder.BUILDER_NAME, BuildMessage.Kind.WARNING, emptyArchiveMessage));
+      return;
+    }
+
+    final ProjectBuilderLogger logger = myContext.getLoggingManager().getProjectBuilderLogger();
+    if (logger.isEnabled()) {
+      logger.logCompiledPaths(packedJar.packedFilePaths, IncArtifactBuilder.BUILDER_NAME, "Packing files:");
+    }
+    myOutputConsumer.registerOutputFile(new File(packedJar.targetJarPath), packedJar.packedFilePaths);
+  }
+
   private void deleteTemporaryJars() {
     for (File file : myBuiltJars.values()) {
       FileUtil.delete(file);
@@ -134,11 +271,12 @@ public class JarsBuilder {
     return jars;
   }
 
-  private void buildJar(final JarInfo jar) throws IOException {
-    final String emptyArchiveMessage = "Archive '" + jar.getPresentableDestination() + "' doesn't contain files so it won't be created";
+  private PackedJar buildJar(final JarInfo jar) throws IOException {
+    final String targetJarPath = jar.getDestination().getOutputFilePath();
+    final PackedJar packedJar = new PackedJar(jar, targetJarPath);
     if (jar.getContent().isEmpty()) {
-      myContext.processMessage(new CompilerMessage(IncArtifactBuilder.BUILDER_NAME, BuildMessage.Kind.WARNING, emptyArchiveMessage));
-      return;
+      packedJar.isEmpty = true;
+      return packedJar;
     }
 
     myContext.processMessage(new ProgressMessage("Building " + jar.getPresentableDestination() + "..."));
@@ -146,14 +284,15 @@ public class JarsBuilder {
     myBuiltJars.put(jar, jarFile);
 
     FileUtil.createParentDirs(jarFile);
-    final String targetJarPath = jar.getDestination().getOutputFilePath();
-    List<String> packedFilePaths = new ArrayList<String>();
+    final List<String> packedFilePaths = packedJar.packedFilePaths;
     Manifest manifest = loadManifest(jar, packedFilePaths);
-    final JarOutputStream jarOutputStream = createJarOutputStream(jarFile, manifest);
+    final File previousArchive = jar.getDestination() instanceof ExplodedDestinationInfo ? myPreviousArchives.get(targetJarPath) : null;
+    final JarWriter jarWriter = new JarWriter(jarFile, previousArchive, myStoreEntries);
 
     final THashSet<String> writtenPaths = new THashSet<String>();
     try {
       if (manifest != null) {
+        jarWriter.addManifest(manifest);
         writtenPaths.add(JarFile.MANIFEST_NAME);
       }
 
@@ -163,23 +302,21 @@ public class JarsBuilder {
           final ArtifactRootDescriptor descriptor = (ArtifactRootDescriptor)pair.getSecond();
           final int rootIndex = descriptor.getRootIndex();
           if (descriptor instanceof FileBasedArtifactRootDescriptor) {
-            addFileToJar(jarOutputStream, jarFile, descriptor.getRootFile(), descriptor.getFilter(), relativePath, targetJarPath, writtenPaths,
-                         packedFilePaths, rootIndex);
+            addFileToJar(jarWriter, jarFile, descriptor.getRootFile(), descriptor.getFilter(), relativePath, writtenPaths,
+                         packedJar, rootIndex);
           }
           else {
             final String filePath = FileUtil.toSystemIndependentName(descriptor.getRootFile().getAbsolutePath());
             packedFilePaths.add(filePath);
-            myOutSrcMapping.appendData(targetJarPath, Collections
-              .singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
-            extractFileAndAddToJar(jarOutputStream, (JarBasedArtifactRootDescriptor)descriptor, relativePath, writtenPaths);
+            packedJar.sources.add(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex));
+            extractFileAndAddToJar(jarWriter, (JarBasedArtifactRootDescriptor)descriptor, relativePath, writtenPaths);
           }
         }
         else {
           JarInfo nestedJar = (JarInfo)pair.getSecond();
           File nestedJarFile = myBuiltJars.get(nestedJar);
           if (nestedJarFile != null) {
-            addFileToJar(jarOutputStream, jarFile, nestedJarFile, SourceFileFilter.ALL, relativePath, targetJarPath, writtenPaths,
-                         packedFilePaths, -1);
+            addFileToJar(jarWriter, jarFile, nestedJarFile, SourceFileFilter.ALL, relativePath, writtenPaths, packedJar, -1);
           }
           else {
             LOG.debug("nested jar file " + relativePath + " for " + jar.getPresentableDestination() + " not found");
@@ -188,21 +325,17 @@ public class JarsBuilder {
       }
 
       if (writtenPaths.isEmpty()) {
-        myContext.processMessage(new CompilerMessage(IncArtifactBuilder.BUILDER_NAME, BuildMessage.Kind.WARNING, emptyArchiveMessage));
-        return;
+        packedJar.isEmpty = true;
       }
-
-      final ProjectBuilderLogger logger = myContext.getLoggingManager().getProjectBuilderLogger();
-      if (logger.isEnabled()) {
-        logger.logCompiledPaths(packedFilePaths, IncArtifactBuilder.BUILDER_NAME, "Packing files:");
+      else if (LOG.isDebugEnabled()) {
+        LOG.debug(jarWriter.getReusedEntriesCount() + " entries of " + jar.getPresentableDestination() + " reused from its previous version");
       }
-      myOutputConsumer.registerOutputFile(new File(targetJarPath), packedFilePaths);
-
+      return packedJar;
     }
     finally {
       if (writtenPaths.isEmpty()) {
         try {
-          jarOutputStream.close();
+          jarWriter.close();
         }
         catch (IOException ignored) {
         }
@@ -210,19 +343,11 @@ public class JarsBuilder {
         myBuiltJars.remove(jar);
       }
       else {
-        jarOutputStream.close();
+        jarWriter.close();
       }
     }
   }
 
-  private static JarOutputStream createJarOutputStream(File jarFile, @Nullable Manifest manifest) throws IOException {
-    final BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jarFile));
-    if (manifest != null) {
-      return new JarOutputStream(outputStream, manifest);
-    }
-    return new JarOutputStream(outputStream);
-  }
-
   @Nullable
   private Manifest loadManifest(JarInfo jar, List<String> packedFilePaths) throws IOException {
     for (Pair<String, Object> pair : jar.getContent()) {
@@ -279,49 +404,44 @@ public class JarsBuilder {
     }
   }
 
-  private static void extractFileAndAddToJar(final JarOutputStream jarOutputStream, final JarBasedArtifactRootDescriptor root,
+  private static void extractFileAndAddToJar(final JarWriter jarWriter, final JarBasedArtifactRootDescriptor root,
                                              final String relativeOutputPath, final Set<String> writtenPaths)
     throws IOException {
     final long timestamp = FileSystemUtil.lastModified(root.getRootFile());
     root.processEntries(new JarBasedArtifactRootDescriptor.EntryProcessor() {
       @Override
       public void process(@Nullable InputStream inputStream, @NotNull String relativePath) throws IOException {
-        String pathInJar = addParentDirectories(jarOutputStream, writtenPaths, JpsArtifactPathUtil
+        String pathInJar = addParentDirectories(jarWriter, writtenPaths, JpsArtifactPathUtil
           .appendToPath(relativeOutputPath, relativePath));
 
         if (inputStream == null) {
-          addDirectoryEntry(jarOutputStream, pathInJar + "/", writtenPaths);
+          addDirectoryEntry(jarWriter, pathInJar + "/", writtenPaths);
         }
         else if (writtenPaths.add(pathInJar)) {
-          ZipEntry entry = new ZipEntry(pathInJar);
-          entry.setTime(timestamp);
-          jarOutputStream.putNextEntry(entry);
-          FileUtil.copy(inputStream, jarOutputStream);
-          jarOutputStream.closeEntry();
+          jarWriter.addEntry(pathInJar, inputStream, timestamp);
         }
       }
     });
 
   }
 
-  private void addFileToJar(final @NotNull JarOutputStream jarOutputStream, final @NotNull File jarFile, @NotNull File file,
-                            SourceFileFilter filter, @NotNull String relativePath, String targetJarPath,
-                            final @NotNull Set<String> writtenPaths, List<String> packedFilePaths, final int rootIndex) throws IOException {
+  private void addFileToJar(final @NotNull JarWriter jarWriter, final @NotNull File jarFile, @NotNull File file,
+                            SourceFileFilter filter, @NotNull String relativePath, final @NotNull Set<String> writtenPaths,
+                            PackedJar packedJar, final int rootIndex) throws IOException {
     if (!file.exists() || FileUtil.isAncestor(file, jarFile, false)) {
       return;
     }
 
-    relativePath = addParentDirectories(jarOutputStream, writtenPaths, relativePath);
-    addFileOrDirRecursively(jarOutputStream, file, filter, relativePath, targetJarPath, writtenPaths, packedFilePaths, rootIndex);
+    relativePath = addParentDirectories(jarWriter, writtenPaths, relativePath);
+    addFileOrDirRecursively(jarWriter, file, filter, relativePath, writtenPaths, packedJar, rootIndex);
   }
 
-  private void addFileOrDirRecursively(@NotNull ZipOutputStream jarOutputStream,
+  private void addFileOrDirRecursively(@NotNull JarWriter jarWriter,
                                        @NotNull File file,
                                        SourceFileFilter filter,
                                        @NotNull String relativePath,
-                                       String targetJarPath,
                                        @NotNull Set<String> writtenItemRelativePaths,
-                                       List<String> packedFilePaths,
+                                       PackedJar packedJar,
                                        int rootIndex) throws IOException {
     final String filePath = FileUtil.toSystemIndependentName(file.getAbsolutePath());
     if (!filter.accept(filePath, myContext.getProjectDescriptor())) {
@@ -331,29 +451,32 @@ public class JarsBuilder {
     if (file.isDirectory()) {
       final String directoryPath = relativePath.length() == 0 ? "" : relativePath + "/";
       if (!directoryPath.isEmpty()) {
-        addDirectoryEntry(jarOutputStream, directoryPath, writtenItemRelativePaths);
+        addDirectoryEntry(jarWriter, directoryPath, writtenItemRelativePaths);
       }
       final File[] children = file.listFiles();
       if (children != null) {
         for (File child : children) {
-          addFileOrDirRecursively(jarOutputStream, child, filter, directoryPath + child.getName(), targetJarPath, writtenItemRelativePaths,
-                                  packedFilePaths, rootIndex);
+          addFileOrDirRecursively(jarWriter, child, filter, directoryPath + child.getName(), writtenItemRelativePaths, packedJar,
+                                  rootIndex);
         }
       }
       return;
     }
 
-    final boolean added = ZipUtil.addFileToZip(jarOutputStream, file, relativePath, writtenItemRelativePaths, null);
+    final boolean added = writtenItemRelativePaths.add(relativePath);
+    if (added) {
+      jarWriter.addFileEntry(relativePath, file);
+    }
     if (rootIndex != -1) {
-      myOutSrcMapping.appendData(targetJarPath, Collections.singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
+      packedJar.sources.add(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex));
       if (added) {
-        packedFilePaths.add(filePath);
+        packedJar.packedFilePaths.add(filePath);
       }
     }
   }
 
 
-  private static String addParentDirectories(JarOutputStream jarOutputStream, Set<String> writtenPaths, String relativePath) throws IOException {
+  private static String addParentDirectories(JarWriter jarWriter, Set<String> writtenPaths, String relativePath) throws IOException {
     while (StringUtil.startsWithChar(relativePath, '/')) {
       relativePath = relativePath.substring(1);
     }
@@ -361,22 +484,30 @@ public class JarsBuilder {
     while (i != -1) {
       String prefix = relativePath.substring(0, i+1);
       if (prefix.length() > 1) {
-        addDirectoryEntry(jarOutputStream, prefix, writtenPaths);
+        addDirectoryEntry(jarWriter, prefix, writtenPaths);
       }
       i = relativePath.indexOf('/', i + 1);
     }
     return relativePath;
   }
 
-  private static void addDirectoryEntry(final ZipOutputStream output, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
+  private static void addDirectoryEntry(final JarWriter jarWriter, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
     if (!writtenPaths.add(relativePath)) return;
 
-    ZipEntry e = new ZipEntry(relativePath);
-    e.setMethod(ZipEntry.STORED);
-    e.setSize(0);
-    e.setCrc(0);
-    output.putNextEntry(e);
-    output.closeEntry();
+    jarWriter.addDirectoryEntry(relativePath);
+  }
+
+  private static class PackedJar {
+    final JarInfo jar;
+    final String targetJarPath;
+    final List<ArtifactOutputToSourceMapping.SourcePathAndRootIndex> sources = new ArrayList<ArtifactOutputToSourceMapping.SourcePathAndRootIndex>();
+    final List<String> packedFilePaths = new ArrayList<String>();
+    boolean isEmpty;
+
+    private PackedJar(JarInfo jar, String targetJarPath) {
+      this.jar = jar;
+      this.targetJarPath = targetJarPath;
+    }
   }
 
   private class JarsGraph implements GraphGenerator.SemiGraph<JarInfo> {
@@ -95,6 +95,17 @@ public class BuildDataManager implements StorageOwner {
     }
   }
 
+  /**
+   * @return average time in milliseconds the target took to build in the previous builds, or 0 if unknown
+   */
+  public long getAverageBuildTime(@NotNull BuildTarget<?> target) {
+    return myTargetsState.getAverageBuildTime(target);
+  }
+
+  public void addBuildTime(@NotNull BuildTarget<?> target, long time) {
+    myTargetsState.addBuildTime(target, time);
+  }
+
   public OneToManyPathsMapping getSourceToFormMap() {
     return mySrcToFormMap;
   }
@@ -96,6 +96,14 @@ public class BuildTargetsState {
     return getTypeState(target.getTargetType()).getConfiguration(target);
   }
 
+  public long getAverageBuildTime(@NotNull BuildTarget<?> target) {
+    return getTypeState(target.getTargetType()).getAverageBuildTime(target);
+  }
+
+  public void addBuildTime(@NotNull BuildTarget<?> target, long time) {
+    getTypeState(target.getTargetType()).addBuildTime(target, time);
+  }
+
   private BuildTargetTypeState getTypeState(BuildTargetType<?> type) {
     BuildTargetTypeState state = myTypeStates.get(type);
     if (state == null) {
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.IOUtil;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Remembers the contents of source directories between builds. A directory timestamp changes whenever an entry is added to
+ * the directory, removed or renamed, so while the timestamp stays the same the remembered listing can be used instead of listing
+ * the directory and probing every entry for being a directory.
+ */
+public class DirectoryListingStorage extends AbstractStateStorage<File, DirectoryListingStorage.Listing> {
+  public DirectoryListingStorage(File storePath) throws IOException {
+    super(storePath, new FileKeyDescriptor(), new ListingExternalizer());
+  }
+
+  public static class Listing {
+    public final long timestamp;
+    public final String[] files;
+    public final String[] directories;
+
+    public Listing(long timestamp, String[] files, String[] directories) {
+      this.timestamp = timestamp;
+      this.files = files;
+      this.directories = directories;
+    }
+  }
+
+  private static class ListingExternalizer implements DataExternalizer<Listing> {
+    public void save(DataOutput out, Listing value) throws IOException {
+      out.writeLong(value.timestamp);
+      writeNames(out, value.files);
+      writeNames(out, value.directories);
+    }
+
+    public Listing read(DataInput in) throws IOException {
+      final long timestamp = in.readLong();
+      final String[] files = readNames(in);
+      final String[] directories = readNames(in);
+      return new Listing(timestamp, files, directories);
+    }
+
+    private static void writeNames(DataOutput out, String[] names) throws IOException {
+      out.writeInt(names.length);
+      for (String name : names) {
+        IOUtil.writeString(name, out);
+      }
+    }
+
+    private static String[] readNames(DataInput in) throws IOException {
+      final String[] names = new String[in.readInt()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = IOUtil.readString(in);
+      }
+      return names;
+    }
+  }
+}
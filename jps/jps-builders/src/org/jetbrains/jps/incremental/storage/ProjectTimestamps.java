@@ -29,17 +29,23 @@ public class ProjectTimestamps {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.ProjectTimestamps");
   private static final String TIMESTAMP_STORAGE = "timestamps";
   private final TimestampStorage myTimestamps;
+  private final DirectoryListingStorage myDirectoryListings;
   private final File myTimestampsRoot;
 
   public ProjectTimestamps(final File dataStorageRoot, BuildTargetsState targetsState) throws IOException {
     myTimestampsRoot = new File(dataStorageRoot, TIMESTAMP_STORAGE);
     myTimestamps = new TimestampStorage(new File(myTimestampsRoot, "data"), targetsState);
+    myDirectoryListings = new DirectoryListingStorage(new File(myTimestampsRoot, "dirs"));
   }
 
   public TimestampStorage getStorage() {
     return myTimestamps;
   }
 
+  public DirectoryListingStorage getDirectoryListings() {
+    return myDirectoryListings;
+  }
+
   public void clean() throws IOException {
     final TimestampStorage timestamps = myTimestamps;
     if (timestamps != null) {
@@ -48,6 +54,10 @@ public class ProjectTimestamps {
     else {
       FileUtil.delete(myTimestampsRoot);
     }
+    final DirectoryListingStorage listings = myDirectoryListings;
+    if (listings != null) {
+      listings.wipe();
+    }
   }
 
   public void close() {
@@ -61,5 +71,15 @@ public class ProjectTimestamps {
         FileUtil.delete(myTimestampsRoot);
       }
     }
+    final DirectoryListingStorage listings = myDirectoryListings;
+    if (listings != null) {
+      try {
+        listings.close();
+      }
+      catch (IOException e) {
+        LOG.error(e);
+        FileUtil.delete(myTimestampsRoot);
+      }
+    }
   }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders;
+
+import com.intellij.util.PathUtil;
+import com.intellij.util.io.IOUtil;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.builders.logging.BuildLoggingManager;
+import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Build times of the targets which are used to schedule the chunks of a parallel build
+ */
+public class TargetBuildTimesTest extends JpsBuildTestCase {
+  public void testBuildTimeIsRecorded() {
+    final ModuleBuildTarget target = createTarget();
+    assertEquals(0, getAverageBuildTime(target));
+    rebuildAll();
+    final long time = getAverageBuildTime(target);
+    assertTrue(time > 0);
+
+    makeAll().assertUpToDate();
+    assertEquals(time, getAverageBuildTime(target));
+  }
+
+  public void testRecentBuildsWeighMore() {
+    final ModuleBuildTarget target = createTarget();
+    ProjectDescriptor descriptor = createProjectDescriptor(BuildLoggingManager.DEFAULT);
+    try {
+      descriptor.dataManager.addBuildTime(target, 100);
+      descriptor.dataManager.addBuildTime(target, 300);
+      assertEquals(200, descriptor.dataManager.getAverageBuildTime(target));
+      descriptor.dataManager.addBuildTime(target, 1000);
+      assertEquals(600, descriptor.dataManager.getAverageBuildTime(target));
+    }
+    finally {
+      descriptor.release();
+    }
+    assertEquals(600, getAverageBuildTime(target));
+  }
+
+  public void testTargetsWithoutBuildTimesAreLoaded() throws Exception {
+    final ModuleBuildTarget target = createTarget();
+    final File targetsFile;
+    ProjectDescriptor descriptor = createProjectDescriptor(BuildLoggingManager.DEFAULT);
+    try {
+      targetsFile = new File(descriptor.getTargetsState().getDataPaths().getTargetTypeDataRoot(target.getTargetType()), "targets.dat");
+    }
+    finally {
+      descriptor.release();
+    }
+
+    // the format used before the build times were stored
+    final DataOutputStream output = new DataOutputStream(new FileOutputStream(targetsFile));
+    try {
+      output.writeInt(0);
+      output.writeInt(1);
+      IOUtil.writeString(target.getId(), output);
+      output.writeInt(42);
+    }
+    finally {
+      output.close();
+    }
+
+    descriptor = createProjectDescriptor(BuildLoggingManager.DEFAULT);
+    try {
+      assertEquals(42, descriptor.getTargetsState().getBuildTargetId(target));
+      assertEquals(0, descriptor.dataManager.getAverageBuildTime(target));
+    }
+    finally {
+      descriptor.release();
+    }
+  }
+
+  private ModuleBuildTarget createTarget() {
+    final JpsModule module = addModule("m", PathUtil.getParentPath(createFile("src/A.java", "class A{}")));
+    return new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
+  }
+
+  private long getAverageBuildTime(ModuleBuildTarget target) {
+    final ProjectDescriptor descriptor = createProjectDescriptor(BuildLoggingManager.DEFAULT);
+    try {
+      return descriptor.dataManager.getAverageBuildTime(target);
+    }
+    finally {
+      descriptor.release();
+    }
+  }
+}
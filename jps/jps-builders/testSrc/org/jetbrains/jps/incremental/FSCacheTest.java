@@ -0,0 +1,156 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.jps.incremental.storage.DirectoryListingStorage;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class FSCacheTest extends TestCase {
+  private File myRoot;
+  private DirectoryListingStorage myListings;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = FileUtil.createTempDirectory("fsCache", null);
+    myListings = new DirectoryListingStorage(new File(FileUtil.createTempDirectory("fsCacheListings", null), "dirs"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myListings.close();
+      FileUtil.delete(myRoot);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testListingIsReusedWhileDirectoryIsUnchanged() throws IOException {
+    createFile("src/A.java");
+    createFile("src/pkg/B.java");
+    final File src = new File(myRoot, "src");
+    setOld(src);
+
+    assertChildren(new FSCache(myListings).getChildren(src), "A.java", "pkg");
+    final DirectoryListingStorage.Listing listing = myListings.getState(src);
+    assertNotNull(listing);
+
+    myListings.update(src, new DirectoryListingStorage.Listing(listing.timestamp, new String[]{"A.java", "Remembered.java"},
+                                                               listing.directories));
+    assertChildren(new FSCache(myListings).getChildren(src), "A.java", "Remembered.java", "pkg");
+
+    createFile("src/C.java");
+    setOld(src);
+    assertChildren(new FSCache(myListings).getChildren(src), "A.java", "C.java", "pkg");
+  }
+
+  public void testRecentlyModifiedDirectoryIsNotRemembered() throws IOException {
+    createFile("src/A.java");
+    final File src = new File(myRoot, "src");
+    assertChildren(new FSCache(myListings).getChildren(src), "A.java");
+    assertNull(myListings.getState(src));
+  }
+
+  public void testPrefetch() throws IOException {
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 10; j++) {
+        createFile("src/p" + i + "/q" + j + "/A.java");
+      }
+    }
+    createFile("src/excluded/B.java");
+    final File excluded = new File(myRoot, "src/excluded");
+    final FSCache cache = new FSCache(myListings);
+    cache.prefetch(Collections.singletonList(new File(myRoot, "src")), new FileFilter() {
+      @Override
+      public boolean accept(File dir) {
+        return !FileUtil.filesEqual(dir, excluded);
+      }
+    });
+
+    final File file = new File(myRoot, "src/p3/q7/A.java");
+    assertChildren(cache.getChildren(file.getParentFile()), "A.java");
+    assertNull(cache.getChildren(file));
+    assertEquals(file.lastModified(), cache.lastModified(file));
+  }
+
+  public void testUnusedStampsAreDroppedWithDirectory() throws IOException {
+    createFile("src/A.java");
+    createFile("src/B.java");
+    final File src = new File(myRoot, "src");
+    final File a = new File(src, "A.java");
+    final File b = new File(src, "B.java");
+    final FSCache cache = new FSCache(myListings);
+    cache.getChildren(src);
+    final long stamp = b.lastModified();
+    assertTrue(b.setLastModified(stamp - 10000));
+    assertEquals(stamp, cache.lastModified(b));
+
+    final long aStamp = a.lastModified();
+    assertTrue(a.setLastModified(aStamp - 10000));
+    cache.directoryProcessed(src);
+    assertEquals(aStamp - 10000, cache.lastModified(a));
+  }
+
+  public void testInterruptedPrefetchKeepsInterruptedStatus() throws IOException {
+    createFile("src/sub/A.java");
+    Thread.currentThread().interrupt();
+    try {
+      new FSCache(myListings).prefetch(Collections.singletonList(new File(myRoot, "src")), new FileFilter() {
+        @Override
+        public boolean accept(File dir) {
+          try {
+            Thread.sleep(1000);
+          }
+          catch (InterruptedException ignored) {
+          }
+          return true;
+        }
+      });
+      assertTrue(Thread.currentThread().isInterrupted());
+    }
+    finally {
+      Thread.interrupted();
+    }
+  }
+
+  private void createFile(String relativePath) throws IOException {
+    FileUtil.writeToFile(new File(myRoot, relativePath), "");
+  }
+
+  private static void setOld(File dir) {
+    assertTrue(dir.setLastModified(System.currentTimeMillis() - 60000));
+  }
+
+  private static void assertChildren(File[] children, String... expected) {
+    assertNotNull(children);
+    final Set<String> names = new TreeSet<String>();
+    for (File child : children) {
+      names.add(child.getName());
+    }
+    assertEquals(new TreeSet<String>(Arrays.asList(expected)), names);
+  }
+}
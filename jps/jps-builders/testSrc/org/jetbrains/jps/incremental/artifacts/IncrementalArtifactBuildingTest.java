@@ -16,6 +16,7 @@
 package org.jetbrains.jps.incremental.artifacts;
 
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.PathUtil;
 import org.jetbrains.jps.builders.CompileScopeTestBuilder;
 import org.jetbrains.jps.model.artifact.JpsArtifact;
@@ -78,6 +79,21 @@ public class IncrementalArtifactBuildingTest extends ArtifactBuilderTestCase {
     buildAllAndAssertUpToDate();
   }
 
+  public void testPackChangedLargeFile() {
+    final String large = StringUtil.repeat("large file content ", 100000);
+    String file1 = createFile("dir/a.txt", large);
+    createFile("dir/b.txt", large);
+    final JpsArtifact a = addArtifact(archive("a.jar").parentDirCopy(file1));
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", large).file("b.txt", large));
+
+    change(file1, "xxx" + large);
+    buildAll();
+    assertDeletedAndCopied("out/artifacts/a/a.jar", "dir/a.txt", "dir/b.txt");
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "xxx" + large).file("b.txt", large));
+    buildAllAndAssertUpToDate();
+  }
+
   public void testRemoveDeletedFileFromArchive() {
     String file1 = createFile("dir/a.txt");
     createFile("dir/b.txt");
@@ -47,6 +47,7 @@ public class ClassloaderUtil {
   @NonNls static final String FILE_CACHE = "fileCache";
   @NonNls static final String URL_CACHE = "urlCache";// See http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4167874
   @NonNls public static final String PROPERTY_IGNORE_CLASSPATH = "ignore.classpath";
+  @NonNls public static final String PROPERTY_PERSIST_CLASSPATH_INDEX = "idea.persist.classpath.index";
 
   @SuppressWarnings({"HardCodedStringLiteral"})
   private static final String ERROR = "Error";
@@ -116,6 +117,9 @@ public class ClassloaderUtil {
     UrlClassLoader newClassLoader = null;
     try {
       newClassLoader = new UrlClassLoader(classpathElements, null, true, true);
+      if (!"false".equals(System.getProperty(PROPERTY_PERSIST_CLASSPATH_INDEX))) {
+        newClassLoader.setClassPathIndexFile(new File(PathManager.getSystemPath(), "classpath.index"));
+      }
 
       // prepare plugins
       if (!isLoadingOfExternalPluginsDisabled()) {
@@ -23,6 +23,10 @@ import org.jetbrains.annotations.NotNull;
  * {@code 'index <-> (start; end)'} and provides convenient way for working with them, e.g. find index by particular offset that
  * belongs to target <code>(start; end)</code> segment etc.
  * <p/>
+ * Shifting the tail segments (that is what every document change does to the line and lexer segments) is deferred: the last shift is
+ * kept as a pair of the first shifted index and the shift value and is applied on access, so repeated changes of the same segment
+ * (e.g. typing within a line) don't touch the tail every time.
+ * <p/>
  * Not thread-safe.
  */
 public class SegmentArray {
@@ -30,6 +34,10 @@ public class SegmentArray {
   private int[] myStarts;
   private int[] myEnds;
 
+  // the shift not yet applied to the segments starting from myPendingShiftIndex
+  private int myPendingShiftIndex;
+  private int myPendingShift;
+
   protected int mySegmentCount = 0;
   protected static final int INITIAL_SIZE = 64;
 
@@ -39,6 +47,7 @@ public class SegmentArray {
   }
 
   protected void setElementAt(int i, int startOffset, int endOffset) {
+    applyPendingShift();
     if (startOffset < 0) {
       LOG.error("Invalid startOffset:" + startOffset);
     }
@@ -58,6 +67,8 @@ public class SegmentArray {
   }
 
   protected void replace(int startOffset, @NotNull SegmentArray data, int len) {
+    applyPendingShift();
+    data.applyPendingShift();
     System.arraycopy(data.myStarts, 0, myStarts, startOffset, len);
     System.arraycopy(data.myEnds, 0, myEnds, startOffset, len);
   }
@@ -104,10 +115,10 @@ public class SegmentArray {
 
     while (start < end) {
       int i = (start + end) / 2;
-      if (offset < myStarts[i]) {
+      if (offset < getStart(i)) {
         end = i - 1;
       }
-      else if (offset >= myEnds[i]) {
+      else if (offset >= getEnd(i)) {
         start = i + 1;
       }
       else {
@@ -116,24 +127,48 @@ public class SegmentArray {
     }
 
     // This means that there is a gap at given offset
-    assert myStarts[start] <= offset && offset < myEnds[start] : start;
+    assert getStart(start) <= offset && offset < getEnd(start) : start;
 
     return start;
   }
 
   public int getLastValidOffset() {
-    return mySegmentCount == 0 ? 0 : myEnds[mySegmentCount - 1];
+    return mySegmentCount == 0 ? 0 : getEnd(mySegmentCount - 1);
   }
 
   public final void changeSegmentLength(int startIndex, int change) {
     if (startIndex >= 0 && startIndex < mySegmentCount) {
+      if (myPendingShift != 0 && startIndex == myPendingShiftIndex) {
+        // the pending shift keeps covering the following segments only
+        myStarts[startIndex] += myPendingShift;
+        myEnds[startIndex] += myPendingShift;
+        myPendingShiftIndex++;
+      }
+      else if (startIndex > myPendingShiftIndex) {
+        applyPendingShift();
+      }
       myEnds[startIndex] += change;
     }
     shiftSegments(startIndex + 1, change);
   }
 
   public final void shiftSegments(int startIndex, int shift) {
-    for (int i = startIndex; i < mySegmentCount; i++) {
+    if (shift == 0 || startIndex >= mySegmentCount) return;
+    if (myPendingShift != 0 && myPendingShiftIndex != startIndex) {
+      applyPendingShift();
+    }
+    myPendingShiftIndex = startIndex;
+    myPendingShift += shift;
+    if (getStart(startIndex) < 0 || getEnd(startIndex) < 0) {
+      applyPendingShift();
+    }
+  }
+
+  private void applyPendingShift() {
+    int shift = myPendingShift;
+    if (shift == 0) return;
+    myPendingShift = 0;
+    for (int i = myPendingShiftIndex; i < mySegmentCount; i++) {
       myStarts[i] += shift;
       myEnds[i] += shift;
       if (myStarts[i] < 0 || myEnds[i] < 0) {
@@ -142,11 +177,21 @@ public class SegmentArray {
     }
   }
 
+  private int getStart(int index) {
+    return index >= myPendingShiftIndex ? myStarts[index] + myPendingShift : myStarts[index];
+  }
+
+  private int getEnd(int index) {
+    return index >= myPendingShiftIndex ? myEnds[index] + myPendingShift : myEnds[index];
+  }
+
   public void removeAll() {
     mySegmentCount = 0;
+    myPendingShift = 0;
   }
 
   public void remove(int startIndex, int endIndex) {
+    applyPendingShift();
     myStarts = remove(myStarts, startIndex, endIndex);
     myEnds = remove(myEnds, startIndex, endIndex);
     mySegmentCount -= endIndex - startIndex;
@@ -161,6 +206,8 @@ public class SegmentArray {
   }
 
   protected void insert(@NotNull SegmentArray segmentArray, int startIndex) {
+    applyPendingShift();
+    segmentArray.applyPendingShift();
     myStarts = insert(myStarts, segmentArray.myStarts, startIndex, segmentArray.getSegmentCount());
     myEnds = insert(myEnds, segmentArray.myEnds, startIndex, segmentArray.getSegmentCount());
     mySegmentCount += segmentArray.getSegmentCount();
@@ -180,14 +227,14 @@ public class SegmentArray {
     if (index < 0 || index >= mySegmentCount) {
       throw new IndexOutOfBoundsException("Wrong line: " + index + ". Available lines count: " + mySegmentCount);
     }
-    return myStarts[index];
+    return getStart(index);
   }
 
   public int getSegmentEnd(int index) {
     if (index < 0 || index >= mySegmentCount) {
       throw new IndexOutOfBoundsException("Wrong line: " + index + ". Available lines count: " + mySegmentCount);
     }
-    return myEnds[index];
+    return getEnd(index);
   }
 
 
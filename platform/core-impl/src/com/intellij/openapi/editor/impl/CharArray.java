@@ -329,8 +329,14 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     }
     else {
       int insertLength = s.length();
-      myArray = resizeArray(myArray, myCount + insertLength);
-      if (startIndex < myCount) {
+      if (myCount + insertLength >= myArray.length) {
+        // copy the head and the tail to their final places at once instead of growing the array and shifting the tail again
+        char[] newArray = new char[newArraySize(myArray.length, myCount + insertLength)];
+        System.arraycopy(myArray, 0, newArray, 0, startIndex);
+        System.arraycopy(myArray, startIndex, newArray, startIndex + insertLength, myCount - startIndex);
+        myArray = newArray;
+      }
+      else if (startIndex < myCount) {
         System.arraycopy(myArray, startIndex, myArray, startIndex + insertLength, myCount - startIndex);
       }
 
@@ -529,22 +535,15 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     return result;
   }
 
-  @NotNull
-  private static char[] resizeArray(@NotNull char[] array, int newSize) {
-    if (newSize < array.length) {
-      return array;
-    }
-
-    int newArraySize = array.length;
+  private static int newArraySize(int currentSize, int newSize) {
+    int newArraySize = currentSize;
     if (newArraySize == 0) {
       newArraySize = 16;
     }
     while (newArraySize <= newSize) {
       newArraySize = newArraySize * 12 / 10 + 1;
     }
-    char[] newArray = new char[newArraySize];
-    System.arraycopy(array, 0, newArray, 0, array.length);
-    return newArray;
+    return newArraySize;
   }
 
   private void trimToSize() {
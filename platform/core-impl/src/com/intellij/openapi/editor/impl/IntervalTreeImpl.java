@@ -19,6 +19,7 @@ import com.intellij.openapi.editor.ex.DisposableIterator;
 import com.intellij.openapi.util.Getter;
 import com.intellij.openapi.util.ProperTextRange;
 import com.intellij.openapi.util.Ref;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
 import com.intellij.util.SmartList;
@@ -30,6 +31,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -53,7 +55,8 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     private volatile int myEnd;
     private volatile boolean isValid = true;
     private volatile boolean isAttachedToTree; // true if the node is inserted to the tree
-    protected final List<Getter<E>> intervals;
+    // the only key of the node (the usual case, so no collection is allocated for it) or Getter<E>[] of the duplicate keys
+    private Object intervals;
     protected int maxEnd; // max of all intervalEnd()s among all children.
     protected int delta;  // delta of startOffset. getStartOffset() = myStartOffset + Sum of deltas up to root
 
@@ -70,7 +73,19 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
       myIntervalTree = intervalTree;
       myStart = start;
       myEnd = end;
-      intervals = new SmartList<Getter<E>>(createGetter(key));
+      intervals = createGetter(key);
+    }
+
+    public int intervalCount() {
+      Object intervals = this.intervals;
+      return intervals == null ? 0 : intervals instanceof Getter ? 1 : ((Getter[])intervals).length;
+    }
+
+    @NotNull
+    public Getter<E> getInterval(int i) {
+      Object intervals = this.intervals;
+      //noinspection unchecked
+      return intervals instanceof Getter ? (Getter<E>)intervals : ((Getter<E>[])intervals)[i];
     }
 
     @Override
@@ -91,8 +106,8 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     @Override
     public boolean processAliveKeys(@NotNull Processor<? super E> processor) {
       //noinspection ForLoopReplaceableByForEach
-      for (int i = 0; i < intervals.size(); i++) {
-        Getter<E> interval = intervals.get(i);
+      for (int i = 0; i < intervalCount(); i++) {
+        Getter<E> interval = getInterval(i);
         E key = interval.get();
         if (key != null && !processor.process(key)) return false;
       }
@@ -102,8 +117,8 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     @Override
     public boolean hasAliveKey(boolean purgeDead) {
       boolean hasAliveInterval = false;
-      for (int i = intervals.size() - 1; i >= 0; i--) {
-        Getter<E> interval = intervals.get(i);
+      for (int i = intervalCount() - 1; i >= 0; i--) {
+        Getter<E> interval = getInterval(i);
         if (interval.get() != null) {
           hasAliveInterval = true;
           if (purgeDead) {
@@ -126,24 +141,32 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     private boolean removeInterval(@NotNull E key) {
       myIntervalTree.checkBelongsToTheTree(key, true);
       myIntervalTree.assertUnderWriteLock();
-      for (int i = intervals.size() - 1; i >= 0; i--) {
-        Getter<E> interval = intervals.get(i);
+      for (int i = intervalCount() - 1; i >= 0; i--) {
+        Getter<E> interval = getInterval(i);
         E t = interval.get();
         if (t == key) {
           removeIntervalInternal(i);
-          if (intervals.isEmpty()) {
+          if (intervalCount() == 0) {
             myIntervalTree.removeNode(this);
             return true;
           }
           return false;
         }
       }
-      assert false: "interval not found: "+key +"; "+ intervals+"; isValid="+key.isValid();
+      assert false: "interval not found: "+key +"; "+ intervalsToString()+"; isValid="+key.isValid();
       return false;
     }
 
     public void removeIntervalInternal(int i) {
-      intervals.remove(i);
+      Object intervals = this.intervals;
+      if (intervals instanceof Getter) {
+        assert i == 0 : i;
+        this.intervals = null;
+      }
+      else {
+        Getter[] array = (Getter[])intervals;
+        this.intervals = array.length == 2 ? array[1 - i] : ArrayUtil.remove(array, i);
+      }
       if (isAttachedToTree) {   // for detached node, do not update tree node count
         assert myIntervalTree.keySize > 0 : myIntervalTree.keySize;
         myIntervalTree.keySize--;
@@ -152,7 +175,17 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
 
     public void addInterval(@NotNull E interval) {
       myIntervalTree.assertUnderWriteLock();
-      intervals.add(createGetter(interval));
+      Getter<E> getter = createGetter(interval);
+      Object intervals = this.intervals;
+      if (intervals == null) {
+        this.intervals = getter;
+      }
+      else if (intervals instanceof Getter) {
+        this.intervals = new Getter[]{(Getter)intervals, getter};
+      }
+      else {
+        this.intervals = ArrayUtil.append((Getter[])intervals, getter);
+      }
       if (isAttachedToTree) { // for detached node, do not update tree node count
         myIntervalTree.keySize++;
         myIntervalTree.setNode(interval, this);
@@ -358,7 +391,14 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     @NonNls
     @Override
     public String toString() {
-      return "Node: " + intervals;
+      return "Node: " + intervalsToString();
+    }
+
+    @NonNls
+    @NotNull
+    String intervalsToString() {
+      Object intervals = this.intervals;
+      return intervals instanceof Getter[] ? Arrays.asList((Getter[])intervals).toString() : String.valueOf(intervals);
     }
   }
 
@@ -578,8 +618,8 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
           if (currentNode == null) return false;
 
           if (modCount != modCountBefore) throw new ConcurrentModificationException();
-          while (indexInCurrentList != currentNode.intervals.size()) {
-            T t = currentNode.intervals.get(indexInCurrentList++).get();
+          while (indexInCurrentList != currentNode.intervalCount()) {
+            T t = currentNode.getInterval(indexInCurrentList++).get();
             if (t != null) {
               current = t;
               return true;
@@ -594,8 +634,8 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
             if (overlaps(currentNode, startOffset, endOffset, deltaUpToRootExclusive)) {
               assert currentNode.intervalStart() + deltaUpToRootExclusive + currentNode.delta >= firstOverlapStart;
               indexInCurrentList = 0;
-              while (indexInCurrentList != currentNode.intervals.size()) {
-                T t = currentNode.intervals.get(indexInCurrentList++).get();
+              while (indexInCurrentList != currentNode.intervalCount()) {
+                T t = currentNode.getInterval(indexInCurrentList++).get();
                 if (t != null) {
                   current = t;
                   return true;
@@ -722,7 +762,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     node.setCachedValues(0, true, modCount);
     correctMaxUp(node);
     onInsertNode();
-    keySize += node.intervals.size();
+    keySize += node.intervalCount();
     insertCase1(node);
     node.isAttachedToTree = true;
     verifyProperties();
@@ -819,8 +859,8 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
       assert IntervalNode.deltaUpToRoot(packedOffsets) == root.delta + deltaUpToRootExclusive;
     }
     T liveInterval = null;
-    for (int i = root.intervals.size() - 1; i >= 0; i--) {
-      T t = root.intervals.get(i).get();
+    for (int i = root.intervalCount() - 1; i >= 0; i--) {
+      T t = root.getInterval(i).get();
       if (t == null) continue;
       liveInterval = t;
       checkBelongsToTheTree(t, false);
@@ -831,7 +871,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
       checkBelongsToTheTree(liveInterval, true);
     }
 
-    keyCounter[0]+= root.intervals.size();
+    keyCounter[0]+= root.intervalCount();
     nodeCounter[0]++;
     int delta = deltaUpToRootExclusive + (root.isValid() ? root.delta : 0);
     IntTrinity l = checkMax(root.getLeft(), delta, assertInvalid, allValid, keyCounter, nodeCounter, ids, root.delta == 0 && allDeltasUpAreNull);
@@ -885,10 +925,10 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     if (!VERIFY) return;
 
     if (assertInvalid) {
-      assert !root.intervals.isEmpty();
+      assert root.intervalCount() != 0;
       boolean contains = false;
-      for (int i = root.intervals.size() - 1; i >= 0; i--) {
-        T key = root.intervals.get(i).get();
+      for (int i = root.intervalCount() - 1; i >= 0; i--) {
+        T key = root.getInterval(i).get();
         if (key == null) continue;
         contains |= key == interval;
         IntervalNode<T> node = lookupNode(key);
@@ -896,7 +936,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
         assert node.getTree() == this : node;
       }
 
-      assert contains : root.intervals + "; " + interval;
+      assert contains : root.intervalsToString() + "; " + interval;
     }
 
     IntervalNode<T> e = root;
@@ -946,7 +986,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     assertAllDeltasAreNull(node);
     super.deleteNode(n);
 
-    keySize -= node.intervals.size();
+    keySize -= node.intervalCount();
     assert keySize >= 0 : keySize;
     node.isAttachedToTree = false;
   }
@@ -1195,7 +1235,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
       if (node == null) return;
       int before = size();
       boolean nodeRemoved = node.removeInterval(interval);
-      assert nodeRemoved || !node.intervals.isEmpty();
+      assert nodeRemoved || node.intervalCount() != 0;
 
       IntervalNode<T> insertedNode = addInterval(interval, start, end, greedyToLeft, greedyToRight, layer);
       assert node != insertedNode;
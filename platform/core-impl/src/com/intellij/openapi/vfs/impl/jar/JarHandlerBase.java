@@ -34,9 +34,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.Reference;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -48,6 +46,7 @@ public class JarHandlerBase {
 
   private final TimedReference<JarFile> myJarFile = new TimedReference<JarFile>(null);
   private Reference<Map<String, EntryInfo>> myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(null);
+  private volatile Reference<ZipCentralDirectory> myDirectory = new SoftReference<ZipCentralDirectory>(null);
   private final Object lock = new Object();
 
   protected final String myBasePath;
@@ -71,10 +70,39 @@ public class JarHandlerBase {
   protected void clear() {
     synchronized (lock) {
       myRelPathsToEntries = null;
+      myDirectory = new SoftReference<ZipCentralDirectory>(null);
       myJarFile.set(null);
     }
   }
 
+  /**
+   * @return entries table of the jar, which (unlike the entries map) may be used without locking
+   */
+  @Nullable
+  protected ZipCentralDirectory getDirectory() {
+    ZipCentralDirectory directory = myDirectory.get();
+    if (directory == null) {
+      synchronized (lock) {
+        directory = myDirectory.get();
+        if (directory == null) {
+          final JarFile jar = getJar();
+          if (jar == null) return null;
+
+          final ZipFile zipFile = jar.getZipFile();
+          try {
+            directory = ZipCentralDirectory.read(new File(zipFile.getName()));
+          }
+          catch (IOException e) {
+            LOG.info(e.getMessage() + ": " + zipFile.getName());
+            directory = ZipCentralDirectory.read(zipFile);
+          }
+          myDirectory = new SoftReference<ZipCentralDirectory>(directory);
+        }
+      }
+    }
+    return directory;
+  }
+
   @NotNull
   protected Map<String, EntryInfo> initEntries() {
     synchronized (lock) {
@@ -224,18 +252,11 @@ public class JarHandlerBase {
 
   @NotNull
   public String[] list(@NotNull final VirtualFile file) {
-    synchronized (lock) {
-      EntryInfo parentEntry = getEntryInfo(file);
-
-      Set<String> names = new HashSet<String>();
-      for (EntryInfo info : getEntriesMap().values()) {
-        if (info.parent == parentEntry) {
-          names.add(info.shortName);
-        }
-      }
+    final ZipCentralDirectory directory = getDirectory();
+    if (directory == null) return ArrayUtil.EMPTY_STRING_ARRAY;
 
-      return ArrayUtil.toStringArray(names);
-    }
+    final int index = directory.find(getRelativePath(file));
+    return index < 0 ? ArrayUtil.EMPTY_STRING_ARRAY : directory.list(index);
   }
 
   protected EntryInfo getEntryInfo(final VirtualFile file) {
@@ -266,10 +287,9 @@ public class JarHandlerBase {
   }
 
   public long getLength(@NotNull final VirtualFile file) {
-    final JarFile.JarEntry entry = convertToEntry(file);
-    synchronized (lock) {
-      return entry == null ? DEFAULT_LENGTH : entry.getSize();
-    }
+    final ZipCentralDirectory directory = getDirectory();
+    final int index = directory == null ? -1 : directory.find(getRelativePath(file));
+    return index < 0 ? DEFAULT_LENGTH : directory.getSize(index);
   }
 
   @NotNull
@@ -283,37 +303,33 @@ public class JarHandlerBase {
     if (entry == null) {
       return ArrayUtil.EMPTY_BYTE_ARRAY;
     }
-    synchronized (lock) {
-      final JarFile jar = getJar();
-      assert jar != null : file;
+    // zip file streams may be read concurrently
+    final JarFile jar = getJar();
+    assert jar != null : file;
 
-      final InputStream stream = jar.getInputStream(entry);
-      assert stream != null : file;
+    final InputStream stream = jar.getInputStream(entry);
+    assert stream != null : file;
 
-      try {
-        return FileUtil.loadBytes(stream, (int)entry.getSize());
-      }
-      finally {
-        stream.close();
-      }
+    try {
+      return FileUtil.loadBytes(stream, (int)entry.getSize());
+    }
+    finally {
+      stream.close();
     }
   }
 
   public long getTimeStamp(@NotNull final VirtualFile file) {
     if (file.getParent() == null) return getOriginalFile().lastModified(); // Optimization
-    final JarFile.JarEntry entry = convertToEntry(file);
-    synchronized (lock) {
-      return entry == null ? DEFAULT_TIMESTAMP : entry.getTime();
-    }
+    final ZipCentralDirectory directory = getDirectory();
+    final int index = directory == null ? -1 : directory.find(getRelativePath(file));
+    return index < 0 ? DEFAULT_TIMESTAMP : directory.getTimeStamp(index);
   }
 
   public boolean isDirectory(@NotNull final VirtualFile file) {
     if (file.getParent() == null) return true; // Optimization
-    synchronized (lock) {
-      final String path = getRelativePath(file);
-      final EntryInfo info = getEntryInfo(path);
-      return info == null || info.isDirectory;
-    }
+    final ZipCentralDirectory directory = getDirectory();
+    final int index = directory == null ? -1 : directory.find(getRelativePath(file));
+    return index < 0 || directory.isDirectory(index);
   }
 
   public boolean exists(@NotNull final VirtualFile fileOrDirectory) {
@@ -322,18 +338,15 @@ public class JarHandlerBase {
       return myJarFile.get() != null || getOriginalFile().exists();
     }
 
-    return getEntryInfo(fileOrDirectory) != null;
+    final ZipCentralDirectory directory = getDirectory();
+    return directory != null && directory.find(getRelativePath(fileOrDirectory)) >= 0;
   }
 
   @Nullable
   public FileAttributes getAttributes(@NotNull final VirtualFile file) {
-    final JarFile.JarEntry entry = convertToEntry(file);
-    synchronized (lock) {
-      final EntryInfo entryInfo = getEntryInfo(getRelativePath(file));
-      if (entryInfo == null) return null;
-      final long length = entry != null ? entry.getSize() : DEFAULT_LENGTH;
-      final long timeStamp = entry != null ? entry.getTime() : DEFAULT_TIMESTAMP;
-      return new FileAttributes(entryInfo.isDirectory, false, false, false, length, timeStamp, false);
-    }
+    final ZipCentralDirectory directory = getDirectory();
+    final int index = directory == null ? -1 : directory.find(getRelativePath(file));
+    if (index < 0) return null;
+    return new FileAttributes(directory.isDirectory(index), false, false, false, directory.getSize(index), directory.getTimeStamp(index), false);
   }
 }
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.jar;
+
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.UnsyncByteArrayOutputStream;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Immutable table of the entries of a zip file, read from its central directory.
+ * <p/>
+ * Entry names (without trailing slashes) are kept UTF-8 encoded in a single byte array and sorted, so that an entry is found
+ * with a binary search and the children of a directory form a contiguous range. There are no per-entry objects,
+ * and the table may be read from any number of threads without locking. Directories missing in the zip file are added,
+ * the root directory has an empty name.
+ */
+public class ZipCentralDirectory {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+
+  private final byte[] myNames;
+  // all the arrays are indexed in the order of names
+  private final int[] myNameOffsets;
+  private final int[] myNameLengths;
+  private final int[] mySizes;
+  private final int[] myDosTimes;
+  private final BitSet myDirectories;
+
+  private ZipCentralDirectory(@NotNull EntriesBuilder builder) {
+    final int count = builder.myNameOffsets.size();
+    final Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) order[i] = i;
+    final byte[] names = builder.myNames.toByteArray();
+    final int[] offsets = builder.myNameOffsets.toNativeArray();
+    final int[] lengths = builder.myNameLengths.toNativeArray();
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return compareNames(names, offsets[o1], lengths[o1], names, offsets[o2], lengths[o2]);
+      }
+    });
+
+    myNames = names;
+    myNameOffsets = new int[count];
+    myNameLengths = new int[count];
+    mySizes = new int[count];
+    myDosTimes = new int[count];
+    myDirectories = new BitSet(count);
+    for (int i = 0; i < count; i++) {
+      int index = order[i];
+      myNameOffsets[i] = offsets[index];
+      myNameLengths[i] = lengths[index];
+      mySizes[i] = builder.mySizes.get(index);
+      myDosTimes[i] = builder.myDosTimes.get(index);
+      if (builder.myDirectories.get(index)) myDirectories.set(i);
+    }
+  }
+
+  /**
+   * Reads the central directory of the zip file; ZIP64 files and files with a damaged central directory are read with
+   * {@link ZipFile} instead.
+   */
+  @NotNull
+  public static ZipCentralDirectory read(@NotNull File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final ZipCentralDirectory directory = read(raf.getChannel());
+      if (directory != null) return directory;
+    }
+    finally {
+      raf.close();
+    }
+
+    final ZipFile zipFile = new ZipFile(file);
+    try {
+      return read(zipFile);
+    }
+    finally {
+      zipFile.close();
+    }
+  }
+
+  @NotNull
+  public static ZipCentralDirectory read(@NotNull ZipFile zipFile) {
+    final EntriesBuilder builder = new EntriesBuilder();
+    final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+    while (entries.hasMoreElements()) {
+      final ZipEntry entry = entries.nextElement();
+      builder.add(entry.getName().getBytes(UTF_8), (int)entry.getSize(), javaToDosTime(entry.getTime()));
+    }
+    return new ZipCentralDirectory(builder.addMissingDirectories());
+  }
+
+  @Nullable
+  private static ZipCentralDirectory read(@NotNull FileChannel channel) throws IOException {
+    final long fileSize = channel.size();
+    if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) return null;
+
+    final long tailStart = Math.max(0, fileSize - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+    // read into heap buffers rather than mapped: a mapping can't be released explicitly and would keep the jar locked on Windows
+    final ByteBuffer tail = read(channel, tailStart, (int)(fileSize - tailStart));
+    int eocd = -1;
+    for (int i = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        eocd = i;
+        break;
+      }
+    }
+    if (eocd < 0) return null;
+
+    final int entriesCount = tail.getShort(eocd + 10) & 0xFFFF;
+    final long directorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+    final long directoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+    if (entriesCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) return null; // ZIP64
+    if (directoryOffset + directorySize > fileSize) return null;
+
+    final ByteBuffer buffer = read(channel, directoryOffset, (int)directorySize);
+
+    final EntriesBuilder builder = new EntriesBuilder();
+    int offset = 0;
+    for (int i = 0; i < entriesCount; i++) {
+      if (offset + CENTRAL_DIRECTORY_HEADER_SIZE > directorySize || buffer.getInt(offset) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+        return null;
+      }
+      final int dosTime = buffer.getInt(offset + 12);
+      final int size = buffer.getInt(offset + 24);
+      final int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+      final int extraLength = buffer.getShort(offset + 30) & 0xFFFF;
+      final int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+      if (offset + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength > directorySize) return null;
+
+      final byte[] name = new byte[nameLength];
+      buffer.position(offset + CENTRAL_DIRECTORY_HEADER_SIZE);
+      buffer.get(name);
+      builder.add(name, size, dosTime);
+
+      offset += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    if (offset != directorySize) return null; // entries count overflow
+
+    return new ZipCentralDirectory(builder.addMissingDirectories());
+  }
+
+  @NotNull
+  private static ByteBuffer read(@NotNull FileChannel channel, long position, int size) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+    }
+    buffer.flip();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return buffer;
+  }
+
+  public int getEntriesCount() {
+    return myNameOffsets.length;
+  }
+
+  /**
+   * @return index of the entry with the given path (without a trailing slash, empty for the root), or -1 if there is no such entry
+   */
+  public int find(@NotNull String path) {
+    final byte[] name = path.getBytes(UTF_8);
+    int low = 0;
+    int high = myNameOffsets.length - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int result = compareNames(myNames, myNameOffsets[mid], myNameLengths[mid], name, 0, name.length);
+      if (result < 0) {
+        low = mid + 1;
+      }
+      else if (result > 0) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  @NotNull
+  public String getPath(int index) {
+    return new String(myNames, myNameOffsets[index], myNameLengths[index], UTF_8);
+  }
+
+  public boolean isDirectory(int index) {
+    return myDirectories.get(index);
+  }
+
+  public long getSize(int index) {
+    return mySizes[index] & 0xFFFFFFFFL;
+  }
+
+  public long getTimeStamp(int index) {
+    return dosToJavaTime(myDosTimes[index]);
+  }
+
+  /**
+   * @return short names of the children of the directory with the given index
+   */
+  @NotNull
+  public String[] list(int index) {
+    if (!isDirectory(index)) return ArrayUtil.EMPTY_STRING_ARRAY;
+
+    final int prefixLength = myNameLengths[index] == 0 ? 0 : myNameLengths[index] + 1;
+    final List<String> children = new ArrayList<String>();
+    // descendants directly follow the directory in the sorted table
+    for (int i = index + 1; i < myNameOffsets.length && isDescendant(i, index); i++) {
+      final int nameOffset = myNameOffsets[i] + prefixLength;
+      final int nameLength = myNameLengths[i] - prefixLength;
+      if (indexOf(myNames, (byte)'/', nameOffset, nameLength) < 0) {
+        children.add(new String(myNames, nameOffset, nameLength, UTF_8));
+      }
+    }
+    return ArrayUtil.toStringArray(children);
+  }
+
+  private boolean isDescendant(int index, int directoryIndex) {
+    final int directoryLength = myNameLengths[directoryIndex];
+    if (directoryLength == 0) return true;
+    if (myNameLengths[index] <= directoryLength || myNames[myNameOffsets[index] + directoryLength] != '/') return false;
+    return compareNames(myNames, myNameOffsets[index], directoryLength, myNames, myNameOffsets[directoryIndex], directoryLength) == 0;
+  }
+
+  private static int indexOf(@NotNull byte[] bytes, byte b, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (bytes[i] == b) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Compares names as unsigned bytes, with '/' less than any other byte so that descendants of a directory directly follow it
+   */
+  private static int compareNames(@NotNull byte[] bytes1, int offset1, int length1, @NotNull byte[] bytes2, int offset2, int length2) {
+    final int length = Math.min(length1, length2);
+    for (int i = 0; i < length; i++) {
+      final int b1 = bytes1[offset1 + i] == '/' ? -1 : bytes1[offset1 + i] & 0xFF;
+      final int b2 = bytes2[offset2 + i] == '/' ? -1 : bytes2[offset2 + i] & 0xFF;
+      if (b1 != b2) return b1 - b2;
+    }
+    return length1 - length2;
+  }
+
+  private static long dosToJavaTime(int dosTime) {
+    if (dosTime == 0) return -1L;
+    final Calendar calendar = Calendar.getInstance();
+    //noinspection MagicConstant
+    calendar.set(((dosTime >> 25) & 0x7f) + 1980, ((dosTime >> 21) & 0x0f) - 1, (dosTime >> 16) & 0x1f,
+                 (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+    calendar.set(Calendar.MILLISECOND, 0);
+    return calendar.getTimeInMillis();
+  }
+
+  private static int javaToDosTime(long time) {
+    if (time == -1L) return 0;
+    final Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    final int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) return (1 << 21) | (1 << 16);
+    return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+           calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+  }
+
+  private static class EntriesBuilder {
+    private final UnsyncByteArrayOutputStream myNames = new UnsyncByteArrayOutputStream();
+    private final TIntArrayList myNameOffsets = new TIntArrayList();
+    private final TIntArrayList myNameLengths = new TIntArrayList();
+    private final TIntArrayList mySizes = new TIntArrayList();
+    private final TIntArrayList myDosTimes = new TIntArrayList();
+    private final BitSet myDirectories = new BitSet();
+    private final Set<String> myPaths = new HashSet<String>();
+    private final Set<String> myParentPaths = new HashSet<String>();
+
+    private void add(@NotNull byte[] name, int size, int dosTime) {
+      int length = name.length;
+      boolean isDirectory = length > 0 && name[length - 1] == '/';
+      if (isDirectory) length--;
+      if (length == 0) return;
+
+      String path = new String(name, 0, length, UTF_8);
+      if (hasDotSegment(path)) {
+        // "a/./b" is "a/b" and "a/." is the directory "a" itself, as for the entries map of JarHandlerBase
+        if (path.equals(".") || path.endsWith("/.")) isDirectory = true;
+        path = removeDotSegments(path);
+        if (path.isEmpty()) return;
+        name = path.getBytes(UTF_8);
+        length = name.length;
+      }
+      if (!myPaths.add(path)) return;
+      addParentPaths(path);
+
+      if (isDirectory) myDirectories.set(myNameOffsets.size());
+      myNameOffsets.add(myNames.size());
+      myNameLengths.add(length);
+      mySizes.add(isDirectory ? 0 : size);
+      myDosTimes.add(dosTime);
+      myNames.write(name, 0, length);
+    }
+
+    private static boolean hasDotSegment(@NotNull String path) {
+      return path.equals(".") || path.startsWith("./") || path.endsWith("/.") || path.contains("/./");
+    }
+
+    @NotNull
+    private static String removeDotSegments(@NotNull String path) {
+      final StringBuilder result = new StringBuilder(path.length());
+      for (String segment : path.split("/")) {
+        if (segment.equals(".")) continue;
+        if (result.length() > 0) result.append('/');
+        result.append(segment);
+      }
+      return result.toString();
+    }
+
+    private void addParentPaths(@NotNull String path) {
+      int index = path.lastIndexOf('/');
+      while (index > 0) {
+        final String parent = path.substring(0, index);
+        if (!myParentPaths.add(parent)) break;
+        index = parent.lastIndexOf('/');
+      }
+    }
+
+    @NotNull
+    private EntriesBuilder addMissingDirectories() {
+      myParentPaths.add("");
+      for (String parent : myParentPaths) {
+        if (myPaths.contains(parent)) continue;
+        final byte[] name = parent.getBytes(UTF_8);
+        myDirectories.set(myNameOffsets.size());
+        myNameOffsets.add(myNames.size());
+        myNameLengths.add(name.length);
+        mySizes.add(0);
+        myDosTimes.add(0);
+        myNames.write(name, 0, name.length);
+      }
+      return this;
+    }
+  }
+}
@@ -48,8 +48,7 @@ public abstract class AbstractModificationTracker implements PsiTreeChangePrepro
     switch (event.getCode()) {
       case BEFORE_CHILDREN_CHANGE:
         if (event.getParent() instanceof PsiFile) {
-          changedInsideCodeBlock = true;
-          break; // May be caused by fake PSI event from PomTransaction. A real event will anyway follow.
+          return; // May be caused by fake PSI event from PomTransaction. A real event will anyway follow.
         }
 
       case CHILDREN_CHANGED :
@@ -83,6 +82,13 @@ public abstract class AbstractModificationTracker implements PsiTreeChangePrepro
     if (!changedInsideCodeBlock) {
       processOutOfCodeBlockModification(event);
     }
+    else {
+      processCodeBlockModification(event);
+    }
+  }
+
+  protected void processCodeBlockModification(final PsiTreeChangeEventImpl event) {
+    myModificationTracker.incCodeBlockModificationCounter();
   }
 
   protected void processOutOfCodeBlockModification(final PsiTreeChangeEventImpl event) {
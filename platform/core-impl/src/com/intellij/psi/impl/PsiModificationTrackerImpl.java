@@ -33,6 +33,7 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
   private final AtomicLong myModificationCount = new AtomicLong(0);
   private final AtomicLong myOutOfCodeBlockModificationCount = new AtomicLong(0);
   private final AtomicLong myJavaStructureModificationCount = new AtomicLong(0);
+  private final AtomicLong myCodeBlockModificationCount = new AtomicLong(0);
   private final Listener myPublisher;
 
   public PsiModificationTrackerImpl(Project project) {
@@ -68,6 +69,14 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
     myPublisher.modificationCountChanged();
   }
 
+  /**
+   * Called by the code block trackers for a change known to stay inside a code block, i.e. one that doesn't affect anything
+   * outside of the changed file. Lets the caches distinguish such changes from the ones no tracker has recognized.
+   */
+  public void incCodeBlockModificationCounter() {
+    myCodeBlockModificationCount.getAndIncrement();
+  }
+
   @Override
   public void treeChanged(@NotNull PsiTreeChangeEventImpl event) {
     myModificationCount.getAndIncrement();
@@ -92,4 +101,8 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
   public long getJavaStructureModificationCount() {
     return myJavaStructureModificationCount.get();
   }
+
+  public long getCodeBlockModificationCount() {
+    return myCodeBlockModificationCount.get();
+  }
 }
@@ -22,12 +22,9 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
-import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiPolyVariantReference;
-import com.intellij.psi.PsiReference;
-import com.intellij.psi.ResolveResult;
-import com.intellij.psi.impl.AnyPsiChangeListener;
-import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.psi.*;
+import com.intellij.psi.impl.*;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.reference.SoftReference;
 import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.containers.ConcurrentWeakHashMap;
@@ -39,13 +36,44 @@ import org.jetbrains.annotations.Nullable;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Results of the physical references are kept per file. A physical PSI change recognized by the code block trackers as staying inside
+ * a code block of a single file invalidates only the results of that file, so resolve results of the other files stay warm while
+ * the user types; any other physical change invalidates everything.
+ */
 public class ResolveCache {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.source.resolve.ResolveCache");
   private final ConcurrentMap[] myMaps = new ConcurrentMap[2*2*2]; //boolean physical, boolean incompleteCode, boolean isPoly
   private final AtomicInteger myClearCount = new AtomicInteger(0);
   private final RecursionGuard myGuard = RecursionManager.createGuard("resolveCache");
 
+  private final PsiModificationTrackerImpl myModificationTracker;
+  // view provider of a physical file -> results of the references in it, valid while the generation of the file cache is current
+  private final ConcurrentMap<FileViewProvider, FileCache> myFileCaches = createWeakMap();
+  private final AtomicLong myGenerationCounter = new AtomicLong();
+  private volatile long myGeneration;
+
+  // state of the physical change being processed, modified under write action only
+  private boolean myChangeStarted;
+  private volatile boolean myPhysicalChangeInProgress;
+  private boolean myChangeMayBeLocal;
+  private long myGenerationBeforeChange;
+  private long myOutOfCodeBlockCountBeforeChange;
+  private long myCodeBlockCountBeforeChange;
+  private FileViewProvider myChangedFile;
+  // the file of the last change found to be local, the following events without beforePsiChanged() (e.g. the rest of the events
+  // of a PSI transaction) are checked against it
+  private FileViewProvider myLocallyChangedFile;
+  private long myOutOfCodeBlockCountAfterChange;
+  private boolean myUnexpectedChange;
+
+  private final AtomicLong myHitCount = new AtomicLong();
+  private final AtomicLong myMissCount = new AtomicLong();
+  private final AtomicLong myLocalInvalidationCount = new AtomicLong();
+  private final AtomicLong myGlobalInvalidationCount = new AtomicLong();
+
   public static ResolveCache getInstance(Project project) {
     ProgressIndicatorProvider.checkCanceled(); // We hope this method is being called often enough to cancel daemon processes smoothly
     return ServiceManager.getService(project, ResolveCache.class);
@@ -63,18 +91,36 @@ public class ResolveCache {
   public interface Resolver extends AbstractResolver<PsiReference,PsiElement>{
   }
 
-  public ResolveCache(@NotNull MessageBus messageBus) {
+  public ResolveCache(@NotNull MessageBus messageBus, @NotNull PsiManager psiManager) {
     for (int i = 0; i < myMaps.length; i++) {
       myMaps[i] = createWeakMap();
     }
+    PsiModificationTracker tracker = psiManager.getModificationTracker();
+    myModificationTracker = tracker instanceof PsiModificationTrackerImpl ? (PsiModificationTrackerImpl)tracker : null;
+    if (myModificationTracker != null && psiManager instanceof PsiManagerImpl) {
+      ((PsiManagerImpl)psiManager).addTreeChangePreprocessor(new PsiTreeChangePreprocessor() {
+        @Override
+        public void treeChanged(@NotNull PsiTreeChangeEventImpl event) {
+          physicalTreeChanged(event);
+        }
+      });
+    }
     messageBus.connect().subscribe(PsiManagerImpl.ANY_PSI_CHANGE_TOPIC, new AnyPsiChangeListener() {
       @Override
       public void beforePsiChanged(boolean isPhysical) {
-        clearCache(isPhysical);
+        if (isPhysical) {
+          startPhysicalChange();
+        }
+        else {
+          clearCache(false);
+        }
       }
 
       @Override
       public void afterPsiChanged(boolean isPhysical) {
+        if (isPhysical) {
+          finishPhysicalChange();
+        }
       }
     });
   }
@@ -87,6 +133,125 @@ public class ResolveCache {
     myClearCount.incrementAndGet();
     int startIndex = isPhysical ? 0 : 1;
     for (int i=startIndex;i<2;i++)for (int j=0;j<2;j++)for (int k=0;k<2;k++) myMaps[i*4+j*2+k].clear();
+    if (isPhysical) {
+      myGeneration = myGenerationCounter.incrementAndGet();
+      myFileCaches.clear();
+      myLocallyChangedFile = null;
+    }
+  }
+
+  private void startPhysicalChange() {
+    myGlobalInvalidationCount.incrementAndGet();
+    long generation = myGeneration;
+    // everything is invalid until the change turns out to be local to a file
+    myClearCount.incrementAndGet();
+    for (int j=0;j<2;j++)for (int k=0;k<2;k++) myMaps[j*2+k].clear();
+    myGeneration = myGenerationCounter.incrementAndGet();
+
+    // only a PSI tree event immediately following this notification may turn out to be local,
+    // the other callers (e.g. dropResolveCaches()) never send the matching afterPsiChanged()
+    myChangeStarted = myModificationTracker != null;
+    myChangeMayBeLocal = false;
+    myPhysicalChangeInProgress = false;
+    myChangedFile = null;
+    myLocallyChangedFile = null;
+    if (myChangeStarted) {
+      myGenerationBeforeChange = generation;
+      myOutOfCodeBlockCountBeforeChange = myModificationTracker.getOutOfCodeBlockModificationCount();
+      myCodeBlockCountBeforeChange = myModificationTracker.getCodeBlockModificationCount();
+    }
+  }
+
+  private void physicalTreeChanged(@NotNull PsiTreeChangeEventImpl event) {
+    PsiFile file = event.getFile();
+    FileViewProvider viewProvider = file == null || !file.isPhysical() ? null : file.getViewProvider();
+    if (myChangeStarted) {
+      myChangeStarted = false;
+      if (isBeforeEvent(event)) {
+        myPhysicalChangeInProgress = true;
+        myChangeMayBeLocal = viewProvider != null;
+        myChangedFile = viewProvider;
+      }
+    }
+    else if (myPhysicalChangeInProgress) {
+      if (myChangedFile != viewProvider) myChangeMayBeLocal = false;
+    }
+    else if (myLocallyChangedFile != null && myLocallyChangedFile != viewProvider) {
+      myUnexpectedChange = true;
+    }
+  }
+
+  private static boolean isBeforeEvent(@NotNull PsiTreeChangeEventImpl event) {
+    switch (event.getCode()) {
+      case BEFORE_CHILD_ADDITION:
+      case BEFORE_CHILD_REMOVAL:
+      case BEFORE_CHILD_REPLACEMENT:
+      case BEFORE_CHILD_MOVEMENT:
+      case BEFORE_CHILDREN_CHANGE:
+      case BEFORE_PROPERTY_CHANGE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void finishPhysicalChange() {
+    myChangeStarted = false;
+    if (!myPhysicalChangeInProgress) {
+      finishUnexpectedChange();
+      return;
+    }
+    myPhysicalChangeInProgress = false;
+    FileViewProvider changedFile = myChangedFile;
+    myChangedFile = null;
+    if (!myChangeMayBeLocal) return;
+
+    long outOfCodeBlockCount = myModificationTracker.getOutOfCodeBlockModificationCount();
+    if (outOfCodeBlockCount == myOutOfCodeBlockCountBeforeChange &&
+        myModificationTracker.getCodeBlockModificationCount() != myCodeBlockCountBeforeChange) {
+      // the change can't affect references outside of the file: bring the caches of the other files back
+      myFileCaches.remove(changedFile);
+      myGeneration = myGenerationBeforeChange;
+      myGlobalInvalidationCount.decrementAndGet();
+      myLocalInvalidationCount.incrementAndGet();
+      myLocallyChangedFile = changedFile;
+      myOutOfCodeBlockCountAfterChange = outOfCodeBlockCount;
+      myUnexpectedChange = false;
+    }
+  }
+
+  private void finishUnexpectedChange() {
+    // nothing to do unless the caches have been brought back after the last beforePsiChanged()
+    if (myLocallyChangedFile == null) return;
+
+    if (myUnexpectedChange || myModificationTracker.getOutOfCodeBlockModificationCount() != myOutOfCodeBlockCountAfterChange) {
+      myLocallyChangedFile = null;
+      myUnexpectedChange = false;
+      myGlobalInvalidationCount.incrementAndGet();
+      clearCache(true);
+    }
+    else {
+      myFileCaches.remove(myLocallyChangedFile);
+    }
+  }
+
+  public long getHitCount() {
+    return myHitCount.get();
+  }
+
+  public long getMissCount() {
+    return myMissCount.get();
+  }
+
+  /**
+   * @return number of the physical changes which invalidated the results of the changed file only
+   */
+  public long getLocalInvalidationCount() {
+    return myLocalInvalidationCount.get();
+  }
+
+  public long getGlobalInvalidationCount() {
+    return myGlobalInvalidationCount.get();
   }
 
   @Nullable
@@ -99,13 +264,16 @@ public class ResolveCache {
     ApplicationManager.getApplication().assertReadAccessAllowed();
 
     int clearCountOnStart = myClearCount.intValue();
-    boolean physical = ref.getElement().isPhysical();
-    ConcurrentMap<TRef, Getter<TResult>> map = getMap(physical, incompleteCode, isPoly);
+    PsiElement refElement = ref.getElement();
+    boolean physical = refElement.isPhysical();
+    ConcurrentMap<TRef, Getter<TResult>> map = getMap(refElement, physical, incompleteCode, isPoly);
     Getter<TResult> reference = map.get(ref);
     TResult result = reference == null ? null : reference.get();
     if (result != null) {
+      myHitCount.incrementAndGet();
       return result;
     }
+    myMissCount.incrementAndGet();
 
     Computable<TResult> computable = new Computable<TResult>() {
       @Override
@@ -135,7 +303,7 @@ public class ResolveCache {
   }
 
   public <T extends PsiPolyVariantReference> boolean isCached(@NotNull T ref, boolean physical, boolean incompleteCode, boolean isPoly) {
-    Map<T, Getter<ResolveResult[]>> map = getMap(physical, incompleteCode, isPoly);
+    Map<T, Getter<ResolveResult[]>> map = getMap(ref.getElement(), physical, incompleteCode, isPoly);
     Getter<ResolveResult[]> reference = map.get(ref);
     return reference != null && reference.get() != null;
   }
@@ -160,6 +328,54 @@ public class ResolveCache {
     return myMaps[(physical ? 0 : 1)*4 + (incompleteCode ? 0 : 1)*2 + (isPoly ? 0 : 1)];
   }
 
+  private <TRef extends PsiReference,TResult> ConcurrentMap<TRef, Getter<TResult>> getMap(@NotNull PsiElement refElement,
+                                                                                          boolean physical,
+                                                                                          boolean incompleteCode,
+                                                                                          boolean isPoly) {
+    FileCache fileCache = physical ? getFileCache(refElement) : null;
+    if (fileCache == null) {
+      return getMap(physical, incompleteCode, isPoly);
+    }
+    //noinspection unchecked
+    return fileCache.myMaps[(incompleteCode ? 0 : 1)*2 + (isPoly ? 0 : 1)];
+  }
+
+  @Nullable
+  private FileCache getFileCache(@NotNull PsiElement refElement) {
+    // results computed while a physical change is in progress go to the common maps which are cleared with every change
+    if (myModificationTracker == null || myPhysicalChangeInProgress) return null;
+    PsiFile file = refElement.getContainingFile();
+    // injected fragments and the like depend on their context, they aren't tracked per file
+    if (file == null || file.getContext() != null) return null;
+
+    FileViewProvider viewProvider = file.getViewProvider();
+    long generation = myGeneration;
+    FileCache cache = myFileCaches.get(viewProvider);
+    if (cache == null || cache.myGeneration != generation) {
+      FileCache newCache = new FileCache(generation);
+      if (cache == null) {
+        cache = ConcurrencyUtil.cacheOrGet(myFileCaches, viewProvider, newCache);
+      }
+      else {
+        cache = myFileCaches.replace(viewProvider, cache, newCache) ? newCache : myFileCaches.get(viewProvider);
+      }
+      if (cache == null || cache.myGeneration != generation) return null;
+    }
+    return cache;
+  }
+
+  private static class FileCache {
+    private final long myGeneration;
+    private final ConcurrentMap[] myMaps = new ConcurrentMap[2*2]; //boolean incompleteCode, boolean isPoly
+
+    private FileCache(long generation) {
+      myGeneration = generation;
+      for (int i = 0; i < myMaps.length; i++) {
+        myMaps[i] = createWeakMap();
+      }
+    }
+  }
+
   private static class SoftGetter<T> extends SoftReference<T> implements Getter<T> {
     public SoftGetter(T referent) {
       super(referent);
@@ -74,4 +74,14 @@ public abstract class FileBasedIndexExtension<K, V> {
   public boolean isKeyHighlySelective() {
     return false;
   }
+
+  /**
+   * Only indices depending on the file content may return true.
+   * @return true if the data is computed from the name, the file type and the content of the file alone, i.e. it depends neither
+   * on the location of the file, its file system, its neighbours nor the project. The data of identical files may then be shared
+   * between them, even between different machines.
+   */
+  public boolean isContentOnly() {
+    return false;
+  }
 }
@@ -45,6 +45,7 @@ import com.intellij.psi.search.LocalSearchScope;
 import com.intellij.psi.search.SearchScope;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Function;
+import com.intellij.util.Processor;
 import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -246,20 +247,51 @@ public class AnalysisScope {
   }
 
   protected void accept(@NotNull final PsiElementVisitor visitor, final boolean needReadAction) {
+    final PsiElement[] elements = getElementsToVisit();
+    if (elements != null) {
+      ApplicationManager.getApplication().runReadAction(new Runnable() {
+        @Override
+        public void run() {
+          for (PsiElement element : elements) {
+            element.accept(visitor);
+          }
+        }
+      });
+      return;
+    }
+    final Project project = getProjectToVisit();
+    if (project == null) return;
+    final PsiManager psiManager = PsiManager.getInstance(project);
+    accept(new Processor<VirtualFile>() {
+      @Override
+      public boolean process(VirtualFile file) {
+        return processFile(file, visitor, psiManager, needReadAction);
+      }
+    });
+  }
+
+  /**
+   * Visits the files of the scope without loading their PSI. Unlike {@link #accept(PsiElementVisitor)} it doesn't skip the files
+   * which aren't inspected in batch mode, see {@link ProblemHighlightFilter}, and it passes the files containing the elements of
+   * a local search scope or a file scope instead of the elements themselves.
+   *
+   * @return false if the processor has stopped the iteration
+   */
+  public boolean accept(@NotNull final Processor<VirtualFile> processor) {
     if (myType == VIRTUAL_FILES) {
-      final PsiManager psiManager = PsiManager.getInstance(myProject);
       final FileIndex index = ProjectRootManager.getInstance(myProject).getFileIndex();
       for (final VirtualFile file : myFilesSet) {
         if (!myIncludeTestSource && index.isInTestSourceContent(file)) continue;
-        if (!processFile(file, visitor, psiManager, needReadAction)) return;
+        if (!processor.process(file)) return false;
       }
+      return true;
     }
-    else if (myScope instanceof GlobalSearchScope) {
-      final PsiManager psiManager = PsiManager.getInstance(myProject);
+    if (myScope instanceof GlobalSearchScope) {
       final FileIndex projectFileIndex = ProjectRootManager.getInstance(myProject).getFileIndex();
       final ContentIterator contentIterator = new ContentIterator() {
         @Override
         public boolean processFile(@NotNull final VirtualFile fileOrDir) {
+          if (fileOrDir.isDirectory()) return true;
           final boolean isInScope = ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
             @Override
             public Boolean compute() {
@@ -267,83 +299,104 @@ public class AnalysisScope {
               return ((GlobalSearchScope)myScope).contains(fileOrDir);
             }
           }).booleanValue();
-          return !isInScope || AnalysisScope.this.processFile(fileOrDir, visitor, psiManager, needReadAction);
+          return !isInScope || processor.process(fileOrDir);
         }
       };
-      projectFileIndex.iterateContent(contentIterator);
+      if (!projectFileIndex.iterateContent(contentIterator)) return false;
       if (mySearchInLibraries) {
         final VirtualFile[] libraryRoots = LibraryUtil.getLibraryRoots(myProject, false, false);
         for (VirtualFile libraryRoot : libraryRoots) {
-          VfsUtilCore.iterateChildrenRecursively(libraryRoot, VirtualFileFilter.ALL, contentIterator);
+          if (!VfsUtilCore.iterateChildrenRecursively(libraryRoot, VirtualFileFilter.ALL, contentIterator)) return false;
         }
       }
+      return true;
     }
-    else if (myScope instanceof LocalSearchScope) {
-      ApplicationManager.getApplication().runReadAction(new Runnable() {
+    final PsiElement[] elements = getElementsToVisit();
+    if (elements != null) {
+      final Set<VirtualFile> files = ApplicationManager.getApplication().runReadAction(new Computable<Set<VirtualFile>>() {
         @Override
-        public void run() {
-          final PsiElement[] psiElements = ((LocalSearchScope)myScope).getScope();
-          for (PsiElement element : psiElements) {
-            element.accept(visitor);
+        public Set<VirtualFile> compute() {
+          final Set<VirtualFile> files = new LinkedHashSet<VirtualFile>();
+          for (PsiElement element : elements) {
+            final PsiFile file = element.getContainingFile();
+            final VirtualFile virtualFile = file == null ? null : file.getVirtualFile();
+            if (virtualFile != null) {
+              files.add(virtualFile);
+            }
           }
+          return files;
         }
       });
+      for (VirtualFile file : files) {
+        if (!processor.process(file)) return false;
+      }
+      return true;
     }
-    else if (myModule != null) {
+    if (myModule != null) {
       final FileIndex moduleFileIndex = ModuleRootManager.getInstance(myModule).getFileIndex();
-      final PsiManager psiManager = PsiManager.getInstance(myModule.getProject());
-      moduleFileIndex.iterateContent(new ContentIterator() {
+      return moduleFileIndex.iterateContent(new ContentIterator() {
         @Override
         public boolean processFile(@NotNull VirtualFile fileOrDir) {
-          return AnalysisScope.this.processFile(fileOrDir, visitor, moduleFileIndex, psiManager, needReadAction);
+          return AnalysisScope.this.processFile(fileOrDir, processor, moduleFileIndex);
         }
       });
     }
-    else if (myModules != null) {
+    if (myModules != null) {
       for (final Module module : myModules) {
-        final PsiManager psiManager = PsiManager.getInstance(module.getProject());
         final FileIndex moduleFileIndex = ModuleRootManager.getInstance(module).getFileIndex();
-        moduleFileIndex.iterateContent(new ContentIterator() {
+        final boolean completed = moduleFileIndex.iterateContent(new ContentIterator() {
           @Override
           public boolean processFile(@NotNull VirtualFile fileOrDir) {
-            return AnalysisScope.this.processFile(fileOrDir, visitor, moduleFileIndex, psiManager, needReadAction);
+            return AnalysisScope.this.processFile(fileOrDir, processor, moduleFileIndex);
           }
         });
+        if (!completed) return false;
       }
+      return true;
     }
-    else if (myElement instanceof PsiDirectory) {
-      accept((PsiDirectory)myElement, visitor, needReadAction);
-    }
-    else if (myElement != null) {
-      ApplicationManager.getApplication().runReadAction(new Runnable() {
-        @Override
-        public void run() {
-          myElement.accept(visitor);
-        }
-      });
+    if (myElement instanceof PsiDirectory) {
+      return accept((PsiDirectory)myElement, processor);
     }
-    else if (myProject != null) {
-      final PsiManager psiManager = PsiManager.getInstance(myProject);
+    if (myProject != null) {
       final FileIndex projectFileIndex = ProjectRootManager.getInstance(myProject).getFileIndex();
-      projectFileIndex.iterateContent(new ContentIterator() {
+      return projectFileIndex.iterateContent(new ContentIterator() {
         @Override
         public boolean processFile(@NotNull final VirtualFile fileOrDir) {
-          return AnalysisScope.this.processFile(fileOrDir, visitor, projectFileIndex, psiManager, needReadAction);
+          return AnalysisScope.this.processFile(fileOrDir, processor, projectFileIndex);
         }
       });
     }
+    return true;
+  }
+
+  /**
+   * @return the PSI elements {@link #accept(PsiElementVisitor)} visits directly instead of iterating over the files of the scope,
+   * or null if the scope is made of files
+   */
+  @Nullable
+  public PsiElement[] getElementsToVisit() {
+    if (myType == VIRTUAL_FILES || myScope instanceof GlobalSearchScope) return null;
+    if (myScope instanceof LocalSearchScope) return ((LocalSearchScope)myScope).getScope();
+    if (myModule != null || myModules != null || myElement instanceof PsiDirectory) return null;
+    return myElement != null ? new PsiElement[]{myElement} : null;
+  }
+
+  @Nullable
+  private Project getProjectToVisit() {
+    if (myProject != null) return myProject;
+    if (myModule != null) return myModule.getProject();
+    if (myModules != null && !myModules.isEmpty()) return myModules.get(0).getProject();
+    return myElement != null ? myElement.getProject() : null;
   }
 
   @SuppressWarnings({"SimplifiableIfStatement"})
   private boolean processFile(@NotNull final VirtualFile fileOrDir,
-                              @NotNull final PsiElementVisitor visitor,
-                              @NotNull final FileIndex projectFileIndex,
-                              @NotNull final PsiManager psiManager,
-                              final boolean needReadAction) {
+                              @NotNull final Processor<VirtualFile> processor,
+                              @NotNull final FileIndex projectFileIndex) {
     if (fileOrDir.isDirectory()) return true;
     if (ProjectCoreUtil.isProjectOrWorkspaceFile(fileOrDir)) return true;
     if (projectFileIndex.isInContent(fileOrDir) && (myIncludeTestSource || !projectFileIndex.isInTestSourceContent(fileOrDir))) {
-      return processFile(fileOrDir, visitor, psiManager, needReadAction);
+      return processor.process(fileOrDir);
     }
     return true;
   }
@@ -398,16 +451,24 @@ public class AnalysisScope {
   }
 
   protected void accept(@NotNull final PsiDirectory dir, @NotNull final PsiElementVisitor visitor, final boolean needReadAction) {
-    final Project project = dir.getProject();
-    final PsiManager psiManager = PsiManager.getInstance(project);
-    final ProjectFileIndex index = ProjectRootManager.getInstance(project).getFileIndex();
-    VfsUtilCore.iterateChildrenRecursively(dir.getVirtualFile(), VirtualFileFilter.ALL, new ContentIterator() {
+    final PsiManager psiManager = PsiManager.getInstance(dir.getProject());
+    accept(dir, new Processor<VirtualFile>() {
+      @Override
+      public boolean process(VirtualFile file) {
+        return processFile(file, visitor, psiManager, needReadAction);
+      }
+    });
+  }
+
+  protected boolean accept(@NotNull final PsiDirectory dir, @NotNull final Processor<VirtualFile> processor) {
+    final ProjectFileIndex index = ProjectRootManager.getInstance(dir.getProject()).getFileIndex();
+    return VfsUtilCore.iterateChildrenRecursively(dir.getVirtualFile(), VirtualFileFilter.ALL, new ContentIterator() {
       @Override
       @SuppressWarnings({"SimplifiableIfStatement"})
       public boolean processFile(@NotNull final VirtualFile fileOrDir) {
         if (!myIncludeTestSource && index.isInTestSourceContent(fileOrDir)) return true;
         if (!fileOrDir.isDirectory()) {
-          return AnalysisScope.this.processFile(fileOrDir, visitor, psiManager, needReadAction);
+          return processor.process(fileOrDir);
         }
         return true;
       }
@@ -23,6 +23,7 @@ import org.jetbrains.annotations.NotNull;
 /**
  * Global inspection tool which doesn't need the graph and, therefore, can be run on per-file basis concurrently.
  * Basically it is a local inspection tool which cannot be selected in the inspection profile to be run on-the-fly.
+ * Different tools may check files at the same time, but {@link #checkFile} of one tool is never called on several threads at once.
  */
 public abstract class GlobalSimpleInspectionTool extends GlobalInspectionTool {
   public void inspectionStarted(@NotNull InspectionManager manager,
@@ -20,6 +20,7 @@ import com.intellij.analysis.AnalysisScope;
 import com.intellij.codeInspection.ex.GlobalInspectionContextImpl;
 import com.intellij.codeInspection.ex.InspectionManagerEx;
 import com.intellij.codeInspection.ex.InspectionProfileImpl;
+import com.intellij.codeInspection.ex.OfflineInspectionResultsCache;
 import com.intellij.codeInspection.ex.XSLTReportConverter;
 import com.intellij.conversion.ConversionListener;
 import com.intellij.conversion.ConversionService;
@@ -35,6 +36,8 @@ import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.util.ProgressIndicatorBase;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.WriteExternalException;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -46,8 +49,10 @@ import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiManager;
 import com.intellij.util.StringBuilderSpinAllocator;
 import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
+import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
@@ -74,6 +79,7 @@ public class InspectionApplication {
   private Project myProject;
   private int myVerboseLevel = 0;
   public String myOutputFormat = null;
+  public String myResultsCachePath = null;
 
   public boolean myErrorCodeRequired = true;
   
@@ -212,6 +218,9 @@ public class InspectionApplication {
         }
       }
 
+      final OfflineInspectionResultsCache resultsCache = createResultsCache(inspectionProfile);
+      inspectionContext.setOfflineResultsCache(resultsCache);
+
       final List<File> inspectionsResults = new ArrayList<File>();
       ProgressManager.getInstance().runProcess(new Runnable() {
         public void run() {
@@ -264,6 +273,9 @@ public class InspectionApplication {
           logMessageLn(2, text);
         }
       });
+      if (resultsCache != null) {
+        resultsCache.dispose();
+      }
       final String descriptionsFile = resultsDataPath + File.separatorChar + DESCRIPTIONS + XML_EXTENSION;
       describeInspections(descriptionsFile,
                           myRunWithEditorSettings ? null : inspectionProfile.getName());
@@ -297,6 +309,25 @@ public class InspectionApplication {
     }
   }
 
+  @Nullable
+  private OfflineInspectionResultsCache createResultsCache(@NotNull Profile inspectionProfile) throws IOException {
+    if (myResultsCachePath == null) return null;
+
+    final Element profileElement = new Element(PROFILE);
+    try {
+      inspectionProfile.writeExternal(profileElement);
+    }
+    catch (WriteExternalException e) {
+      LOG.info(e);
+      return null;
+    }
+    // the results depend on the settings of the profile and on the inspections implementation
+    final String profileVersion = ApplicationInfo.getInstance().getBuild().asString() + ":" +
+                                  JDOMUtil.writeElement(profileElement, "\n").hashCode();
+    logMessageLn(1, "Reusing results of the unchanged files from " + myResultsCachePath);
+    return new OfflineInspectionResultsCache(myProject, new File(myResultsCachePath), profileVersion);
+  }
+
   @Nullable
   private Profile loadInspectionProfile() throws IOException, JDOMException {
     Profile inspectionProfile = null;
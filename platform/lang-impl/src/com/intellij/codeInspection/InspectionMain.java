@@ -91,6 +91,9 @@ public class InspectionMain implements ApplicationStarter {
         else if ("-t".equals(arg)) {
           myApplication.myErrorCodeRequired = false;
         }
+        else if ("-cache".equals(arg)) {
+          myApplication.myResultsCachePath = args[++i];
+        }
         else {
           System.err.println("unexpected argument: " + arg);
           printHelp();
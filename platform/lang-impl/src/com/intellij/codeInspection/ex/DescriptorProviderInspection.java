@@ -58,6 +58,7 @@ public abstract class DescriptorProviderInspection extends InspectionTool implem
 
   private HashMap<RefEntity, CommonProblemDescriptor[]> myOldProblemElements = null;
   protected static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.ex.DescriptorProviderInspection");
+  private static final Object OUTPUT_LOCK = new Object();
 
   public void addProblemElement(RefEntity refElement, CommonProblemDescriptor... descriptions){
     addProblemElement(refElement, true, descriptions);
@@ -95,33 +96,57 @@ public abstract class DescriptorProviderInspection extends InspectionTool implem
     exportResults(descriptions, refElement, parentNode);
     final List list = parentNode.getChildren();
 
-    @NonNls final String ext = ".xml";
-    final String fileName = ourOutputPath + File.separator + getShortName() + ext;
     final PathMacroManager pathMacroManager = PathMacroManager.getInstance(getContext().getProject());
-    PrintWriter printWriter = null;
+    final CharArrayWriter writer = new CharArrayWriter();
     try {
-      new File(ourOutputPath).mkdirs();
-      final File file = new File(fileName);
-      final CharArrayWriter writer = new CharArrayWriter();
-      if (!file.exists()) {
-        writer.append("<").append(InspectionsBundle.message("inspection.problems")).append(" " + GlobalInspectionContextImpl.LOCAL_TOOL_ATTRIBUTE + "=\"")
-          .append(Boolean.toString(this instanceof LocalInspectionToolWrapper)).append("\">\n");
-      }
       for (Object o : list) {
         final Element element = (Element)o;
         pathMacroManager.collapsePaths(element);
         JDOMUtil.writeElement(element, writer, "\n");
       }
-      printWriter = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
-      printWriter.append("\n");
-      printWriter.append(writer.toString());
     }
     catch (IOException e) {
       LOG.error(e);
+      return;
     }
-    finally {
-      if (printWriter != null) {
-        printWriter.close();
+
+    final String output = writer.toString();
+    final OfflineInspectionResultsCache resultsCache = getContext().getOfflineResultsCache();
+    if (resultsCache != null) {
+      resultsCache.recordOutput(getShortName(), output);
+    }
+    appendOutput(getShortName(), output, this instanceof LocalInspectionToolWrapper);
+  }
+
+  /**
+   * Appends exported problems to the offline output file of the tool, creating the file when it does not exist yet
+   */
+  static void appendOutput(@NotNull String toolShortName, @NotNull String output, boolean localTool) {
+    @NonNls final String ext = ".xml";
+    final String fileName = ourOutputPath + File.separator + toolShortName + ext;
+    PrintWriter printWriter = null;
+    // the files may be inspected concurrently
+    synchronized (OUTPUT_LOCK) {
+      try {
+        new File(ourOutputPath).mkdirs();
+        final File file = new File(fileName);
+        final CharArrayWriter writer = new CharArrayWriter();
+        if (!file.exists()) {
+          writer.append("<").append(InspectionsBundle.message("inspection.problems")).append(" " + GlobalInspectionContextImpl.LOCAL_TOOL_ATTRIBUTE + "=\"")
+            .append(Boolean.toString(localTool)).append("\">\n");
+        }
+        writer.append(output);
+        printWriter = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+        printWriter.append("\n");
+        printWriter.append(writer.toString());
+      }
+      catch (IOException e) {
+        LOG.error(e);
+      }
+      finally {
+        if (printWriter != null) {
+          printWriter.close();
+        }
       }
     }
   }
@@ -19,6 +19,7 @@ package com.intellij.codeInspection.ex;
 import com.intellij.analysis.AnalysisScope;
 import com.intellij.analysis.AnalysisUIOptions;
 import com.intellij.analysis.PerformAnalysisInBackgroundOption;
+import com.intellij.codeInsight.daemon.ProblemHighlightFilter;
 import com.intellij.codeInsight.daemon.impl.LocalInspectionsPass;
 import com.intellij.codeInspection.*;
 import com.intellij.codeInspection.lang.GlobalInspectionContextExtension;
@@ -40,9 +41,13 @@ import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.*;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.ToolWindowId;
 import com.intellij.openapi.wm.ToolWindowManager;
@@ -56,7 +61,9 @@ import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.ui.content.*;
 import com.intellij.util.Processor;
 import com.intellij.util.TripleFunction;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.HashMap;
+import com.intellij.util.containers.Stack;
 import com.intellij.util.ui.UIUtil;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
@@ -70,6 +77,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -114,6 +122,7 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
   private final Map<String, Tools> myTools = new THashMap<String, Tools>();
 
   private AnalysisUIOptions myUIOptions;
+  @Nullable private OfflineInspectionResultsCache myOfflineResultsCache;
   @NonNls static final String LOCAL_TOOL_ATTRIBUTE = "is_local_tool";
 
   public GlobalInspectionContextImpl(Project project, NotNullLazyValue<ContentManager> contentManager) {
@@ -399,6 +408,18 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
   }
 
 
+  @Nullable
+  public OfflineInspectionResultsCache getOfflineResultsCache() {
+    return myOfflineResultsCache;
+  }
+
+  /**
+   * Makes {@link #launchInspectionsOffline} reuse the output of the local inspections for the unchanged files
+   */
+  public void setOfflineResultsCache(@Nullable OfflineInspectionResultsCache offlineResultsCache) {
+    myOfflineResultsCache = offlineResultsCache;
+  }
+
   public boolean isToCheckMember(@NotNull RefElement owner, InspectionProfileEntry tool) {
     return isToCheckFile(((RefElementImpl)owner).getContainingFile(), tool) && !((RefElementImpl)owner).isSuppressed(tool.getShortName());
   }
@@ -589,67 +610,233 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
     }
 
     final Map<String, DescriptorProviderInspection> map = getInspectionWrappersMap(localTools);
-    scope.accept(new PsiElementVisitor() {
+    // the concurrent inspection works with whole files, elements of a local search scope or an element scope are visited as they are
+    if (Registry.is("inspect.files.concurrently") && scope.getElementsToVisit() == null) {
+      inspectFilesConcurrently(scope, manager, localTools, globalSimpleTools, map, localScopeFiles);
+    }
+    else {
+      scope.accept(new PsiElementVisitor() {
+        @Override
+        public void visitFile(final PsiFile file) {
+          final VirtualFile virtualFile = file.getVirtualFile();
+          if (virtualFile != null) {
+            incrementJobDoneAmount(LOCAL_ANALYSIS, ProjectUtil.calcRelativeToProjectPath(virtualFile, myProject));
+            if (SingleRootFileViewProvider.isTooLargeForIntelligence(virtualFile)) return;
+            if (localScopeFiles != null && !localScopeFiles.add(virtualFile)) return;
+          }
+          inspectFile(file, manager, localTools, globalSimpleTools, map, true);
+        }
+      });
+    }
+    for (Tools tools : globalSimpleTools) {
+      GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
+      GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
+      GlobalInspectionToolWrapper problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
+      tool.inspectionFinished(manager, this, problemDescriptionProcessor);
+    }
+  }
+
+  /**
+   * Inspects the files of the scope on several threads. Only the virtual files are collected beforehand, without loading their PSI,
+   * and PSI of a file is requested by the worker inspecting it, so in the batch files processing mode it can be reclaimed
+   * as soon as the file is done. A global simple tool still checks one file at a time, see {@link #inspectFile}.
+   */
+  private void inspectFilesConcurrently(@NotNull AnalysisScope scope,
+                                        @NotNull final InspectionManager manager,
+                                        @NotNull final List<Tools> localTools,
+                                        @NotNull final List<Tools> globalSimpleTools,
+                                        @NotNull final Map<String, DescriptorProviderInspection> map,
+                                        @Nullable final Set<VirtualFile> localScopeFiles) {
+    final List<VirtualFile> files = new ArrayList<VirtualFile>();
+    scope.accept(new Processor<VirtualFile>() {
       @Override
-      public void visitFile(final PsiFile file) {
-        final VirtualFile virtualFile = file.getVirtualFile();
-        if (virtualFile != null) {
-          incrementJobDoneAmount(LOCAL_ANALYSIS, ProjectUtil.calcRelativeToProjectPath(virtualFile, myProject));
-          if (SingleRootFileViewProvider.isTooLargeForIntelligence(virtualFile)) return;
-          if (localScopeFiles != null && !localScopeFiles.add(virtualFile)) return;
+      public boolean process(VirtualFile virtualFile) {
+        if (localScopeFiles == null || localScopeFiles.add(virtualFile)) {
+          files.add(virtualFile);
         }
+        return myProgressIndicator == null || !myProgressIndicator.isCanceled();
+      }
+    });
 
-        final FileViewProvider viewProvider = psiManager.findViewProvider(virtualFile);
-        final com.intellij.openapi.editor.Document document = viewProvider == null ? null : viewProvider.getDocument();
-        if (document == null || virtualFile.getFileType().isBinary()) return; //do not inspect binary files
-        final LocalInspectionsPass pass = new LocalInspectionsPass(file, document, 0,
-                                                                   file.getTextLength(), LocalInspectionsPass.EMPTY_PRIORITY_RANGE, true);
-        try {
-          final List<LocalInspectionToolWrapper> lTools = new ArrayList<LocalInspectionToolWrapper>();
-          for (Tools tool : localTools) {
-            final LocalInspectionToolWrapper enabledTool = (LocalInspectionToolWrapper)tool.getEnabledTool(file);
-            if (enabledTool != null) {
-              lTools.add(enabledTool);
+    final PsiManager psiManager = PsiManager.getInstance(myProject);
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, myProgressIndicator, false, new Processor<VirtualFile>() {
+      @Override
+      public boolean process(final VirtualFile virtualFile) {
+        incrementJobDoneAmount(LOCAL_ANALYSIS, ProjectUtil.calcRelativeToProjectPath(virtualFile, myProject));
+        if (SingleRootFileViewProvider.isTooLargeForIntelligence(virtualFile)) return true;
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
+          @Override
+          public void run() {
+            if (!virtualFile.isValid()) return;
+            final PsiFile file = psiManager.findFile(virtualFile);
+            if (file != null && ProblemHighlightFilter.shouldProcessFileInBatch(file)) {
+              // files are already processed concurrently, so the global simple tools of a file are run one by one
+              inspectFile(file, manager, localTools, globalSimpleTools, map, false);
             }
           }
-          pass.doInspectInBatch((InspectionManagerEx)manager, lTools);
+        });
+        return true;
+      }
+    });
+  }
 
-          JobLauncher.getInstance().invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, false, new Processor<Tools>() {
-            @Override
-            public boolean process(Tools tools) {
-              GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
-              GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
-              ProblemsHolder problemsHolder = new ProblemsHolder(manager, file, false);
-              GlobalInspectionToolWrapper problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
-              tool.checkFile(file, manager, problemsHolder, GlobalInspectionContextImpl.this, problemDescriptionProcessor);
-              LocalInspectionToolWrapper.addProblemDescriptors(problemsHolder.getResults(), false, GlobalInspectionContextImpl.this, null,
-                                                               CONVERT, toolWrapper);
-              return true;
-            }
-          });
+  private void inspectFile(@NotNull final PsiFile file,
+                           @NotNull final InspectionManager manager,
+                           @NotNull List<Tools> localTools,
+                           @NotNull List<Tools> globalSimpleTools,
+                           @NotNull final Map<String, DescriptorProviderInspection> map,
+                           boolean runGlobalSimpleToolsConcurrently) {
+    final VirtualFile virtualFile = file.getVirtualFile();
+    final FileViewProvider viewProvider = PsiManager.getInstance(myProject).findViewProvider(virtualFile);
+    final com.intellij.openapi.editor.Document document = viewProvider == null ? null : viewProvider.getDocument();
+    if (document == null || virtualFile.getFileType().isBinary()) return; //do not inspect binary files
+    final LocalInspectionsPass pass = new LocalInspectionsPass(file, document, 0,
+                                                               file.getTextLength(), LocalInspectionsPass.EMPTY_PRIORITY_RANGE, true);
+    final OfflineInspectionResultsCache resultsCache = InspectionTool.ourOutputPath != null ? myOfflineResultsCache : null;
+    try {
+      final List<String> cachedOutput = resultsCache != null ? resultsCache.getOutput(virtualFile) : null;
+      if (cachedOutput != null) {
+        for (int i = 0; i < cachedOutput.size(); i += 2) {
+          DescriptorProviderInspection.appendOutput(cachedOutput.get(i), cachedOutput.get(i + 1), true);
         }
-        catch (ProcessCanceledException e) {
-          throw e;
+      }
+      else {
+        final List<LocalInspectionToolWrapper> lTools = new ArrayList<LocalInspectionToolWrapper>();
+        for (Tools tool : localTools) {
+          final LocalInspectionToolWrapper enabledTool = (LocalInspectionToolWrapper)tool.getEnabledTool(file);
+          if (enabledTool != null) {
+            lTools.add(enabledTool);
+          }
         }
-        catch (IndexNotReadyException e) {
-          throw e;
+        if (resultsCache != null) {
+          resultsCache.startRecording();
         }
-        catch (Exception e) {
-          LOG.error("In file: " + file, e);
+        pass.doInspectInBatch((InspectionManagerEx)manager, lTools);
+        if (resultsCache != null) {
+          final Set<VirtualFile> dependencies = new THashSet<VirtualFile>();
+          final Set<String> unresolvedNames = new THashSet<String>();
+          if (collectDependencies(file, dependencies, unresolvedNames)) {
+            resultsCache.finishRecording(virtualFile, dependencies, unresolvedNames);
+            recordTransitiveDependencies(dependencies, resultsCache);
+          }
         }
-        catch (AssertionError e) {
-          LOG.error("In file: " + file, e);
+      }
+
+      final Processor<Tools> processor = new Processor<Tools>() {
+        @Override
+        public boolean process(Tools tools) {
+          GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
+          GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
+          ProblemsHolder problemsHolder = new ProblemsHolder(manager, file, false);
+          GlobalInspectionToolWrapper problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
+          // the tools may keep state between the files, so a tool checks one file at a time even if the files are inspected concurrently
+          synchronized (tool) {
+            tool.checkFile(file, manager, problemsHolder, GlobalInspectionContextImpl.this, problemDescriptionProcessor);
+          }
+          LocalInspectionToolWrapper.addProblemDescriptors(problemsHolder.getResults(), false, GlobalInspectionContextImpl.this, null,
+                                                           CONVERT, toolWrapper);
+          return true;
         }
-        finally {
-          InjectedLanguageManager.getInstance(myProject).dropFileCaches(file);
+      };
+      if (runGlobalSimpleToolsConcurrently) {
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, false, processor);
+      }
+      else {
+        ContainerUtil.process(globalSimpleTools, processor);
+      }
+    }
+    catch (ProcessCanceledException e) {
+      throw e;
+    }
+    catch (IndexNotReadyException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      LOG.error("In file: " + file, e);
+    }
+    catch (AssertionError e) {
+      LOG.error("In file: " + file, e);
+    }
+    finally {
+      if (resultsCache != null) {
+        resultsCache.cancelRecording();
+      }
+      InjectedLanguageManager.getInstance(myProject).dropFileCaches(file);
+    }
+  }
+
+  /**
+   * Collects the project files the references of the file resolve to and the names of the references which don't resolve,
+   * the results of the local inspections may depend on them.
+   *
+   * @return false if the file has an unresolved reference which name isn't an identifier, so it can't be tracked
+   */
+  private boolean collectDependencies(@NotNull final PsiFile file,
+                                      @NotNull final Set<VirtualFile> dependencies,
+                                      @NotNull final Set<String> unresolvedNames) {
+    final ProjectFileIndex fileIndex = ProjectRootManager.getInstance(myProject).getFileIndex();
+    final Ref<Boolean> trackable = Ref.create(Boolean.TRUE);
+    file.accept(new PsiRecursiveElementWalkingVisitor() {
+      @Override
+      public void visitElement(PsiElement element) {
+        for (PsiReference reference : element.getReferences()) {
+          final List<PsiElement> targets = new ArrayList<PsiElement>();
+          if (reference instanceof PsiPolyVariantReference) {
+            for (ResolveResult result : ((PsiPolyVariantReference)reference).multiResolve(false)) {
+              ContainerUtil.addIfNotNull(result.getElement(), targets);
+            }
+          }
+          else {
+            ContainerUtil.addIfNotNull(reference.resolve(), targets);
+          }
+          if (targets.isEmpty() && !reference.isSoft()) {
+            final String name = reference.getRangeInElement().substring(element.getText());
+            if (!StringUtil.isJavaIdentifier(name)) {
+              trackable.set(Boolean.FALSE);
+              stopWalking();
+              return;
+            }
+            unresolvedNames.add(name);
+          }
+          for (PsiElement target : targets) {
+            final PsiFile targetFile = target.getContainingFile();
+            final VirtualFile virtualFile = targetFile == null ? null : targetFile.getVirtualFile();
+            if (virtualFile != null && fileIndex.isInContent(virtualFile) && !virtualFile.equals(file.getVirtualFile())) {
+              dependencies.add(virtualFile);
+            }
+          }
         }
+        super.visitElement(element);
       }
     });
-    for (Tools tools : globalSimpleTools) {
-      GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
-      GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
-      GlobalInspectionToolWrapper problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
-      tool.inspectionFinished(manager, this, problemDescriptionProcessor);
+    return trackable.get().booleanValue();
+  }
+
+  /**
+   * Records the dependencies of the files the inspected file depends on, and of the files those depend on, and so on: the results
+   * of the local inspections may change with them too, e.g. when a method is added to a superclass of a superclass.
+   * The files whose dependencies are recorded already for their current content are skipped.
+   */
+  private void recordTransitiveDependencies(@NotNull Collection<VirtualFile> dependencies,
+                                            @NotNull OfflineInspectionResultsCache resultsCache) {
+    final PsiManager psiManager = PsiManager.getInstance(myProject);
+    final Set<VirtualFile> visited = new THashSet<VirtualFile>(dependencies);
+    final Stack<VirtualFile> toVisit = new Stack<VirtualFile>(dependencies);
+    while (!toVisit.isEmpty()) {
+      final VirtualFile dependency = toVisit.pop();
+      if (!dependency.isValid() || resultsCache.hasDependencies(dependency)) continue;
+      final PsiFile file = psiManager.findFile(dependency);
+      if (file == null) continue;
+
+      final Set<VirtualFile> fileDependencies = new THashSet<VirtualFile>();
+      final Set<String> unresolvedNames = new THashSet<String>();
+      if (!collectDependencies(file, fileDependencies, unresolvedNames)) continue;
+      resultsCache.recordDependencies(dependency, fileDependencies, unresolvedNames);
+      for (VirtualFile fileDependency : fileDependencies) {
+        if (visited.add(fileDependency)) {
+          toVisit.push(fileDependency);
+        }
+      }
     }
   }
 
@@ -810,7 +997,7 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
   }
 
   @Override
-  public void incrementJobDoneAmount(JobDescriptor job, String message) {
+  public synchronized void incrementJobDoneAmount(JobDescriptor job, String message) {
     if (myProgressIndicator == null) return;
 
     ProgressManager.checkCanceled();
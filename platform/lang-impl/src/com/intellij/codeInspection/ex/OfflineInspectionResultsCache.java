@@ -0,0 +1,424 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.ex;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiSearchHelper;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.Processor;
+import com.intellij.util.containers.ConcurrentHashMap;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the offline output of the local inspections for every inspected file between the runs of the command line inspector.
+ * The output of a file is reused while the content of the file and the contents of the project files it refers to stay the same,
+ * so only the changed files and the files depending on them are inspected again. The dependencies are followed transitively,
+ * e.g. a file extending a class may be affected by a method added to the superclass of that class, so the dependencies of every
+ * file reachable from an inspected file are kept as well, see {@link #recordDependencies}. A reference of the file which didn't resolve
+ * is remembered by its name: the output is dropped when a project file containing the name is changed or a new one appears,
+ * as the reference may resolve to it now. All the results are dropped when the inspection profile, the IDE build or the class path
+ * of the project changes.
+ */
+public class OfflineInspectionResultsCache {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.ex.OfflineInspectionResultsCache");
+  private static final int VERSION = 3;
+  private static final String MISSING_FILE_HASH = "";
+
+  private final Project myProject;
+  private final PersistentHashMap<String, FileResults> myResults;
+  // url -> hash of the current content, computed once per run
+  private final ConcurrentMap<String, String> myContentHashes = new ConcurrentHashMap<String, String>();
+  // word -> urls of the project files containing it, computed once per run
+  private final ConcurrentMap<String, Set<String>> myFilesWithWord = new ConcurrentHashMap<String, Set<String>>();
+  // url -> whether neither the file nor any of the files it depends on, directly or not, have changed, computed once per run
+  private final ConcurrentMap<String, Boolean> myUpToDate = new ConcurrentHashMap<String, Boolean>();
+  private final ThreadLocal<List<String>> myRecordedOutput = new ThreadLocal<List<String>>();
+  private final AtomicInteger myReusedFiles = new AtomicInteger();
+  private final AtomicInteger myInspectedFiles = new AtomicInteger();
+
+  public OfflineInspectionResultsCache(@NotNull Project project, @NotNull File cacheDir, @NotNull String profileVersion) throws IOException {
+    myProject = project;
+    final File versionFile = new File(cacheDir, "version");
+    final String version = VERSION + ":" + profileVersion + ":" + computeClassPathHash(project);
+    if (!versionFile.exists() || !version.equals(FileUtil.loadFile(versionFile, "UTF-8"))) {
+      FileUtil.delete(cacheDir);
+      FileUtil.writeToFile(versionFile, version.getBytes("UTF-8"));
+    }
+    myResults = new PersistentHashMap<String, FileResults>(new File(cacheDir, "results"), new EnumeratorStringDescriptor(),
+                                                           new FileResultsExternalizer());
+  }
+
+  /**
+   * @return the output of the local inspections recorded for the file if neither the file nor its dependencies, direct or transitive,
+   * have changed since, null otherwise
+   */
+  @Nullable
+  public List<String> getOutput(@NotNull VirtualFile file) {
+    getContentHash(file.getUrl(), file); // so that the file isn't looked up by its url
+    final FileResults results = getResults(file.getUrl());
+    if (results == null || results.myOutput == null || !isUpToDate(file.getUrl())) return null;
+
+    myReusedFiles.incrementAndGet();
+    return Arrays.asList(results.myOutput);
+  }
+
+  /**
+   * @return true if the dependencies recorded for the file are up to date, i.e. neither the file nor its direct dependencies
+   * have changed since, see {@link #recordDependencies}
+   */
+  public boolean hasDependencies(@NotNull VirtualFile file) {
+    final FileResults results = getResults(file.getUrl());
+    return results != null && isUnchanged(file.getUrl(), results);
+  }
+
+  /**
+   * Stores the dependencies of a file which the inspected files depend on, without any output, so that the changes of the files
+   * it depends on in turn invalidate the output of the inspected files
+   */
+  public void recordDependencies(@NotNull VirtualFile file, @NotNull Collection<VirtualFile> dependencies, @NotNull Collection<String> unresolvedNames) {
+    store(file, dependencies, unresolvedNames, null);
+  }
+
+  /**
+   * Starts collecting the output written by the current thread, see {@link #recordOutput(String, String)}
+   */
+  public void startRecording() {
+    myRecordedOutput.set(new ArrayList<String>());
+  }
+
+  /**
+   * Called for every portion of the offline output of a tool, the output is remembered if the current thread is recording.
+   */
+  public void recordOutput(@NotNull String toolShortName, @NotNull String text) {
+    final List<String> output = myRecordedOutput.get();
+    if (output != null) {
+      output.add(toolShortName);
+      output.add(text);
+    }
+  }
+
+  /**
+   * Stores the output recorded since {@link #startRecording()} for the file
+   *
+   * @param dependencies    project files the references of the file resolve to
+   * @param unresolvedNames names of the references of the file which don't resolve, they must be identifiers
+   */
+  public void finishRecording(@NotNull VirtualFile file, @NotNull Collection<VirtualFile> dependencies, @NotNull Collection<String> unresolvedNames) {
+    final List<String> output = myRecordedOutput.get();
+    myRecordedOutput.remove();
+    if (output == null) return;
+
+    myInspectedFiles.incrementAndGet();
+    store(file, dependencies, unresolvedNames, ArrayUtil.toStringArray(output));
+  }
+
+  private void store(@NotNull VirtualFile file,
+                     @NotNull Collection<VirtualFile> dependencies,
+                     @NotNull Collection<String> unresolvedNames,
+                     @Nullable String[] output) {
+    final Map<String, VirtualFile> dependencyFiles = new LinkedHashMap<String, VirtualFile>();
+    for (VirtualFile dependency : dependencies) {
+      dependencyFiles.put(dependency.getUrl(), dependency);
+    }
+    final int resolvedCount = dependencyFiles.size();
+    // a reference may resolve to any of the files containing its name once they change
+    for (String name : unresolvedNames) {
+      for (String url : getFilesWithWord(name)) {
+        if (!dependencyFiles.containsKey(url) && !url.equals(file.getUrl())) {
+          dependencyFiles.put(url, null);
+        }
+      }
+    }
+    final String[] urls = ArrayUtil.toStringArray(dependencyFiles.keySet());
+    final String[] hashes = new String[urls.length];
+    for (int i = 0; i < urls.length; i++) {
+      hashes[i] = getContentHash(urls[i], dependencyFiles.get(urls[i]));
+    }
+    try {
+      myResults.put(file.getUrl(), new FileResults(getContentHash(file.getUrl(), file), urls, resolvedCount, hashes,
+                                                   ArrayUtil.toStringArray(unresolvedNames), output));
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  public void cancelRecording() {
+    myRecordedOutput.remove();
+  }
+
+  public void dispose() {
+    LOG.info("Inspection results reused for " + myReusedFiles.get() + " files, " + myInspectedFiles.get() + " files inspected");
+    try {
+      myResults.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  @Nullable
+  private FileResults getResults(@NotNull String url) {
+    try {
+      return myResults.get(url);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+  }
+
+  /**
+   * Checks the file and all the files reachable from it through the recorded dependencies. A file without recorded dependencies
+   * (e.g. because some of its references couldn't be tracked) makes the files depending on it out of date.
+   */
+  private boolean isUpToDate(@NotNull String url) {
+    final Boolean known = myUpToDate.get(url);
+    if (known != null) return known.booleanValue();
+
+    boolean upToDate = true;
+    final Set<String> visited = new HashSet<String>();
+    final Stack<String> stack = new Stack<String>();
+    visited.add(url);
+    stack.push(url);
+    while (!stack.isEmpty()) {
+      final String current = stack.pop();
+      final Boolean currentUpToDate = myUpToDate.get(current);
+      if (currentUpToDate != null) {
+        if (currentUpToDate.booleanValue()) continue; // everything reachable from it is checked already
+        upToDate = false;
+        break;
+      }
+      final FileResults results = getResults(current);
+      if (results == null || !isUnchanged(current, results)) {
+        myUpToDate.put(current, Boolean.FALSE);
+        upToDate = false;
+        break;
+      }
+      for (int i = 0; i < results.myResolvedDependenciesCount; i++) {
+        if (visited.add(results.myDependencies[i])) {
+          stack.push(results.myDependencies[i]);
+        }
+      }
+    }
+    myUpToDate.put(url, upToDate);
+    return upToDate;
+  }
+
+  /**
+   * @return true if neither the file nor its direct dependencies have changed, and no file containing the name of an unresolved
+   * reference has appeared
+   */
+  private boolean isUnchanged(@NotNull String url, @NotNull FileResults results) {
+    if (!results.myContentHash.equals(getContentHash(url, null))) return false;
+    for (int i = 0; i < results.myDependencies.length; i++) {
+      if (!results.myDependencyHashes[i].equals(getContentHash(results.myDependencies[i], null))) return false;
+    }
+    if (results.myUnresolvedNames.length > 0) {
+      final Set<String> dependencies = new HashSet<String>(Arrays.asList(results.myDependencies));
+      dependencies.add(url);
+      for (String name : results.myUnresolvedNames) {
+        if (!dependencies.containsAll(getFilesWithWord(name))) return false;
+      }
+    }
+    return true;
+  }
+
+  @NotNull
+  private String getContentHash(@NotNull String url, @Nullable VirtualFile file) {
+    String hash = myContentHashes.get(url);
+    if (hash == null) {
+      hash = computeContentHash(file != null ? file : VirtualFileManager.getInstance().findFileByUrl(url));
+      myContentHashes.put(url, hash);
+    }
+    return hash;
+  }
+
+  @NotNull
+  private Set<String> getFilesWithWord(@NotNull String word) {
+    Set<String> urls = myFilesWithWord.get(word);
+    if (urls == null) {
+      final Set<String> found = new HashSet<String>();
+      PsiSearchHelper.SERVICE.getInstance(myProject).processAllFilesWithWord(word, GlobalSearchScope.projectScope(myProject), new Processor<PsiFile>() {
+        @Override
+        public boolean process(PsiFile file) {
+          final VirtualFile virtualFile = file.getVirtualFile();
+          if (virtualFile != null) {
+            found.add(virtualFile.getUrl());
+          }
+          return true;
+        }
+      }, true);
+      urls = ConcurrencyUtil.cacheOrGet(myFilesWithWord, word, found);
+    }
+    return urls;
+  }
+
+  @NotNull
+  private static String computeContentHash(@Nullable VirtualFile file) {
+    if (file == null || !file.isValid()) return MISSING_FILE_HASH;
+    final MessageDigest digest = createDigest();
+    try {
+      digest.update(file.contentsToByteArray());
+    }
+    catch (IOException e) {
+      return MISSING_FILE_HASH;
+    }
+    return toHexString(digest);
+  }
+
+  /**
+   * The references of the project files may resolve to the classes of libraries and SDKs, so a changed root or jar invalidates
+   * all the results
+   */
+  @NotNull
+  private static String computeClassPathHash(@NotNull final Project project) {
+    final VirtualFile[] roots = ApplicationManager.getApplication().runReadAction(new Computable<VirtualFile[]>() {
+      @Override
+      public VirtualFile[] compute() {
+        return OrderEnumerator.orderEntries(project).withoutModuleSourceEntries().withoutDepModules().classes().getRoots();
+      }
+    });
+    final MessageDigest digest = createDigest();
+    for (VirtualFile root : roots) {
+      final VirtualFile jar = root.getFileSystem() instanceof JarFileSystem ? ((JarFileSystem)root.getFileSystem()).getVirtualFileForJar(root) : null;
+      final VirtualFile file = jar != null ? jar : root;
+      try {
+        digest.update((root.getUrl() + ":" + file.getTimeStamp() + ":" + file.getLength() + "\n").getBytes("UTF-8"));
+      }
+      catch (UnsupportedEncodingException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return toHexString(digest);
+  }
+
+  @NotNull
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @NotNull
+  private static String toHexString(@NotNull MessageDigest digest) {
+    final StringBuilder hash = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hash.toString();
+  }
+
+  private static class FileResults {
+    private final String myContentHash;
+    // the files the references resolve to come first, followed by the files containing the names of the unresolved references
+    private final String[] myDependencies;
+    private final int myResolvedDependenciesCount;
+    private final String[] myDependencyHashes;
+    private final String[] myUnresolvedNames;
+    // pairs of tool short name and its output, null if the file is only a dependency of the inspected files
+    @Nullable private final String[] myOutput;
+
+    private FileResults(String contentHash,
+                        String[] dependencies,
+                        int resolvedDependenciesCount,
+                        String[] dependencyHashes,
+                        String[] unresolvedNames,
+                        @Nullable String[] output) {
+      myContentHash = contentHash;
+      myDependencies = dependencies;
+      myResolvedDependenciesCount = resolvedDependenciesCount;
+      myDependencyHashes = dependencyHashes;
+      myUnresolvedNames = unresolvedNames;
+      myOutput = output;
+    }
+  }
+
+  private static class FileResultsExternalizer implements DataExternalizer<FileResults> {
+    @Override
+    public void save(DataOutput out, FileResults value) throws IOException {
+      IOUtil.writeString(value.myContentHash, out);
+      out.writeInt(value.myDependencies.length);
+      out.writeInt(value.myResolvedDependenciesCount);
+      for (int i = 0; i < value.myDependencies.length; i++) {
+        IOUtil.writeString(value.myDependencies[i], out);
+        IOUtil.writeString(value.myDependencyHashes[i], out);
+      }
+      out.writeInt(value.myUnresolvedNames.length);
+      for (String name : value.myUnresolvedNames) {
+        IOUtil.writeString(name, out);
+      }
+      out.writeInt(value.myOutput != null ? value.myOutput.length : -1);
+      if (value.myOutput != null) {
+        for (String s : value.myOutput) {
+          IOUtil.writeString(s, out);
+        }
+      }
+    }
+
+    @Override
+    public FileResults read(DataInput in) throws IOException {
+      final String contentHash = IOUtil.readString(in);
+      final String[] dependencies = new String[in.readInt()];
+      final int resolvedDependenciesCount = in.readInt();
+      final String[] dependencyHashes = new String[dependencies.length];
+      for (int i = 0; i < dependencies.length; i++) {
+        dependencies[i] = IOUtil.readString(in);
+        dependencyHashes[i] = IOUtil.readString(in);
+      }
+      final String[] unresolvedNames = new String[in.readInt()];
+      for (int i = 0; i < unresolvedNames.length; i++) {
+        unresolvedNames[i] = IOUtil.readString(in);
+      }
+      final int outputLength = in.readInt();
+      final String[] output = outputLength < 0 ? null : new String[outputLength];
+      for (int i = 0; i < outputLength; i++) {
+        output[i] = IOUtil.readString(in);
+      }
+      return new FileResults(contentHash, dependencies, resolvedDependenciesCount, dependencyHashes, unresolvedNames, output);
+    }
+  }
+}
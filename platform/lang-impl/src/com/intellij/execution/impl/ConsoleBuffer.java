@@ -120,6 +120,7 @@ public class ConsoleBuffer {
   }
 
   public static boolean useCycleBuffer() {
+    if (ConsoleOutputStorage.ENABLED) return true; // the document keeps the tail only, the whole output goes to disk
     final String useCycleBufferProperty = System.getProperty("idea.cycle.buffer.size");
     return useCycleBufferProperty == null || !"disabled".equalsIgnoreCase(useCycleBufferProperty);
   }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.execution.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicatorProvider;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.SystemProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * File holding the whole output of a console, so the console document may keep just the tail of a huge output
+ * (see {@link ConsoleBuffer#useCycleBuffer()}) while the rest stays available for search and hyperlink navigation.
+ * The text is stored as UTF-16 chars, so any range of it is read back by offset without loading the preceding output.
+ * It's kept equal to the text the document would have without trimming: a carriage return wipes out the last line
+ * and the user input edited in the console is {@link #replace(long, long, String) replaced} here as well.
+ * <p/>
+ * Thread-safe.
+ */
+class ConsoleOutputStorage {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.execution.impl.ConsoleOutputStorage");
+
+  static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.console.spill.to.disk", false);
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private final File myFile;
+  private RandomAccessFile myStorage;
+  // chars not yet written to the file
+  private final StringBuilder myPending = new StringBuilder();
+  private long myStoredLength;
+
+  private ConsoleOutputStorage(@NotNull File file) throws IOException {
+    myFile = file;
+    myStorage = new RandomAccessFile(file, "rw");
+  }
+
+  @Nullable
+  static ConsoleOutputStorage create() {
+    try {
+      return new ConsoleOutputStorage(FileUtil.createTempFile("console", ".out", true));
+    }
+    catch (IOException e) {
+      LOG.info("Cannot create console output storage: " + e.getMessage());
+      return null;
+    }
+  }
+
+  synchronized void append(@NotNull CharSequence text) {
+    if (myStorage == null) return;
+    int start = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\r') {
+        myPending.append(text, start, i);
+        truncate(getLineStartOffset(getLength()));
+        start = i + 1;
+      }
+    }
+    myPending.append(text, start, text.length());
+    if (myPending.length() >= CHUNK_SIZE) {
+      flush();
+    }
+  }
+
+  /**
+   * Replaces the text in the range. All the text after the range is rewritten, so it's meant for the end of the output only.
+   */
+  synchronized void replace(long startOffset, long endOffset, @NotNull String text) {
+    if (myStorage == null) return;
+    startOffset = Math.max(0, Math.min(getLength(), startOffset));
+    endOffset = Math.max(startOffset, Math.min(getLength(), endOffset));
+    final String tail = getText(endOffset, getLength());
+    truncate(startOffset);
+    myPending.append(text).append(tail);
+    if (myPending.length() >= CHUNK_SIZE) {
+      flush();
+    }
+  }
+
+  synchronized long getLength() {
+    return myStoredLength + myPending.length();
+  }
+
+  /**
+   * @throws IllegalArgumentException if the range is too long to be returned as a string
+   */
+  @NotNull
+  synchronized String getText(long startOffset, long endOffset) {
+    startOffset = Math.max(0, startOffset);
+    endOffset = Math.min(getLength(), endOffset);
+    if (startOffset >= endOffset) return "";
+    if (endOffset - startOffset > Integer.MAX_VALUE / 2) {
+      throw new IllegalArgumentException("Range is too long: " + startOffset + "-" + endOffset);
+    }
+    if (startOffset >= myStoredLength) {
+      return myPending.substring((int)(startOffset - myStoredLength), (int)(endOffset - myStoredLength));
+    }
+
+    flush();
+    if (myStorage == null) return "";
+    try {
+      final byte[] bytes = new byte[(int)(endOffset - startOffset) * 2];
+      myStorage.seek(startOffset * 2);
+      myStorage.readFully(bytes);
+      return ByteBuffer.wrap(bytes).asCharBuffer().toString();
+    }
+    catch (IOException e) {
+      handleError(e);
+      return "";
+    }
+  }
+
+  /**
+   * @return offset of the first occurrence of the text at or after the given offset, -1 if none
+   */
+  synchronized long indexOf(@NotNull String text, long fromOffset, boolean caseSensitive) {
+    if (text.isEmpty()) return -1;
+    final long length = getLength();
+    long chunkStart = Math.max(0, fromOffset);
+    while (chunkStart < length) {
+      ProgressIndicatorProvider.checkCanceled();
+      // chunks overlap so an occurrence crossing the chunk boundary is found too
+      final long chunkEnd = Math.min(length, chunkStart + CHUNK_SIZE + text.length() - 1);
+      final String chunk = getText(chunkStart, chunkEnd);
+      final int index = caseSensitive ? chunk.indexOf(text) : StringUtil.indexOfIgnoreCase(chunk, text, 0);
+      if (index >= 0) return chunkStart + index;
+      if (chunkEnd == length || myStorage == null) break;
+      chunkStart += CHUNK_SIZE;
+    }
+    return -1;
+  }
+
+  /**
+   * @return offset of the start of the line containing the given offset
+   */
+  synchronized long getLineStartOffset(long offset) {
+    long end = Math.min(getLength(), offset);
+    while (end > 0) {
+      final long start = Math.max(0, end - CHUNK_SIZE);
+      final int index = getText(start, end).lastIndexOf('\n');
+      if (index >= 0) return start + index + 1;
+      if (myStorage == null) break;
+      end = start;
+    }
+    return 0;
+  }
+
+  /**
+   * @return offset of the end of the line containing the given offset, excluding the line separator
+   */
+  synchronized long getLineEndOffset(long offset) {
+    final long length = getLength();
+    long start = Math.max(0, offset);
+    while (start < length) {
+      final long end = Math.min(length, start + CHUNK_SIZE);
+      final int index = getText(start, end).indexOf('\n');
+      if (index >= 0) return start + index;
+      if (myStorage == null) break;
+      start = end;
+    }
+    return length;
+  }
+
+  synchronized void clear() {
+    myPending.setLength(0);
+    myStoredLength = 0;
+    if (myStorage == null) return;
+    try {
+      myStorage.setLength(0);
+    }
+    catch (IOException e) {
+      handleError(e);
+    }
+  }
+
+  synchronized void dispose() {
+    myPending.setLength(0);
+    if (myStorage != null) {
+      try {
+        myStorage.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      myStorage = null;
+    }
+    FileUtil.delete(myFile);
+  }
+
+  /**
+   * Drops the text after the offset. The file isn't shrunk, its tail is overwritten by the next flushes.
+   */
+  private void truncate(long offset) {
+    if (offset >= myStoredLength) {
+      myPending.setLength((int)(offset - myStoredLength));
+    }
+    else {
+      myPending.setLength(0);
+      myStoredLength = offset;
+    }
+  }
+
+  private void flush() {
+    if (myPending.length() == 0 || myStorage == null) return;
+    try {
+      final ByteBuffer bytes = ByteBuffer.allocate(myPending.length() * 2);
+      bytes.asCharBuffer().put(CharBuffer.wrap(myPending));
+      myStorage.seek(myStoredLength * 2);
+      myStorage.write(bytes.array());
+      myStoredLength += myPending.length();
+      myPending.setLength(0);
+    }
+    catch (IOException e) {
+      handleError(e);
+    }
+  }
+
+  private void handleError(@NotNull IOException e) {
+    // the console keeps working on its document only
+    LOG.info("Console output storage " + myFile + " failed: " + e.getMessage());
+    dispose();
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.intellij.execution.impl;
 
+import com.intellij.CommonBundle;
 import com.intellij.codeInsight.navigation.IncrementalSearchHandler;
 import com.intellij.codeInsight.template.impl.editorActions.TypedActionHandlerBase;
 import com.intellij.execution.ConsoleFolding;
@@ -59,9 +60,11 @@ import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.ide.CopyPasteManager;
 import com.intellij.openapi.keymap.Keymap;
 import com.intellij.openapi.keymap.KeymapManager;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.DumbAwareAction;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.*;
 import com.intellij.openapi.util.text.LineTokenizer;
 import com.intellij.openapi.util.text.StringUtil;
@@ -92,6 +95,9 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   private static final Logger LOG = Logger.getInstance("#com.intellij.execution.impl.ConsoleViewImpl");
 
   private static final int DEFAULT_FLUSH_DELAY = SystemProperties.getIntProperty("console.flush.delay.ms", 200);
+  // a line of the full output found beyond the document is shown cut to this length
+  private static final int MAX_SHOWN_LINE_LENGTH = 1000;
+  private static final int MAX_FILTERED_LINE_LENGTH = 64 * 1024;
 
   public static final Key<ConsoleViewImpl> CONSOLE_VIEW_IN_EDITOR_VIEW = Key.create("CONSOLE_VIEW_IN_EDITOR_VIEW");
 
@@ -117,6 +123,12 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   private final CopyOnWriteArraySet<ChangeListener> myListeners             = new CopyOnWriteArraySet<ChangeListener>();
   private final ArrayList<AnAction>                 customActions           = new ArrayList<AnAction>();
   private final ConsoleBuffer                       myBuffer                = new ConsoleBuffer();
+  @Nullable
+  private final ConsoleOutputStorage                myOutputStorage         = ConsoleOutputStorage.ENABLED ? ConsoleOutputStorage.create() : null;
+  // offset in the full output corresponding to the end of the document, guarded by LOCK
+  private       long                                myFullOutputDocumentEnd;
+  // length of the text added to the end of the document by a subclass but not yet copied to the full output, guarded by LOCK
+  private       int                                 myExternalContentLength;
   private       boolean                             myUpdateFoldingsEnabled = true;
   private       EditorHyperlinkSupport myHyperlinks;
   private       MyDiffContainer        myJLayeredPane;
@@ -341,6 +353,11 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       myContentSize = 0;
       myBuffer.clear();
       myFolding.clear();
+      if (myOutputStorage != null) {
+        myOutputStorage.clear();
+        myFullOutputDocumentEnd = 0;
+        myExternalContentLength = 0;
+      }
 
       final EditorHyperlinkSupport hyperlinks = myHyperlinks;
       if (hyperlinks != null) {
@@ -506,6 +523,9 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       myEditor = null;
       myHyperlinks = null;
     }
+    if (myOutputStorage != null) {
+      myOutputStorage.dispose();
+    }
     }
 
   private void cancelAllFlushRequests() {
@@ -544,6 +564,9 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
   private void printHyperlink(String s, ConsoleViewContentType contentType, HyperlinkInfo info) {
     synchronized (LOCK) {
+      if (myOutputStorage != null) {
+        myOutputStorage.append(StringUtil.convertLineSeparators(s, true));
+      }
       Pair<String, Integer> pair = myBuffer.print(s, contentType, info);
       s = pair.first;
       myContentSize += s.length() - pair.second;
@@ -562,11 +585,32 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
   protected void beforeExternalAddContentToDocument(int length, ConsoleViewContentType contentType) {
     synchronized (LOCK) {
+      storeExternalContent();
       myContentSize += length;
       addToken(length, null, contentType);
+      if (myOutputStorage != null) {
+        myExternalContentLength += length;
+      }
     }
   }
 
+  /**
+   * Copies the text added to the end of the document after {@link #beforeExternalAddContentToDocument} to the full output,
+   * where it goes before the text printed but not flushed yet. Must be called under LOCK.
+   */
+  private void storeExternalContent() {
+    if (myOutputStorage == null || myExternalContentLength == 0 || myEditor == null) return;
+    // the text is added to the document in the event dispatch thread, it may be not there yet for other threads
+    if (!ApplicationManager.getApplication().isDispatchThread()) return;
+
+    final Document document = myEditor.getDocument();
+    final int length = Math.min(myExternalContentLength, document.getTextLength());
+    myExternalContentLength = 0;
+    final String text = document.getText(new TextRange(document.getTextLength() - length, document.getTextLength()));
+    myOutputStorage.replace(myFullOutputDocumentEnd, myFullOutputDocumentEnd, text);
+    myFullOutputDocumentEnd += text.length();
+  }
+
   private void addToken(int length, @Nullable HyperlinkInfo info, ConsoleViewContentType contentType) {
     ConsoleUtil.addToken(length, info, contentType, myTokens);
   }
@@ -593,6 +637,130 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     return true;
   }
 
+  /**
+   * @return whether the whole output is kept on disk, so it's available via {@link #getFullOutputText(long, long)} etc.
+   * even after the document has dropped its beginning
+   */
+  public boolean isFullOutputAvailable() {
+    return myOutputStorage != null;
+  }
+
+  public long getFullOutputLength() {
+    if (myOutputStorage == null) return 0;
+    synchronized (LOCK) {
+      storeExternalContent();
+    }
+    return myOutputStorage.getLength();
+  }
+
+  @NotNull
+  public String getFullOutputText(long startOffset, long endOffset) {
+    if (myOutputStorage == null) return "";
+    synchronized (LOCK) {
+      storeExternalContent();
+    }
+    return myOutputStorage.getText(startOffset, endOffset);
+  }
+
+  /**
+   * @return offset of the text in the full output at or after the given offset, -1 if there is no such text
+   */
+  public long findInFullOutput(@NotNull String text, long fromOffset, boolean caseSensitive) {
+    if (myOutputStorage == null) return -1;
+    synchronized (LOCK) {
+      storeExternalContent();
+    }
+    return myOutputStorage.indexOf(text, fromOffset, caseSensitive);
+  }
+
+  /**
+   * Runs the console filters over the line of the full output containing the offset, the line doesn't need to be in the document.
+   */
+  @Nullable
+  public HyperlinkInfo getHyperlinkInFullOutput(long offset) {
+    if (myOutputStorage == null) return null;
+    // filters are run over a part of a very long line only
+    final long lineStart = Math.max(myOutputStorage.getLineStartOffset(offset), offset - MAX_FILTERED_LINE_LENGTH / 2);
+    final long lineEnd = Math.min(myOutputStorage.getLineEndOffset(offset), lineStart + MAX_FILTERED_LINE_LENGTH);
+    final String line = myOutputStorage.getText(lineStart, lineEnd) + "\n";
+    final int entireLength = (int)Math.min(Integer.MAX_VALUE, lineEnd + 1);
+    for (Filter filter : new Filter[]{myCustomFilter, myPredefinedMessageFilter}) {
+      final Filter.Result result = filter.applyFilter(line, entireLength);
+      if (result == null) continue;
+      for (Filter.ResultItem item : result.getResultItems()) {
+        if (item.hyperlinkInfo == null) continue;
+        final long start = lineStart + item.highlightStartOffset - (entireLength - line.length());
+        final long end = lineStart + item.highlightEndOffset - (entireLength - line.length());
+        if (start <= offset && offset < end) {
+          return item.hyperlinkInfo;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Selects the range of the full output in the console if it's in the document; otherwise shows its line, which has been dropped
+   * from the document, and offers to follow the hyperlink there, if any.
+   */
+  private void showInFullOutput(long startOffset, long endOffset) {
+    if (myOutputStorage == null || myEditor == null) return;
+    flushDeferredText();
+    final long documentStart;
+    synchronized (LOCK) {
+      storeExternalContent();
+      documentStart = myFullOutputDocumentEnd - myEditor.getDocument().getTextLength();
+    }
+    if (startOffset >= documentStart) {
+      final int start = (int)Math.min(myEditor.getDocument().getTextLength(), startOffset - documentStart);
+      final int end = (int)Math.min(myEditor.getDocument().getTextLength(), endOffset - documentStart);
+      scrollTo(start);
+      myEditor.getSelectionModel().setSelection(start, end);
+      return;
+    }
+
+    final String title = ExecutionBundle.message("find.in.full.console.output.title");
+    final long lineStart = myOutputStorage.getLineStartOffset(startOffset);
+    final long lineEnd = Math.min(myOutputStorage.getLineEndOffset(startOffset), lineStart + MAX_SHOWN_LINE_LENGTH);
+    final String message = ExecutionBundle.message("find.in.full.console.output.trimmed.line", myOutputStorage.getText(lineStart, lineEnd));
+    final HyperlinkInfo hyperlink = getHyperlinkInFullOutput(startOffset);
+    if (hyperlink == null) {
+      Messages.showInfoMessage(myProject, message, title);
+    }
+    else if (Messages.showYesNoDialog(myProject, message, title, ExecutionBundle.message("find.in.full.console.output.navigate"),
+                                      CommonBundle.getCloseButtonText(), null) == Messages.YES) {
+      hyperlink.navigate(myProject);
+    }
+  }
+
+  /**
+   * @return offset in the full output corresponding to the given offset in the console document, or -1 if the full output isn't kept
+   */
+  public long getFullOutputOffset(int documentOffset) {
+    if (myOutputStorage == null || myEditor == null) return -1;
+    synchronized (LOCK) {
+      return toFullOutputOffset(documentOffset);
+    }
+  }
+
+  private long toFullOutputOffset(int documentOffset) {
+    assert myOutputStorage != null;
+    storeExternalContent();
+    final long offset = myFullOutputDocumentEnd - (myEditor.getDocument().getTextLength() - documentOffset);
+    return Math.max(0, Math.min(myOutputStorage.getLength(), offset));
+  }
+
+  /**
+   * Applies the change of the user input made right in the document to the full output, must be called before the document is changed
+   */
+  private void replaceInFullOutput(int startOffset, int endOffset, @NotNull String text) {
+    if (myOutputStorage == null) return;
+    final long start = toFullOutputOffset(startOffset);
+    final long end = toFullOutputOffset(endOffset);
+    myOutputStorage.replace(start, end, text);
+    myFullOutputDocumentEnd += text.length() - (end - start);
+  }
+
   public void flushDeferredText() {
     flushDeferredText(false);
   }
@@ -640,6 +808,10 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       if (myBuffer.isEmpty()) return;
 
       text = myBuffer.getText();
+      if (myOutputStorage != null) {
+        storeExternalContent();
+        myFullOutputDocumentEnd = myOutputStorage.getLength();
+      }
 
       contentTypes = Collections.unmodifiableCollection(new HashSet<ConsoleViewContentType>(myBuffer.getDeferredTokenTypes()));
       List<TokenInfo> deferredTokens = myBuffer.getDeferredTokens();
@@ -663,7 +835,9 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
           myEditor.getScrollingModel().accumulateViewportChanges();
         }
         try {
-          String[] strings = text.split("\\r");
+          // with the full output kept, trailing carriage returns aren't dropped, so that the document stays equal to it
+          // however the output is split between flushes
+          String[] strings = myOutputStorage != null ? text.split("\\r", -1) : text.split("\\r");
           for (int i = 0; i < strings.length - 1; i++) {
             document.insertString(document.getTextLength(), strings[i]);
             int lastLine = document.getLineCount() - 1;
@@ -1112,6 +1286,48 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
   }
 
+  private class FindInFullOutputAction extends DumbAwareAction {
+    private String myText;
+    private long myLastOccurrence = -1;
+
+    private FindInFullOutputAction() {
+      super(ExecutionBundle.message("find.in.full.console.output.action.name"),
+            ExecutionBundle.message("find.in.full.console.output.action.description"), AllIcons.Actions.Find);
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+      e.getPresentation().setEnabled(myEditor != null && getFullOutputLength() > 0);
+    }
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+      final String title = ExecutionBundle.message("find.in.full.console.output.title");
+      final String text = Messages.showInputDialog(myProject, ExecutionBundle.message("find.in.full.console.output.prompt"), title,
+                                                   null, myText, null);
+      if (StringUtil.isEmpty(text)) return;
+
+      // the same text is searched for further on
+      final long fromOffset = text.equals(myText) ? myLastOccurrence + 1 : 0;
+      myText = text;
+      final Ref<Long> occurrence = Ref.create(-1L);
+      final boolean completed = ProgressManager.getInstance().runProcessWithProgressSynchronously(new Runnable() {
+        @Override
+        public void run() {
+          occurrence.set(findInFullOutput(text, fromOffset, false));
+        }
+      }, title, true, myProject);
+      if (!completed) return;
+
+      myLastOccurrence = occurrence.get();
+      if (myLastOccurrence < 0) {
+        Messages.showInfoMessage(myProject, ExecutionBundle.message("find.in.full.console.output.not.found", text), title);
+        return;
+      }
+      showInFullOutput(myLastOccurrence, myLastOccurrence + text.length());
+    }
+  }
+
   private class MyHighlighter extends DocumentAdapter implements EditorHighlighter {
     private HighlighterClient myEditor;
 
@@ -1484,7 +1700,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     final AnAction autoScrollToTheEndAction = new ScrollToTheEndToolbarAction(myEditor);
 
     //Initializing custom actions
-    final AnAction[] consoleActions = new AnAction[6 + customActions.size()];
+    AnAction[] consoleActions = new AnAction[6 + customActions.size()];
     consoleActions[0] = prevAction;
     consoleActions[1] = nextAction;
     consoleActions[2] = switchSoftWrapsAction;
@@ -1495,6 +1711,9 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     for (int i = 0; i < customActions.size(); ++i) {
       consoleActions[i + 6] = customActions.get(i);
     }
+    if (myOutputStorage != null) {
+      consoleActions = ArrayUtil.append(consoleActions, new FindInFullOutputAction());
+    }
     ConsoleActionsPostProcessor[] postProcessors = Extensions.getExtensions(ConsoleActionsPostProcessor.EP_NAME);
     AnAction[] result = consoleActions;
     for (ConsoleActionsPostProcessor postProcessor : postProcessors) {
@@ -1559,6 +1778,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       }
 
       buffer.addUserText(startOffset - deferredOffset, textToUse);
+      replaceInFullOutput(startOffset, startOffset, textToUse);
 
       int charCountToAdd = textToUse.length();
       info.endOffset += charCountToAdd;
@@ -1617,6 +1837,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       int charCountToReplace = s.length() - endOffset + startOffset;
 
       buffer.replaceUserText(startOffset - deferredOffset, endOffset - deferredOffset, s);
+      replaceInFullOutput(startOffset, endOffset, s);
 
       info.endOffset += charCountToReplace;
       if (info.startOffset == info.endOffset) {
@@ -1664,6 +1885,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       }
 
       buffer.removeUserText(startOffset - deferredOffset, endOffset - deferredOffset);
+      replaceInFullOutput(startOffset, endOffset, "");
     }
 
     document.deleteString(startOffset, endOffset);
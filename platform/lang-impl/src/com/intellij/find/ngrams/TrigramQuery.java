@@ -0,0 +1,199 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Turns a Find in Path query into the set of trigrams every matching file must contain, i.e. into an intersection
+ * of {@link TrigramIndex} posting lists. Plain text queries use all of their trigrams. For regular expressions only the literal
+ * runs outside of groups are taken into account, so the resulting set is a safe (possibly weaker) filter; a top-level alternation
+ * or a pattern without literal runs of three characters yields an empty set meaning that the query is unselective and
+ * all files should be scanned. Escapes other than of punctuation match unknown characters, and nothing after an inline flag
+ * like {@code (?i)} or {@code (?x)} is required, as the flags change the meaning of the literals.
+ */
+public class TrigramQuery {
+  private TrigramQuery() {
+  }
+
+  @NotNull
+  public static TIntHashSet getRequiredTrigrams(@NotNull String stringToFind, boolean regularExpression) {
+    if (!regularExpression) {
+      return TrigramBuilder.buildTrigram(stringToFind);
+    }
+
+    final TIntHashSet result = new TIntHashSet();
+    final StringBuilder literal = new StringBuilder();
+    int depth = 0;
+    int i = 0;
+    while (i < stringToFind.length()) {
+      char c = stringToFind.charAt(i++);
+      if (depth > 0) {
+        // literals inside groups may be optional or alternated, skip them
+        if (c == '\\') {
+          i = skipEscape(stringToFind, i);
+        }
+        else if (c == '[') {
+          i = skipCharacterClass(stringToFind, i);
+        }
+        else if (c == '(') {
+          depth++;
+        }
+        else if (c == ')') {
+          depth--;
+        }
+        continue;
+      }
+
+      switch (c) {
+        case '|':
+          return new TIntHashSet();
+        case '(':
+          flush(literal, result);
+          if (isInlineFlags(stringToFind, i)) {
+            return result;
+          }
+          depth++;
+          break;
+        case '[':
+          i = skipCharacterClass(stringToFind, i);
+          flush(literal, result);
+          break;
+        case '?':
+        case '*':
+          dropLast(literal);
+          flush(literal, result);
+          break;
+        case '{':
+          dropLast(literal);
+          flush(literal, result);
+          int end = stringToFind.indexOf('}', i);
+          i = end < 0 ? stringToFind.length() : end + 1;
+          break;
+        case '+':
+          // preceding character is mandatory, but may be repeated
+          flush(literal, result);
+          break;
+        case '.':
+        case '^':
+        case '$':
+        case ')':
+          flush(literal, result);
+          break;
+        case '\\':
+          if (i >= stringToFind.length()) break;
+          char escaped = stringToFind.charAt(i++);
+          if (escaped == 'Q') {
+            int quoteEnd = stringToFind.indexOf("\\E", i);
+            if (quoteEnd < 0) quoteEnd = stringToFind.length();
+            literal.append(stringToFind, i, quoteEnd);
+            i = quoteEnd + 2;
+          }
+          else if (Character.isLetterOrDigit(escaped)) {
+            // character classes, back references, boundaries, character codes
+            flush(literal, result);
+            i = skipEscape(stringToFind, i - 1);
+          }
+          else {
+            literal.append(escaped);
+          }
+          break;
+        default:
+          literal.append(c);
+      }
+    }
+    flush(literal, result);
+    return result;
+  }
+
+  /**
+   * @param i the index of the character following the backslash
+   * @return the index after the escape sequence
+   */
+  private static int skipEscape(@NotNull String pattern, int i) {
+    if (i >= pattern.length()) return i;
+    char c = pattern.charAt(i++);
+    switch (c) {
+      case 'Q':
+        int quoteEnd = pattern.indexOf("\\E", i);
+        return quoteEnd < 0 ? pattern.length() : quoteEnd + 2;
+      case 'x':
+        return i < pattern.length() && pattern.charAt(i) == '{' ? skipTo(pattern, i, '}') : Math.min(i + 2, pattern.length());
+      case 'u':
+        return Math.min(i + 4, pattern.length());
+      case 'c':
+        return Math.min(i + 1, pattern.length());
+      case '0':
+        for (int digits = 0; digits < 3 && i < pattern.length() && pattern.charAt(i) >= '0' && pattern.charAt(i) <= '7'; digits++) i++;
+        return i;
+      case 'p':
+      case 'P':
+        return i < pattern.length() && pattern.charAt(i) == '{' ? skipTo(pattern, i, '}') : Math.min(i + 1, pattern.length());
+      case 'k':
+        return i < pattern.length() && pattern.charAt(i) == '<' ? skipTo(pattern, i, '>') : i;
+      default:
+        if (c >= '1' && c <= '9') {
+          // back reference, the following digits may belong to it
+          while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) i++;
+        }
+        return i;
+    }
+  }
+
+  private static int skipTo(@NotNull String pattern, int i, char end) {
+    int index = pattern.indexOf(end, i);
+    return index < 0 ? pattern.length() : index + 1;
+  }
+
+  /**
+   * @param i the index following the opening parenthesis
+   * @return true for {@code (?flags)}, which changes the meaning of the rest of the pattern
+   */
+  private static boolean isInlineFlags(@NotNull String pattern, int i) {
+    if (i >= pattern.length() || pattern.charAt(i) != '?') return false;
+    i++;
+    while (i < pattern.length() && (Character.isLetter(pattern.charAt(i)) || pattern.charAt(i) == '-')) i++;
+    return i < pattern.length() && pattern.charAt(i) == ')' && pattern.charAt(i - 1) != '?';
+  }
+
+  private static int skipCharacterClass(@NotNull String pattern, int i) {
+    if (i < pattern.length() && pattern.charAt(i) == '^') i++;
+    if (i < pattern.length() && pattern.charAt(i) == ']') i++;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i++);
+      if (c == '\\') {
+        i++;
+      }
+      else if (c == ']') {
+        break;
+      }
+    }
+    return i;
+  }
+
+  private static void dropLast(@NotNull StringBuilder literal) {
+    if (literal.length() > 0) literal.setLength(literal.length() - 1);
+  }
+
+  private static void flush(@NotNull StringBuilder literal, @NotNull TIntHashSet result) {
+    if (literal.length() >= 3) {
+      result.addAll(TrigramBuilder.buildTrigram(literal).toArray());
+    }
+    literal.setLength(0);
+  }
+}
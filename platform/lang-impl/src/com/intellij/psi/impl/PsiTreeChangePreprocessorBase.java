@@ -38,8 +38,7 @@ public abstract class PsiTreeChangePreprocessorBase implements PsiTreeChangePrep
     switch (event.getCode()) {
       case BEFORE_CHILDREN_CHANGE:
         if (event.getParent() instanceof PsiFile) {
-          changedInsideCodeBlock = true;
-          break; // May be caused by fake PSI event from PomTransaction. A real event will anyway follow.
+          return; // May be caused by fake PSI event from PomTransaction. A real event will anyway follow.
         }
 
       case CHILDREN_CHANGED :
@@ -75,6 +74,9 @@ public abstract class PsiTreeChangePreprocessorBase implements PsiTreeChangePrep
     if (!changedInsideCodeBlock) {
       myModificationTracker.incOutOfCodeBlockModificationCounter();
     }
+    else {
+      myModificationTracker.incCodeBlockModificationCounter();
+    }
   }
 
   protected abstract boolean isInsideCodeBlock(PsiElement element);
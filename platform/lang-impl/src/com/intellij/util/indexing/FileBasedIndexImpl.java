@@ -100,6 +100,9 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   private final Set<ID<?, ?>> myNotRequiringContentIndices = new THashSet<ID<?, ?>>();
   private final Set<ID<?, ?>> myRequiringContentIndices = new THashSet<ID<?, ?>>();
   private final Set<FileType> myNoLimitCheckTypes = new THashSet<FileType>();
+  private final LibraryIndexSnapshots myLibrarySnapshots = new LibraryIndexSnapshots();
+  // indices declaring their data depends on the file content only, so it may be reused for other files with the same content
+  private final Set<ID<?, ?>> myContentOnlyIndices = new THashSet<ID<?, ?>>();
 
   private final PerIndexDocumentVersionMap myLastIndexedDocStamps = new PerIndexDocumentVersionMap();
   @NotNull private final ChangedFilesCollector myChangedFilesCollector;
@@ -408,6 +411,12 @@ public class FileBasedIndexImpl extends FileBasedIndex {
           myRequiringContentIndices.add(name);
         }
         myNoLimitCheckTypes.addAll(extension.getFileTypesWithSizeLimitNotApplicable());
+        if (extension.dependsOnFileContent() && !(extension instanceof CustomImplementationFileBasedIndexExtension)) {
+          if (extension.isContentOnly()) {
+            myContentOnlyIndices.add(name);
+          }
+          myLibrarySnapshots.registerIndex(extension);
+        }
         break;
       }
       catch (Exception e) {
@@ -635,6 +644,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
           checkRebuild(indexId, true); // if the index was scheduled for rebuild, only clean it
           index.dispose();
         }
+        myLibrarySnapshots.dispose();
 
         myVfManager.removeVirtualFileListener(myChangedFilesCollector);
 
@@ -1639,7 +1649,26 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     myChangedFilesCollector.processFileImpl(project, fileContent, false);
   }
 
+  @NotNull
+  Set<ID<?, ?>> getContentOnlyIndices() {
+    return Collections.unmodifiableSet(myContentOnlyIndices);
+  }
+
+  /**
+   * Writes the data of the content-only indices for all the files of the jar into a self-contained snapshot, which is used
+   * instead of running the indexers when the same jar is indexed again on this or another machine
+   */
+  public void exportLibrarySnapshot(@NotNull VirtualFile jarRoot) throws IOException {
+    myLibrarySnapshots.exportSnapshot(jarRoot);
+  }
+
   public void indexFileContent(@Nullable Project project, @NotNull com.intellij.ide.caches.FileContent content) {
+    indexFileContent(project, content, null);
+  }
+
+  void indexFileContent(@Nullable Project project,
+                        @NotNull com.intellij.ide.caches.FileContent content,
+                        @Nullable IndexedContentsDeduplicator deduplicator) {
     myChangedFilesCollector.ensureAllInvalidateTasksCompleted();
     final VirtualFile file = content.getVirtualFile();
 
@@ -1647,9 +1676,13 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     try {
       PsiFile psiFile = null;
       FileContentImpl fc = null;
+      Map<ID<?, ?>, Map<?, ?>> snapshotData = null;
+      String contentHash = null;
       for (final ID<?, ?> indexId : myIndices.keySet()) {
         if (shouldIndexFile(file, indexId)) {
           if (fc == null) {
+            snapshotData = myLibrarySnapshots.getSnapshotData(file);
+
             byte[] currentBytes;
             try {
               currentBytes = content.getBytes();
@@ -1658,6 +1691,9 @@ public class FileBasedIndexImpl extends FileBasedIndex {
               currentBytes = ArrayUtil.EMPTY_BYTE_ARRAY;
             }
             fc = new FileContentImpl(file, currentBytes);
+            if (deduplicator != null) {
+              contentHash = deduplicator.getContentHash(file, currentBytes);
+            }
 
             psiFile = content.getUserData(IndexingDataKeys.PSI_FILE);
             if (psiFile != null) {
@@ -1672,7 +1708,18 @@ public class FileBasedIndexImpl extends FileBasedIndex {
 
           try {
             ProgressManager.checkCanceled();
-            updateSingleIndex(indexId, file, fc);
+            Map<?, ?> indexedData = snapshotData != null ? snapshotData.get(indexId) : null;
+            final UpdatableIndex<?, ?, FileContent> index = getIndex(indexId);
+            if (indexedData == null && contentHash != null && index instanceof MapReduceIndex) {
+              final FileContent input = fc;
+              indexedData = deduplicator.getIndexedData(contentHash, indexId, new Computable<Map<?, ?>>() {
+                @Override
+                public Map<?, ?> compute() {
+                  return ((MapReduceIndex<?, ?, FileContent>)index).mapInput(input);
+                }
+              });
+            }
+            updateSingleIndex(indexId, file, fc, indexedData);
           }
           catch (ProcessCanceledException e) {
             myChangedFilesCollector.scheduleForUpdate(file);
@@ -1688,6 +1735,9 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       if (psiFile != null) {
         psiFile.putUserData(PsiFileImpl.BUILDING_STUB, null);
       }
+      if (deduplicator != null) {
+        deduplicator.fileProcessed(file);
+      }
     }
     finally {
       FileTypeManagerImpl.cacheFileType(file, null);
@@ -1696,6 +1746,16 @@ public class FileBasedIndexImpl extends FileBasedIndex {
 
   private void updateSingleIndex(final ID<?, ?> indexId, @NotNull final VirtualFile file, @Nullable final FileContent currentFC)
     throws StorageException {
+    updateSingleIndex(indexId, file, currentFC, null);
+  }
+
+  /**
+   * @param indexedData data of the file for the index taken from a library snapshot, if any; the indexer is not run in this case
+   */
+  private void updateSingleIndex(final ID<?, ?> indexId,
+                                 @NotNull final VirtualFile file,
+                                 @Nullable final FileContent currentFC,
+                                 @Nullable final Map<?, ?> indexedData) throws StorageException {
     if (ourRebuildStatus.get(indexId).get() == REQUIRES_REBUILD) {
       return; // the index is scheduled for rebuild, no need to update
     }
@@ -1712,7 +1772,13 @@ public class FileBasedIndexImpl extends FileBasedIndex {
         @Override
         public void run() {
           try {
-            index.update(inputId, currentFC);
+            if (indexedData != null && currentFC != null && index instanceof MapReduceIndex) {
+              //noinspection unchecked
+              ((MapReduceIndex)index).updateWithIndexedData(inputId, indexedData);
+            }
+            else {
+              index.update(inputId, currentFC);
+            }
           }
           catch (StorageException e) {
             exRef.set(e);
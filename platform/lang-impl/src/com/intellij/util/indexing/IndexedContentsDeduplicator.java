@@ -0,0 +1,171 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lets identical files of one indexing session (vendored copies, generated sources, copies of the same jar) be indexed once.
+ * Files sharing the name and the length are hashed when indexed, and the data produced by the indexers for such a file is kept
+ * until all the files of its group are processed, so the indexers are not run for the other files with the same content.
+ * Files without a same-named same-sized counterpart cost nothing.
+ * <p/>
+ * Only the data of the indices declared content-only ({@link FileBasedIndexExtension#isContentOnly()}) is shared, the indexers
+ * of the other indices may depend on the file location and are run for every file.
+ */
+class IndexedContentsDeduplicator {
+  static final boolean ENABLED = !"false".equals(System.getProperty("idea.indexing.deduplicate.contents"));
+
+  private final Set<ID<?, ?>> myContentOnlyIndices;
+  // file -> its group, for the files having possible duplicates only
+  private final Map<VirtualFile, String> myFileGroups = new THashMap<VirtualFile, String>();
+  // group -> number of its files not yet processed
+  private final TObjectIntHashMap<String> myRemainingFiles = new TObjectIntHashMap<String>();
+  // group -> content hashes of its files
+  private final Map<String, Set<String>> myGroupHashes = new THashMap<String, Set<String>>();
+  // content hash -> data produced by indexers for this content
+  private final Map<String, Map<ID<?, ?>, Map<?, ?>>> myIndexedData = new THashMap<String, Map<ID<?, ?>, Map<?, ?>>>();
+
+  IndexedContentsDeduplicator(@NotNull Collection<VirtualFile> files, @NotNull Set<ID<?, ?>> contentOnlyIndices) {
+    myContentOnlyIndices = contentOnlyIndices;
+    final TObjectIntHashMap<String> groupSizes = new TObjectIntHashMap<String>();
+    for (VirtualFile file : files) {
+      final String group = getGroup(file);
+      if (!groupSizes.increment(group)) {
+        groupSizes.put(group, 1);
+      }
+    }
+
+    for (VirtualFile file : files) {
+      final String group = getGroup(file);
+      final int size = groupSizes.get(group);
+      if (size > 1) {
+        myFileGroups.put(file, group);
+        myRemainingFiles.put(group, size);
+      }
+    }
+  }
+
+  @NotNull
+  private static String getGroup(@NotNull VirtualFile file) {
+    return file.getName() + ":" + file.getLength();
+  }
+
+  /**
+   * @return hash of the content if the file may have duplicates among the files being indexed, null otherwise
+   */
+  @Nullable
+  String getContentHash(@NotNull VirtualFile file, @NotNull byte[] content) {
+    final String group;
+    synchronized (this) {
+      group = myFileGroups.get(file);
+    }
+    if (group == null) return null;
+
+    final String hash = computeHash(file, content);
+    synchronized (this) {
+      Set<String> hashes = myGroupHashes.get(group);
+      if (hashes == null) {
+        hashes = new THashSet<String>();
+        myGroupHashes.put(group, hashes);
+      }
+      hashes.add(hash);
+    }
+    return hash;
+  }
+
+  /**
+   * @param indexer computes the data of the index for the file being indexed
+   * @return data of the index for the content, computed by the indexer for the first file having this content, or null if
+   * the index isn't content-only and its indexer has to be run for every file
+   */
+  @Nullable
+  Map<?, ?> getIndexedData(@NotNull String contentHash, @NotNull ID<?, ?> indexId, @NotNull Computable<Map<?, ?>> indexer) {
+    if (!myContentOnlyIndices.contains(indexId)) return null;
+
+    synchronized (this) {
+      final Map<ID<?, ?>, Map<?, ?>> data = myIndexedData.get(contentHash);
+      final Map<?, ?> indexedData = data != null ? data.get(indexId) : null;
+      if (indexedData != null) return indexedData;
+    }
+
+    final Map<?, ?> indexedData = indexer.compute();
+    synchronized (this) {
+      Map<ID<?, ?>, Map<?, ?>> contentData = myIndexedData.get(contentHash);
+      if (contentData == null) {
+        contentData = new THashMap<ID<?, ?>, Map<?, ?>>();
+        myIndexedData.put(contentHash, contentData);
+      }
+      contentData.put(indexId, indexedData);
+    }
+    return indexedData;
+  }
+
+  /**
+   * Drops the data kept for the group of the file once all the files of the group are processed
+   */
+  synchronized void fileProcessed(@NotNull VirtualFile file) {
+    final String group = myFileGroups.remove(file);
+    if (group == null) return;
+
+    final int remaining = myRemainingFiles.get(group) - 1;
+    if (remaining > 0) {
+      myRemainingFiles.put(group, remaining);
+      return;
+    }
+
+    myRemainingFiles.remove(group);
+    final Set<String> hashes = myGroupHashes.remove(group);
+    if (hashes != null) {
+      for (String hash : hashes) {
+        myIndexedData.remove(hash);
+      }
+    }
+  }
+
+  @NotNull
+  private static String computeHash(@NotNull VirtualFile file, @NotNull byte[] content) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    // indexers may depend on the file name and type, so the same content of differently named files is not shared
+    digest.update(file.getName().getBytes());
+    digest.update(file.getFileType().getName().getBytes());
+    digest.update(content);
+
+    final StringBuilder hash = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hash.toString();
+  }
+}
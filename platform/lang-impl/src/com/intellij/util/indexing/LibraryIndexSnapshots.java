@@ -0,0 +1,461 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicatorProvider;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Self-contained snapshots of file based index data for library jars.
+ * <p/>
+ * A snapshot is a zip file named after the MD5 of the jar content, with an entry per indexed jar entry, so it does not depend on
+ * the machine it was created on and may be copied to the snapshots directory ({@code idea.index.snapshots.dir}) of other machines.
+ * Snapshots are created when {@code -Didea.index.snapshots.export=true} is set (e.g. on a build machine) or with
+ * {@link FileBasedIndexImpl#exportLibrarySnapshot(VirtualFile)}. When a jar entry is indexed and a snapshot of the jar exists,
+ * the snapshot data is put into the indices instead of running the indexers.
+ * <p/>
+ * Only indices declaring their data is computed from the file content alone ({@link FileBasedIndexExtension#isContentOnly()}) take part
+ * in snapshots, the others (e.g. the ones storing file urls or stubs referring to the file ids of the current machine) are always
+ * built by their indexers. Snapshots are off, and no jar is hashed, unless the snapshots directory exists or the export is enabled.
+ */
+class LibraryIndexSnapshots {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.util.indexing.LibraryIndexSnapshots");
+  private static final boolean EXPORT = Boolean.getBoolean("idea.index.snapshots.export");
+  private static final String SNAPSHOT_EXTENSION = ".snapshot";
+  private static final String VERSIONS_ENTRY = "$versions";
+  private static final int VERSION = 1;
+
+  private final File myDirectory;
+  private final boolean myExport;
+  private volatile boolean myEnabled;
+  private boolean myDisposed;
+  private final Map<String, IndexCodec<?, ?>> myCodecs = new ConcurrentHashMap<String, IndexCodec<?, ?>>();
+  // jar path -> snapshot of this jar
+  private final Map<String, JarSnapshot> mySnapshots = new ConcurrentHashMap<String, JarSnapshot>();
+
+  LibraryIndexSnapshots() {
+    this(getDefaultDirectory(), EXPORT);
+  }
+
+  LibraryIndexSnapshots(@NotNull File directory, boolean export) {
+    myDirectory = directory;
+    myExport = export;
+    myEnabled = export || directory.isDirectory();
+  }
+
+  @NotNull
+  private static File getDefaultDirectory() {
+    final String path = System.getProperty("idea.index.snapshots.dir");
+    return path != null ? new File(path) : new File(PathManager.getSystemPath(), "index-snapshots");
+  }
+
+  <K, V> void registerIndex(@NotNull FileBasedIndexExtension<K, V> extension) {
+    if (extension.dependsOnFileContent() && extension.isContentOnly()) {
+      myCodecs.put(extension.getName().toString(), new IndexCodec<K, V>(extension));
+    }
+  }
+
+  boolean isEnabled() {
+    return myEnabled && !myCodecs.isEmpty();
+  }
+
+  /**
+   * @return index data of the jar entry taken from the snapshot of its jar, or null if the jar has no snapshot
+   */
+  @Nullable
+  Map<ID<?, ?>, Map<?, ?>> getSnapshotData(@NotNull VirtualFile file) {
+    if (!isEnabled() || !(file.getFileSystem() instanceof JarFileSystem)) return null;
+
+    final VirtualFile jar = JarFileSystem.getInstance().getVirtualFileForJar(file);
+    final String entryPath = getEntryPath(file);
+    if (jar == null || entryPath == null) return null;
+
+    return getSnapshotData(new File(jar.getPath()), entryPath, file);
+  }
+
+  /**
+   * @param file any file of the jar, used to export the snapshot of the jar when it doesn't exist yet and the export is enabled
+   */
+  @Nullable
+  Map<ID<?, ?>, Map<?, ?>> getSnapshotData(@NotNull File jarFile, @NotNull String entryPath, @NotNull VirtualFile file) {
+    if (!isEnabled()) return null;
+
+    final JarSnapshot snapshot = getSnapshot(jarFile, file);
+    return snapshot != null ? snapshot.read(entryPath) : null;
+  }
+
+  void exportSnapshot(@NotNull VirtualFile jarRoot) throws IOException {
+    final VirtualFile jar = JarFileSystem.getInstance().getVirtualFileForJar(jarRoot);
+    if (jar == null) return;
+
+    doExport(jarRoot, getSnapshotFile(new File(jar.getPath())));
+    myEnabled = true;
+  }
+
+  void dispose() {
+    synchronized (mySnapshots) {
+      myDisposed = true;
+      for (JarSnapshot snapshot : mySnapshots.values()) {
+        snapshot.close();
+      }
+      mySnapshots.clear();
+    }
+  }
+
+  @Nullable
+  private JarSnapshot getSnapshot(@NotNull File jarFile, @NotNull VirtualFile file) {
+    final String jarPath = jarFile.getPath();
+    final long length = jarFile.length();
+    final long timestamp = jarFile.lastModified();
+    JarSnapshot snapshot = mySnapshots.get(jarPath);
+    if (snapshot == null || !snapshot.isSnapshotOf(length, timestamp)) {
+      // hashing the jar and exporting its snapshot take long, other jars shouldn't wait for that; the same jar may rarely be
+      // processed twice by different threads, then the second snapshot is dropped
+      final JarSnapshot opened = openSnapshot(file, jarFile, length, timestamp);
+      synchronized (mySnapshots) {
+        snapshot = mySnapshots.get(jarPath);
+        if (myDisposed || snapshot != null && snapshot.isSnapshotOf(length, timestamp)) {
+          opened.close();
+          if (myDisposed) return null;
+        }
+        else {
+          if (snapshot != null) {
+            snapshot.close(); // the jar has changed
+          }
+          snapshot = opened;
+          mySnapshots.put(jarPath, snapshot);
+        }
+      }
+    }
+    return snapshot.isAvailable() ? snapshot : null;
+  }
+
+  @NotNull
+  private JarSnapshot openSnapshot(@NotNull VirtualFile file, @NotNull File jarFile, long length, long timestamp) {
+    try {
+      final File snapshotFile = getSnapshotFile(jarFile);
+      if (!snapshotFile.exists() && myExport) {
+        final VirtualFile jarRoot = JarFileSystem.getInstance().getJarRootForLocalFile(JarFileSystem.getInstance().getVirtualFileForJar(file));
+        if (jarRoot != null) {
+          doExport(jarRoot, snapshotFile);
+        }
+      }
+      if (snapshotFile.exists()) {
+        return new JarSnapshot(new ZipFile(snapshotFile), length, timestamp);
+      }
+    }
+    catch (ProcessCanceledException e) {
+      throw e;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot open index snapshot for " + jarFile, e);
+    }
+    return new JarSnapshot(null, length, timestamp);
+  }
+
+  private void doExport(@NotNull final VirtualFile jarRoot, @NotNull File target) throws IOException {
+    final Map<String, VirtualFile> entries = new LinkedHashMap<String, VirtualFile>();
+    VfsUtilCore.visitChildrenRecursively(jarRoot, new VirtualFileVisitor() {
+      @Override
+      public boolean visitFile(@NotNull VirtualFile file) {
+        final String entryPath = file.isDirectory() ? null : getEntryPath(file);
+        if (entryPath != null) {
+          entries.put(entryPath, file);
+        }
+        return true;
+      }
+    });
+    writeSnapshot(target, entries, ProjectUtil.guessProjectForFile(jarRoot));
+  }
+
+  /**
+   * @param entries jar entry paths and the files of the entries, in the order of the jar
+   */
+  void writeSnapshot(@NotNull File target, @NotNull Map<String, VirtualFile> entries, @Nullable Project project) throws IOException {
+    FileUtil.createParentDirs(target);
+    // concurrent exports of the same jar don't write into the same file
+    final File tempFile = FileUtil.createTempFile(target.getParentFile(), target.getName(), ".tmp", true, false);
+    final ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+    boolean completed = false;
+    try {
+      zip.putNextEntry(new ZipEntry(VERSIONS_ENTRY));
+      final DataOutputStream versions = new DataOutputStream(zip);
+      DataInputOutputUtil.writeINT(versions, VERSION);
+      DataInputOutputUtil.writeINT(versions, myCodecs.size());
+      for (IndexCodec<?, ?> codec : myCodecs.values()) {
+        versions.writeUTF(codec.myIndexId.toString());
+        DataInputOutputUtil.writeINT(versions, codec.myVersion);
+      }
+      versions.flush();
+      zip.closeEntry();
+
+      for (Map.Entry<String, VirtualFile> entry : entries.entrySet()) {
+        ProgressIndicatorProvider.checkCanceled();
+        exportEntry(entry.getKey(), entry.getValue(), project, zip);
+      }
+      completed = true;
+    }
+    finally {
+      zip.close();
+      if (!completed) {
+        FileUtil.delete(tempFile);
+      }
+    }
+    if (target.exists()) {
+      FileUtil.delete(tempFile); // exported by another thread meanwhile
+    }
+    else {
+      FileUtil.rename(tempFile, target);
+    }
+  }
+
+  private void exportEntry(@NotNull String entryPath, @NotNull VirtualFile file, @Nullable Project project, @NotNull ZipOutputStream zip)
+    throws IOException {
+    final FileContentImpl content = new FileContentImpl(file, file.contentsToByteArray());
+    content.putUserData(IndexingDataKeys.PROJECT, project);
+
+    final List<IndexCodec<?, ?>> codecs = new ArrayList<IndexCodec<?, ?>>();
+    for (IndexCodec<?, ?> codec : myCodecs.values()) {
+      if (codec.myInputFilter.acceptInput(file)) {
+        codecs.add(codec);
+      }
+    }
+
+    zip.putNextEntry(new ZipEntry(entryPath));
+    final DataOutputStream out = new DataOutputStream(zip);
+    DataInputOutputUtil.writeINT(out, codecs.size());
+    for (IndexCodec<?, ?> codec : codecs) {
+      // data is prefixed with its length so that indices with changed versions can be skipped on reading
+      final BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+      final DataOutputStream data = new DataOutputStream(bytes);
+      codec.map(content, data);
+      data.close();
+
+      out.writeUTF(codec.myIndexId.toString());
+      DataInputOutputUtil.writeINT(out, bytes.size());
+      out.write(bytes.getInternalBuffer(), 0, bytes.size());
+    }
+    out.flush();
+    zip.closeEntry();
+  }
+
+  @NotNull
+  File getSnapshotFile(@NotNull File jarFile) throws IOException {
+    return new File(myDirectory, computeHash(jarFile) + SNAPSHOT_EXTENSION);
+  }
+
+  @Nullable
+  private static String getEntryPath(@NotNull VirtualFile file) {
+    final String path = file.getPath();
+    final int separatorIndex = path.indexOf(JarFileSystem.JAR_SEPARATOR);
+    return separatorIndex >= 0 ? path.substring(separatorIndex + JarFileSystem.JAR_SEPARATOR.length()) : null;
+  }
+
+  @NotNull
+  private static String computeHash(@NotNull File file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+
+    final InputStream stream = new BufferedInputStream(new FileInputStream(file));
+    try {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    finally {
+      stream.close();
+    }
+
+    final StringBuilder hash = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hash.toString();
+  }
+
+  private class JarSnapshot {
+    @Nullable private final ZipFile myZipFile;
+    private final long myJarLength;
+    private final long myJarTimestamp;
+    // indices the snapshot data can be used for, i.e. which versions match the current ones
+    private final Map<String, IndexCodec<?, ?>> myCodecsByName = new THashMap<String, IndexCodec<?, ?>>();
+
+    private JarSnapshot(@Nullable ZipFile zipFile, long jarLength, long jarTimestamp) {
+      myZipFile = zipFile;
+      myJarLength = jarLength;
+      myJarTimestamp = jarTimestamp;
+      if (zipFile != null) {
+        try {
+          readVersions(zipFile);
+        }
+        catch (IOException e) {
+          LOG.info("Cannot read index snapshot " + zipFile.getName(), e);
+          myCodecsByName.clear();
+        }
+      }
+    }
+
+    private void readVersions(@NotNull ZipFile zipFile) throws IOException {
+      final ZipEntry entry = zipFile.getEntry(VERSIONS_ENTRY);
+      if (entry == null) return;
+
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(zipFile.getInputStream(entry)));
+      try {
+        if (DataInputOutputUtil.readINT(in) != VERSION) return;
+        final int count = DataInputOutputUtil.readINT(in);
+        for (int i = 0; i < count; i++) {
+          final String name = in.readUTF();
+          final int version = DataInputOutputUtil.readINT(in);
+          final IndexCodec<?, ?> codec = myCodecs.get(name);
+          if (codec != null && codec.myVersion == version) {
+            myCodecsByName.put(name, codec);
+          }
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+
+    private boolean isSnapshotOf(long jarLength, long jarTimestamp) {
+      return myJarLength == jarLength && myJarTimestamp == jarTimestamp;
+    }
+
+    private boolean isAvailable() {
+      return myZipFile != null && !myCodecsByName.isEmpty();
+    }
+
+    @Nullable
+    private Map<ID<?, ?>, Map<?, ?>> read(@NotNull String entryPath) {
+      assert myZipFile != null;
+      final ZipEntry entry = myZipFile.getEntry(entryPath);
+      if (entry == null) return null;
+
+      try {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(myZipFile.getInputStream(entry)));
+        try {
+          final Map<ID<?, ?>, Map<?, ?>> result = new THashMap<ID<?, ?>, Map<?, ?>>();
+          final int count = DataInputOutputUtil.readINT(in);
+          for (int i = 0; i < count; i++) {
+            final IndexCodec<?, ?> codec = myCodecsByName.get(in.readUTF());
+            final int length = DataInputOutputUtil.readINT(in);
+            if (codec != null) {
+              result.put(codec.myIndexId, codec.read(in));
+            }
+            else {
+              in.readFully(new byte[length]);
+            }
+          }
+          return result;
+        }
+        finally {
+          in.close();
+        }
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read " + entryPath + " from index snapshot " + myZipFile.getName(), e);
+        return null;
+      }
+    }
+
+    private void close() {
+      if (myZipFile == null) return;
+      try {
+        myZipFile.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+  }
+
+  private static class IndexCodec<K, V> {
+    private final ID<K, V> myIndexId;
+    private final int myVersion;
+    private final DataIndexer<K, V, FileContent> myIndexer;
+    private final KeyDescriptor<K> myKeyDescriptor;
+    private final DataExternalizer<V> myValueExternalizer;
+    private final FileBasedIndex.InputFilter myInputFilter;
+
+    private IndexCodec(@NotNull FileBasedIndexExtension<K, V> extension) {
+      myIndexId = extension.getName();
+      myVersion = extension.getVersion();
+      myIndexer = extension.getIndexer();
+      myKeyDescriptor = extension.getKeyDescriptor();
+      myValueExternalizer = extension.getValueExternalizer();
+      myInputFilter = extension.getInputFilter();
+    }
+
+    private void map(@NotNull FileContent content, @NotNull DataOutput out) throws IOException {
+      final Map<K, V> data = myIndexer.map(content);
+      DataInputOutputUtil.writeINT(out, data.size());
+      for (Map.Entry<K, V> entry : data.entrySet()) {
+        myKeyDescriptor.save(out, entry.getKey());
+        final V value = entry.getValue();
+        out.writeBoolean(value != null);
+        if (value != null) {
+          myValueExternalizer.save(out, value);
+        }
+      }
+    }
+
+    @NotNull
+    private Map<K, V> read(@NotNull DataInput in) throws IOException {
+      final int size = DataInputOutputUtil.readINT(in);
+      final Map<K, V> data = new THashMap<K, V>(size);
+      for (int i = 0; i < size; i++) {
+        final K key = myKeyDescriptor.read(in);
+        data.put(key, in.readBoolean() ? myValueExternalizer.read(in) : null);
+      }
+      return data;
+    }
+  }
+}
@@ -23,7 +23,6 @@ import com.intellij.util.Processor;
 import com.intellij.util.containers.SLRUCache;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.KeyDescriptor;
-import com.intellij.util.io.PersistentMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -41,12 +40,14 @@ import java.util.concurrent.locks.ReentrantLock;
 */
 public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Value>{
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.indexing.MapIndexStorage");
-  private PersistentMap<Key, ValueContainer<Value>> myMap;
+  private ValueContainerMap<Key, Value> myMap;
   private SLRUCache<Key, ChangeTrackingValueContainer<Value>> myCache;
   private final File myStorageFile;
   private final KeyDescriptor<Key> myKeyDescriptor;
   private final int myCacheSize;
 
+  private static final int COMPACTION_SLICE_SIZE = 10000; // keys compacted per flush, keeps the storage lock short
+
   private final Lock l = new ReentrantLock();
   private final DataExternalizer<Value> myDataExternalizer;
   private boolean myHighKeySelectivity;
@@ -83,7 +84,8 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
           @NotNull
           @Override
           public Object getLock() {
-            return map.getDataAccessLock();
+            // the map doesn't need to be locked for reading, so the containers of different keys are loaded in parallel
+            return this;
           }
 
           @Nullable
@@ -121,12 +123,15 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
   }
 
   @Override
-  public void flush() {
+  public void flush() throws IOException {
     l.lock();
     try {
-      if (!myMap.isClosed() && myMap.isDirty()) {
-        myCache.clear();
-        myMap.force();
+      if (!myMap.isClosed()) {
+        if (myMap.isDirty()) {
+          myCache.clear();
+          myMap.force();
+        }
+        myMap.compactIncrementally(COMPACTION_SLICE_SIZE);
       }
     }
     finally {
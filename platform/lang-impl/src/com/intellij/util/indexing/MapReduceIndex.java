@@ -213,6 +213,19 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
     assert myInputsIndex != null;
 
     final Map<Key, Value> data = content != null ? myIndexer.map(content) : Collections.<Key, Value>emptyMap();
+    updateWithIndexedData(inputId, data);
+  }
+
+  @NotNull
+  final Map<Key, Value> mapInput(@NotNull Input content) {
+    return myIndexer.map(content);
+  }
+
+  /**
+   * Same as {@link #update(int, Object)} for the data already produced by the indexer of this index, e.g. taken from a library snapshot
+   */
+  final void updateWithIndexedData(final int inputId, @NotNull Map<Key, Value> data) throws StorageException {
+    assert myInputsIndex != null;
 
     updateWithMap(inputId, data, new Callable<Collection<Key>>() {
       @Override
@@ -25,6 +25,7 @@ import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -38,6 +39,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
   private final Project myProject;
   private final AtomicBoolean myFinishedUpdate = new AtomicBoolean();
   private long myStarted;
+  private volatile IndexedContentsDeduplicator myDeduplicator;
 
   public UnindexedFilesUpdater(final Project project, FileBasedIndexImpl index) {
     myIndex = index;
@@ -58,6 +60,9 @@ public class UnindexedFilesUpdater implements CacheUpdater {
     List<VirtualFile> files = finder.getFiles();
 
     LOG.info("Unindexed files update started: " + files.size() + " files to update");
+    final Set<ID<?, ?>> contentOnlyIndices = myIndex.getContentOnlyIndices();
+    myDeduplicator = IndexedContentsDeduplicator.ENABLED && !contentOnlyIndices.isEmpty()
+                     ? new IndexedContentsDeduplicator(files, contentOnlyIndices) : null;
     myFinishedUpdate.set(false);
     myStarted = System.currentTimeMillis();
     return VfsUtilCore.toVirtualFileArray(files);
@@ -65,7 +70,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
 
   @Override
   public void processFile(final FileContent fileContent) {
-    myIndex.indexFileContent(myProject, fileContent);
+    myIndex.indexFileContent(myProject, fileContent, myDeduplicator);
     IndexingStamp.flushCache(fileContent.getVirtualFile());
   }
 
@@ -73,6 +78,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
   public void updatingDone() {
     if (myFinishedUpdate.compareAndSet(false, true)) {
       myIndex.filesUpdateFinished();
+      myDeduplicator = null;
       LOG.info("Unindexed files update done in " + (System.currentTimeMillis() - myStarted) + " ms");
     }
   }
@@ -81,6 +87,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
   public void canceled() {
     if (myFinishedUpdate.compareAndSet(false, true)) {
       myIndex.filesUpdateFinished();
+      myDeduplicator = null;
       LOG.info("Unindexed files update canceled");
     }
   }
@@ -7,6 +7,7 @@ import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
@@ -20,15 +21,11 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
                     @NotNull KeyDescriptor<Key> keyKeyDescriptor,
                     @NotNull DataExternalizer<Value> valueExternalizer) throws IOException {
 
-    super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer));
+    // value containers are read without the map lock, so that index queries don't wait for each other and for the writes
+    super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer), true);
     myValueContainerExternalizer = (ValueContainerExternalizer<Value>)myValueExternalizer;
   }
 
-  @NotNull
-  Object getDataAccessLock() {
-    return myEnumerator;
-  }
-
   @Override
   protected void doPut(Key key, ValueContainer<Value> container) throws IOException {
     synchronized (myEnumerator) {
@@ -72,7 +69,10 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
 
     @Override
     public void save(final DataOutput out, @NotNull final ValueContainer<T> container) throws IOException {
-      saveImpl(out, container);
+      // the same lock as for reading: containers are saved on a flush or on a drop from the cache while others are being read
+      synchronized (myExternalizer) {
+        saveImpl(out, container);
+      }
     }
 
     public static void saveInvalidateCommand(final DataOutput out, int inputId) throws IOException {
@@ -87,10 +87,18 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
 
         final ValueContainer.IntIterator ids = container.getInputIdsIterator(value);
         if (ids != null) {
-          DataInputOutputUtil.writeSINT(out, ids.size());
-          while (ids.hasNext()) {
-            final int id = ids.next();
-            DataInputOutputUtil.writeSINT(out, id);
+          // posting list is stored sorted and delta encoded, so that large id lists (e.g. trigrams) take 1-2 bytes per id
+          final int[] sortedIds = new int[ids.size()];
+          for (int i = 0; i < sortedIds.length && ids.hasNext(); i++) {
+            sortedIds[i] = ids.next();
+          }
+          Arrays.sort(sortedIds);
+
+          DataInputOutputUtil.writeSINT(out, sortedIds.length);
+          int prev = 0;
+          for (int id : sortedIds) {
+            DataInputOutputUtil.writeINT(out, id - prev);
+            prev = id;
           }
         }
         else {
@@ -102,6 +110,14 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
     @NotNull
     @Override
     public ValueContainerImpl<T> read(final DataInput in) throws IOException {
+      // index value externalizers are not required to be thread-safe (e.g. EnumeratorStringDescriptor reuses its buffer)
+      synchronized (myExternalizer) {
+        return readImpl(in);
+      }
+    }
+
+    @NotNull
+    private ValueContainerImpl<T> readImpl(final DataInput in) throws IOException {
       DataInputStream stream = (DataInputStream)in;
       final ValueContainerImpl<T> valueContainer = new ValueContainerImpl<T>();
 
@@ -115,8 +131,9 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
           for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
             final T value = myExternalizer.read(in);
             final int idCount = DataInputOutputUtil.readSINT(in);
+            int id = 0;
             for (int i = 0; i < idCount; i++) {
-              final int id = DataInputOutputUtil.readSINT(in);
+              id += DataInputOutputUtil.readINT(in);
               valueContainer.addValue(id, value);
             }
           }
@@ -35,6 +35,7 @@ import gnu.trove.THashSet;
 import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 class CacheUpdateRunner {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.project.CacheUpdateRunner");
@@ -42,6 +43,7 @@ class CacheUpdateRunner {
   private final Project myProject;
   private final Collection<CacheUpdater> myUpdaters;
   private CacheUpdateSession mySession;
+  private final AtomicLong myIndexingTime = new AtomicLong();
 
   CacheUpdateRunner(Project project, Collection<CacheUpdater> updaters) {
     myProject = project;
@@ -103,6 +105,12 @@ class CacheUpdateRunner {
         indicator.cancel();
         indicator.checkCanceled();
       }
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Processed " + files.size() + " files: indexing took " + myIndexingTime.get() + " ms, " +
+                  "content loading " + queue.getLoadingTime() + " ms (+" + queue.getLoadingWaitTime() + " ms waiting for memory), " +
+                  "indexers waited for content " + queue.getTakeWaitTime() + " ms");
+      }
     }
     catch (ProcessCanceledException e) {
       mySession.canceled();
@@ -232,6 +240,7 @@ class CacheUpdateRunner {
               }
             }
           };
+          final long start = System.currentTimeMillis();
           try {
             if (myProcessInReadAction) {
               myApplication.runReadAction(action);
@@ -245,6 +254,7 @@ class CacheUpdateRunner {
             return;
           }
           finally {
+            myIndexingTime.addAndGet(System.currentTimeMillis() - start);
             myQueue.release(fileContent);
           }
         }
@@ -20,17 +20,18 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.InvalidVirtualFileAccessException;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
-import java.util.Collection;
-import java.util.Queue;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
 * @author peter
@@ -41,33 +42,49 @@ public class FileContentQueue {
   private static final long SIZE_THRESHOLD = 1024*1024;
   private static final long TAKEN_FILES_THRESHOLD = 1024*1024*3;
   private static final long LARGE_SIZE_REQUEST_THRESHOLD = TAKEN_FILES_THRESHOLD - 1024 * 300; // 300k for other threads
+  private static final int PROC_COUNT = Runtime.getRuntime().availableProcessors();
 
   private long myTotalSize;
   private long myTakenSize;
   private boolean myLargeSizeRequested;
+  private long myLoadedSizeThreshold = SIZE_THRESHOLD;
 
   private final ArrayBlockingQueue<FileContent> myQueue = new ArrayBlockingQueue<FileContent>(256);
   private final Queue<FileContent> myPushbackBuffer = new ArrayDeque<FileContent>();
   private volatile boolean myContentLoadingThreadTerminated = false;
 
+  private final AtomicLong myLoadingTime = new AtomicLong();
+  private final AtomicLong myLoadingWaitTime = new AtomicLong();
+  private final AtomicLong myTakeWaitTime = new AtomicLong();
+
   public void queue(final Collection<VirtualFile> files, @NotNull final ProgressIndicator indicator) {
+    int loadersCount = Registry.intValue("caches.contentLoaderThreadsCount");
+    if (loadersCount <= 0) {
+      loadersCount = Math.max(1, Math.min(PROC_COUNT / 2, 4));
+    }
+    synchronized (this) {
+      // every loader may keep a file of SIZE_THRESHOLD in memory, but not more than a small fraction of the heap
+      myLoadedSizeThreshold = Math.max(SIZE_THRESHOLD, Math.min(loadersCount * SIZE_THRESHOLD, Runtime.getRuntime().maxMemory() / 64));
+    }
+
+    final Iterator<VirtualFile> filesIterator = orderByDirectory(files).iterator();
+    final AtomicInteger runningLoaders = new AtomicInteger(loadersCount);
     final Runnable contentLoadingRunnable = new Runnable() {
       public void run() {
+        boolean completed = false;
         try {
-          for (VirtualFile file : files) {
+          while (true) {
             if (indicator != null) {
               indicator.checkCanceled();
             }
+            final VirtualFile file;
+            synchronized (filesIterator) {
+              if (!filesIterator.hasNext()) break;
+              file = filesIterator.next();
+            }
             addLast(file, indicator);
           }
-
-          // put end-of-queue marker only if not canceled
-          try {
-            myQueue.put(new FileContent(null));
-          }
-          catch (InterruptedException e) {
-            LOG.error(e);
-          }
+          completed = true;
         }
         catch (ProcessCanceledException e) {
           // Do nothing, exit the thread.
@@ -76,12 +93,70 @@ public class FileContentQueue {
           LOG.error(e);
         }
         finally {
-          myContentLoadingThreadTerminated = true;
+          if (runningLoaders.decrementAndGet() == 0) {
+            // put end-of-queue marker only if not canceled, after the files loaded by all the threads
+            if (completed) {
+              try {
+                myQueue.put(new FileContent(null));
+              }
+              catch (InterruptedException e) {
+                LOG.error(e);
+              }
+            }
+            myContentLoadingThreadTerminated = true;
+          }
         }
       }
     };
 
-    ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    for (int i = 0; i < loadersCount; i++) {
+      ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    }
+  }
+
+  /**
+   * Files of the same directory are usually close on disk, so they are loaded one after another
+   * (directories keep the order they first appear in).
+   */
+  @NotNull
+  private static Collection<VirtualFile> orderByDirectory(@NotNull Collection<VirtualFile> files) {
+    final Map<VirtualFile, List<VirtualFile>> filesByDirectory = new LinkedHashMap<VirtualFile, List<VirtualFile>>();
+    for (VirtualFile file : files) {
+      final VirtualFile parent = file.getParent();
+      List<VirtualFile> directoryFiles = filesByDirectory.get(parent);
+      if (directoryFiles == null) {
+        directoryFiles = new ArrayList<VirtualFile>();
+        filesByDirectory.put(parent, directoryFiles);
+      }
+      directoryFiles.add(file);
+    }
+
+    final List<VirtualFile> result = new ArrayList<VirtualFile>(files.size());
+    for (List<VirtualFile> directoryFiles : filesByDirectory.values()) {
+      result.addAll(directoryFiles);
+    }
+    return result;
+  }
+
+  /**
+   * @return total time in ms the loading threads spent reading file contents
+   */
+  public long getLoadingTime() {
+    return myLoadingTime.get();
+  }
+
+  /**
+   * @return total time in ms the loading threads were blocked because the loaded content exceeded the memory budget
+   */
+  public long getLoadingWaitTime() {
+    return myLoadingWaitTime.get();
+  }
+
+  /**
+   * @return total time in ms the consumers waited for a file content to be loaded
+   */
+  public long getTakeWaitTime() {
+    return myTakeWaitTime.get();
   }
 
   private void addLast(VirtualFile file, @NotNull final ProgressIndicator indicator) throws InterruptedException {
@@ -104,8 +179,9 @@ public class FileContentQueue {
 
     boolean counterUpdated = false;
     try {
+      final long waitStart = System.currentTimeMillis();
       synchronized (this) {
-        while (myTotalSize > SIZE_THRESHOLD) {
+        while (myTotalSize > myLoadedSizeThreshold) {
           indicator.checkCanceled();
           wait(300L);
         }
@@ -113,7 +189,10 @@ public class FileContentQueue {
         counterUpdated = true;
       }
 
+      final long loadingStart = System.currentTimeMillis();
+      myLoadingWaitTime.addAndGet(loadingStart - waitStart);
       content.getBytes(); // Reads the content bytes and caches them.
+      myLoadingTime.addAndGet(System.currentTimeMillis() - loadingStart);
 
       return true;
     }
@@ -187,6 +266,7 @@ public class FileContentQueue {
       }
     }
 
+    final long waitStart = System.currentTimeMillis();
     try {
       while (result == null) {
         result = myQueue.poll(300L, TimeUnit.MILLISECONDS);
@@ -198,6 +278,9 @@ public class FileContentQueue {
     catch (InterruptedException e) {
       throw new RuntimeException(e);
     }
+    finally {
+      myTakeWaitTime.addAndGet(System.currentTimeMillis() - waitStart);
+    }
 
     final VirtualFile file = result.getVirtualFile();
     if (file == null) {
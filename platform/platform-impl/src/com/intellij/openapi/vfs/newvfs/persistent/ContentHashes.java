@@ -0,0 +1,145 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.Forceable;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.util.io.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Maps SHA-1 hashes of file contents to the records of the contents storage holding them, so files with the same content share one
+ * content record. The hash each record was stored with is kept as well: a record id found by hash is valid only while the record
+ * still holds that content, i.e. it hasn't been freed and reused for another one.
+ */
+class ContentHashes implements Forceable {
+  private static final int HASH_SIZE = 20;
+  private static final byte[] NO_HASH = new byte[HASH_SIZE];
+
+  private final PersistentHashMap<byte[], Integer> myHashToRecord;
+  private final ResizeableMappedFile myRecordHashes;
+
+  ContentHashes(@NotNull File hashesFile, @NotNull File recordHashesFile, @NotNull PagedFileStorage.StorageLockContext lockContext)
+    throws IOException {
+    myHashToRecord = new PersistentHashMap<byte[], Integer>(hashesFile, new HashDescriptor(), EnumeratorIntegerDescriptor.INSTANCE);
+    myRecordHashes = new ResizeableMappedFile(recordHashesFile, 20 * 1024, lockContext, PagedFileStorage.BUFFER_SIZE, false);
+  }
+
+  @NotNull
+  static byte[] calculateHash(@NotNull ByteSequence bytes) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+      return digest.digest();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return id of a content record which was stored with the given hash, or 0. The caller should check the record is still alive.
+   */
+  int findRecord(@NotNull byte[] hash) throws IOException {
+    final Integer record = myHashToRecord.get(hash);
+    if (record == null) return 0;
+    final int offset = record * HASH_SIZE;
+    if (offset + HASH_SIZE > myRecordHashes.length()) return 0;
+    final byte[] recordHash = new byte[HASH_SIZE];
+    myRecordHashes.get(offset, recordHash, 0, HASH_SIZE);
+    return Arrays.equals(hash, recordHash) ? record : 0;
+  }
+
+  void register(@NotNull byte[] hash, int record) throws IOException {
+    myHashToRecord.put(hash, record);
+    myRecordHashes.put(record * HASH_SIZE, hash, 0, HASH_SIZE);
+  }
+
+  /**
+   * Forgets the hash of a freed record
+   */
+  void unregister(int record) throws IOException {
+    final int offset = record * HASH_SIZE;
+    if (offset + HASH_SIZE > myRecordHashes.length()) return;
+    final byte[] hash = new byte[HASH_SIZE];
+    myRecordHashes.get(offset, hash, 0, HASH_SIZE);
+    if (Arrays.equals(hash, NO_HASH)) return;
+
+    final Integer registered = myHashToRecord.get(hash);
+    if (registered != null && registered == record) {
+      myHashToRecord.remove(hash);
+    }
+    myRecordHashes.put(offset, NO_HASH, 0, HASH_SIZE);
+  }
+
+  @TestOnly
+  boolean isRegistered(@NotNull byte[] hash) throws IOException {
+    return myHashToRecord.containsMapping(hash);
+  }
+
+  @Override
+  public boolean isDirty() {
+    return myHashToRecord.isDirty() || myRecordHashes.isDirty();
+  }
+
+  @Override
+  public void force() {
+    myHashToRecord.force();
+    myRecordHashes.force();
+  }
+
+  void close() throws IOException {
+    try {
+      myHashToRecord.close();
+    }
+    finally {
+      myRecordHashes.close();
+    }
+  }
+
+  private static class HashDescriptor implements KeyDescriptor<byte[]> {
+    @Override
+    public int getHashCode(byte[] value) {
+      return (value[0] & 0xFF) << 24 | (value[1] & 0xFF) << 16 | (value[2] & 0xFF) << 8 | value[3] & 0xFF;
+    }
+
+    @Override
+    public boolean isEqual(byte[] val1, byte[] val2) {
+      return Arrays.equals(val1, val2);
+    }
+
+    @Override
+    public void save(DataOutput out, byte[] value) throws IOException {
+      out.write(value);
+    }
+
+    @Override
+    public byte[] read(DataInput in) throws IOException {
+      final byte[] value = new byte[HASH_SIZE];
+      in.readFully(value);
+      return value;
+    }
+  }
+}
@@ -36,8 +36,10 @@ import com.intellij.util.io.DataOutputStream;
 import com.intellij.util.io.storage.*;
 import gnu.trove.TIntArrayList;
 import gnu.trove.TObjectIntHashMap;
+import jsr166e.SequenceLock;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
 import java.awt.*;
@@ -50,6 +52,8 @@ public class FSRecords implements Forceable {
   private static final Logger LOG = Logger.getInstance("#com.intellij.vfs.persistent.FSRecords");
 
   private static final int VERSION = 18;
+  // files with the same content share one content record found by the content hash
+  private static final boolean ourShareContents = Boolean.getBoolean("idea.vfs.share.contents");
 
   private static final int PARENT_OFFSET = 0;
   private static final int PARENT_SIZE = 4;
@@ -105,11 +109,13 @@ public class FSRecords implements Forceable {
 
   static class DbConnection {
     private static boolean ourInitialized;
+    @Nullable private static String ourCachesDir;
     private static final TObjectIntHashMap<String> myAttributeIds = new TObjectIntHashMap<String>();
 
     private static PersistentStringEnumerator myNames;
     private static Storage myAttributes;
     private static RefCountingStorage myContents;
+    @Nullable private static volatile ContentHashes myContentHashes;
     private static ResizeableMappedFile myRecords;
     private static final TIntArrayList myFreeRecords = new TIntArrayList();
 
@@ -134,6 +140,27 @@ public class FSRecords implements Forceable {
       }
     }
 
+    /**
+     * Records stored while sharing was off have no hashes, so they are never shared
+     */
+    private static void setShareContents(boolean shareContents) throws IOException {
+      if (shareContents == (myContentHashes != null)) return;
+
+      final File contentHashesFile = new File(basePath(), "contentHashes.dat");
+      final File recordHashesFile = new File(basePath(), "contentRecordHashes.dat");
+      if (shareContents) {
+        myContentHashes = new ContentHashes(contentHashesFile, recordHashesFile,
+                                            new PagedFileStorage.StorageLock(false).myDefaultStorageLockContext);
+      }
+      else {
+        myContentHashes.close();
+        myContentHashes = null;
+        if (!deleteWithSubordinates(contentHashesFile) || !deleteWithSubordinates(recordHashesFile)) {
+          throw new IOException("Cannot delete content hashes");
+        }
+      }
+    }
+
     private static void scanFreeRecords() {
       final int filelength = (int)getRecords().length();
       LOG.assertTrue(filelength % RECORD_SIZE == 0, "invalid file size: " + filelength);
@@ -194,6 +221,8 @@ public class FSRecords implements Forceable {
       final File attributesFile = new File(basePath, "attrib.dat");
       final File contentsFile = new File(basePath, "content.dat");
       final File recordsFile = new File(basePath, "records.dat");
+      final File contentHashesFile = new File(basePath, "contentHashes.dat");
+      final File recordHashesFile = new File(basePath, "contentRecordHashes.dat");
 
       if (!namesFile.exists()) {
         invalidateIndex();
@@ -209,6 +238,13 @@ public class FSRecords implements Forceable {
         myNames = new PersistentStringEnumerator(namesFile, storageLockContext);
         myAttributes = new Storage(attributesFile.getCanonicalPath(), REASONABLY_SMALL);
         myContents = new RefCountingStorage(contentsFile.getCanonicalPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH); // sources usually zipped with 4x ratio
+        if (ourShareContents) {
+          myContentHashes = new ContentHashes(contentHashesFile, recordHashesFile, storageLockContext);
+        }
+        else if (!deleteWithSubordinates(contentHashesFile) || !deleteWithSubordinates(recordHashesFile)) {
+          // hashes not updated by the writes of this session would be stale the next time sharing is on
+          throw new IOException("Cannot delete content hashes");
+        }
         boolean aligned = PagedFileStorage.BUFFER_SIZE % RECORD_SIZE == 0;
         assert aligned; // for performance
         myRecords = new ResizeableMappedFile(recordsFile, 20 * 1024, storageLockContext,
@@ -229,6 +265,7 @@ public class FSRecords implements Forceable {
         }
         markDirty();
         scanFreeRecords();
+        CachedRecordFields.load();
       }
       catch (Exception e) { // IOException, IllegalArgumentException
         LOG.info("Filesystem storage is corrupted or does not exist. [Re]Building. Reason: " + e.getMessage());
@@ -240,6 +277,8 @@ public class FSRecords implements Forceable {
           deleted &= AbstractStorage.deleteFiles(attributesFile.getCanonicalPath());
           deleted &= AbstractStorage.deleteFiles(contentsFile.getCanonicalPath());
           deleted &= deleteWithSubordinates(recordsFile);
+          deleted &= deleteWithSubordinates(contentHashesFile);
+          deleted &= deleteWithSubordinates(recordHashesFile);
 
           if (!deleted) {
             throw new IOException("Cannot delete filesystem storage files");
@@ -284,6 +323,8 @@ public class FSRecords implements Forceable {
     }
 
     private static void invalidateIndex() {
+      // the indices don't belong to a storage switched to by a test
+      if (ourCachesDir != null) return;
       LOG.info("Marking VFS as corrupted");
       final File indexRoot = PathManager.getIndexRoot();
       if (indexRoot.exists()) {
@@ -301,10 +342,29 @@ public class FSRecords implements Forceable {
     }
 
     private static String getCachesDir() {
+      if (ourCachesDir != null) return ourCachesDir;
       String dir = System.getProperty("caches_dir");
       return dir == null ? PathManager.getSystemPath() + "/caches/" : dir;
     }
 
+    /**
+     * @return whether the storage was open
+     */
+    private static boolean setCachesDir(@Nullable String cachesDir, boolean connect) throws IOException {
+      final boolean wasConnected = ourInitialized;
+      if (wasConnected) {
+        force();
+        closeFiles();
+      }
+      myAttributeIds.clear();
+      myFreeRecords.clear();
+      ourCachesDir = cachesDir;
+      if (connect) {
+        connect();
+      }
+      return wasConnected;
+    }
+
     private static boolean deleteWithSubordinates(File file) {
       final String baseName = file.getName();
       final File[] files = file.getParentFile().listFiles(new FileFilter() {
@@ -355,6 +415,7 @@ public class FSRecords implements Forceable {
           myNames.force();
           myAttributes.force();
           myContents.force();
+          if (myContentHashes != null) myContentHashes.force();
           myRecords.force();
         }
       }
@@ -377,6 +438,7 @@ public class FSRecords implements Forceable {
         final boolean contentsFlushed = myContents.flushSome();
         if (attribsFlushed && contentsFlushed) {
           markClean();
+          if (myContentHashes != null) myContentHashes.force();
           myRecords.force();
         }
       }
@@ -386,7 +448,8 @@ public class FSRecords implements Forceable {
     }
 
     public static boolean isDirty() {
-      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty();
+      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty() ||
+             myContentHashes != null && myContentHashes.isDirty();
     }
 
 
@@ -411,6 +474,7 @@ public class FSRecords implements Forceable {
 
     static void cleanRecord(int id) {
       myRecords.put(id * RECORD_SIZE, ZEROES, 0, RECORD_SIZE);
+      CachedRecordFields.clean(id);
     }
 
     public static PersistentStringEnumerator getNames() {
@@ -422,6 +486,8 @@ public class FSRecords implements Forceable {
     }
 
     private static void closeFiles() throws IOException {
+      CachedRecordFields.reset();
+
       if (myFlushingFuture != null) {
         myFlushingFuture.cancel(false);
         myFlushingFuture = null;
@@ -442,6 +508,11 @@ public class FSRecords implements Forceable {
         myContents = null;
       }
 
+      if (myContentHashes != null) {
+        myContentHashes.close();
+        myContentHashes = null;
+      }
+
       if (myRecords != null) {
         markClean();
         myRecords.close();
@@ -524,6 +595,112 @@ public class FSRecords implements Forceable {
     return DbConnection.myAttributes;
   }
 
+  /**
+   * Heap copy of the most frequently read fixed-size record fields (parent, flags and modification count), which lets readers
+   * go without the global r lock. Writers update it under {@link #ourLock} while holding w lock; readers validate the value they got
+   * with the sequence of {@link #ourLock} and fall back to the locked read of the records file on concurrent update.
+   */
+  private static class CachedRecordFields {
+    private static final boolean ENABLED = !"false".equals(System.getProperty("idea.vfs.cache.record.fields"));
+    private static final int[] CACHED_OFFSETS = {PARENT_OFFSET, FLAGS_OFFSET, MOD_COUNT_OFFSET};
+    private static final int FIELDS_COUNT = CACHED_OFFSETS.length;
+    private static final long NO_VALUE = Long.MIN_VALUE;
+
+    private static final SequenceLock ourLock = new SequenceLock();
+    private static volatile int[] ourFields = ArrayUtil.EMPTY_INT_ARRAY;
+
+    private static int fieldIndex(int offset) {
+      for (int i = 0; i < FIELDS_COUNT; i++) {
+        if (CACHED_OFFSETS[i] == offset) return i;
+      }
+      return -1;
+    }
+
+    /**
+     * @return field value or {@link #NO_VALUE} if it is not cached or has been changed during the read
+     */
+    private static long get(int id, int offset) {
+      final long sequence = ourLock.awaitAvailability();
+      final int field = fieldIndex(offset);
+      final int[] fields = ourFields;
+      final int index = id * FIELDS_COUNT + field;
+      if (id <= 0 || field < 0 || index >= fields.length) return NO_VALUE;
+      final int value = fields[index];
+      return ourLock.getSequence() == sequence ? value : NO_VALUE;
+    }
+
+    // should be called under w lock
+    private static void set(int id, int offset, int value) {
+      final int field = fieldIndex(offset);
+      if (field < 0 || !ENABLED) return;
+
+      ourLock.lock();
+      try {
+        ensureCapacity(id)[id * FIELDS_COUNT + field] = value;
+      }
+      finally {
+        ourLock.unlock();
+      }
+    }
+
+    // should be called under w lock
+    private static void clean(int id) {
+      if (!ENABLED) return;
+
+      ourLock.lock();
+      try {
+        final int[] fields = ensureCapacity(id);
+        for (int i = 0; i < FIELDS_COUNT; i++) {
+          fields[id * FIELDS_COUNT + i] = 0;
+        }
+      }
+      finally {
+        ourLock.unlock();
+      }
+    }
+
+    // should be called under w lock
+    private static void load() {
+      if (!ENABLED) return;
+
+      final int count = (int)(getRecords().length() / RECORD_SIZE);
+      final int[] fields = new int[count * FIELDS_COUNT];
+      for (int id = 1; id < count; id++) {
+        for (int i = 0; i < FIELDS_COUNT; i++) {
+          fields[id * FIELDS_COUNT + i] = getRecordInt(id, CACHED_OFFSETS[i]);
+        }
+      }
+
+      ourLock.lock();
+      try {
+        ourFields = fields;
+      }
+      finally {
+        ourLock.unlock();
+      }
+    }
+
+    private static void reset() {
+      ourLock.lock();
+      try {
+        ourFields = ArrayUtil.EMPTY_INT_ARRAY;
+      }
+      finally {
+        ourLock.unlock();
+      }
+    }
+
+    private static int[] ensureCapacity(int id) {
+      int[] fields = ourFields;
+      final int required = (id + 1) * FIELDS_COUNT;
+      if (required > fields.length) {
+        fields = ArrayUtil.realloc(fields, Math.max(required, fields.length / 2 * 3));
+        ourFields = fields;
+      }
+      return fields;
+    }
+  }
+
   public static PersistentStringEnumerator getNames() {
     return DbConnection.getNames();
   }
@@ -597,7 +774,7 @@ public class FSRecords implements Forceable {
   private static void deleteContentAndAttributes(int id) throws IOException {
     int content_page = getContentRecordId(id);
     if (content_page != 0) {
-      getContentStorage().releaseRecord(content_page);
+      releaseContentRecord(content_page);
     }
 
     int att_page = getAttributeRecordId(id);
@@ -894,19 +1071,13 @@ public class FSRecords implements Forceable {
 
   public static int getParent(int id) {
     try {
-      r.lock();
-      try {
-        final int parentId = getRecordInt(id, PARENT_OFFSET);
-        if (parentId == id) {
-          LOG.error("Cyclic parent child relations in the database. id = " + id);
-          return 0;
-        }
-
-        return parentId;
-      }
-      finally {
-        r.unlock();
+      final int parentId = getRecordIntOptimistically(id, PARENT_OFFSET);
+      if (parentId == id) {
+        LOG.error("Cyclic parent child relations in the database. id = " + id);
+        return 0;
       }
+
+      return parentId;
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -963,13 +1134,7 @@ public class FSRecords implements Forceable {
   }
 
   public static int getFlags(int id) {
-    try {
-      r.lock();
-      return getRecordInt(id, FLAGS_OFFSET);
-    }
-    finally {
-      r.unlock();
-    }
+    return getRecordIntOptimistically(id, FLAGS_OFFSET);
   }
 
   public static void setFlags(int id, int flags, final boolean markAsChange) {
@@ -1037,13 +1202,7 @@ public class FSRecords implements Forceable {
   }
 
   public static int getModCount(int id) {
-    try {
-      r.lock();
-      return getRecordInt(id, MOD_COUNT_OFFSET);
-    }
-    finally {
-      r.unlock();
-    }
+    return getRecordIntOptimistically(id, MOD_COUNT_OFFSET);
   }
 
   private static void setModCount(int id, int value) {
@@ -1070,8 +1229,24 @@ public class FSRecords implements Forceable {
     return getRecords().getInt(getOffset(id, offset));
   }
 
+  private static int getRecordIntOptimistically(int id, int offset) {
+    final long cached = CachedRecordFields.get(id, offset);
+    if (cached != CachedRecordFields.NO_VALUE) {
+      return (int)cached;
+    }
+
+    try {
+      r.lock();
+      return getRecordInt(id, offset);
+    }
+    finally {
+      r.unlock();
+    }
+  }
+
   private static void putRecordInt(int id, int offset, int value) {
     getRecords().putInt(getOffset(id, offset), value);
+    CachedRecordFields.set(id, offset, value);
   }
 
   private static int getOffset(int id, int offset) {
@@ -1215,6 +1390,20 @@ public class FSRecords implements Forceable {
   }
 
   public static void releaseContent(int contentId) {
+    if (isSharingContents()) {
+      // a shared record must not be freed while it is being found by its hash
+      try {
+        w.lock();
+        releaseContentRecord(contentId);
+      }
+      catch (Throwable e) {
+        throw DbConnection.handleError(e);
+      }
+      finally {
+        w.unlock();
+      }
+      return;
+    }
     try {
       getContentStorage().releaseRecord(contentId);
     }
@@ -1223,6 +1412,16 @@ public class FSRecords implements Forceable {
     }
   }
 
+  // should be called under w lock
+  private static void releaseContentRecord(int recordId) throws IOException {
+    getContentStorage().releaseRecord(recordId);
+    final ContentHashes hashes = DbConnection.myContentHashes;
+    if (hashes != null && getContentStorage().getRefCount(recordId) == 0) {
+      // otherwise the hashes would grow with every content ever stored
+      hashes.unregister(recordId);
+    }
+  }
+
   public static int getContentId(int fileId) {
     try {
       r.lock();
@@ -1248,6 +1447,9 @@ public class FSRecords implements Forceable {
   }
 
   public static int storeUnlinkedContent(byte[] bytes) {
+    if (isSharingContents()) {
+      return storeSharedContent(bytes);
+    }
     try {
       int recordId = getContentStorage().acquireNewRecord();
       AbstractStorage.StorageDataOutput output = getContentStorage().writeStream(recordId, true);
@@ -1260,6 +1462,73 @@ public class FSRecords implements Forceable {
     }
   }
 
+  private static int storeSharedContent(byte[] bytes) {
+    final ByteSequence content = new ByteSequence(bytes);
+    final byte[] hash = ContentHashes.calculateHash(content);
+    try {
+      w.lock();
+      int recordId = findSharedContentRecord(hash);
+      if (recordId != 0) {
+        getContentStorage().acquireRecord(recordId);
+        return recordId;
+      }
+      recordId = getContentStorage().acquireNewRecord();
+      getContentHashes().register(hash, recordId);
+      // compressed outside of the lock, readers of the record wait for the pending write
+      getContentStorage().writeBytes(recordId, content, true);
+      return recordId;
+    }
+    catch (IOException e) {
+      throw DbConnection.handleError(e);
+    }
+    finally {
+      w.unlock();
+    }
+  }
+
+  // should be called under w lock
+  private static int findSharedContentRecord(byte[] hash) throws IOException {
+    final int recordId = getContentHashes().findRecord(hash);
+    return recordId != 0 && getContentStorage().getRefCount(recordId) > 0 ? recordId : 0;
+  }
+
+  static ContentHashes getContentHashes() {
+    return DbConnection.myContentHashes;
+  }
+
+  private static boolean isSharingContents() {
+    return DbConnection.myContentHashes != null;
+  }
+
+  /**
+   * Closes the storage, if it is open, and switches to the one in the given directory (the default one for null), so that a test can
+   * work with a storage of its own without touching the one of the test application.
+   *
+   * @param connect whether to open the storage in the new directory at once
+   * @return whether the storage was open before
+   */
+  @TestOnly
+  static boolean setCachesDir(@Nullable String cachesDir, boolean connect) throws IOException {
+    try {
+      w.lock();
+      return DbConnection.setCachesDir(cachesDir, connect);
+    }
+    finally {
+      w.unlock();
+    }
+  }
+
+  @TestOnly
+  static void setShareContents(boolean shareContents) throws IOException {
+    try {
+      w.lock();
+      DbConnection.setShareContents(shareContents);
+    }
+    finally {
+      w.unlock();
+    }
+  }
+
   @NotNull
   public static DataOutputStream writeAttribute(final int fileId, final String attId, boolean fixedSize) {
     return new AttributeOutputStream(fileId, attId, fixedSize);
@@ -1270,6 +1539,42 @@ public class FSRecords implements Forceable {
       super(fileId, readOnly);
     }
 
+    @Override
+    public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
+      if (!isSharingContents()) {
+        super.writeBytes(bytes, fileId);
+        return;
+      }
+
+      final byte[] hash = ContentHashes.calculateHash(bytes);
+      try {
+        w.lock();
+        incModCount(fileId);
+        checkFileIsValid(fileId);
+
+        final int oldRecordId = getContentRecordId(fileId);
+        int recordId = findSharedContentRecord(hash);
+        if (recordId == oldRecordId && recordId != 0) return;
+
+        if (recordId != 0) {
+          getContentStorage().acquireRecord(recordId);
+        }
+        else {
+          // a record reachable by its hash is never rewritten in place
+          recordId = getContentStorage().acquireNewRecord();
+          getContentHashes().register(hash, recordId);
+          getContentStorage().writeBytes(recordId, bytes, myFixedSize);
+        }
+        setContentRecordId(fileId, recordId);
+        if (oldRecordId != 0) {
+          releaseContentRecord(oldRecordId);
+        }
+      }
+      finally {
+        w.unlock();
+      }
+    }
+
     @Override
     protected int findOrCreatePage() throws IOException {
       return findContentPage(myFileId, true);
@@ -0,0 +1,109 @@
+package com.intellij.execution.impl;
+
+import com.intellij.openapi.util.text.StringUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ConsoleOutputStorageTest {
+  private ConsoleOutputStorage myStorage;
+
+  @Before
+  public void setUp() throws Exception {
+    myStorage = ConsoleOutputStorage.create();
+    assertNotNull(myStorage);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    myStorage.dispose();
+  }
+
+  @Test
+  public void textIsReadBackAcrossFlushes() {
+    final String line = "line of output\n";
+    final StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      myStorage.append(line);
+      expected.append(line);
+    }
+    myStorage.append("tail");
+    expected.append("tail");
+
+    assertEquals(expected.length(), myStorage.getLength());
+    assertEquals(expected.toString(), myStorage.getText(0, myStorage.getLength()));
+    assertEquals(expected.substring(70000, 70100), myStorage.getText(70000, 70100));
+    assertEquals("tail", myStorage.getText(myStorage.getLength() - 4, myStorage.getLength() + 10));
+  }
+
+  @Test
+  public void search() {
+    myStorage.append(StringUtil.repeat("x", 100000));
+    myStorage.append("Needle");
+    myStorage.append(StringUtil.repeat("y", 100000));
+
+    assertEquals(100000, myStorage.indexOf("Needle", 0, true));
+    assertEquals(100000, myStorage.indexOf("needle", 0, false));
+    assertEquals(-1, myStorage.indexOf("needle", 0, true));
+    assertEquals(-1, myStorage.indexOf("Needle", 100001, true));
+    // crossing the boundary of the first chunk searched
+    assertEquals(100000, myStorage.indexOf("Needle", 100000 - 64 * 1024 + 3, true));
+  }
+
+  @Test
+  public void lines() {
+    myStorage.append("first\nsecond\nthird");
+    assertEquals(6, myStorage.getLineStartOffset(8));
+    assertEquals(0, myStorage.getLineStartOffset(2));
+    assertEquals(13, myStorage.getLineStartOffset(18));
+    assertEquals(12, myStorage.getLineEndOffset(8));
+    assertEquals(18, myStorage.getLineEndOffset(15));
+
+    myStorage.append("\n" + StringUtil.repeat("x", 200000));
+    assertEquals(19, myStorage.getLineStartOffset(myStorage.getLength()));
+    assertEquals(myStorage.getLength(), myStorage.getLineEndOffset(20));
+  }
+
+  @Test
+  public void carriageReturnWipesOutLastLine() {
+    myStorage.append("first\n10%");
+    myStorage.append("\r20%\r");
+    assertEquals("first\n", myStorage.getText(0, myStorage.getLength()));
+    myStorage.append("30%\rdone\nnext");
+    assertEquals("first\ndone\nnext", myStorage.getText(0, myStorage.getLength()));
+
+    myStorage.append(StringUtil.repeat("x", 100000) + "\rlast");
+    assertEquals("first\ndone\nlast", myStorage.getText(0, myStorage.getLength()));
+  }
+
+  @Test
+  public void replace() {
+    myStorage.append(StringUtil.repeat("x", 100000));
+    myStorage.append("input");
+    myStorage.replace(100002, 100004, "");
+    assertEquals("int", myStorage.getText(100000, myStorage.getLength()));
+    myStorage.replace(100002, 100002, "pu");
+    assertEquals("input", myStorage.getText(100000, myStorage.getLength()));
+    myStorage.replace(99999, 100001, "-");
+    assertEquals("xxx-nput", myStorage.getText(99996, myStorage.getLength()));
+    assertEquals(100004, myStorage.getLength());
+  }
+
+  @Test
+  public void rangeIsClampedByLength() {
+    myStorage.append(StringUtil.repeat("x", 100000));
+    assertEquals(100000, myStorage.getText(-1, Long.MAX_VALUE).length());
+  }
+
+  @Test
+  public void clear() {
+    myStorage.append(StringUtil.repeat("x", 100000));
+    myStorage.clear();
+    myStorage.append("abc");
+    assertEquals(3, myStorage.getLength());
+    assertEquals("abc", myStorage.getText(0, 3));
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import gnu.trove.TIntHashSet;
+import junit.framework.TestCase;
+
+public class TrigramQueryTest extends TestCase {
+  public void testPlainText() {
+    assertEquals(TrigramBuilder.buildTrigram("getFoo()"), TrigramQuery.getRequiredTrigrams("getFoo()", false));
+  }
+
+  public void testRegexpLiteralRuns() {
+    TIntHashSet expected = TrigramBuilder.buildTrigram("getfoo");
+    expected.addAll(TrigramBuilder.buildTrigram("bar(").toArray());
+    assertEquals(expected, TrigramQuery.getRequiredTrigrams("getFoo\\w+bar\\(", true));
+  }
+
+  public void testRegexpOptionalCharsAreDropped() {
+    assertEquals(TrigramBuilder.buildTrigram("abc"), TrigramQuery.getRequiredTrigrams("abcd?", true));
+    assertEquals(TrigramBuilder.buildTrigram("abc"), TrigramQuery.getRequiredTrigrams("abcd*[xyz]", true));
+    assertEquals(TrigramBuilder.buildTrigram("abc"), TrigramQuery.getRequiredTrigrams("abcd{0,2}", true));
+    assertEquals(TrigramBuilder.buildTrigram("abcd"), TrigramQuery.getRequiredTrigrams("abcd+", true));
+  }
+
+  public void testRegexpGroupsAreSkipped() {
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("(foo|bar)?xyz[)(]", true));
+  }
+
+  public void testUnselectiveRegexp() {
+    assertTrue(TrigramQuery.getRequiredTrigrams("foo|bar", true).isEmpty());
+    assertTrue(TrigramQuery.getRequiredTrigrams("a.b.c", true).isEmpty());
+    assertTrue(TrigramQuery.getRequiredTrigrams("\\d+\\s*", true).isEmpty());
+  }
+
+  public void testQuotedLiteral() {
+    assertEquals(TrigramBuilder.buildTrigram("a.b*c"), TrigramQuery.getRequiredTrigrams("\\Qa.b*c\\E", true));
+  }
+
+  public void testCharacterCodesAreNotLiterals() {
+    // "xyzABC" matches all of them, so nothing but "xyz" may be required
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("xyz\\x41BC", true));
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("xyz\\x{41}BC", true));
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("xyz\\u0041BC", true));
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("xyz\\0101BC", true));
+    assertEquals(TrigramBuilder.buildTrigram("bcd"), TrigramQuery.getRequiredTrigrams("\\cAbcd", true));
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("xyz\\p{Lu}BC", true));
+  }
+
+  public void testBackReferencesAreNotLiterals() {
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("(?<name>a)xyz\\k<name>", true));
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("(a)xyz\\12", true));
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("(\\Q(\\E)xyz", true));
+  }
+
+  public void testInlineFlags() {
+    assertTrue(TrigramQuery.getRequiredTrigrams("(?iu)abcd", true).isEmpty());
+    assertTrue(TrigramQuery.getRequiredTrigrams("(?x)a b c", true).isEmpty());
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("xyz(?x)a b c", true));
+    assertEquals(TrigramBuilder.buildTrigram("xyz"), TrigramQuery.getRequiredTrigrams("(?i:abc)xyz", true));
+  }
+}
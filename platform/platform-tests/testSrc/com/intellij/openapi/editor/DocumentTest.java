@@ -4,7 +4,12 @@ import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.event.DocumentAdapter;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+import java.util.Random;
 
 public class DocumentTest extends LightPlatformTestCase {
   public void testCorrectlyAddingAndRemovingListeners() throws Exception {
@@ -56,4 +61,28 @@ public class DocumentTest extends LightPlatformTestCase {
       }
     }.execute().throwException();
   }
+
+  public void testTypingInLargeDocumentPerformance() throws Exception {
+    final Document doc = new DocumentImpl(StringUtil.repeat("line\n", 1000000));
+    final Random random = new Random(42);
+    PlatformTestUtil.startPerformanceTest("typing in a document of 1M lines", 3000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        new WriteCommandAction.Simple(getProject()) {
+          @Override
+          protected void run() throws Throwable {
+            // bursts of typing at random lines, like editing a big generated file
+            for (int burst = 0; burst < 20; burst++) {
+              int line = random.nextInt(doc.getLineCount());
+              int offset = doc.getLineStartOffset(line);
+              for (int i = 0; i < 50; i++) {
+                doc.insertString(offset + i, "x");
+              }
+              doc.deleteString(offset, offset + 50);
+            }
+          }
+        }.execute().throwException();
+      }
+    }).cpuBound().assertTiming();
+  }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.ex.util;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class SegmentArrayTest extends TestCase {
+  public void testDeferredShiftsMatchImmediateOnes() {
+    final Random random = new Random(42);
+    final int count = 200;
+    final SegmentArrayWithData segments = new SegmentArrayWithData();
+    final int[] starts = new int[count];
+    final int[] ends = new int[count];
+    for (int i = 0; i < count; i++) {
+      starts[i] = i * 10;
+      ends[i] = i * 10 + 10;
+      segments.setElementAt(i, starts[i], ends[i], 0);
+    }
+
+    for (int step = 0; step < 10000; step++) {
+      // mostly repeated changes of the same segment, like typing does
+      final int index = random.nextInt(5) == 0 ? random.nextInt(count) : count / 2;
+      final int change = Math.max(random.nextInt(7) - 3, starts[index] - ends[index]);
+      segments.changeSegmentLength(index, change);
+      ends[index] += change;
+      for (int i = index + 1; i < count; i++) {
+        starts[i] += change;
+        ends[i] += change;
+      }
+
+      if (step % 100 == 0) {
+        final int other = random.nextInt(count);
+        segments.setElementAt(other, starts[other], ends[other], step);
+      }
+
+      final int probe = random.nextInt(count);
+      assertEquals(starts[probe], segments.getSegmentStart(probe));
+      assertEquals(ends[probe], segments.getSegmentEnd(probe));
+      if (starts[probe] < ends[probe]) {
+        assertEquals(probe, segments.findSegmentIndex(starts[probe]));
+      }
+    }
+
+    for (int i = 0; i < count; i++) {
+      assertEquals(starts[i], segments.getSegmentStart(i));
+      assertEquals(ends[i], segments.getSegmentEnd(i));
+    }
+    assertEquals(ends[count - 1], segments.getLastValidOffset());
+  }
+
+  public void testRemoveAndInsertApplyPendingShift() {
+    final SegmentArrayWithData segments = new SegmentArrayWithData();
+    for (int i = 0; i < 5; i++) {
+      segments.setElementAt(i, i * 10, i * 10 + 10, 0);
+    }
+    segments.changeSegmentLength(1, 5);
+    segments.remove(2, 3);
+    assertEquals(4, segments.getSegmentCount());
+    assertEquals(35, segments.getSegmentStart(2));
+    assertEquals(55, segments.getSegmentEnd(3));
+
+    final SegmentArrayWithData inserted = new SegmentArrayWithData();
+    inserted.setElementAt(0, 25, 35, 0);
+    segments.changeSegmentLength(0, 0);
+    segments.insert(inserted, 2);
+    assertEquals(25, segments.getSegmentStart(2));
+    assertEquals(35, segments.getSegmentStart(3));
+  }
+}
@@ -22,7 +22,9 @@ import com.intellij.psi.impl.PsiDocumentManagerImpl;
 import com.intellij.psi.impl.PsiToDocumentSynchronizer;
 import com.intellij.testFramework.LeakHunter;
 import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
 import com.intellij.testFramework.Timings;
+import com.intellij.util.ThrowableRunnable;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
@@ -947,6 +949,63 @@ public class RangeMarkerTest extends LightPlatformTestCase {
     LeakHunter.checkLeak(document, RangeMarker.class);
   }
 
+  public void testDisposeDuplicateMarkers() throws Exception {
+    final Document document = EditorFactory.getInstance().createDocument("[xxxxxxxxxxxxxx]");
+    RangeMarker m1 = document.createRangeMarker(2, 4);
+    RangeMarker m2 = document.createRangeMarker(2, 4);
+    RangeMarker m3 = document.createRangeMarker(2, 4);
+    assertEquals(1, ((DocumentImpl)document).getRangeMarkersNodeSize());
+
+    m2.dispose();
+    assertEquals(2, ((DocumentImpl)document).getRangeMarkersSize());
+    document.insertString(0, "x");
+    assertValidMarker(m1, 3, 5);
+    assertValidMarker(m3, 3, 5);
+
+    m1.dispose();
+    assertEquals(1, ((DocumentImpl)document).getRangeMarkersSize());
+    document.deleteString(0, 1);
+    assertValidMarker(m3, 2, 4);
+
+    m3.dispose();
+    assertEquals(0, ((DocumentImpl)document).getRangeMarkersSize());
+    assertEquals(0, ((DocumentImpl)document).getRangeMarkersNodeSize());
+  }
+
+  public void testEditingDocumentWithManyMarkersPerformanceNoVerify() throws Exception {
+    final int lines = 100000;
+    final Document document = EditorFactory.getInstance().createDocument(StringUtil.repeat("line of text\n", lines));
+    final List<RangeMarker> markers = new ArrayList<RangeMarker>();
+    for (int i = 0; i < lines; i++) {
+      int start = i * 13;
+      markers.add(document.createRangeMarker(start, start + 4));
+      markers.add(document.createRangeMarker(start + 5, start + 12));
+    }
+    final Random random = new Random(42);
+    PlatformTestUtil.startPerformanceTest("editing a document with 200K range markers", 3000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        new WriteCommandAction.Simple(getProject()) {
+          @Override
+          protected void run() throws Throwable {
+            for (int i = 0; i < 1000; i++) {
+              int offset = random.nextInt(document.getTextLength());
+              document.insertString(offset, "ab");
+              document.deleteString(offset, offset + 2);
+            }
+          }
+        }.execute().throwException();
+      }
+    }).cpuBound().assertTiming();
+
+    for (int i = 0; i < markers.size(); i++) {
+      int start = i / 2 * 13 + (i % 2 == 0 ? 0 : 5);
+      RangeMarker marker = markers.get(i);
+      assertTrue(marker.isValid());
+      assertEquals(start, marker.getStartOffset());
+    }
+  }
+
   public void testRangeMarkersAreLazyCreated() throws Exception {
     final Document document = EditorFactory.getInstance().createDocument("[xxxxxxxxxxxxxx]");
     RangeMarker m1 = document.createRangeMarker(2, 4);
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.jar;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ArrayUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class ZipCentralDirectoryTest extends TestCase {
+  public void testSameEntriesAsZipFile() throws IOException {
+    for (File jar : getJars()) {
+      final ZipCentralDirectory directory = ZipCentralDirectory.read(jar);
+      final ZipFile zipFile = new ZipFile(jar);
+      try {
+        final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+          final ZipEntry entry = entries.nextElement();
+          final String path = StringUtil.trimEnd(entry.getName(), "/");
+          final int index = directory.find(path);
+          assertTrue(jar + "!/" + path, index >= 0);
+          assertEquals(path, directory.getPath(index));
+          assertEquals(path, entry.isDirectory(), directory.isDirectory(index));
+          if (!entry.isDirectory()) {
+            assertEquals(path, entry.getSize(), directory.getSize(index));
+            if (entry.getExtra() == null) { // newer JDKs take the time from extra fields when present
+              assertEquals(path, entry.getTime(), directory.getTimeStamp(index));
+            }
+          }
+
+          String child = path;
+          int slash;
+          while ((slash = child.lastIndexOf('/')) > 0) {
+            addChild(children, child.substring(0, slash), child.substring(slash + 1));
+            child = child.substring(0, slash);
+          }
+          addChild(children, "", child);
+        }
+
+        for (Map.Entry<String, Set<String>> entry : children.entrySet()) {
+          final int index = directory.find(entry.getKey());
+          assertTrue(jar + "!/" + entry.getKey(), index >= 0 && directory.isDirectory(index));
+          assertEquals(entry.getValue(), new HashSet<String>(Arrays.asList(directory.list(index))));
+        }
+      }
+      finally {
+        zipFile.close();
+      }
+      assertEquals(-1, directory.find("no/such/entry"));
+    }
+  }
+
+  public void testDotSegmentsAreSkipped() throws IOException {
+    final File jar = FileUtil.createTempFile("dots", ".jar");
+    try {
+      final ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(jar));
+      try {
+        for (String name : new String[]{"./", "a/./", "a/./b.txt", "c/.", "./d.txt"}) {
+          stream.putNextEntry(new ZipEntry(name));
+          stream.closeEntry();
+        }
+      }
+      finally {
+        stream.close();
+      }
+
+      final ZipCentralDirectory directory = ZipCentralDirectory.read(jar);
+      assertEquals(new HashSet<String>(Arrays.asList("a", "c", "d.txt")), new HashSet<String>(Arrays.asList(directory.list(0))));
+      assertEquals(Arrays.asList("b.txt"), Arrays.asList(directory.list(directory.find("a"))));
+      assertTrue(directory.isDirectory(directory.find("c")));
+      assertFalse(directory.isDirectory(directory.find("a/b.txt")));
+      assertEquals(-1, directory.find("a/."));
+      assertEquals(5, directory.getEntriesCount());
+    }
+    finally {
+      FileUtil.delete(jar);
+    }
+  }
+
+  public void testListAndReadPerformance() throws IOException {
+    final List<File> jars = getJars();
+    long start = System.currentTimeMillis();
+    int entriesCount = 0;
+    for (File jar : jars) {
+      final ZipCentralDirectory directory = ZipCentralDirectory.read(jar);
+      entriesCount += listRecursively(directory, 0);
+    }
+    final long listTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    long bytesCount = 0;
+    for (File jar : jars) {
+      final ZipCentralDirectory directory = ZipCentralDirectory.read(jar);
+      final ZipFile zipFile = new ZipFile(jar);
+      try {
+        for (int i = 0; i < directory.getEntriesCount(); i++) {
+          if (directory.isDirectory(i)) continue;
+          final InputStream stream = zipFile.getInputStream(zipFile.getEntry(directory.getPath(i)));
+          try {
+            bytesCount += FileUtil.loadBytes(stream, (int)directory.getSize(i)).length;
+          }
+          finally {
+            stream.close();
+          }
+        }
+      }
+      finally {
+        zipFile.close();
+      }
+    }
+    final long readTime = System.currentTimeMillis() - start;
+
+    System.out.println(jars.size() + " jars, " + entriesCount + " entries listed in " + listTime + " ms, " +
+                       bytesCount / 1024 + " KB read in " + readTime + " ms");
+  }
+
+  private static int listRecursively(ZipCentralDirectory directory, int index) {
+    int count = 1;
+    final String path = directory.getPath(index);
+    for (String child : directory.list(index)) {
+      final int childIndex = directory.find(path.isEmpty() ? child : path + "/" + child);
+      assertTrue(childIndex >= 0);
+      count += directory.isDirectory(childIndex) ? listRecursively(directory, childIndex) : 1;
+    }
+    return count;
+  }
+
+  private static void addChild(Map<String, Set<String>> children, String parent, String child) {
+    Set<String> set = children.get(parent);
+    if (set == null) {
+      set = new HashSet<String>();
+      children.put(parent, set);
+    }
+    set.add(child);
+  }
+
+  private static List<File> getJars() {
+    final File[] files = new File(PathManager.getHomePath(), "lib").listFiles();
+    final List<File> jars = new ArrayList<File>();
+    for (File file : files != null ? files : ArrayUtil.EMPTY_FILE_ARRAY) {
+      if (file.getName().endsWith(".jar")) jars.add(file);
+    }
+    assertFalse(jars.isEmpty());
+    return jars;
+  }
+}
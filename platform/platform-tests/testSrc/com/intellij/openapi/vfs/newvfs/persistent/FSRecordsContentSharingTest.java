@@ -0,0 +1,91 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.LightPlatformLangTestCase;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class FSRecordsContentSharingTest extends LightPlatformLangTestCase {
+  private boolean mySharedBefore;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mySharedBefore = FSRecords.getContentHashes() != null;
+    FSRecords.setShareContents(true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FSRecords.setShareContents(mySharedBefore);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testFilesWithEqualContentShareRecord() throws Exception {
+    final byte[] content = "shared content".getBytes();
+    final int a = FSRecords.createRecord();
+    final int b = FSRecords.createRecord();
+    FSRecords.writeContent(a, new ByteSequence(content), false);
+    FSRecords.writeContent(b, new ByteSequence(content), false);
+    assertEquals(FSRecords.getContentId(a), FSRecords.getContentId(b));
+
+    FSRecords.deleteRecordRecursively(a);
+    assertTrue(Arrays.equals(content, readContent(b)));
+    FSRecords.deleteRecordRecursively(b);
+  }
+
+  public void testHashIsDroppedWithLastReference() throws Exception {
+    final byte[] first = "first content".getBytes();
+    final byte[] second = "second content".getBytes();
+    final byte[] firstHash = ContentHashes.calculateHash(new ByteSequence(first));
+    final byte[] secondHash = ContentHashes.calculateHash(new ByteSequence(second));
+    final int a = FSRecords.createRecord();
+    FSRecords.writeContent(a, new ByteSequence(first), false);
+    assertTrue(FSRecords.getContentHashes().isRegistered(firstHash));
+
+    FSRecords.writeContent(a, new ByteSequence(second), false);
+    assertFalse(FSRecords.getContentHashes().isRegistered(firstHash));
+    assertTrue(Arrays.equals(second, readContent(a)));
+
+    final int unlinked = FSRecords.storeUnlinkedContent(second);
+    assertEquals(FSRecords.getContentId(a), unlinked);
+    FSRecords.releaseContent(unlinked);
+    assertTrue(FSRecords.getContentHashes().isRegistered(secondHash));
+
+    FSRecords.deleteRecordRecursively(a);
+    assertFalse(FSRecords.getContentHashes().isRegistered(secondHash));
+  }
+
+  private static byte[] readContent(int fileId) throws IOException {
+    final DataInputStream stream = FSRecords.readContent(fileId);
+    assertNotNull(stream);
+    try {
+      return FileUtil.loadBytes(stream);
+    }
+    finally {
+      stream.close();
+    }
+  }
+}
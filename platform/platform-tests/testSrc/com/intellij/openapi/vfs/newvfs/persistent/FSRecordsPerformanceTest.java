@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Reads of record fields by several threads, against a storage of its own rather than the VFS of the test application
+ */
+public class FSRecordsPerformanceTest extends TestCase {
+  private static final int RECORDS_COUNT = 1000000;
+  private static final int READS_PER_THREAD = 10000000;
+
+  private File myCachesDir;
+  private boolean myWasConnected;
+  private int[] myRecords;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCachesDir = FileUtil.createTempDirectory("fsRecords", null);
+    myWasConnected = FSRecords.setCachesDir(myCachesDir.getPath(), true);
+    myRecords = new int[RECORDS_COUNT];
+    for (int i = 0; i < RECORDS_COUNT; i++) {
+      myRecords[i] = FSRecords.createRecord();
+      FSRecords.setParent(myRecords[i], i == 0 ? 0 : myRecords[i - 1]);
+      FSRecords.setFlags(myRecords[i], i, false);
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FSRecords.setCachesDir(null, myWasConnected);
+      FileUtil.delete(myCachesDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testSingleThreadReads() throws Exception {
+    PlatformTestUtil.startPerformanceTest("FSRecords.getParent()/getFlags() on one thread", 2000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        readConcurrently(1);
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  public void testConcurrentReadsScale() throws Exception {
+    // every thread makes as many reads as the single one above, so without contention it takes about the same time
+    PlatformTestUtil.startPerformanceTest("FSRecords.getParent()/getFlags() on four threads", 3000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        readConcurrently(4);
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private void readConcurrently(int threadsCount) throws InterruptedException {
+    final Thread[] threads = new Thread[threadsCount];
+    final Throwable[] errors = new Throwable[threadsCount];
+    for (int t = 0; t < threadsCount; t++) {
+      final int threadIndex = t;
+      threads[t] = new Thread("FSRecords reader " + t) {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < READS_PER_THREAD; i++) {
+              int index = (i * 31 + threadIndex) % RECORDS_COUNT;
+              int id = myRecords[index];
+              assertEquals(index == 0 ? 0 : myRecords[index - 1], FSRecords.getParent(id));
+              assertEquals(index, FSRecords.getFlags(id));
+            }
+          }
+          catch (Throwable e) {
+            errors[threadIndex] = e;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (Throwable error : errors) {
+      if (error != null) throw new RuntimeException(error);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightVirtualFile;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class IndexedContentsDeduplicatorTest extends TestCase {
+  private static final ID<String, Void> CONTENT_INDEX = ID.create("IndexedContentsDeduplicatorTest.content");
+  private static final ID<String, Void> PATH_INDEX = ID.create("IndexedContentsDeduplicatorTest.path");
+
+  private final List<VirtualFile> myIndexed = new ArrayList<VirtualFile>();
+
+  public void testContentOnlyIndexIsShared() throws Exception {
+    final VirtualFile a1 = file("a.txt", "foo");
+    final VirtualFile a2 = file("a.txt", "foo");
+    final VirtualFile a3 = file("a.txt", "bar");
+    final IndexedContentsDeduplicator deduplicator = createDeduplicator(a1, a2, a3);
+
+    assertEquals(Collections.singletonMap(a1.getPath(), null), getIndexedData(deduplicator, a1, CONTENT_INDEX));
+    assertEquals(Collections.singletonMap(a1.getPath(), null), getIndexedData(deduplicator, a2, CONTENT_INDEX));
+    assertEquals(Collections.singletonMap(a3.getPath(), null), getIndexedData(deduplicator, a3, CONTENT_INDEX));
+    assertEquals(Arrays.asList(a1, a3), myIndexed);
+  }
+
+  public void testPathDependentIndexIsNotShared() throws Exception {
+    final VirtualFile a1 = file("a.txt", "foo");
+    final VirtualFile a2 = file("a.txt", "foo");
+    final IndexedContentsDeduplicator deduplicator = createDeduplicator(a1, a2);
+
+    assertNull(getIndexedData(deduplicator, a1, PATH_INDEX));
+    assertNull(getIndexedData(deduplicator, a2, PATH_INDEX));
+    assertTrue(myIndexed.isEmpty());
+  }
+
+  public void testFilesWithoutCounterpartsAreNotHashed() throws Exception {
+    final VirtualFile a = file("a.txt", "foo");
+    final VirtualFile b = file("b.txt", "foo");
+    final VirtualFile c = file("a.txt", "foobar");
+    final IndexedContentsDeduplicator deduplicator = createDeduplicator(a, b, c);
+
+    assertNull(deduplicator.getContentHash(a, a.contentsToByteArray()));
+    assertNull(deduplicator.getContentHash(b, b.contentsToByteArray()));
+    assertNull(deduplicator.getContentHash(c, c.contentsToByteArray()));
+  }
+
+  public void testDataIsDroppedOnceGroupIsProcessed() throws Exception {
+    final VirtualFile a1 = file("a.txt", "foo");
+    final VirtualFile a2 = file("a.txt", "foo");
+    final IndexedContentsDeduplicator deduplicator = createDeduplicator(a1, a2);
+
+    final String hash = deduplicator.getContentHash(a1, a1.contentsToByteArray());
+    assertNotNull(hash);
+    getIndexedData(deduplicator, hash, a1, CONTENT_INDEX);
+    deduplicator.fileProcessed(a1);
+    getIndexedData(deduplicator, hash, a2, CONTENT_INDEX);
+    deduplicator.fileProcessed(a2);
+    assertNull(deduplicator.getContentHash(a2, a2.contentsToByteArray()));
+
+    getIndexedData(deduplicator, hash, a2, CONTENT_INDEX);
+    assertEquals(Arrays.asList(a1, a2), myIndexed);
+  }
+
+  private static IndexedContentsDeduplicator createDeduplicator(VirtualFile... files) {
+    return new IndexedContentsDeduplicator(Arrays.asList(files), Collections.<ID<?, ?>>singleton(CONTENT_INDEX));
+  }
+
+  private Map<?, ?> getIndexedData(IndexedContentsDeduplicator deduplicator, final VirtualFile file, ID<?, ?> indexId) throws Exception {
+    final String hash = deduplicator.getContentHash(file, file.contentsToByteArray());
+    assertNotNull(hash);
+    return getIndexedData(deduplicator, hash, file, indexId);
+  }
+
+  private Map<?, ?> getIndexedData(IndexedContentsDeduplicator deduplicator, String hash, final VirtualFile file, ID<?, ?> indexId) {
+    return deduplicator.getIndexedData(hash, indexId, new Computable<Map<?, ?>>() {
+      @Override
+      public Map<?, ?> compute() {
+        myIndexed.add(file);
+        return Collections.singletonMap(file.getPath(), null);
+      }
+    });
+  }
+
+  private static VirtualFile file(String name, String text) {
+    return new LightVirtualFile(name, PlainTextFileType.INSTANCE, text, CharsetToolkit.UTF8_CHARSET, 0) {
+      @NotNull
+      @Override
+      public FileType getFileType() {
+        return PlainTextFileType.INSTANCE; // no file type registry without application
+      }
+    };
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LibraryIndexSnapshotsTest extends TestCase {
+  private static final ID<String, Integer> CONTENT_INDEX = ID.create("LibraryIndexSnapshotsTest.content");
+  private static final ID<String, Integer> PATH_INDEX = ID.create("LibraryIndexSnapshotsTest.path");
+
+  private File myDir;
+  private File myJar;
+  private LibraryIndexSnapshots mySnapshots;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("indexSnapshots", null);
+    myJar = new File(myDir, "lib.jar");
+    FileUtil.writeToFile(myJar, "jar content");
+    final File directory = new File(myDir, "snapshots");
+    assertTrue(directory.mkdir());
+    mySnapshots = createSnapshots(directory);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    mySnapshots.dispose();
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testOnlyContentOnlyIndicesAreStored() throws Exception {
+    final LightVirtualFile file = file("a.txt", "foo");
+    final Map<String, VirtualFile> entries = new LinkedHashMap<String, VirtualFile>();
+    entries.put("x/a.txt", file);
+    entries.put("x/b.txt", file("b.txt", "barbaz"));
+    mySnapshots.writeSnapshot(mySnapshots.getSnapshotFile(myJar), entries, null);
+
+    final Map<ID<?, ?>, Map<?, ?>> data = mySnapshots.getSnapshotData(myJar, "x/a.txt", file);
+    assertNotNull(data);
+    assertEquals(Collections.singletonMap("foo", 3), data.get(CONTENT_INDEX));
+    assertFalse(data.containsKey(PATH_INDEX));
+
+    final Map<ID<?, ?>, Map<?, ?>> other = mySnapshots.getSnapshotData(myJar, "x/b.txt", file);
+    assertNotNull(other);
+    assertEquals(Collections.singletonMap("barbaz", 6), other.get(CONTENT_INDEX));
+    assertNull(mySnapshots.getSnapshotData(myJar, "x/c.txt", file));
+  }
+
+  public void testDisabledWithoutDirectory() throws Exception {
+    final File directory = new File(myDir, "none");
+    final LibraryIndexSnapshots snapshots = createSnapshots(directory);
+    try {
+      assertFalse(snapshots.isEnabled());
+      assertNull(snapshots.getSnapshotData(myJar, "x/a.txt", file("a.txt", "foo")));
+      assertFalse(directory.exists());
+    }
+    finally {
+      snapshots.dispose();
+    }
+  }
+
+  public void testChangedJarIsNotTakenFromSnapshot() throws Exception {
+    final LightVirtualFile file = file("a.txt", "foo");
+    mySnapshots.writeSnapshot(mySnapshots.getSnapshotFile(myJar), Collections.<String, VirtualFile>singletonMap("a.txt", file), null);
+    assertNotNull(mySnapshots.getSnapshotData(myJar, "a.txt", file));
+
+    FileUtil.writeToFile(myJar, "another jar content");
+    assertNull(mySnapshots.getSnapshotData(myJar, "a.txt", file));
+  }
+
+  public void testNoDataAfterDispose() throws Exception {
+    final LightVirtualFile file = file("a.txt", "foo");
+    mySnapshots.writeSnapshot(mySnapshots.getSnapshotFile(myJar), Collections.<String, VirtualFile>singletonMap("a.txt", file), null);
+    assertNotNull(mySnapshots.getSnapshotData(myJar, "a.txt", file));
+
+    mySnapshots.dispose();
+    assertNull(mySnapshots.getSnapshotData(myJar, "a.txt", file));
+  }
+
+  private static LibraryIndexSnapshots createSnapshots(File directory) {
+    final LibraryIndexSnapshots snapshots = new LibraryIndexSnapshots(directory, false);
+    snapshots.registerIndex(new TestIndex(CONTENT_INDEX, true));
+    snapshots.registerIndex(new TestIndex(PATH_INDEX, false));
+    return snapshots;
+  }
+
+  private static LightVirtualFile file(String name, String text) {
+    return new LightVirtualFile(name, PlainTextFileType.INSTANCE, text, CharsetToolkit.UTF8_CHARSET, 0) {
+      @NotNull
+      @Override
+      public FileType getFileType() {
+        return PlainTextFileType.INSTANCE; // no file type registry without application
+      }
+    };
+  }
+
+  private static class TestIndex extends FileBasedIndexExtension<String, Integer> {
+    private final ID<String, Integer> myName;
+    private final boolean myContentOnly;
+
+    private TestIndex(ID<String, Integer> name, boolean contentOnly) {
+      myName = name;
+      myContentOnly = contentOnly;
+    }
+
+    @Override
+    public ID<String, Integer> getName() {
+      return myName;
+    }
+
+    @Override
+    public DataIndexer<String, Integer, FileContent> getIndexer() {
+      return new DataIndexer<String, Integer, FileContent>() {
+        @Override
+        public Map<String, Integer> map(FileContent inputData) {
+          final String key = myContentOnly ? new String(inputData.getContent(), CharsetToolkit.UTF8_CHARSET) : inputData.getFile().getPath();
+          return Collections.singletonMap(key, key.length());
+        }
+      };
+    }
+
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor() {
+      return new EnumeratorStringDescriptor();
+    }
+
+    @Override
+    public DataExternalizer<Integer> getValueExternalizer() {
+      return EnumeratorIntegerDescriptor.INSTANCE;
+    }
+
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter() {
+      return new FileBasedIndex.InputFilter() {
+        @Override
+        public boolean acceptInput(VirtualFile file) {
+          return true;
+        }
+      };
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+      return true;
+    }
+
+    @Override
+    public boolean isContentOnly() {
+      return myContentOnly;
+    }
+
+    @Override
+    public int getVersion() {
+      return 0;
+    }
+  }
+}
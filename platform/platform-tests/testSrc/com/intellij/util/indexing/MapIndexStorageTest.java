@@ -0,0 +1,195 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MapIndexStorageTest extends TestCase {
+  private static final int KEYS = 2000;
+  private static final int IDS_PER_KEY = 5;
+
+  private File myDir;
+  private MapIndexStorage<String, String> myStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("mapIndexStorage", null);
+    // EnumeratorStringDescriptor reuses its buffer, values have to be read by one thread at a time
+    myStorage = new MapIndexStorage<String, String>(new File(myDir, "index"), new EnumeratorStringDescriptor(),
+                                                    new EnumeratorStringDescriptor(), 16);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myStorage.close();
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testConcurrentReadsFromDisk() throws Exception {
+    for (int key = 0; key < KEYS; key++) {
+      for (int id = 1; id <= IDS_PER_KEY; id++) {
+        myStorage.addValue(key(key), key * IDS_PER_KEY + id, value(key, id));
+      }
+    }
+    myStorage.flush();
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final int seed = t;
+      final Thread thread = new Thread("reader " + t) {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            final Random random = new Random(seed);
+            for (int i = 0; i < 5000; i++) {
+              final int key = random.nextInt(KEYS);
+              final List<String> values = new ArrayList<String>(myStorage.read(key(key)).toValueList());
+              Collections.sort(values);
+              final List<String> expected = new ArrayList<String>();
+              for (int id = 1; id <= IDS_PER_KEY; id++) {
+                expected.add(value(key, id));
+              }
+              assertEquals(expected, values);
+            }
+          }
+          catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (error.get() != null) throw new RuntimeException(error.get());
+  }
+
+  public void testContainersSavedWhileOthersAreRead() throws Exception {
+    // long values keep the shared buffer of EnumeratorStringDescriptor busy for a while both on save and on read
+    final ValueContainerMap<String, String> map =
+      new ValueContainerMap<String, String>(new File(myDir, "map"), new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    try {
+      for (int key = 0; key < KEYS; key++) {
+        map.put(key(key), container(key));
+      }
+      map.force();
+
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Thread> threads = new ArrayList<Thread>();
+      final Thread writer = new Thread("writer") {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int key = KEYS; key < 3 * KEYS; key++) {
+              map.put(key(key), container(key));
+            }
+          }
+          catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+      writer.start();
+      threads.add(writer);
+      for (int t = 0; t < 3; t++) {
+        final int seed = t;
+        final Thread thread = new Thread("reader " + t) {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              final Random random = new Random(seed);
+              while (writer.isAlive() && error.get() == null) {
+                final int key = random.nextInt(KEYS);
+                assertEquals(Collections.singletonList(longValue(key)), map.get(key(key)).toValueList());
+              }
+            }
+            catch (Throwable e) {
+              error.compareAndSet(null, e);
+            }
+          }
+        };
+        thread.start();
+        threads.add(thread);
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (error.get() != null) throw new RuntimeException(error.get());
+
+      for (int key = 0; key < 3 * KEYS; key++) {
+        assertEquals(Collections.singletonList(longValue(key)), map.get(key(key)).toValueList());
+      }
+    }
+    finally {
+      map.close();
+    }
+  }
+
+  public void testValuesAddedAfterReadAreMerged() throws Exception {
+    myStorage.addValue("a", 1, "x");
+    myStorage.flush();
+
+    assertEquals(Collections.singletonList("x"), myStorage.read("a").toValueList());
+    myStorage.addValue("a", 2, "y");
+    myStorage.flush();
+    myStorage.removeAllValues("a", 1);
+    myStorage.flush();
+
+    assertEquals(Collections.singletonList("y"), myStorage.read("a").toValueList());
+  }
+
+  private static ChangeTrackingValueContainer<String> container(int key) {
+    final ChangeTrackingValueContainer<String> container = new ChangeTrackingValueContainer<String>(null);
+    container.addValue(key + 1, longValue(key));
+    return container;
+  }
+
+  private static String longValue(int key) {
+    // shorter than 255 chars, so that it goes through the buffer
+    return StringUtil.repeat(value(key, 1) + " ", 10);
+  }
+
+  private static String key(int key) {
+    return "key" + key;
+  }
+
+  private static String value(int key, int id) {
+    return "value" + key + "_" + id;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Compares the codecs on the sources of the platform utilities.
+ */
+public class CompressionCodecPerformanceTest extends TestCase {
+  private static final int MAX_FILES = 2000;
+  private final List<byte[]> myCorpus = new ArrayList<byte[]>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    collectSources(new File(PlatformTestUtil.getCommunityPath(), "platform/util/src"));
+    assertFalse(myCorpus.isEmpty());
+  }
+
+  public void testCodecs() throws Exception {
+    final DeflateCodec deflate = new DeflateCodec(Deflater.DEFAULT_COMPRESSION, null);
+    final List<byte[]> lz4Compressed = measure("lz4", LZ4Codec.INSTANCE);
+    measure("deflate", deflate);
+
+    PlatformTestUtil.startPerformanceTest("LZ4 decompression performance failed", 1000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        for (int i = 0; i < 5; i++) {
+          for (byte[] compressed : lz4Compressed) {
+            LZ4Codec.INSTANCE.decompress(compressed, 0, compressed.length);
+          }
+        }
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private List<byte[]> measure(String name, CompressionCodec codec) throws IOException {
+    long size = 0;
+    long compressedSize = 0;
+    final List<byte[]> compressed = new ArrayList<byte[]>();
+    long start = System.currentTimeMillis();
+    for (byte[] source : myCorpus) {
+      final byte[] bytes = codec.compress(source, 0, source.length);
+      size += source.length;
+      compressedSize += bytes.length;
+      compressed.add(bytes);
+    }
+    final long compressionTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    for (int i = 0; i < compressed.size(); i++) {
+      final byte[] bytes = compressed.get(i);
+      assertTrue(Arrays.equals(myCorpus.get(i), codec.decompress(bytes, 0, bytes.length)));
+    }
+    final long decompressionTime = System.currentTimeMillis() - start;
+
+    System.out.println(name + ": " + myCorpus.size() + " files, " + size + " -> " + compressedSize + " bytes, compressed in " +
+                       compressionTime + "ms, decompressed in " + decompressionTime + "ms");
+    return compressed;
+  }
+
+  private void collectSources(File dir) throws IOException {
+    final File[] children = dir.listFiles();
+    if (children == null) return;
+    for (File child : children) {
+      if (myCorpus.size() >= MAX_FILES) return;
+      if (child.isDirectory()) {
+        collectSources(child);
+      }
+      else if (child.getName().endsWith(".java")) {
+        myCorpus.add(FileUtil.loadFileBytes(child));
+      }
+    }
+  }
+}
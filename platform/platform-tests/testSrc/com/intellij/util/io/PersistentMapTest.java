@@ -1,16 +1,21 @@
 package com.intellij.util.io;
 
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.testFramework.PlatformTestUtil;
 import com.intellij.util.ThrowableRunnable;
 import com.intellij.util.containers.IntObjectCache;
 import com.intellij.util.io.storage.Storage;
 import junit.framework.TestCase;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Eugene Zhuravlev
@@ -248,6 +253,111 @@ public class PersistentMapTest extends TestCase {
     }
   }
 
+  public void testIncrementalCompaction() throws IOException {
+    final Map<String, String> expected = new HashMap<String, String>();
+    final String padding = StringUtil.repeat("_", 200);
+    for (int i = 0; i < 10000; ++i) {
+      final String key = createRandomString();
+      expected.put(key, key + "_value");
+      myMap.put(key, key + "_value");
+    }
+    // create enough garbage to start compaction
+    for (int round = 0; round < 3; ++round) {
+      for (String key : expected.keySet()) {
+        final String value = key + padding + round;
+        expected.put(key, value);
+        myMap.put(key, value);
+      }
+    }
+    final long sizeBefore = myDataFile.length();
+
+    int slices = 0;
+    final List<String> keys = new ArrayList<String>(expected.keySet());
+    while (myMap.compactIncrementally(1000)) {
+      // the map stays usable between slices
+      final String key = keys.get(slices);
+      assertEquals(expected.get(key), myMap.get(key));
+      myMap.put(key, key + "_modified");
+      expected.put(key, key + "_modified");
+      myMap.appendData(keys.get(slices + 100), new PersistentHashMap.ValueDataAppender() {
+        @Override
+        public void append(DataOutput out) throws IOException {
+          out.writeUTF("_appended");
+        }
+      });
+      myMap.remove(keys.get(slices + 200));
+      expected.remove(keys.get(slices + 200));
+      final String newKey = createRandomString();
+      myMap.put(newKey, newKey + "_value");
+      expected.put(newKey, newKey + "_value");
+      ++slices;
+    }
+    assertTrue(slices > 1);
+    assertTrue(myDataFile.length() < sizeBefore);
+    assertFalse(myMap.compactIncrementally(1000));
+
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertEquals(expected.keySet(), new HashSet<String>(myMap.getAllKeysWithExistingMapping()));
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), myMap.get(entry.getKey()));
+    }
+  }
+
+  public void testCrashDuringIncrementalCompaction() throws IOException {
+    final String padding = StringUtil.repeat("_", 200);
+    final List<String> keys = new ArrayList<String>();
+    // the value file has to be longer than 5MB to be compacted
+    for (int i = 0; i < 10000; ++i) {
+      final String key = createRandomString();
+      keys.add(key);
+      myMap.put(key, key + "_value");
+    }
+    for (int round = 0; round < 3; ++round) {
+      for (String key : keys) {
+        myMap.put(key, key + padding + round);
+      }
+    }
+    assertTrue(myMap.compactIncrementally(1000));
+    myMap.put(keys.get(0), "modified");
+    myMap.force();
+    assertTrue(myMap.isDirty());
+
+    // the files as they are left on disk if the process dies now
+    final File crashedDir = FileUtil.createTempDirectory("crashed", "map");
+    try {
+      final File[] files = myFile.getParentFile().listFiles(new FileFilter() {
+        @Override
+        public boolean accept(final File pathname) {
+          return pathname.getName().startsWith(myFile.getName());
+        }
+      });
+      assertNotNull(files);
+      for (File file : files) {
+        FileUtil.copy(file, new File(crashedDir, file.getName()));
+      }
+      try {
+        new PersistentHashMap<String, String>(new File(crashedDir, myFile.getName()), new EnumeratorStringDescriptor(),
+                                              new EnumeratorStringDescriptor()).close();
+        fail("The map interrupted during compaction should be rebuilt");
+      }
+      catch (PersistentEnumeratorBase.CorruptedException expected) {
+      }
+    }
+    finally {
+      FileUtil.delete(crashedDir);
+    }
+
+    // finished compaction leaves the map consistent
+    while (myMap.compactIncrementally(1000)) ;
+    myMap.force();
+    assertFalse(myMap.isDirty());
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertEquals("modified", myMap.get(keys.get(0)));
+    assertEquals(keys.get(1) + padding + 2, myMap.get(keys.get(1)));
+  }
+
   public void testPerformance() throws IOException {
     final IntObjectCache<String> stringCache = new IntObjectCache<String>(2000);
     final IntObjectCache.DeletedPairsListener listener = new IntObjectCache.DeletedPairsListener() {
@@ -336,6 +446,92 @@ public class PersistentMapTest extends TestCase {
       .printf("Data file size = %d bytes\n", new File(myDataFile.getParentFile(), myDataFile.getName() + Storage.DATA_EXTENSION).length());
   }
   
+  public void testConcurrentReadsScaling() throws Exception {
+    File file = FileUtil.createTempFile("persistent", "map");
+    // EnumeratorStringDescriptor reuses its buffer, so values are read with stateless externalizer
+    final DataExternalizer<String> valueExternalizer = new DataExternalizer<String>() {
+      @Override
+      public void save(DataOutput out, String value) throws IOException {
+        out.writeUTF(value);
+      }
+
+      @Override
+      public String read(DataInput in) throws IOException {
+        return in.readUTF();
+      }
+    };
+    final PersistentHashMap<String, String> map =
+      new PersistentHashMap<String, String>(file, new EnumeratorStringDescriptor(), valueExternalizer, 4 * 1024, true);
+    try {
+      final List<String> keys = new ArrayList<String>(20000);
+      for (int i = 0; i < 20000; ++i) {
+        final String key = createRandomString();
+        keys.add(key);
+        map.put(key, key + "_value");
+      }
+      // fragmented values are compacted on read
+      for (int i = 0; i < 100; ++i) {
+        final String key = keys.get(i);
+        map.appendData(key, new PersistentHashMap.ValueDataAppender() {
+          @Override
+          public void append(DataOutput out) throws IOException {
+            out.writeUTF("_");
+          }
+        });
+      }
+      for (int i = 0; i < 100; ++i) {
+        assertNotNull(map.get(keys.get(i)));
+      }
+      for (int i = 100; i < keys.size(); ++i) {
+        assertEquals(keys.get(i) + "_value", map.get(keys.get(i)));
+      }
+
+      for (int threadsCount = 1; threadsCount <= 8; threadsCount *= 2) {
+        final List<String> checkedKeys = keys.subList(100, keys.size());
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadsCount; ++t) {
+          final int seed = t;
+          Thread thread = new Thread("reader " + t) {
+            @Override
+            public void run() {
+              try {
+                start.await();
+                final Random random = new Random(seed);
+                for (int i = 0; i < 40000; ++i) {
+                  final String key = checkedKeys.get(random.nextInt(checkedKeys.size()));
+                  assertEquals(key + "_value", map.get(key));
+                }
+              }
+              catch (Throwable e) {
+                error.compareAndSet(null, e);
+              }
+            }
+          };
+          thread.start();
+          threads.add(thread);
+        }
+
+        final long started = System.currentTimeMillis();
+        start.countDown();
+        // writer keeps appending new values while readers are running
+        for (int i = 0; i < 2000; ++i) {
+          final String key = createRandomString();
+          map.put(key, key + "_value");
+        }
+        for (Thread thread : threads) {
+          thread.join();
+        }
+        if (error.get() != null) throw new RuntimeException(error.get());
+        System.out.printf("%d reader threads: %d ms\n", threadsCount, System.currentTimeMillis() - started);
+      }
+    }
+    finally {
+      clearMap(file, map);
+    }
+  }
+
   private static String createRandomString() {
     return StringEnumeratorTest.createRandomString();
   }
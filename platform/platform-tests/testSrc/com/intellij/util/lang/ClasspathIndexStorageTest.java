@@ -0,0 +1,127 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.lang;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClasspathIndexStorageTest extends TestCase {
+  private File myDir;
+  private File myIndexFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("classpathIndex", null);
+    myIndexFile = new File(myDir, "classpath.index");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testEntriesKeptBetweenRuns() throws Exception {
+    final File jar = createJar("a.jar", "a/A.txt", "a/B.txt");
+    final ClasspathIndexStorage storage = new ClasspathIndexStorage(myIndexFile);
+    assertNull(storage.getEntries(jar));
+    storage.putEntries(jar, new String[]{"a/A.txt", "a/B.txt"});
+    storage.classPathLoaded();
+    assertTrue(myIndexFile.exists());
+
+    final ClasspathIndexStorage next = new ClasspathIndexStorage(myIndexFile);
+    assertEquals(Arrays.asList("a/A.txt", "a/B.txt"), Arrays.asList(next.getEntries(jar)));
+  }
+
+  public void testChangedJarIsNotTakenFromIndex() throws Exception {
+    final File jar = createJar("a.jar", "a/A.txt");
+    final ClasspathIndexStorage storage = new ClasspathIndexStorage(myIndexFile);
+    storage.putEntries(jar, new String[]{"a/A.txt"});
+    storage.classPathLoaded();
+
+    createJar("a.jar", "a/A.txt", "a/B.txt");
+    assertTrue(jar.setLastModified(jar.lastModified() + 2000));
+    assertNull(new ClasspathIndexStorage(myIndexFile).getEntries(jar));
+  }
+
+  public void testJarsNotUsedAnymoreAreDropped() throws Exception {
+    final File a = createJar("a.jar", "a/A.txt");
+    final File b = createJar("b.jar", "b/B.txt");
+    final ClasspathIndexStorage storage = new ClasspathIndexStorage(myIndexFile);
+    storage.putEntries(a, new String[]{"a/A.txt"});
+    storage.putEntries(b, new String[]{"b/B.txt"});
+    storage.classPathLoaded();
+
+    final ClasspathIndexStorage next = new ClasspathIndexStorage(myIndexFile);
+    assertNotNull(next.getEntries(a));
+    next.classPathLoaded();
+
+    final ClasspathIndexStorage last = new ClasspathIndexStorage(myIndexFile);
+    assertNotNull(last.getEntries(a));
+    assertNull(last.getEntries(b));
+  }
+
+  public void testCorruptedIndexIsIgnored() throws Exception {
+    final File jar = createJar("a.jar", "a/A.txt");
+    FileUtil.writeToFile(myIndexFile, new byte[]{0, 0, 0, 1, 0, 0, 0, 5, 1});
+    assertNull(new ClasspathIndexStorage(myIndexFile).getEntries(jar));
+  }
+
+  public void testClassLoaderFindsResourcesOfChangedJar() throws Exception {
+    final File jar = createJar("a.jar", "a/A.txt");
+    assertNotNull(createClassLoader(jar).findResource("a/A.txt"));
+    assertTrue(myIndexFile.exists());
+    assertNotNull(createClassLoader(jar).findResource("a/A.txt"));
+
+    createJar("a.jar", "a/A.txt", "a/B.txt");
+    assertTrue(jar.setLastModified(jar.lastModified() + 2000));
+    final UrlClassLoader loader = createClassLoader(jar);
+    assertNotNull(loader.findResource("a/B.txt"));
+    assertNull(loader.findResource("a/C.txt"));
+  }
+
+  private UrlClassLoader createClassLoader(File jar) throws IOException {
+    final UrlClassLoader loader = new UrlClassLoader(Collections.singletonList(jar.toURI().toURL()), null, false, true);
+    loader.setClassPathIndexFile(myIndexFile);
+    return loader;
+  }
+
+  private File createJar(String name, String... entries) throws IOException {
+    final File jar = new File(myDir, name);
+    final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.write(entry.getBytes());
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Compresses byte arrays. Implementations are thread-safe.
+ * <p/>
+ * Data compressed by {@link LZ4Codec} starts with {@link LZ4Codec#MARKER} which is never the first byte of a zlib stream, so callers
+ * storing deflated data may switch to the fast codec and still read what was stored before, see {@link #decompressAny}.
+ */
+public abstract class CompressionCodec {
+  /**
+   * Whether the storages should compress new data with {@link LZ4Codec} instead of deflate: faster, but the data gets bigger.
+   */
+  public static final boolean USE_FAST_CODEC = "lz4".equals(System.getProperty("idea.compression.codec"));
+
+  @NotNull
+  public abstract byte[] compress(@NotNull byte[] source, int off, int len);
+
+  @NotNull
+  public abstract byte[] decompress(@NotNull byte[] compressed, int off, int len) throws IOException;
+
+  /**
+   * Decompresses data produced either by {@link LZ4Codec} or by the given deflate codec.
+   */
+  @NotNull
+  public static byte[] decompressAny(@NotNull byte[] compressed, int off, int len, @NotNull DeflateCodec deflateCodec) throws IOException {
+    final CompressionCodec codec = LZ4Codec.isCompressed(compressed, off, len) ? LZ4Codec.INSTANCE : deflateCodec;
+    return codec.decompress(compressed, off, len);
+  }
+}
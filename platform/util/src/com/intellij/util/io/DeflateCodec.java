@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Produces zlib streams, optionally using a preset dictionary. Each thread uses its own deflater and inflater.
+ */
+public class DeflateCodec extends CompressionCodec {
+  private static final int BUFFER_SIZE = 4096;
+
+  private final int myLevel;
+  @Nullable private final byte[] myDictionary;
+  private final ThreadLocal<Deflater> myDeflater = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(myLevel);
+    }
+  };
+  private final ThreadLocal<Inflater> myInflater = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater();
+    }
+  };
+  private static final ThreadLocal<byte[]> ourBuffer = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[BUFFER_SIZE];
+    }
+  };
+
+  public DeflateCodec(int level, @Nullable byte[] dictionary) {
+    myLevel = level;
+    myDictionary = dictionary;
+  }
+
+  @NotNull
+  @Override
+  public byte[] compress(@NotNull byte[] source, int off, int len) {
+    final Deflater deflater = myDeflater.get();
+    deflater.reset();
+    if (myDictionary != null) {
+      deflater.setDictionary(myDictionary);
+    }
+    deflater.setInput(source, off, len);
+    deflater.finish();
+
+    final byte[] buffer = ourBuffer.get();
+    final BufferExposingByteArrayOutputStream output = new BufferExposingByteArrayOutputStream(Math.max(len / 2, 32));
+    while (!deflater.finished()) {
+      final int count = deflater.deflate(buffer);
+      output.write(buffer, 0, count);
+    }
+    return output.toByteArray();
+  }
+
+  @NotNull
+  @Override
+  public byte[] decompress(@NotNull byte[] compressed, int off, int len) throws IOException {
+    final Inflater inflater = myInflater.get();
+    inflater.reset();
+    inflater.setInput(compressed, off, len);
+
+    final byte[] buffer = ourBuffer.get();
+    final BufferExposingByteArrayOutputStream output = new BufferExposingByteArrayOutputStream(Math.max(len * 3, 32));
+    try {
+      while (!inflater.finished()) {
+        final int count = inflater.inflate(buffer);
+        if (count == 0) {
+          if (inflater.needsDictionary()) {
+            if (myDictionary == null) throw new IOException("Compressed data needs a dictionary");
+            inflater.setDictionary(myDictionary);
+          }
+          else if (!inflater.finished() && inflater.needsInput()) {
+            throw new EOFException("Unexpected end of compressed data");
+          }
+        }
+        output.write(buffer, 0, count);
+      }
+    }
+    catch (DataFormatException e) {
+      throw new IOException(e.getMessage());
+    }
+    return output.toByteArray();
+  }
+}
@@ -11,4 +11,9 @@ class IOStatistics {
   static void dump(String msg) {
     LOG.info(msg);
   }
+
+  static void dumpPageCacheStatistics(PagedFileStorage storage) {
+    dump("Page cache hits:" + storage.getPageCacheHits() + ", misses:" + storage.getPageCacheMisses() +
+         ", evictions:" + storage.getPageCacheEvictions() + ", page size:" + storage.getPageSize() + "@" + storage.getFile().getPath());
+  }
 }
@@ -24,6 +24,7 @@ import jsr166e.SequenceLock;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 import sun.misc.VM;
 
 import java.io.File;
@@ -80,6 +81,11 @@ public class PagedFileStorage implements Forceable {
   private int myLastChangeCount3;
   private int myStorageIndex;
 
+  // page cache statistics, updated without synchronization and thus approximate
+  private int myPageCacheHits;
+  private int myPageCacheMisses;
+  private int myPageCacheEvictions;
+
   private static final int MAX_PAGES_COUNT = 0xFFFF;
   private static final int MAX_LIVE_STORAGES_COUNT = 0xFFFF;
 
@@ -110,7 +116,7 @@ public class PagedFileStorage implements Forceable {
   public PagedFileStorage(File file, StorageLockContext storageLockContext, int pageSize, boolean valuesAreBufferAligned) throws IOException {
     myFile = file;
     myStorageLockContext = storageLockContext;
-    myPageSize = Math.max(pageSize > 0 ? pageSize : BUFFER_SIZE, Page.PAGE_SIZE);
+    myPageSize = Math.max(pageSize > 0 ? pageSize : selectPageSize(file), Page.PAGE_SIZE);
     myValuesAreBufferAligned = valuesAreBufferAligned;
     myStorageIndex = storageLockContext.myStorageLock.registerPagedFileStorage(this);
     myTypedIOBuffer = valuesAreBufferAligned ? null:new byte[8];
@@ -119,10 +125,48 @@ public class PagedFileStorage implements Forceable {
     this(file, lock, BUFFER_SIZE, false);
   }
 
+  /**
+   * Storage created without explicit page size gets pages proportional to its length (but not larger than {@link #BUFFER_SIZE}),
+   * so that small storages don't evict hot pages of large ones from the page cache with their mostly cold pages.
+   */
+  private static int selectPageSize(File file) {
+    final long length = file.length();
+    int pageSize = Math.min(MB, BUFFER_SIZE);
+    while (pageSize < BUFFER_SIZE && pageSize < length) {
+      pageSize <<= 1;
+    }
+    return Math.min(pageSize, BUFFER_SIZE);
+  }
+
   public File getFile() {
     return myFile;
   }
 
+  public int getPageSize() {
+    return myPageSize;
+  }
+
+  /**
+   * @return number of page requests served by the page cache
+   */
+  public int getPageCacheHits() {
+    return myPageCacheHits;
+  }
+
+  /**
+   * @return number of page requests which required mapping the page
+   */
+  public int getPageCacheMisses() {
+    return myPageCacheMisses;
+  }
+
+  /**
+   * @return number of pages of this storage evicted from the page cache to free space for other pages
+   */
+  public int getPageCacheEvictions() {
+    return myPageCacheEvictions;
+  }
+
   public void putInt(int addr, int value) {
     if (myValuesAreBufferAligned) {
       int page = addr / myPageSize;
@@ -279,6 +323,9 @@ public class PagedFileStorage implements Forceable {
       force();
     }
     finally {
+      if (IOStatistics.DEBUG) {
+        IOStatistics.dumpPageCacheStatistics(this);
+      }
       unmapAll();
       myStorageLockContext.myStorageLock.myIndex2Storage.remove(myStorageIndex);
       myStorageIndex = -1;
@@ -382,7 +429,7 @@ public class PagedFileStorage implements Forceable {
       if (myStorageIndex == -1) {
         myStorageIndex = myStorageLockContext.myStorageLock.registerPagedFileStorage(this);
       }
-      ByteBufferWrapper byteBufferWrapper = myStorageLockContext.myStorageLock.get(myStorageIndex | page);
+      ByteBufferWrapper byteBufferWrapper = myStorageLockContext.myStorageLock.get(myStorageIndex | page, this);
       if (modify) markDirty(byteBufferWrapper);
       ByteBuffer buf = byteBufferWrapper.getBuffer();
 
@@ -441,8 +488,13 @@ public class PagedFileStorage implements Forceable {
     public final StorageLockContext myDefaultStorageLockContext;
     private final ConcurrentHashMap<Integer, PagedFileStorage> myIndex2Storage = new ConcurrentHashMap<Integer, PagedFileStorage>();
 
-    private final LinkedHashMap<Integer, ByteBufferWrapper> mySegments;
-    private final SequenceLock mySegmentsAccessLock = new SequenceLock(); // protects map operations of mySegments, needed for LRU order, mySize and myMappingChangeCount
+    // Mapped pages are kept in segmented LRU: a page enters probational queue when mapped and moves to protected queue when requested
+    // again. Pages are evicted from probational queue first, so a single pass over a big storage (e.g. during reindexing) doesn't wash
+    // out pages which are used repeatedly.
+    private final SegmentsQueue myProbationalSegments = new SegmentsQueue();
+    private final SegmentsQueue myProtectedSegments = new SegmentsQueue();
+    private static final int PROTECTED_SEGMENTS_PERCENT = 80;
+    private final SequenceLock mySegmentsAccessLock = new SequenceLock(); // protects map operations of segment queues, needed for LRU order, mySize and myMappingChangeCount
 
     private final SequenceLock mySegmentsAllocationLock = new SequenceLock();
     private final ConcurrentLinkedQueue<ByteBufferWrapper> mySegmentsToRemove = new ConcurrentLinkedQueue<ByteBufferWrapper>();
@@ -459,25 +511,11 @@ public class PagedFileStorage implements Forceable {
       myDefaultStorageLockContext = new StorageLockContext(this);
 
       mySizeLimit = UPPER_LIMIT;
-      mySegments = new LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Integer, ByteBufferWrapper> eldest) {
-          return mySize > mySizeLimit;
-        }
+    }
 
-        @Nullable
-        @Override
-        public ByteBufferWrapper remove(Object key) {
-          // this method can be called after removeEldestEntry
-          ByteBufferWrapper wrapper = super.remove(key);
-          if (wrapper != null) {
-            ++myMappingChangeCount;
-            mySegmentsToRemove.offer(wrapper);
-            mySize -= wrapper.myLength;
-          }
-          return wrapper;
-        }
-      };
+    @TestOnly
+    void setSizeLimit(long sizeLimit) {
+      mySizeLimit = sizeLimit;
     }
 
     public void lock() {
@@ -504,12 +542,15 @@ public class PagedFileStorage implements Forceable {
       return myIndex2Storage.get(index);
     }
 
-    private ByteBufferWrapper get(Integer key) {
+    private ByteBufferWrapper get(Integer key, PagedFileStorage owner) {
       ByteBufferWrapper wrapper;
       try {         // fast path
         mySegmentsAccessLock.lock();
-        wrapper = mySegments.get(key);
-        if (wrapper != null) return wrapper;
+        wrapper = getCachedSegment(key);
+        if (wrapper != null) {
+          ++owner.myPageCacheHits;
+          return wrapper;
+        }
       }
       finally {
         mySegmentsAccessLock.unlock();
@@ -520,12 +561,16 @@ public class PagedFileStorage implements Forceable {
         // check if anybody cared about our segment
         mySegmentsAccessLock.lock();
         try {
-          wrapper = mySegments.get(key);
-          if (wrapper != null) return wrapper;
+          wrapper = getCachedSegment(key);
+          if (wrapper != null) {
+            ++owner.myPageCacheHits;
+            return wrapper;
+          }
         } finally {
           mySegmentsAccessLock.unlock();
         }
 
+        ++owner.myPageCacheMisses;
         long started = IOStatistics.DEBUG ? System.currentTimeMillis() : 0;
         wrapper = createValue(key);
 
@@ -539,7 +584,7 @@ public class PagedFileStorage implements Forceable {
 
         mySegmentsAccessLock.lock();
         try {
-          mySegments.put(key, wrapper);
+          myProbationalSegments.put(key, wrapper);
           mySize += wrapper.myLength;
         }
         finally {
@@ -555,6 +600,45 @@ public class PagedFileStorage implements Forceable {
       }
     }
 
+    @Nullable
+    private ByteBufferWrapper getCachedSegment(Integer key) {
+      assert mySegmentsAccessLock.isHeldByCurrentThread();
+
+      ByteBufferWrapper wrapper = myProtectedSegments.get(key);
+      if (wrapper != null) return wrapper;
+
+      wrapper = myProbationalSegments.remove(key);
+      if (wrapper == null) return null;
+
+      // requested again after being mapped: protect it from eviction by other pages which are used only once
+      myProtectedSegments.put(key, wrapper);
+      final long protectedSizeLimit = mySizeLimit / 100 * PROTECTED_SEGMENTS_PERCENT;
+      while (myProtectedSegments.mySize > protectedSizeLimit && myProtectedSegments.size() > 1) {
+        myProtectedSegments.doRemoveEldestEntry();
+        myProbationalSegments.put(myProtectedSegments.myLastRemovedKey, myProtectedSegments.myLastRemoved);
+      }
+      return wrapper;
+    }
+
+    private void removeSegment(Integer key, boolean evicted) {
+      assert mySegmentsAccessLock.isHeldByCurrentThread();
+
+      ByteBufferWrapper wrapper = myProbationalSegments.remove(key);
+      if (wrapper == null) wrapper = myProtectedSegments.remove(key);
+      if (wrapper != null) onSegmentRemoved(key, wrapper, evicted);
+    }
+
+    private void onSegmentRemoved(Integer key, ByteBufferWrapper wrapper, boolean evicted) {
+      ++myMappingChangeCount;
+      mySegmentsToRemove.offer(wrapper);
+      mySize -= wrapper.myLength;
+
+      if (evicted) {
+        final PagedFileStorage owner = getRegisteredPagedFileStorageByIndex(key & FILE_INDEX_MASK);
+        if (owner != null) ++owner.myPageCacheEvictions;
+      }
+    }
+
     private void disposeRemovedSegments() {
       assert mySegmentsAllocationLock.isHeldByCurrentThread();
       Iterator<ByteBufferWrapper> iterator = mySegmentsToRemove.iterator();
@@ -570,8 +654,10 @@ public class PagedFileStorage implements Forceable {
       try {
         mySegmentsAccessLock.lock();
         while (mySize > sizeLimit) {
-          // we still have to drop something
-          mySegments.doRemoveEldestEntry();
+          // we still have to drop something, probational pages go first
+          final SegmentsQueue queue = myProbationalSegments.isEmpty() ? myProtectedSegments : myProbationalSegments;
+          queue.doRemoveEldestEntry();
+          onSegmentRemoved(queue.myLastRemovedKey, queue.myLastRemoved, true);
         }
       } finally {
         mySegmentsAccessLock.unlock();
@@ -638,17 +724,19 @@ public class PagedFileStorage implements Forceable {
       try {
         checkThreadAccess(storageLockContext);
         Map<Integer, ByteBufferWrapper> mineBuffers = null;
-        for (Map.Entry<Integer, ByteBufferWrapper> entry : mySegments.entrySet()) {
-          if ((entry.getKey() & FILE_INDEX_MASK) == index) {
-            if (mineBuffers == null) {
-              mineBuffers = new TreeMap<Integer, ByteBufferWrapper>(new Comparator<Integer>() {
-                @Override
-                public int compare(Integer o1, Integer o2) {
-                  return o1 - o2;
-                }
-              });
+        for (SegmentsQueue queue : new SegmentsQueue[]{myProbationalSegments, myProtectedSegments}) {
+          for (Map.Entry<Integer, ByteBufferWrapper> entry : queue.entrySet()) {
+            if ((entry.getKey() & FILE_INDEX_MASK) == index) {
+              if (mineBuffers == null) {
+                mineBuffers = new TreeMap<Integer, ByteBufferWrapper>(new Comparator<Integer>() {
+                  @Override
+                  public int compare(Integer o1, Integer o2) {
+                    return o1 - o2;
+                  }
+                });
+              }
+              mineBuffers.put(entry.getKey(), entry.getValue());
             }
-            mineBuffers.put(entry.getKey(), entry.getValue());
           }
         }
         return mineBuffers;
@@ -665,7 +753,7 @@ public class PagedFileStorage implements Forceable {
         mySegmentsAccessLock.lock();
         try {
           for (Integer key : buffers.keySet()) {
-            mySegments.remove(key);
+            removeSegment(key, false);
           }
         }
         finally {
@@ -700,7 +788,7 @@ public class PagedFileStorage implements Forceable {
     public void invalidateBuffer(int page) {
       mySegmentsAccessLock.lock();
       try {
-        mySegments.remove(page);
+        removeSegment(page, false);
       } finally {
         mySegmentsAccessLock.unlock();
       }
@@ -714,6 +802,39 @@ public class PagedFileStorage implements Forceable {
     }
   }
 
+  /**
+   * LRU queue of mapped pages which tracks total length of the pages and remembers the last removed entry
+   * (to find out which page has been dropped by {@link #doRemoveEldestEntry()}).
+   */
+  private static class SegmentsQueue extends LinkedHashMap<Integer, ByteBufferWrapper> {
+    private long mySize;
+    private Integer myLastRemovedKey;
+    private ByteBufferWrapper myLastRemoved;
+
+    private SegmentsQueue() {
+      super(10, 0.75f);
+    }
+
+    @Override
+    public ByteBufferWrapper put(Integer key, @NotNull ByteBufferWrapper value) {
+      final ByteBufferWrapper previous = super.put(key, value);
+      mySize += value.myLength - (previous != null ? previous.myLength : 0);
+      return previous;
+    }
+
+    @Nullable
+    @Override
+    public ByteBufferWrapper remove(Object key) {
+      final ByteBufferWrapper wrapper = super.remove(key);
+      if (wrapper != null) {
+        mySize -= wrapper.myLength;
+        myLastRemovedKey = (Integer)key;
+        myLastRemoved = wrapper;
+      }
+      return wrapper;
+    }
+  }
+
   public static class StorageLockContext {
     private final SequenceLock myLock;
     private final StorageLock myStorageLock;
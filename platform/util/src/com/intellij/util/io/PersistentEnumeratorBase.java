@@ -651,6 +651,25 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
     }
   }
 
+  /**
+   * Writes all the data to disk like {@link #force()} does, but leaves the storage marked dirty, so that it is considered corrupted if it
+   * isn't closed or forced normally later.
+   */
+  synchronized void forceKeepingDirty() throws IOException {
+    lockStorage();
+    try {
+      if (myKeyStorage != null) {
+        flushKeyStoreBuffer();
+        myKeyStorage.force();
+      }
+      markDirty(true);
+      myStorage.force();
+    }
+    finally {
+      unlockStorage();
+    }
+  }
+
   protected final void markDirty(boolean dirty) throws IOException {
     //assert Thread.holdsLock(this) || Thread.holdsLock(ourLock); // we hold one lock or another so can access myDirty
     if (dirty && myDirty && !myDirtyStatusUpdateInProgress) return;
@@ -23,6 +23,9 @@ import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.LimitedPool;
 import com.intellij.util.containers.SLRUCache;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntProcedure;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -61,6 +64,14 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private final boolean myCanReEnumerate;
   private int myLargeIndexWatermarkId;  // starting with this id we store offset in adjacent file in long format
   private boolean myIntAddressForNewRecord;
+  private final boolean myConcurrentReads;
+
+  // online compaction state, see compactIncrementally()
+  @Nullable private PersistentHashMapValueStorage myCompactedValueStorage; // receives all appends while compaction is in progress
+  private TIntHashSet myCompactedKeys;  // ids of the keys whose values already live in myCompactedValueStorage
+  private TIntArrayList myKeysToCompact; // pairs of key id and its processing key, as collected by traverseAllRecords()
+  private int myKeysToCompactIndex;
+  private long myCompactionStarted;
   private static final boolean doHardConsistencyChecks = false;
 
   private static class AppendStream extends DataOutputStream {
@@ -97,12 +108,17 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     protected void onDropFromCache(final Key key, @NotNull final BufferExposingByteArrayOutputStream bytes) {
       myEnumerator.lockStorage();
       try {
-        final int id = enumerate(key);
+        int id = enumerate(key);
         long oldHeaderRecord = readValueId(id);
+        if (oldHeaderRecord != NULL_ADDR && isCompactionPending(id)) {
+          // appended chunk should be linked with the value in the same file
+          id = moveToCompactedStorage(id, oldHeaderRecord, key, 0);
+          oldHeaderRecord = readValueId(id);
+        }
 
-        long headerRecord = myValueStorage.appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), oldHeaderRecord);
+        long headerRecord = getAppendStorage().appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), oldHeaderRecord);
 
-        updateValueId(id, headerRecord, oldHeaderRecord, key, 0);
+        onValueAppended(updateValueId(id, headerRecord, oldHeaderRecord, key, 0));
         if (oldHeaderRecord == NULL_ADDR) {
           myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
         }
@@ -134,7 +150,28 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   }
   
   public PersistentHashMap(@NotNull final File file, @NotNull KeyDescriptor<Key> keyDescriptor, @NotNull DataExternalizer<Value> valueExternalizer, final int initialSize) throws IOException {
+    this(file, keyDescriptor, valueExternalizer, initialSize, false);
+  }
+
+  public PersistentHashMap(@NotNull final File file,
+                           @NotNull KeyDescriptor<Key> keyDescriptor,
+                           @NotNull DataExternalizer<Value> valueExternalizer,
+                           boolean concurrentReads) throws IOException {
+    this(file, keyDescriptor, valueExternalizer, INITIAL_INDEX_SIZE, concurrentReads);
+  }
+
+  /**
+   * @param concurrentReads when true, {@link #get(Object)} holds the map lock only while locating the value record: value bytes are read
+   *                        and deserialized outside of it, so reading threads don't serialize on each other and on writers.
+   *                        Value externalizer and overridden {@link #doGet(Object)} should be thread-safe in this mode.
+   */
+  public PersistentHashMap(@NotNull final File file,
+                           @NotNull KeyDescriptor<Key> keyDescriptor,
+                           @NotNull DataExternalizer<Value> valueExternalizer,
+                           final int initialSize,
+                           boolean concurrentReads) throws IOException {
     super(checkDataFiles(file), keyDescriptor, initialSize);
+    myConcurrentReads = concurrentReads;
 
     final PersistentEnumeratorBase.RecordBufferHandler<PersistentEnumeratorBase> recordHandler = myEnumerator.getRecordHandler();
     myParentValueRefOffset = recordHandler.getRecordBuffer(myEnumerator).length;
@@ -303,9 +340,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
       }
 
-      long header = myValueStorage.appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), 0);
+      long header = getAppendStorage().appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), 0);
 
-      updateValueId(id, header, oldheader, key, 0);
+      onValueAppended(updateValueId(id, header, oldheader, key, 0));
     }
     finally {
       myEnumerator.unlockStorage();
@@ -315,7 +352,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final int enumerate(Key name) throws IOException {
     synchronized (myEnumerator) {
-      myIntAddressForNewRecord = canUseIntAddressForNewRecord(myValueStorage.getSize());
+      myIntAddressForNewRecord = canUseIntAddressForNewRecord(getAppendStorage().getSize());
       return super.enumerate(name);
     }
   }
@@ -376,6 +413,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   @Override
   public final Value get(Key key) throws IOException {
+    if (myConcurrentReads) {
+      return doGet(key);
+    }
     synchronized (myEnumerator) {
       return doGet(key);
     }
@@ -383,6 +423,14 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   @Nullable
   protected Value doGet(Key key) throws IOException {
+    if (myConcurrentReads) {
+      return doGetConcurrently(key);
+    }
+    return doGetExclusively(key);
+  }
+
+  @Nullable
+  private Value doGetExclusively(Key key) throws IOException {
     myEnumerator.lockStorage();
     try {
       myAppendCache.remove(key);
@@ -395,25 +443,89 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         return null;
       }
 
-      PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(oldHeader);
+      final PersistentHashMapValueStorage valueStorage = getValueStorage(id);
+      PersistentHashMapValueStorage.ReadResult readResult = valueStorage.readBytes(oldHeader);
       if (readResult.offset != oldHeader) {
         myEnumerator.markDirty(true);
 
-        updateValueId(id, readResult.offset, oldHeader, key, 0);
+        final int newId = updateValueId(id, readResult.offset, oldHeader, key, 0);
+        if (valueStorage != myValueStorage) onValueAppended(newId);
         myLiveAndGarbageKeysCounter++;
         myReadCompactionGarbageSize += readResult.buffer.length;
       }
 
-      final DataInputStream input = new DataInputStream(new UnsyncByteArrayInputStream(readResult.buffer));
+      return readValue(readResult.buffer);
+    }
+    finally {
+      myEnumerator.unlockStorage();
+    }
+  }
+
+  @Nullable
+  private Value doGetConcurrently(Key key) throws IOException {
+    final PersistentHashMapValueStorage valueStorage;
+    final long header;
+    synchronized (myEnumerator) {
+      myEnumerator.lockStorage();
       try {
-        return myValueExternalizer.read(input);
+        myAppendCache.remove(key);
+        final int id = tryEnumerate(key);
+        if (id == PersistentEnumerator.NULL_ID) {
+          return null;
+        }
+        header = readValueId(id);
+        if (header == NULL_ADDR) {
+          return null;
+        }
+        valueStorage = getValueStorage(id);
+        valueStorage.force();
       }
       finally {
-        input.close();
+        myEnumerator.unlockStorage();
       }
     }
+
+    // value chunks are never overwritten in place, so the header stays readable until the storage is compacted or closed
+    PersistentHashMapValueStorage.ReadResult readResult;
+    try {
+      readResult = valueStorage.readBytesConcurrently(header);
+    }
+    catch (IOException e) {
+      synchronized (myEnumerator) {
+        return doGetExclusively(key);
+      }
+    }
+
+    if (readResult.chunksCount > 1) {
+      synchronized (myEnumerator) {
+        myEnumerator.lockStorage();
+        try {
+          final int id = tryEnumerate(key);
+          if (id != PersistentEnumerator.NULL_ID && getValueStorage(id) == valueStorage && readValueId(id) == header) {
+            myEnumerator.markDirty(true);
+
+            long newHeader = getAppendStorage().appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+            onValueAppended(updateValueId(id, newHeader, header, key, 0));
+            myLiveAndGarbageKeysCounter++;
+            myReadCompactionGarbageSize += readResult.buffer.length;
+          }
+        }
+        finally {
+          myEnumerator.unlockStorage();
+        }
+      }
+    }
+
+    return readValue(readResult.buffer);
+  }
+
+  private Value readValue(@NotNull byte[] buffer) throws IOException {
+    final DataInputStream input = new DataInputStream(new UnsyncByteArrayInputStream(buffer));
+    try {
+      return myValueExternalizer.read(input);
+    }
     finally {
-      myEnumerator.unlockStorage();
+      input.close();
     }
   }
 
@@ -487,7 +599,18 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         clearAppenderCaches();
       }
       finally {
-        super.force();
+        if (myCompactedValueStorage != null) {
+          // keys point into both value files until the compaction is finished, the map must not look correctly closed meanwhile
+          try {
+            myEnumerator.forceKeepingDirty();
+          }
+          catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        else {
+          super.force();
+        }
       }
     }
     finally {
@@ -498,6 +621,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private void clearAppenderCaches() {
     myAppendCache.clear();
     myValueStorage.force();
+    if (myCompactedValueStorage != null) {
+      myCompactedValueStorage.force();
+    }
   }
 
   @Override
@@ -513,6 +639,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       try {
         myAppendCacheFlusher.stop();
         myAppendCache.clear();
+        if (myCompactedValueStorage != null) {
+          completeIncrementalCompaction();
+        }
         final PersistentHashMapValueStorage valueStorage = myValueStorage;
         if (valueStorage != null) {
           valueStorage.dispose();
@@ -530,6 +659,10 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   // made public for tests
   public void compact() throws IOException {
     synchronized (myEnumerator) {
+      if (myCompactedValueStorage != null) {
+        completeIncrementalCompaction();
+        return;
+      }
       final long now = System.currentTimeMillis();
       final String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
       final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath);
@@ -567,6 +700,138 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     }
   }
 
+  /**
+   * Reclaims value storage garbage in bounded slices, so that it may be called periodically (e.g. when the map is flushed) while the map
+   * stays readable and writable between the calls. Live values are copied to the new value file at most maxKeysToProcess keys a time,
+   * the values written meanwhile go to the new file as well, and the files are switched after the last slice.
+   * New compaction is started only if there is enough garbage, the one in progress is completed on {@link #close()}.
+   *
+   * @return true if compaction is in progress and more slices are to be processed
+   */
+  public boolean compactIncrementally(int maxKeysToProcess) throws IOException {
+    synchronized (myEnumerator) {
+      myEnumerator.lockStorage();
+      try {
+        if (myCompactedValueStorage == null) {
+          if (!makesSenseToCompact()) {
+            return false;
+          }
+          startIncrementalCompaction();
+        }
+
+        for (int processed = 0; processed < maxKeysToProcess && myKeysToCompactIndex < myKeysToCompact.size(); ++processed) {
+          final int keyId = myKeysToCompact.get(myKeysToCompactIndex++);
+          final int processingKey = myKeysToCompact.get(myKeysToCompactIndex++);
+          if (isCompactionPending(keyId)) {
+            final long record = readValueId(keyId);
+            if (record != NULL_ADDR) {
+              moveToCompactedStorage(keyId, record, null, processingKey);
+            }
+          }
+        }
+
+        if (myKeysToCompactIndex < myKeysToCompact.size()) {
+          return true;
+        }
+        finishIncrementalCompaction();
+        return false;
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+  }
+
+  private void startIncrementalCompaction() throws IOException {
+    myCompactionStarted = System.currentTimeMillis();
+    final TIntArrayList keysToCompact = new TIntArrayList();
+    traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+      @Override
+      public boolean process(final int keyId) throws IOException {
+        keysToCompact.add(keyId);
+        keysToCompact.add(getCurrentKey());
+        return true;
+      }
+    });
+
+    // the map stays dirty until the compaction is finished, so after a crash meanwhile it is rebuilt rather than opened with the keys
+    // pointing into the value file which is not complete
+    myEnumerator.markDirty(true);
+
+    final File newFile = new File(getDataFile(myEnumerator.myFile).getPath() + ".new");
+    FileUtil.delete(newFile); // leftover of a compaction interrupted before the map was rebuilt, no keys point into it
+
+    myValueStorage.switchToCompactionMode();
+    myCompactedValueStorage = PersistentHashMapValueStorage.create(newFile.getPath());
+    myCompactedKeys = new TIntHashSet();
+    myKeysToCompact = keysToCompact;
+    myKeysToCompactIndex = 0;
+  }
+
+  private void completeIncrementalCompaction() throws IOException {
+    compactIncrementally(Integer.MAX_VALUE);
+  }
+
+  private void finishIncrementalCompaction() throws IOException {
+    final int[] liveKeys = new int[1];
+    myCompactedKeys.forEach(new TIntProcedure() {
+      @Override
+      public boolean execute(int keyId) {
+        if (readValueId(keyId) != NULL_ADDR) ++liveKeys[0];
+        return true;
+      }
+    });
+
+    final File dataFile = getDataFile(myEnumerator.myFile);
+    final String newPath = dataFile.getPath() + ".new";
+    myCompactedValueStorage.dispose();
+    myValueStorage.dispose();
+    myCompactedValueStorage = null;
+    myCompactedKeys = null;
+    myKeysToCompact = null;
+
+    FileUtil.rename(new File(newPath), dataFile);
+
+    myValueStorage = PersistentHashMapValueStorage.create(dataFile.getPath());
+    myLiveAndGarbageKeysCounter = liveKeys[0] * LIVE_KEY_MASK;
+    myReadCompactionGarbageSize = 0;
+    LOG.info("Compacted " + myEnumerator.myFile.getPath() + " incrementally in " + (System.currentTimeMillis() - myCompactionStarted) + "ms.");
+
+    myEnumerator.markDirty(true);
+    myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+  }
+
+  private boolean isCompactionPending(int keyId) {
+    return myCompactedValueStorage != null && !myCompactedKeys.contains(keyId);
+  }
+
+  @NotNull
+  private PersistentHashMapValueStorage getValueStorage(int keyId) {
+    final PersistentHashMapValueStorage compactedStorage = myCompactedValueStorage;
+    return compactedStorage != null && myCompactedKeys.contains(keyId) ? compactedStorage : myValueStorage;
+  }
+
+  @NotNull
+  private PersistentHashMapValueStorage getAppendStorage() {
+    final PersistentHashMapValueStorage compactedStorage = myCompactedValueStorage;
+    return compactedStorage != null ? compactedStorage : myValueStorage;
+  }
+
+  private void onValueAppended(int keyId) {
+    if (myCompactedValueStorage != null) {
+      myCompactedKeys.add(keyId);
+    }
+  }
+
+  private int moveToCompactedStorage(int keyId, long record, @Nullable Key key, int processingKey) throws IOException {
+    assert myCompactedValueStorage != null;
+    final PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
+    final long newRecord = myCompactedValueStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+    final int newKeyId = updateValueId(keyId, newRecord, record, key, processingKey);
+    myCompactedKeys.add(newKeyId);
+    return newKeyId;
+  }
+
   private long readValueId(final int keyId) {
     long address = myEnumerator.myStorage.getInt(keyId + myParentValueRefOffset);
     if (address == 0 || address == -POSITIVE_VALUE_SHIFT) {
@@ -25,15 +25,20 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class PersistentHashMapValueStorage {
   @Nullable
   private RAReader myCompactionModeReader = null;
-  private long mySize;
+  private volatile long mySize;
   private final File myFile;
   private final String myPath;
   private boolean myCompactionMode = false;
+  private volatile ChannelReader myConcurrentReader;
+  private volatile boolean myDisposed;
+  private final Object myConcurrentReaderLock = new Object();
 
   private static final int CACHE_PROTECTED_QUEUE_SIZE = 10;
   private static final int CACHE_PROBATIONAL_QUEUE_SIZE = 20;
@@ -123,10 +128,16 @@ public class PersistentHashMapValueStorage {
   public static class ReadResult {
     public final long offset;
     public final byte[] buffer;
+    public final int chunksCount;
 
     public ReadResult(long offset, byte[] buffer) {
+      this(offset, buffer, 1);
+    }
+
+    public ReadResult(long offset, byte[] buffer, int chunksCount) {
       this.offset = offset;
       this.buffer = buffer;
+      this.chunksCount = chunksCount;
     }
   }
 
@@ -136,10 +147,6 @@ public class PersistentHashMapValueStorage {
   public ReadResult readBytes(long tailChunkAddress) throws IOException {
     force();
 
-    long chunk = tailChunkAddress;
-    int chunkCount = 0;
-
-    byte[] result = null;
     RAReader reader = myCompactionModeReader;
     CacheValue<RAReader> readerHandle = null;
     if (reader == null) {
@@ -147,34 +154,67 @@ public class PersistentHashMapValueStorage {
       reader = readerHandle.get();
     }
 
+    final ReadResult readResult;
+    try {
+      readResult = readChunks(reader, myBuffer, tailChunkAddress);
+    }
+    finally {
+      if (readerHandle != null) {
+        readerHandle.release();
+      }
+    }
+
+    if (readResult.chunksCount > 1 && !myCompactionMode) {
+      long l = appendBytes(new ByteSequence(readResult.buffer), 0);
+      return new ReadResult(l, readResult.buffer);
+    }
+
+    return readResult;
+  }
+
+  /**
+   * Reads bytes pointed by tailChunkAddress without modifying the storage, so several threads may call it simultaneously.
+   * Unlike {@link #readBytes(long)} pending appends are not flushed and chunk list is not compacted: caller should {@link #force()}
+   * the storage before obtaining the address and may check {@link ReadResult#chunksCount} to compact the value itself.
+   */
+  public ReadResult readBytesConcurrently(long tailChunkAddress) throws IOException {
+    return readChunks(getConcurrentReader(), new byte[myBuffer.length], tailChunkAddress);
+  }
+
+  private ReadResult readChunks(RAReader reader, byte[] buffer, long tailChunkAddress) throws IOException {
+    long chunk = tailChunkAddress;
+    int chunkCount = 0;
+    final long size = mySize;
+
+    byte[] result = null;
     try {
       while (chunk != 0) {
-        if (chunk < 0 || chunk > mySize) throw new PersistentEnumeratorBase.CorruptedException(myFile);
-        int len = (int)Math.min(myBuffer.length, mySize - chunk);
-        reader.get(chunk, myBuffer, 0, len);
+        if (chunk < 0 || chunk > size) throw new PersistentEnumeratorBase.CorruptedException(myFile);
+        int len = (int)Math.min(buffer.length, size - chunk);
+        reader.get(chunk, buffer, 0, len);
 
-        final int sizePart = myBuffer[0];
+        final int sizePart = buffer[0];
         final long prevChunkAddress;
         final int chunkSize;
 
         if (sizePart < 0) {
           chunkSize = -sizePart - POSITIVE_VALUE_SHIFT;
-          prevChunkAddress = Bits.getInt(myBuffer, 1);
+          prevChunkAddress = Bits.getInt(buffer, 1);
           byte[] b = new byte[(result != null ? result.length:0) + chunkSize];
           if (result != null) System.arraycopy(result, 0, b, b.length - result.length, result.length);
           result = b;
 
           checkPreconditions(result, chunkSize, 0);
-          System.arraycopy(myBuffer, BYTE_LENGTH_INT_ADDRESS, result, 0, chunkSize);
+          System.arraycopy(buffer, BYTE_LENGTH_INT_ADDRESS, result, 0, chunkSize);
         } else {
-          chunkSize = Bits.getInt(myBuffer, 0);
-          prevChunkAddress = Bits.getLong(myBuffer, 4);
+          chunkSize = Bits.getInt(buffer, 0);
+          prevChunkAddress = Bits.getLong(buffer, 4);
           byte[] b = new byte[(result != null ? result.length:0) + chunkSize];
           if (result != null) System.arraycopy(result, 0, b, b.length - result.length, result.length);
           result = b;
 
-          if (chunkSize < myBuffer.length - INT_LENGTH_LONG_ADDRESS) {
-            System.arraycopy(myBuffer, INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
+          if (chunkSize < buffer.length - INT_LENGTH_LONG_ADDRESS) {
+            System.arraycopy(buffer, INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
           } else {
             reader.get(chunk + INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
           }
@@ -184,7 +224,7 @@ public class PersistentHashMapValueStorage {
 
         chunk = prevChunkAddress;
         chunkCount++;
-        if (result.length > mySize) {
+        if (result.length > size) {
           throw new PersistentEnumeratorBase.CorruptedException(myFile);
         }
       }
@@ -192,18 +232,23 @@ public class PersistentHashMapValueStorage {
       result = null;
       throw new PersistentEnumeratorBase.CorruptedException(myFile);
     }
-    finally {
-      if (readerHandle != null) {
-        readerHandle.release();
-      }
-    }
 
-    if (chunkCount > 1 && !myCompactionMode) {
-      long l = appendBytes(new ByteSequence(result), 0);
-      return new ReadResult(l, result);
-    }
+    return new ReadResult(tailChunkAddress, result, chunkCount);
+  }
 
-    return new ReadResult(tailChunkAddress, result);
+  @NotNull
+  private RAReader getConcurrentReader() throws IOException {
+    ChannelReader reader = myConcurrentReader;
+    if (reader == null || !reader.isOpen()) {
+      synchronized (myConcurrentReaderLock) {
+        reader = myConcurrentReader;
+        if (reader == null || !reader.isOpen()) {
+          if (myDisposed) throw new IOException("Value storage is disposed: " + myPath);
+          myConcurrentReader = reader = new ChannelReader(myFile);
+        }
+      }
+    }
+    return reader;
   }
 
   public long getSize() {
@@ -245,6 +290,14 @@ public class PersistentHashMapValueStorage {
       myCompactionModeReader.dispose();
       myCompactionModeReader = null;
     }
+
+    synchronized (myConcurrentReaderLock) {
+      myDisposed = true;
+      if (myConcurrentReader != null) {
+        myConcurrentReader.dispose();
+        myConcurrentReader = null;
+      }
+    }
   }
 
   public void switchToCompactionMode() {
@@ -290,6 +343,37 @@ public class PersistentHashMapValueStorage {
     }
   }
 
+  /**
+   * Uses positional reads of the file channel which don't share file pointer and thus may be issued from several threads at once.
+   */
+  private static class ChannelReader implements RAReader {
+    private final FileChannel myChannel;
+
+    private ChannelReader(File file) throws IOException {
+      myChannel = new RandomAccessFile(file, "r").getChannel();
+    }
+
+    public void get(final long addr, final byte[] dst, final int off, final int len) throws IOException {
+      final ByteBuffer buffer = ByteBuffer.wrap(dst, off, len);
+      while (buffer.hasRemaining()) {
+        if (myChannel.read(buffer, addr + buffer.position() - off) < 0) break;
+      }
+    }
+
+    private boolean isOpen() {
+      return myChannel.isOpen();
+    }
+
+    public void dispose() {
+      try {
+        myChannel.close();
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
   private static abstract class FileAccessorCache<T> extends SLRUCache<String, CacheValue<T>> {
     private final Object myLock = new Object();
     private FileAccessorCache(int protectedQueueSize, int probationalQueueSize) {
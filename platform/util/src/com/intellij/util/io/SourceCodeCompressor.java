@@ -21,20 +21,17 @@ package com.intellij.util.io;
 
 import org.jetbrains.annotations.NonNls;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
+/**
+ * Compresses source texts with deflate and a preset dictionary of common source fragments, or with {@link LZ4Codec} if
+ * {@link CompressionCodec#USE_FAST_CODEC} is on. Data compressed by either codec is decompressed.
+ */
 public class SourceCodeCompressor {
-  private final static VaultOutputStream OUTPUT;
   private final static byte[] PRESET_BUF;
-  private final static Deflater DEFLATER;
-  private final static Inflater INFLATER;
-  private final static byte[] INFLATE_BUFFER;
+  private final static DeflateCodec DEFLATE_CODEC;
+  private final static CompressionCodec CODEC;
 
   private SourceCodeCompressor() {
   }
@@ -54,89 +51,23 @@ public class SourceCodeCompressor {
       "titleframecaret<a href=\"http://</a><div </div><td </td><tr </tr><p </p><hscripttext/css<img src=" +
       "<!--><link rel=width=height=align=span=centerrightleftstyle=celljsp:rootxmlns:avascript";
     PRESET_BUF = preset_buf_string.getBytes();
-    OUTPUT = new VaultOutputStream();
-    DEFLATER = new Deflater(Deflater.BEST_COMPRESSION);
-    INFLATER = new Inflater();
-    INFLATE_BUFFER = new byte[4096];
+    DEFLATE_CODEC = new DeflateCodec(Deflater.BEST_COMPRESSION, PRESET_BUF);
+    CODEC = CompressionCodec.USE_FAST_CODEC ? LZ4Codec.INSTANCE : DEFLATE_CODEC;
   }
 
-  public static synchronized byte[] compress(byte[] source, int off, int len) {
-    try {
-      DEFLATER.reset();
-      DEFLATER.setDictionary(PRESET_BUF);
-      try {
-        DeflaterOutputStream output = null;
-        try {
-          output = new DeflaterOutputStream(OUTPUT, DEFLATER);
-          output.write(source, off, len);
-        }
-        finally {
-          if (output != null) {
-            output.close();
-          }
-        }
-      }
-      catch (IOException e) {
-        return source;
-      }
-      return OUTPUT.toByteArray();
-    }
-    finally {
-      OUTPUT.reset();
-    }
-
+  public static byte[] compress(byte[] source, int off, int len) {
+    return CODEC.compress(source, off, len);
   }
 
-  public static synchronized byte[] compress(byte[] source) {
+  public static byte[] compress(byte[] source) {
     return compress(source, 0, source.length);
   }
 
-  public static synchronized byte[] decompress(byte[] compressed) throws IOException {
-    final int len = compressed.length;
-    final int off = 0;
-    return decompress(compressed, len, off);
+  public static byte[] decompress(byte[] compressed) throws IOException {
+    return decompress(compressed, compressed.length, 0);
   }
 
   public static byte[] decompress(final byte[] compressed, final int len, final int off) throws IOException {
-    INFLATER.reset();
-    InflaterInputStream input = null;
-    try {
-      input = new InflaterInputStream(new ByteArrayInputStream(compressed, off, len), INFLATER);
-      final int b = input.read();
-      if (b == -1) {
-        INFLATER.setDictionary(PRESET_BUF);
-      }
-      else {
-        OUTPUT.write(b);
-      }
-      int readBytes;
-      while ((readBytes = input.read(INFLATE_BUFFER)) > 0) {
-        OUTPUT.write(INFLATE_BUFFER, 0, readBytes);
-      }
-      return OUTPUT.toByteArray();
-    }
-    finally {
-      if (input != null) {
-        input.close();
-      }
-      OUTPUT.reset();
-    }
-  }
-
-  private static class VaultOutputStream extends ByteArrayOutputStream {
-
-    private static final int MIN_BUF_SIZE = 0x10000;
-    private final byte[] MIN_BUFFER;
-
-    public VaultOutputStream() {
-      super(MIN_BUF_SIZE);
-      MIN_BUFFER = buf;
-    }
-
-    @SuppressWarnings({"NonSynchronizedMethodOverridesSynchronizedMethod"})
-    public void reset() {
-      count = 0;
-      buf = MIN_BUFFER;
-    }
+    return CompressionCodec.decompressAny(compressed, off, len, DEFLATE_CODEC);
   }
 }
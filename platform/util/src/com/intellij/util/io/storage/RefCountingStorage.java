@@ -19,13 +19,10 @@
  */
 package com.intellij.util.io.storage;
 
-import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
-import com.intellij.openapi.util.io.StreamUtil;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.containers.ConcurrentHashMap;
-import com.intellij.util.io.PagePool;
-import com.intellij.util.io.UnsyncByteArrayInputStream;
+import com.intellij.util.io.*;
 
 import java.io.DataInputStream;
 import java.io.EOFException;
@@ -33,20 +30,23 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.*;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.Deflater;
 
 public class RefCountingStorage extends AbstractStorage {
   private final Map<Integer, Future<?>> myPendingWriteRequests = new ConcurrentHashMap<Integer, Future<?>>();
   private int myPendingWriteRequestsSize;
-  private final ThreadPoolExecutor myPendingWriteRequestsExecutor = new ThreadPoolExecutor(1, 1, Long.MAX_VALUE, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+  // records are compressed in parallel, at most one pending write per record keeps the writes of a record ordered
+  private static final int WRITE_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+  private final ThreadPoolExecutor myPendingWriteRequestsExecutor = new ThreadPoolExecutor(WRITE_THREADS, WRITE_THREADS, Long.MAX_VALUE, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
     @Override
     public Thread newThread(Runnable runnable) {
       return new Thread(runnable, "RefCountingStorage write content helper");
     }
   });
 
+  private static final DeflateCodec DEFLATE_CODEC = new DeflateCodec(Deflater.DEFAULT_COMPRESSION, null);
+  private static final CompressionCodec CODEC = CompressionCodec.USE_FAST_CODEC ? LZ4Codec.INSTANCE : DEFLATE_CODEC;
+
   private final boolean myDoNotZipCaches = Boolean.valueOf(System.getProperty("idea.doNotZipCaches")).booleanValue();
   private static final int MAX_PENDING_WRITE_SIZE = 20 * 1024 * 1024;
 
@@ -60,54 +60,23 @@ public class RefCountingStorage extends AbstractStorage {
 
   public DataInputStream readStream(int record) throws IOException {
     if (myDoNotZipCaches) return super.readStream(record);
-    BufferExposingByteArrayOutputStream stream = internalReadStream(record);
-    return new DataInputStream(new UnsyncByteArrayInputStream(stream.getInternalBuffer(), 0, stream.size()));
+    return new DataInputStream(new UnsyncByteArrayInputStream(internalReadBytes(record)));
   }
 
   @Override
   protected byte[] readBytes(int record) throws IOException {
     if (myDoNotZipCaches) return super.readBytes(record);
-    return internalReadStream(record).toByteArray();
+    return internalReadBytes(record);
   }
 
-  private BufferExposingByteArrayOutputStream internalReadStream(int record) throws IOException {
+  private byte[] internalReadBytes(int record) throws IOException {
     waitForPendingWriteForRecord(record);
 
-    synchronized (myLock) {
-
-      byte[] result = super.readBytes(record);
-      InflaterInputStream in = new CustomInflaterInputStream(result);
-      try {
-        final BufferExposingByteArrayOutputStream outputStream = new BufferExposingByteArrayOutputStream();
-        StreamUtil.copyStreamContent(in, outputStream);
-        return outputStream;
-      }
-      finally {
-        in.close();
-      }
-    }
-  }
-
-  private static class CustomInflaterInputStream extends InflaterInputStream {
-    public CustomInflaterInputStream(byte[] compressedData) {
-      super(new UnsyncByteArrayInputStream(compressedData), new Inflater(), 1);
-      // force to directly use compressed data, this ensures less round trips with native extraction code and copy streams
-      this.buf = compressedData;
-      this.len = -1;
-    }
-
-    @Override
-    protected void fill() throws IOException {
-      if (len >= 0) throw new EOFException();
-      len = buf.length;
-      inf.setInput(buf, 0, len);
-    }
-
-    @Override
-    public void close() throws IOException {
-      super.close();
-      inf.end(); // custom inflater need explicit dispose
-    }
+    // only reading the compressed bytes needs the lock, so several records can be inflated at once
+    byte[] result = super.readBytes(record);
+    if (result.length == 0) throw new EOFException();
+    // records are either deflated or, if written with the fast codec, start with its marker
+    return CompressionCodec.decompressAny(result, 0, result.length, DEFLATE_CODEC);
   }
 
   private void waitForPendingWriteForRecord(int record) {
@@ -135,43 +104,52 @@ public class RefCountingStorage extends AbstractStorage {
       return;
     }
 
-    waitForPendingWriteForRecord(record);
-
-    synchronized (myLock) {
-      myPendingWriteRequestsSize += bytes.getLength();
-      if (myPendingWriteRequestsSize > MAX_PENDING_WRITE_SIZE) {
-        zipAndWrite(bytes, record, fixedSize);
-      } else {
-        myPendingWriteRequests.put(record, myPendingWriteRequestsExecutor.submit(new Callable<Object>() {
-          @Override
-          public Object call() throws IOException {
-            zipAndWrite(bytes, record, fixedSize);
-            return null;
-          }
-        }));
+    while (true) {
+      waitForPendingWriteForRecord(record);
+
+      synchronized (myLock) {
+        if (myPendingWriteRequests.containsKey(record)) continue; // another write of the record was queued meanwhile
+
+        if (myPendingWriteRequestsSize + bytes.getLength() <= MAX_PENDING_WRITE_SIZE) {
+          myPendingWriteRequestsSize += bytes.getLength();
+          final FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+              final byte[] s = zip(bytes);
+              synchronized (myLock) {
+                try {
+                  doWrite(record, fixedSize, s);
+                }
+                finally {
+                  myPendingWriteRequestsSize -= bytes.getLength();
+                  myPendingWriteRequests.remove(record);
+                }
+              }
+              return null;
+            }
+          });
+          // registered before being run, so the task always finds itself to remove
+          myPendingWriteRequests.put(record, task);
+          myPendingWriteRequestsExecutor.execute(task);
+          return;
+        }
       }
-    }
-  }
-
-  private void zipAndWrite(ByteSequence bytes, int record, boolean fixedSize) throws IOException {
-    BufferExposingByteArrayOutputStream s = new BufferExposingByteArrayOutputStream();
-    DeflaterOutputStream out = new DeflaterOutputStream(s);
-    try {
-      out.write(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
-    }
-    finally {
-      out.close();
+      break;
     }
 
+    // too much is pending already, compress in the calling thread but still outside of the lock
+    final byte[] s = zip(bytes);
     synchronized (myLock) {
       doWrite(record, fixedSize, s);
-      myPendingWriteRequestsSize -= bytes.getLength();
-      myPendingWriteRequests.remove(record);
     }
   }
 
-  private void doWrite(int record, boolean fixedSize, BufferExposingByteArrayOutputStream s) throws IOException {
-    super.writeBytes(record, new ByteSequence(s.getInternalBuffer(), 0, s.size()), fixedSize);
+  private static byte[] zip(ByteSequence bytes) {
+    return CODEC.compress(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+  }
+
+  private void doWrite(int record, boolean fixedSize, byte[] compressed) throws IOException {
+    super.writeBytes(record, new ByteSequence(compressed), fixedSize);
   }
 
   @Override
@@ -368,10 +368,12 @@ public class JBZipEntry implements Cloneable {
     myFile.eraseEntry(this);
   }
 
-  private InputStream getInputStream() throws IOException {
-    long start = calcDataOffset();
+  private InputStream getRawInputStream() throws IOException {
+    return new BoundedInputStream(calcDataOffset(), getCompressedSize());
+  }
 
-    BoundedInputStream bis = new BoundedInputStream(start, getCompressedSize());
+  private InputStream getInputStream() throws IOException {
+    BoundedInputStream bis = (BoundedInputStream)getRawInputStream();
     switch (getMethod()) {
       case ZipEntry.STORED:
         return bis;
@@ -449,6 +451,30 @@ public class JBZipEntry implements Cloneable {
     setData(bytes, time);
   }
 
+  /**
+   * Writes the data read from the stream, the data is compressed as it is read and isn't kept in memory
+   */
+  public void setData(InputStream stream, long timestamp) throws IOException {
+    time = timestamp;
+    myFile.getOutputStream().putNextEntryContent(this, stream);
+  }
+
+  /**
+   * Writes the data of an entry of another archive as the data of this entry as is, without decompressing and compressing it again.
+   * The time of this entry is kept if it has been set.
+   */
+  public void setDataFromEntry(JBZipEntry source) throws IOException {
+    if (source.size == -1) throw new IOException("no data");
+
+    final InputStream stream = source.getRawInputStream();
+    try {
+      myFile.getOutputStream().putNextEntryContent(this, source, stream);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
   public byte[] getData() throws IOException {
     if (size == -1) throw new IOException("no data");
 
@@ -405,6 +405,17 @@ public class JBZipFile {
     archive.seek(currentcfdfoffset);
   }
 
+  /**
+   * Number of bytes in local file header up to the &quot;crc-32&quot; entry.
+   */
+  static final long LFH_OFFSET_FOR_CRC =
+    /* local file header signature     */ WORD
+                                          /* version needed to extract       */ + SHORT
+                                          /* general purpose bit flag        */ + SHORT
+                                          /* compression method              */ + SHORT
+                                          /* last mod file time              */ + SHORT
+                                          /* last mod file date              */ + SHORT;
+
   /**
    * Number of bytes in local file header up to the &quot;length of
    * filename&quot; entry.
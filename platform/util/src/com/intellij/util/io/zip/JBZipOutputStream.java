@@ -23,6 +23,8 @@ package com.intellij.util.io.zip;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
@@ -401,6 +403,7 @@ class JBZipOutputStream {
     final byte[] outputBytes;
     final int outputBytesLength;
     if (entry.getMethod() == ZipEntry.DEFLATED) {
+      def.reset();
       def.setLevel(level);
       final BufferExposingByteArrayOutputStream compressedBytesStream = new BufferExposingByteArrayOutputStream();
       final DeflaterOutputStream stream = new DeflaterOutputStream(compressedBytesStream, def);
@@ -422,4 +425,92 @@ class JBZipOutputStream {
     writeLocalFileHeader(entry);
     writeOut(outputBytes, 0, outputBytesLength);
   }
+
+  /**
+   * Writes the entry reading its content from the stream, so the content is never kept in memory as a whole. The local file header is
+   * written with empty sizes and CRC first and is updated once the content has been written.
+   */
+  void putNextEntryContent(JBZipEntry entry, InputStream content) throws IOException {
+    if (entry.getMethod() == -1) {
+      entry.setMethod(method);
+    }
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    entry.setSize(0);
+    entry.setCrc(0);
+    entry.setCompressedSize(0);
+    writeLocalFileHeader(entry);
+    final long dataStart = written;
+
+    crc.reset();
+    long size = 0;
+    final OutputStream dataStream = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        writeOut(new byte[]{(byte)b});
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        writeOut(b, off, len);
+      }
+    };
+    final OutputStream output;
+    if (entry.getMethod() == ZipEntry.DEFLATED) {
+      def.reset();
+      def.setLevel(level);
+      output = new DeflaterOutputStream(dataStream, def);
+    }
+    else {
+      output = dataStream;
+    }
+    final byte[] buffer = new byte[8192];
+    try {
+      int read;
+      while ((read = content.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+        output.write(buffer, 0, read);
+        size += read;
+      }
+    }
+    finally {
+      output.close();
+    }
+
+    entry.setSize(size);
+    entry.setCrc(crc.getValue());
+    entry.setCompressedSize(written - dataStart);
+
+    flushBuffer();
+    raf.seek(entry.getHeaderOffset() + JBZipFile.LFH_OFFSET_FOR_CRC);
+    raf.write(ZipLong.getBytes(entry.getCrc()));
+    raf.write(ZipLong.getBytes(entry.getCompressedSize()));
+    raf.write(ZipLong.getBytes(entry.getSize()));
+    raf.seek(written);
+  }
+
+  void putNextEntryContent(JBZipEntry entry, JBZipEntry source, InputStream rawContent) throws IOException {
+    entry.setSize(source.getSize());
+    entry.setCrc(source.getCrc());
+    entry.setMethod(source.getMethod());
+    entry.setCompressedSize(source.getCompressedSize());
+    if (entry.getTime() == -1) {
+      entry.setTime(source.getTime());
+    }
+
+    writeLocalFileHeader(entry);
+    final byte[] buffer = new byte[8192];
+    long remaining = source.getCompressedSize();
+    while (remaining > 0) {
+      final int read = rawContent.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+      if (read <= 0) {
+        throw new ZipException("Unexpected end of data of entry " + source.getName());
+      }
+      writeOut(buffer, 0, read);
+      remaining -= read;
+    }
+  }
 }
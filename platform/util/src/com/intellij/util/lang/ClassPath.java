@@ -40,6 +40,7 @@ public class ClassPath {
   private final ArrayList<Loader> myLoaders = new ArrayList<Loader>();
   private final HashMap<URL,Loader> myLoadersMap = new HashMap<URL, Loader>();
   private final ClasspathCache myCache = new ClasspathCache();
+  @Nullable private ClasspathIndexStorage myIndexStorage;
 
   @NonNls private static final String FILE_PROTOCOL = "file";
   private static final boolean myDebugTime = false;
@@ -106,6 +107,16 @@ public class ClassPath {
     push(urls);
   }
 
+  /**
+   * Makes the entries of the jars of this class path be kept in the given file and taken from it on the next run
+   * while the jars stay unchanged. Must be called before any class is looked up.
+   */
+  void setIndexFile(File file) {
+    if (myCanUseCache) {
+      myIndexStorage = new ClasspathIndexStorage(file);
+    }
+  }
+
   // Accessed by reflection from PluginClassLoader // TODO: do we need it?
   void addURL(URL url) {
     push(new URL[]{url});
@@ -159,7 +170,7 @@ public class ClassPath {
       URL url;
       synchronized (myUrls) {
         if (myUrls.empty()) {
-          if (myCanUseCache) myCache.nameSymbolsLoaded();
+          if (myCanUseCache) allLoadersCreated();
           return null;
         }
         url = myUrls.pop();
@@ -180,13 +191,20 @@ public class ClassPath {
       myLoaders.add(loader);
       myLoadersMap.put(url, loader);
       if (lastOne && myCanUseCache) {
-        myCache.nameSymbolsLoaded();
+        allLoadersCreated();
       }
     }
 
     return myLoaders.get(i);
   }
 
+  private void allLoadersCreated() {
+    myCache.nameSymbolsLoaded();
+    if (myIndexStorage != null) {
+      myIndexStorage.classPathLoaded();
+    }
+  }
+
   @Nullable
   private Loader getLoader(final URL url, int index) throws IOException {
     String s;
@@ -214,12 +232,21 @@ public class ClassPath {
     }
 
     if (loader != null && myCanUseCache) {
+      final long started = myIndexStorage != null ? System.nanoTime() : 0;
       try {
-        loader.buildCache(myCache);
+        if (myIndexStorage != null && loader instanceof JarLoader) {
+          ((JarLoader)loader).buildCache(myCache, myIndexStorage);
+        }
+        else {
+          loader.buildCache(myCache);
+        }
       }
       catch (Throwable e) {
         // TODO: log can't create loader
       }
+      finally {
+        if (myIndexStorage != null) myIndexStorage.addBuildTime(System.nanoTime() - started);
+      }
     }
 
     return loader;
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.lang;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Map;
+
+/**
+ * Keeps the entry names of the jars of a class path between runs, so {@link ClasspathCache} can be filled
+ * without enumerating the jars again. An entry is used only while the length and the timestamp of its jar are unchanged.
+ */
+class ClasspathIndexStorage {
+  private static final Logger LOG = Logger.getInstance(ClasspathIndexStorage.class);
+  private static final int VERSION = 1;
+
+  private final File myFile;
+  private Map<String, JarEntries> myStored;
+  // entries of the jars used in this run, only they are written back
+  private final Map<String, JarEntries> myUsed = new THashMap<String, JarEntries>();
+  private boolean myDirty;
+
+  private int myJarsFromIndex;
+  private int myJarsScanned;
+  private long myBuildTime;
+  private final long myCreated = System.nanoTime();
+
+  ClasspathIndexStorage(@NotNull File file) {
+    myFile = file;
+  }
+
+  @Nullable
+  synchronized String[] getEntries(@NotNull File jar) {
+    if (myStored == null) {
+      myStored = load();
+    }
+    final JarEntries entries = myStored.get(jar.getPath());
+    if (entries == null || entries.myLength != jar.length() || entries.myTimestamp != jar.lastModified()) {
+      return null;
+    }
+    myUsed.put(jar.getPath(), entries);
+    myJarsFromIndex++;
+    return entries.myNames;
+  }
+
+  synchronized void putEntries(@NotNull File jar, @NotNull String[] names) {
+    myUsed.put(jar.getPath(), new JarEntries(jar.length(), jar.lastModified(), names));
+    myJarsScanned++;
+    myDirty = true;
+  }
+
+  synchronized void addBuildTime(long nanos) {
+    myBuildTime += nanos;
+  }
+
+  /**
+   * Called once all the class path elements have been visited: reports the timings and writes the changed index.
+   */
+  synchronized void classPathLoaded() {
+    if (myJarsFromIndex + myJarsScanned == 0) return;
+
+    if (myDirty) {
+      myDirty = false;
+      save();
+    }
+    else if (myStored != null && myStored.size() != myUsed.size()) {
+      save();
+    }
+
+    LOG.info("Class path index: " + myJarsFromIndex + " jars from " + myFile.getName() + ", " + myJarsScanned + " scanned; " +
+             (myBuildTime / 1000000) + " ms building, " + ((System.nanoTime() - myCreated) / 1000000) + " ms until all loaded");
+    myStored = myUsed;
+    myJarsFromIndex = myJarsScanned = 0;
+  }
+
+  @NotNull
+  private Map<String, JarEntries> load() {
+    final Map<String, JarEntries> result = new THashMap<String, JarEntries>();
+    if (!myFile.exists()) return result;
+
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)));
+      try {
+        if (in.readInt() != VERSION) return result;
+        int jarCount = in.readInt();
+        while (jarCount-- > 0) {
+          final String path = in.readUTF();
+          final long length = in.readLong();
+          final long timestamp = in.readLong();
+          final String[] names = new String[in.readInt()];
+          for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+          }
+          result.put(path, new JarEntries(length, timestamp, names));
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read class path index " + myFile + ": " + e.getMessage());
+      result.clear();
+    }
+    return result;
+  }
+
+  private void save() {
+    final File temp = new File(myFile.getPath() + ".tmp");
+    try {
+      if (!FileUtil.createParentDirs(temp)) return;
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        out.writeInt(VERSION);
+        out.writeInt(myUsed.size());
+        for (Map.Entry<String, JarEntries> entry : myUsed.entrySet()) {
+          final JarEntries entries = entry.getValue();
+          out.writeUTF(entry.getKey());
+          out.writeLong(entries.myLength);
+          out.writeLong(entries.myTimestamp);
+          out.writeInt(entries.myNames.length);
+          for (String name : entries.myNames) {
+            out.writeUTF(name);
+          }
+        }
+      }
+      finally {
+        out.close();
+      }
+      FileUtil.delete(myFile);
+      FileUtil.rename(temp, myFile);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot write class path index " + myFile + ": " + e.getMessage());
+      FileUtil.delete(temp);
+    }
+  }
+
+  private static class JarEntries {
+    private final long myLength;
+    private final long myTimestamp;
+    private final String[] myNames;
+
+    private JarEntries(long length, long timestamp, String[] names) {
+      myLength = length;
+      myTimestamp = timestamp;
+      myNames = names;
+    }
+  }
+}
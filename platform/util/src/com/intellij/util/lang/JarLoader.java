@@ -18,6 +18,7 @@ package com.intellij.util.lang;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.TimedComputable;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -27,7 +28,9 @@ import sun.misc.Resource;
 import java.io.*;
 import java.lang.ref.SoftReference;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -124,17 +127,39 @@ class JarLoader extends Loader {
   }
 
   void buildCache(final ClasspathCache cache) throws IOException {
+    buildCache(cache, null);
+  }
+
+  void buildCache(final ClasspathCache cache, @Nullable ClasspathIndexStorage storage) throws IOException {
+    final File jar = storage != null && FILE_PROTOCOL.equals(myURL.getProtocol()) ? new File(FileUtil.unquote(myURL.getFile())) : null;
+    if (jar != null) {
+      final String[] names = storage.getEntries(jar);
+      if (names != null) {
+        for (String name : names) {
+          cache.addResourceEntry(name, this);
+          cache.addNameEntry(name, this);
+        }
+        return;
+      }
+    }
+
     ZipFile zipFile = null;
     try {
       zipFile = acquireZipFile();
       if (zipFile == null) return;
       final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      final List<String> names = jar != null ? new ArrayList<String>(zipFile.size()) : null;
 
       while (entries.hasMoreElements()) {
         ZipEntry zipEntry = entries.nextElement();
         String name = zipEntry.getName();
         cache.addResourceEntry(name, this);
         cache.addNameEntry(name, this);
+        if (names != null) names.add(name);
+      }
+
+      if (names != null) {
+        storage.putEntries(jar, ArrayUtil.toStringArray(names));
       }
     }
     finally {
@@ -23,6 +23,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import sun.misc.Resource;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -60,6 +61,14 @@ public class UrlClassLoader extends ClassLoader {
     myURLs = new ArrayList<URL>(urls);
   }
 
+  /**
+   * Persists the list of entries of the class path jars in the given file, so they are not enumerated on the next start
+   * unless changed. Should be called right after the class loader is created.
+   */
+  public void setClassPathIndexFile(@NotNull File file) {
+    myClassPath.setIndexFile(file);
+  }
+
   public void addURL(URL url) {
     myClassPath.addURL(url);
     myURLs.add(url);
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+public class CompressionCodecTest extends TestCase {
+  private static final String SOURCE = "package com.intellij.util.io;\n\n" +
+                                       "public class Sample {\n" +
+                                       "  private final int myValue;\n\n" +
+                                       "  public Sample(int value) {\n" +
+                                       "    myValue = value;\n" +
+                                       "  }\n\n" +
+                                       "  public int getValue() {\n" +
+                                       "    return myValue;\n" +
+                                       "  }\n" +
+                                       "}\n";
+
+  public void testLZ4RoundTrip() throws IOException {
+    assertRoundTrip(LZ4Codec.INSTANCE, new byte[0]);
+    assertRoundTrip(LZ4Codec.INSTANCE, "short".getBytes());
+    assertRoundTrip(LZ4Codec.INSTANCE, SOURCE.getBytes());
+    assertRoundTrip(LZ4Codec.INSTANCE, repeat(SOURCE, 1000).getBytes());
+    assertRoundTrip(LZ4Codec.INSTANCE, repeat("a", 100000).getBytes());
+    assertRoundTrip(LZ4Codec.INSTANCE, randomBytes(100000));
+  }
+
+  public void testLZ4Compresses() {
+    final byte[] source = repeat(SOURCE, 1000).getBytes();
+    assertTrue(LZ4Codec.INSTANCE.compress(source, 0, source.length).length < source.length / 10);
+  }
+
+  public void testLZ4RoundTripOfRange() throws IOException {
+    final byte[] source = ("prefix" + SOURCE + "suffix").getBytes();
+    final byte[] compressed = LZ4Codec.INSTANCE.compress(source, "prefix".length(), SOURCE.length());
+    final byte[] padded = new byte[compressed.length + 10];
+    System.arraycopy(compressed, 0, padded, 3, compressed.length);
+    assertEquals(SOURCE, new String(LZ4Codec.INSTANCE.decompress(padded, 3, compressed.length)));
+  }
+
+  public void testCorruptedLZ4Data() {
+    final byte[] source = repeat(SOURCE, 10).getBytes();
+    final byte[] compressed = LZ4Codec.INSTANCE.compress(source, 0, source.length);
+    try {
+      LZ4Codec.INSTANCE.decompress(compressed, 0, compressed.length / 2);
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  public void testCorruptedLZ4LengthIsRejectedBeforeAllocation() {
+    final byte[] source = SOURCE.getBytes();
+    final byte[] compressed = LZ4Codec.INSTANCE.compress(source, 0, source.length);
+    for (int length : new int[]{Integer.MAX_VALUE, -1, (compressed.length - 5) * 0xFF + 20}) {
+      compressed[1] = (byte)(length >>> 24);
+      compressed[2] = (byte)(length >>> 16);
+      compressed[3] = (byte)(length >>> 8);
+      compressed[4] = (byte)length;
+      try {
+        LZ4Codec.INSTANCE.decompress(compressed, 0, compressed.length);
+        fail(String.valueOf(length));
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+
+  public void testLZ4HighlyCompressedData() throws IOException {
+    assertRoundTrip(LZ4Codec.INSTANCE, new byte[1 << 20]);
+  }
+
+  public void testDeflateWithDictionaryRoundTrip() throws IOException {
+    final DeflateCodec codec = new DeflateCodec(Deflater.BEST_COMPRESSION, "public class private final".getBytes());
+    assertRoundTrip(codec, new byte[0]);
+    assertRoundTrip(codec, SOURCE.getBytes());
+    assertRoundTrip(codec, randomBytes(100000));
+  }
+
+  public void testSourceCodeCompressorReadsBothFormats() throws IOException {
+    final byte[] source = repeat(SOURCE, 10).getBytes();
+    assertEquals(new String(source), new String(SourceCodeCompressor.decompress(SourceCodeCompressor.compress(source))));
+    assertEquals(new String(source), new String(SourceCodeCompressor.decompress(LZ4Codec.INSTANCE.compress(source, 0, source.length))));
+  }
+
+  public void testPreviouslyDeflatedDataIsRead() throws IOException {
+    final byte[] source = repeat(SOURCE, 10).getBytes();
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    final DeflaterOutputStream output = new DeflaterOutputStream(stream);
+    output.write(source);
+    output.close();
+    final byte[] deflated = stream.toByteArray();
+
+    assertFalse(LZ4Codec.isCompressed(deflated, 0, deflated.length));
+    final byte[] decompressed =
+      CompressionCodec.decompressAny(deflated, 0, deflated.length, new DeflateCodec(Deflater.DEFAULT_COMPRESSION, null));
+    assertTrue(Arrays.equals(source, decompressed));
+  }
+
+  public void testConcurrentUse() throws Exception {
+    final Throwable[] errors = new Throwable[4];
+    final Thread[] threads = new Thread[errors.length];
+    for (int t = 0; t < threads.length; t++) {
+      final int index = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 200; i++) {
+              final byte[] source = repeat(SOURCE + index + i, 1 + i % 10).getBytes();
+              assertTrue(Arrays.equals(source, SourceCodeCompressor.decompress(SourceCodeCompressor.compress(source))));
+              final byte[] compressed = LZ4Codec.INSTANCE.compress(source, 0, source.length);
+              assertTrue(Arrays.equals(source, LZ4Codec.INSTANCE.decompress(compressed, 0, compressed.length)));
+            }
+          }
+          catch (Throwable e) {
+            errors[index] = e;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (Throwable error : errors) {
+      if (error != null) throw new RuntimeException(error);
+    }
+  }
+
+  private static void assertRoundTrip(CompressionCodec codec, byte[] source) throws IOException {
+    final byte[] compressed = codec.compress(source, 0, source.length);
+    assertTrue(Arrays.equals(source, codec.decompress(compressed, 0, compressed.length)));
+  }
+
+  private static byte[] randomBytes(int length) {
+    final byte[] bytes = new byte[length];
+    new Random(42).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static String repeat(String s, int count) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      builder.append(s);
+    }
+    return builder.toString();
+  }
+}
@@ -118,6 +118,67 @@ public class PagedFileStorageTest extends TestCase {
     }
   }
 
+  public void testHotPagesSurviveScan() throws IOException {
+    final PagedFileStorage.StorageLock storageLock = new PagedFileStorage.StorageLock();
+    final int pageSize = Page.PAGE_SIZE;
+    storageLock.setSizeLimit(10 * pageSize);
+    File hotFile = FileUtil.createTempFile("hot", ".tmp");
+    File scannedFile = FileUtil.createTempFile("scanned", ".tmp");
+    storageLock.lock();
+    try {
+      PagedFileStorage hot = new PagedFileStorage(hotFile, storageLock, pageSize, true);
+      PagedFileStorage scanned = new PagedFileStorage(scannedFile, storageLock, pageSize, true);
+      hot.resize(4 * pageSize);
+      scanned.resize(100 * pageSize);
+
+      // more hot pages than storage remembers itself, so the requests get to the page cache
+      for (int i = 0; i < 10; ++i) {
+        for (int page = 0; page < 4; ++page) {
+          hot.getInt(page * pageSize);
+        }
+      }
+      final int hotMisses = hot.getPageCacheMisses();
+      final int hotEvictions = hot.getPageCacheEvictions();
+      final int scannedEvictions = scanned.getPageCacheEvictions();
+      assertTrue(hot.getPageCacheHits() > 0);
+
+      for (int page = 0; page < 100; ++page) {
+        scanned.getInt(page * pageSize);
+      }
+      assertTrue(scanned.getPageCacheEvictions() > scannedEvictions);
+      assertEquals(hotEvictions, hot.getPageCacheEvictions());
+
+      for (int page = 0; page < 4; ++page) {
+        hot.getInt(page * pageSize);
+      }
+      assertEquals(hotMisses, hot.getPageCacheMisses());
+
+      hot.close();
+      scanned.close();
+    }
+    finally {
+      storageLock.unlock();
+      FileUtil.delete(hotFile);
+      FileUtil.delete(scannedFile);
+    }
+  }
+
+  public void testDefaultPageSizeDependsOnLength() throws IOException {
+    lock.lock();
+    try {
+      assertTrue(s.getPageSize() <= PagedFileStorage.BUFFER_SIZE);
+
+      File small = FileUtil.createTempFile("small", ".tmp");
+      PagedFileStorage smallStorage = new PagedFileStorage(small, lock, -1, false);
+      assertTrue(smallStorage.getPageSize() < PagedFileStorage.BUFFER_SIZE || PagedFileStorage.BUFFER_SIZE == PagedFileStorage.MB);
+      smallStorage.close();
+      FileUtil.delete(small);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
   private static final SimpleDateFormat FORMATTER = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
 
   private static void printPct(int pct) {
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io.storage;
+
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RefCountingStorageTest extends TestCase {
+  private RefCountingStorage myStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myStorage = new RefCountingStorage(getFileName());
+  }
+
+  private String getFileName() {
+    return FileUtil.getTempDirectory() + File.separatorChar + getName();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Disposer.dispose(myStorage);
+    AbstractStorage.deleteFiles(getFileName());
+    super.tearDown();
+  }
+
+  public void testRewritesOfRecordAreOrdered() throws Exception {
+    final int record = myStorage.acquireNewRecord();
+    for (int i = 0; i < 100; i++) {
+      myStorage.writeBytes(record, new ByteSequence(("content " + i).getBytes()), false);
+    }
+    assertEquals("content 99", new String(myStorage.readBytes(record)));
+  }
+
+  public void testConcurrentReads() throws Exception {
+    final int count = 100;
+    final int[] records = new int[count];
+    for (int i = 0; i < count; i++) {
+      records[i] = myStorage.acquireNewRecord();
+      myStorage.writeBytes(records[i], new ByteSequence(getContent(i).getBytes()), false);
+    }
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < count; i++) {
+              assertEquals(getContent(i), new String(myStorage.readBytes(records[i])));
+            }
+          }
+          catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+  }
+
+  public void testRecordIsDeletedWhenReleased() throws Exception {
+    final int record = myStorage.acquireNewRecord();
+    myStorage.writeBytes(record, new ByteSequence("shared".getBytes()), false);
+    myStorage.acquireRecord(record);
+    assertEquals(2, myStorage.getRefCount(record));
+
+    myStorage.releaseRecord(record);
+    assertEquals("shared", new String(myStorage.readBytes(record)));
+    myStorage.releaseRecord(record);
+    assertEquals(0, myStorage.getRefCount(record));
+  }
+
+  private static String getContent(int i) {
+    final StringBuilder builder = new StringBuilder();
+    for (int j = 0; j < 100; j++) {
+      builder.append("line ").append(i).append(' ').append(j).append('\n');
+    }
+    return builder.toString();
+  }
+}
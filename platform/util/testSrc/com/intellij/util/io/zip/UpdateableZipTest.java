@@ -20,12 +20,14 @@
 package com.intellij.util.io.zip;
 
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import junit.framework.TestCase;
 
 import java.io.*;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 public class UpdateableZipTest extends TestCase {
@@ -107,7 +109,84 @@ public class UpdateableZipTest extends TestCase {
     assertNull(removedEntry);
     utilZip.close();
   }
-  
+
+  public void testCopyEntryFromAnotherArchive() throws Exception {
+    File sourceFile = FileUtil.createTempFile("source", ".zip");
+    File targetFile = FileUtil.createTempFile("target", ".zip");
+    try {
+      JBZipFile source = new JBZipFile(sourceFile);
+      JBZipEntry compressed = source.getOrCreateEntry("/compressed");
+      compressed.setMethod(ZipEntry.DEFLATED);
+      compressed.setData(StringUtil.repeat("compressed ", 100).getBytes());
+      JBZipEntry other = source.getOrCreateEntry("/other");
+      other.setMethod(ZipEntry.DEFLATED);
+      other.setData(StringUtil.repeat("other ", 100).getBytes());
+      source.close();
+
+      source = new JBZipFile(sourceFile);
+      JBZipFile target = new JBZipFile(targetFile);
+      JBZipEntry copy = target.getOrCreateEntry("/copy");
+      copy.setTime(42000L);
+      copy.setDataFromEntry(source.getEntry("/compressed"));
+      target.close();
+      source.close();
+
+      ZipFile utilZip = new ZipFile(targetFile);
+      ZipEntry copyEntry = utilZip.getEntry("/copy");
+      assertNotNull(copyEntry);
+      assertEquals(ZipEntry.DEFLATED, copyEntry.getMethod());
+      String copyText = FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(copyEntry)));
+      assertEquals(StringUtil.repeat("compressed ", 100), copyText);
+      utilZip.close();
+    }
+    finally {
+      FileUtil.delete(sourceFile);
+      FileUtil.delete(targetFile);
+    }
+  }
+
+  public void testStreamedEntries() throws Exception {
+    File file = FileUtil.createTempFile("streamed", ".zip");
+    try {
+      String deflatedText = StringUtil.repeat("deflated ", 100000);
+      String storedText = StringUtil.repeat("stored ", 10000);
+      JBZipFile jbZip = new JBZipFile(file);
+      JBZipEntry deflated = jbZip.getOrCreateEntry("/deflated");
+      deflated.setMethod(ZipEntry.DEFLATED);
+      deflated.setData(new ByteArrayInputStream(deflatedText.getBytes()), 42000L);
+      JBZipEntry stored = jbZip.getOrCreateEntry("/stored");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setData(new ByteArrayInputStream(storedText.getBytes()), 42000L);
+      jbZip.getOrCreateEntry("/bytes").setData("bytes".getBytes());
+      jbZip.close();
+
+      // local file headers are read by ZipInputStream, so they must have the right sizes as well
+      ZipInputStream input = new ZipInputStream(new FileInputStream(file));
+      try {
+        assertEquals("/deflated", input.getNextEntry().getName());
+        assertEquals(deflatedText, new String(FileUtil.loadBytes(input)));
+        ZipEntry storedEntry = input.getNextEntry();
+        assertEquals("/stored", storedEntry.getName());
+        assertEquals(storedText.length(), storedEntry.getSize());
+        assertEquals(storedText, new String(FileUtil.loadBytes(input)));
+        assertEquals("/bytes", input.getNextEntry().getName());
+        assertEquals("bytes", new String(FileUtil.loadBytes(input)));
+        assertNull(input.getNextEntry());
+      }
+      finally {
+        input.close();
+      }
+
+      jbZip = new JBZipFile(file);
+      assertEquals(deflatedText, new String(jbZip.getEntry("/deflated").getData()));
+      assertEquals(storedText.length(), jbZip.getEntry("/stored").getSize());
+      jbZip.close();
+    }
+    finally {
+      FileUtil.delete(file);
+    }
+  }
+
   /*
   public void testAppendToIdeaJar() throws Exception {
     //ProfilingUtil.startCPUProfiling();
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.changes.FilePathsHelper;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.TIntIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * !! application-level
+ *
+ * Keeps the results of {@code git blame} between the sessions, keyed by the file path and the annotated revision.
+ * The blame of a revision can also be derived from the blame of the previous revision of the file, see {@link #update}.
+ * Can be switched off with -Dgit.annotations.cache=false.
+ */
+public class GitAnnotationCache implements Disposable {
+  private static final Logger LOG = Logger.getInstance(GitAnnotationCache.class.getName());
+  public static final boolean ENABLED = !"false".equals(System.getProperty("git.annotations.cache"));
+
+  // version 1 derived the blames with IDEA's own diff, which may align the lines differently than git
+  private static final int VERSION = 2;
+  // the cache is dropped on start if it has grown bigger
+  private static final long MAX_SIZE = 64 * 1024 * 1024;
+  private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@");
+
+  private final File myDir;
+  private PersistentHashMap<String, Blame> myStorage;
+
+  /**
+   * Blame of each line of a file: the index of the commit it comes from, -1 for not committed lines.
+   */
+  public static class Blame {
+    private final String[] myHashes;
+    private final long[] myTimes;
+    private final String[] myAuthors;
+    private final int[] myLines;
+
+    public Blame(@NotNull String[] hashes, @NotNull long[] times, @NotNull String[] authors, @NotNull int[] lines) {
+      myHashes = hashes;
+      myTimes = times;
+      myAuthors = authors;
+      myLines = lines;
+    }
+
+    public int getLineCount() {
+      return myLines.length;
+    }
+
+    public int getCommitCount() {
+      return myHashes.length;
+    }
+
+    /**
+     * @return the index of the commit the line comes from, or -1
+     */
+    public int getCommit(int line) {
+      return myLines[line];
+    }
+
+    @NotNull
+    public String getHash(int commit) {
+      return myHashes[commit];
+    }
+
+    /**
+     * @return the commit time in milliseconds
+     */
+    public long getTime(int commit) {
+      return myTimes[commit];
+    }
+
+    @NotNull
+    public String getAuthor(int commit) {
+      return myAuthors[commit];
+    }
+  }
+
+  public GitAnnotationCache() {
+    this(new File(new File(PathManager.getSystemPath(), "vcs"), "git_annotations"));
+  }
+
+  public GitAnnotationCache(@NotNull File dir) {
+    myDir = dir;
+  }
+
+  public static GitAnnotationCache getInstance() {
+    return ServiceManager.getService(GitAnnotationCache.class);
+  }
+
+  @NotNull
+  public static String getKey(@NotNull FilePath path, @NotNull String revision) {
+    return FilePathsHelper.convertPath(path) + "@" + revision;
+  }
+
+  @Nullable
+  public synchronized Blame get(@NotNull String key) {
+    final PersistentHashMap<String, Blame> storage = getStorage();
+    if (storage == null) return null;
+    try {
+      return storage.get(key);
+    }
+    catch (IOException e) {
+      dropStorage(e);
+      return null;
+    }
+  }
+
+  public synchronized void put(@NotNull String key, @NotNull Blame blame) {
+    final PersistentHashMap<String, Blame> storage = getStorage();
+    if (storage == null) return;
+    try {
+      storage.put(key, blame);
+    }
+    catch (IOException e) {
+      dropStorage(e);
+    }
+  }
+
+  /**
+   * Derives the blame of a file changed by a commit from the blame of its previous content, like {@code git blame -w} does: the lines
+   * outside of the hunks of {@code git diff -U0 -w} keep their commits, the lines the hunks add come from the new commit.
+   * The hunks must be git's own: another diff may align repeated or moved lines differently than git blame does.
+   *
+   * @param diff      the output of {@code git diff -U0 -w} from the previous revision to the new one
+   * @param lineCount the number of lines of the file after the commit
+   * @return null if the hunks don't match the previous blame and the line count
+   */
+  @Nullable
+  public static Blame update(@NotNull Blame previous, @NotNull String diff, int lineCount,
+                             @NotNull String hash, long time, @NotNull String author) {
+    final int newCommit = previous.getCommitCount();
+    final int[] lines = new int[lineCount];
+    int oldLine = 0;
+    int newLine = 0;
+    for (String line : StringUtil.splitByLines(diff)) {
+      if (line.startsWith("Binary files ")) return null;
+      if (!line.startsWith("@@")) continue;
+      final Matcher matcher = HUNK_HEADER.matcher(line);
+      if (!matcher.find()) return null;
+      final int oldCount = count(matcher.group(2));
+      final int newCount = count(matcher.group(4));
+      // the start of an empty range is the line before it
+      final int oldStart = Integer.parseInt(matcher.group(1)) - (oldCount == 0 ? 0 : 1);
+      final int newStart = Integer.parseInt(matcher.group(3)) - (newCount == 0 ? 0 : 1);
+      if (oldStart - oldLine != newStart - newLine || oldStart < oldLine ||
+          oldStart + oldCount > previous.getLineCount() || newStart + newCount > lineCount) {
+        return null;
+      }
+      while (newLine < newStart) {
+        lines[newLine++] = previous.getCommit(oldLine++);
+      }
+      oldLine += oldCount;
+      for (int i = 0; i < newCount; i++) {
+        lines[newLine++] = newCommit;
+      }
+    }
+    if (previous.getLineCount() - oldLine != lineCount - newLine) return null;
+    while (newLine < lines.length) {
+      lines[newLine++] = previous.getCommit(oldLine++);
+    }
+
+    // keep only the commits still referenced
+    final TIntIntHashMap newIndices = new TIntIntHashMap();
+    for (int line : lines) {
+      if (line >= 0 && !newIndices.containsKey(line)) {
+        newIndices.put(line, newIndices.size());
+      }
+    }
+    final String[] hashes = new String[newIndices.size()];
+    final long[] times = new long[hashes.length];
+    final String[] authors = new String[hashes.length];
+    for (int commit : newIndices.keys()) {
+      final int index = newIndices.get(commit);
+      hashes[index] = commit == newCommit ? hash : previous.getHash(commit);
+      times[index] = commit == newCommit ? time : previous.getTime(commit);
+      authors[index] = commit == newCommit ? author : previous.getAuthor(commit);
+    }
+    for (int i = 0; i < lines.length; i++) {
+      if (lines[i] >= 0) {
+        lines[i] = newIndices.get(lines[i]);
+      }
+    }
+    return new Blame(hashes, times, authors, lines);
+  }
+
+  private static int count(@Nullable String count) {
+    return count == null ? 1 : Integer.parseInt(count);
+  }
+
+  @Nullable
+  private PersistentHashMap<String, Blame> getStorage() {
+    if (myStorage == null && ENABLED) {
+      final File dir = new File(myDir, String.valueOf(VERSION));
+      if (getSize(dir) > MAX_SIZE) {
+        FileUtil.delete(dir);
+      }
+      try {
+        myStorage = createStorage(dir);
+      }
+      catch (IOException e) {
+        LOG.info("Annotations cache is rebuilt: " + e.getMessage());
+        FileUtil.delete(dir);
+        try {
+          myStorage = createStorage(dir);
+        }
+        catch (IOException e1) {
+          LOG.info(e1);
+        }
+      }
+    }
+    return myStorage;
+  }
+
+  private static PersistentHashMap<String, Blame> createStorage(File dir) throws IOException {
+    dir.mkdirs();
+    return new PersistentHashMap<String, Blame>(new File(dir, "blame"), new EnumeratorStringDescriptor(), new BlameExternalizer());
+  }
+
+  private void dropStorage(IOException e) {
+    LOG.info("Annotations cache is dropped: " + e.getMessage());
+    closeStorage();
+    FileUtil.delete(new File(myDir, String.valueOf(VERSION)));
+  }
+
+  private void closeStorage() {
+    if (myStorage == null) return;
+    try {
+      myStorage.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    myStorage = null;
+  }
+
+  private static long getSize(File dir) {
+    long size = 0;
+    final File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        size += file.length();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public synchronized void dispose() {
+    closeStorage();
+  }
+
+  private static class BlameExternalizer implements DataExternalizer<Blame> {
+    @Override
+    public void save(DataOutput out, Blame value) throws IOException {
+      DataInputOutputUtil.writeINT(out, value.getCommitCount());
+      for (int i = 0; i < value.getCommitCount(); i++) {
+        IOUtil.writeString(value.getHash(i), out);
+        out.writeLong(value.getTime(i));
+        IOUtil.writeString(value.getAuthor(i), out);
+      }
+      DataInputOutputUtil.writeINT(out, value.getLineCount());
+      for (int i = 0; i < value.getLineCount(); i++) {
+        DataInputOutputUtil.writeINT(out, value.getCommit(i) + 1);
+      }
+    }
+
+    @Override
+    public Blame read(DataInput in) throws IOException {
+      final int commitCount = DataInputOutputUtil.readINT(in);
+      final String[] hashes = new String[commitCount];
+      final long[] times = new long[commitCount];
+      final String[] authors = new String[commitCount];
+      for (int i = 0; i < commitCount; i++) {
+        hashes[i] = IOUtil.readString(in);
+        times[i] = in.readLong();
+        authors[i] = IOUtil.readString(in);
+      }
+      final int[] lines = new int[DataInputOutputUtil.readINT(in)];
+      for (int i = 0; i < lines.length; i++) {
+        lines[i] = DataInputOutputUtil.readINT(in) - 1;
+        if (lines[i] >= commitCount) throw new IOException("Invalid commit index " + lines[i]);
+      }
+      return new Blame(hashes, times, authors, lines);
+    }
+  }
+}
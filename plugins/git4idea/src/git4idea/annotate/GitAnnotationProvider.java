@@ -29,22 +29,26 @@ import com.intellij.openapi.vcs.history.VcsAbstractHistorySession;
 import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
+import com.intellij.vcsUtil.VcsFileUtil;
 import com.intellij.vcsUtil.VcsUtil;
 import git4idea.GitFileRevision;
 import git4idea.GitRevisionNumber;
 import git4idea.GitUtil;
+import git4idea.GitVcs;
 import git4idea.commands.GitCommand;
 import git4idea.commands.GitSimpleHandler;
+import git4idea.config.GitVersionSpecialty;
+import git4idea.util.GitFileUtils;
 import git4idea.util.StringScanner;
 import git4idea.history.GitHistoryUtils;
 import git4idea.i18n.GitBundle;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Git annotation provider implementation.
@@ -145,7 +149,68 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
                                      final VcsFileRevision revision,
                                      final List<VcsFileRevision> revisions,
                                      final VirtualFile file) throws VcsException {
-    GitSimpleHandler h = new GitSimpleHandler(myProject, GitUtil.getGitRoot(repositoryFilePath), GitCommand.BLAME);
+    final VirtualFile root = GitUtil.getGitRoot(repositoryFilePath);
+    // the annotated revision is looked up in the history to reuse the blame stored for it or for its previous revision
+    final int index = revision == null ? 0 : indexOf(revisions, revision.getRevisionNumber().asString());
+    final GitFileRevision annotated = index >= 0 && index < revisions.size() ? (GitFileRevision)revisions.get(index) : null;
+    final GitAnnotationCache cache = GitAnnotationCache.ENABLED && annotated != null ? GitAnnotationCache.getInstance() : null;
+    final String key = annotated != null ? GitAnnotationCache.getKey(annotated.getPath(), annotated.getHash()) : null;
+
+    GitAnnotationCache.Blame blame = null;
+    List<String> lines = null;
+    if (cache != null) {
+      blame = cache.get(key);
+      if (blame == null) {
+        blame = updateBlame(root, revisions, index, file);
+        if (blame != null) {
+          cache.put(key, blame);
+        }
+      }
+      if (blame != null) {
+        lines = getLines(root, annotated.getHash(), repositoryFilePath, file);
+        if (lines == null || lines.size() != blame.getLineCount()) {
+          blame = null;
+        }
+      }
+    }
+    if (blame == null) {
+      lines = new ArrayList<String>();
+      blame = blame(root, repositoryFilePath, revision, file, lines);
+      if (cache != null) {
+        cache.put(key, blame);
+      }
+    }
+
+    GitFileAnnotation annotation = new GitFileAnnotation(myProject, file, revision == null, revision == null ? null : revision.getRevisionNumber());
+    final GitRevisionNumber[] commits = new GitRevisionNumber[blame.getCommitCount()];
+    for (int i = 0; i < commits.length; i++) {
+      commits[i] = new GitRevisionNumber(blame.getHash(i), new Date(blame.getTime(i)));
+    }
+    for (int i = 0; i < blame.getLineCount(); i++) {
+      final int commit = blame.getCommit(i);
+      if (commit < 0) {
+        annotation.appendLineInfo(null, null, null, lines.get(i), i + 1);
+      }
+      else {
+        annotation.appendLineInfo(commits[commit].getTimestamp(), commits[commit], blame.getAuthor(commit), lines.get(i), i + 1);
+      }
+    }
+    annotation.addLogEntries(revisions);
+    return annotation;
+  }
+
+  /**
+   * Run git blame for the file
+   *
+   * @param lines the list to put the lines of the file to
+   * @return the blame of the lines
+   */
+  private GitAnnotationCache.Blame blame(final VirtualFile root,
+                                         final FilePath repositoryFilePath,
+                                         final VcsFileRevision revision,
+                                         final VirtualFile file,
+                                         final List<String> lines) throws VcsException {
+    GitSimpleHandler h = new GitSimpleHandler(myProject, root, GitCommand.BLAME);
     h.setNoSSH(true);
     h.setStdoutSuppressed(true);
     h.setCharset(file.getCharset());
@@ -159,13 +224,15 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
     h.endOptions();
     h.addRelativePaths(repositoryFilePath);
     String output = h.run();
-    GitFileAnnotation annotation = new GitFileAnnotation(myProject, file, revision == null, revision == null ? null : revision.getRevisionNumber());
     class CommitInfo {
+      int index = -1;
       Date date;
       String author;
-      GitRevisionNumber revision;
     }
     HashMap<String, CommitInfo> commits = new HashMap<String, CommitInfo>();
+    List<CommitInfo> committed = new ArrayList<CommitInfo>();
+    List<String> hashes = new ArrayList<String>();
+    TIntArrayList lineCommits = new TIntArrayList();
     for (StringScanner s = new StringScanner(output); s.hasMoreData();) {
       // parse header line
       String commitHash = s.spaceToken();
@@ -192,9 +259,13 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
           }
           if (commitHash != null && COMMITTER_TIME_KEY.equals(key)) {
             commit.date = GitUtil.parseTimestampWithNFEReport(value, h, output);
-            commit.revision = new GitRevisionNumber(commitHash, commit.date);
           }
         }
+        if (commitHash != null) {
+          commit.index = committed.size();
+          committed.add(commit);
+          hashes.add(commitHash);
+        }
         commits.put(commitHash, commit);
       }
       // parse line
@@ -205,10 +276,128 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
       }
       s.skipChars(1);
       String line = s.line(true);
-      annotation.appendLineInfo(commit.date, commit.revision, commit.author, line, lineNum);
+      if (lineNum != lines.size() + 1) {
+        throw new VcsException("Adding for info for line " + lineNum + " but we are expecting it to be for " + (lines.size() + 1));
+      }
+      lines.add(line);
+      lineCommits.add(commit.index);
     }
-    annotation.addLogEntries(revisions);
-    return annotation;
+    final long[] times = new long[committed.size()];
+    final String[] authors = new String[committed.size()];
+    for (int i = 0; i < times.length; i++) {
+      final CommitInfo commit = committed.get(i);
+      if (commit.date == null || commit.author == null) {
+        throw new VcsException("Incomplete blame information for " + hashes.get(i));
+      }
+      times[i] = commit.date.getTime();
+      authors[i] = commit.author;
+    }
+    return new GitAnnotationCache.Blame(ArrayUtil.toStringArray(hashes), times, authors, lineCommits.toNativeArray());
+  }
+
+  /**
+   * Derive the blame of a revision from the stored blame of the previous revision of the file, if the revision has a single parent
+   * and the previous revision is the commit which last changed the file in the history of that parent. Then git would blame the
+   * parent's version of the file exactly as the previous revision.
+   *
+   * @return the blame or null if it should be computed by git
+   */
+  @Nullable
+  private GitAnnotationCache.Blame updateBlame(final VirtualFile root,
+                                               final List<VcsFileRevision> revisions,
+                                               final int index,
+                                               final VirtualFile file) {
+    if (index + 1 >= revisions.size()) return null;
+    final GitFileRevision current = (GitFileRevision)revisions.get(index);
+    final GitFileRevision previous = (GitFileRevision)revisions.get(index + 1);
+    if (current.getParents().size() != 1 || !current.getPath().equals(previous.getPath())) return null;
+    final GitAnnotationCache.Blame previousBlame = GitAnnotationCache.getInstance().get(
+      GitAnnotationCache.getKey(previous.getPath(), previous.getHash()));
+    if (previousBlame == null) return null;
+
+    final String parent = current.getParents().iterator().next();
+    final String relativePath = VcsFileUtil.relativePath(root, current.getPath());
+    try {
+      // equal content at the parent isn't enough: the file might have come there through another line of history
+      if (!previous.getHash().equals(getLastChange(root, parent, current.getPath()))) return null;
+      final byte[] after = GitFileUtils.getFileContent(myProject, root, current.getHash(), relativePath);
+      final Date time = ((GitRevisionNumber)current.getRevisionNumber()).getTimestamp();
+      final String author = current.getAuthor();
+      if (time == null || author == null) return null;
+      final String diff = getDiff(root, previous.getHash(), current.getHash(), current.getPath());
+      return GitAnnotationCache.update(previousBlame, diff, splitLines(after, file).size(), current.getHash(), time.getTime(), author);
+    }
+    catch (VcsException e) {
+      LOG.debug(e);
+      return null;
+    }
+  }
+
+  /**
+   * @return the hash of the last commit which changed the file in the history of the revision, the way git blame walks it
+   */
+  @Nullable
+  private String getLastChange(final VirtualFile root, final String revision, final FilePath path) throws VcsException {
+    final GitSimpleHandler h = new GitSimpleHandler(myProject, root, GitCommand.LOG);
+    h.setNoSSH(true);
+    h.setSilent(true);
+    h.addParameters("-n1", "--pretty=format:%H", revision);
+    h.endOptions();
+    h.addRelativePaths(path);
+    final String hash = h.run().trim();
+    return hash.length() == 0 ? null : hash;
+  }
+
+  /**
+   * @return the hunks of the file changed between the revisions, as git blame -w sees them
+   */
+  @NotNull
+  private String getDiff(final VirtualFile root, final String from, final String to, final FilePath path) throws VcsException {
+    final GitSimpleHandler h = new GitSimpleHandler(myProject, root, GitCommand.DIFF);
+    h.setNoSSH(true);
+    h.setSilent(true);
+    h.addParameters("-U0", "-w", "--no-color", "--no-ext-diff");
+    // git blame always uses the default algorithm, while git diff takes the configured one
+    final GitVcs vcs = GitVcs.getInstance(myProject);
+    if (vcs != null && GitVersionSpecialty.KNOWS_DIFF_ALGORITHM.existsIn(vcs.getVersion())) {
+      h.addParameters("--diff-algorithm=myers");
+    }
+    h.addParameters(from, to);
+    h.endOptions();
+    h.addRelativePaths(path);
+    return h.run();
+  }
+
+  private static int indexOf(final List<VcsFileRevision> revisions, final String hash) {
+    for (int i = 0; i < revisions.size(); i++) {
+      if (((GitFileRevision)revisions.get(i)).getHash().equals(hash)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Nullable
+  private List<String> getLines(final VirtualFile root, final String hash, final FilePath path, final VirtualFile file) {
+    try {
+      return splitLines(GitFileUtils.getFileContent(myProject, root, hash, VcsFileUtil.relativePath(root, path)), file);
+    }
+    catch (VcsException e) {
+      LOG.debug(e);
+      return null;
+    }
+  }
+
+  /**
+   * Split the content into lines the way git blame outputs them: with the line separators, the last one is added if missing.
+   */
+  private static List<String> splitLines(final byte[] content, final VirtualFile file) {
+    final List<String> lines = StringUtil.split(new String(content, file.getCharset()), "\n", false, true);
+    final int last = lines.size() - 1;
+    if (last >= 0 && !lines.get(last).endsWith("\n")) {
+      lines.set(last, lines.get(last) + "\n");
+    }
+    return lines;
   }
 
   @Override
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.commands;
+
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A long-lived {@code git cat-file --batch} process, which reads any number of objects of a repository without starting a process for
+ * each of them. The methods are synchronized, the process is started on the first request.
+ */
+public class GitCatFileBatch {
+  private static final Logger LOG = Logger.getInstance(GitCatFileBatch.class.getName());
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final long DEFAULT_TIMEOUT = 30 * 1000;
+
+  @NotNull private final String myExecutable;
+  @NotNull private final File myRoot;
+  private final long myTimeout;
+  private Process myProcess;
+  private OutputStream myInput;
+  private InputStream myOutput;
+
+  public GitCatFileBatch(@NotNull String executable, @NotNull File root) {
+    this(executable, root, DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * @param timeout milliseconds a request may take, the process is killed when it doesn't answer in time
+   */
+  public GitCatFileBatch(@NotNull String executable, @NotNull File root, long timeout) {
+    myExecutable = executable;
+    myRoot = root;
+    myTimeout = timeout;
+  }
+
+  /**
+   * @param object the object name as {@code git cat-file} accepts it, e.g. {@code <revision>:<path>}
+   * @return the content of the object or null if there is no such object
+   * @throws IOException if the process has failed or hasn't answered in time, it is stopped then and started again on the next request
+   */
+  @Nullable
+  public synchronized byte[] read(@NotNull String object) throws IOException {
+    if (object.indexOf('\n') >= 0) throw new IOException("Object name can't contain a line break: " + object);
+    if (myProcess == null) {
+      start();
+    }
+    // a blocked read can only be interrupted by killing the process, its streams are closed then
+    final Process process = myProcess;
+    final AtomicBoolean timedOut = new AtomicBoolean();
+    final ScheduledFuture<?> watchdog = JobScheduler.getScheduler().schedule(new Runnable() {
+      @Override
+      public void run() {
+        timedOut.set(true);
+        process.destroy();
+      }
+    }, myTimeout, TimeUnit.MILLISECONDS);
+    try {
+      myInput.write((object + "\n").getBytes(CharsetToolkit.UTF8_CHARSET));
+      myInput.flush();
+
+      // <sha1> SP <type> SP <size> LF <contents> LF, or <object> SP missing LF
+      final String header = readLine();
+      if (header.endsWith(" missing") || header.endsWith(" ambiguous")) return null;
+      final String[] parts = header.split(" ");
+      if (parts.length != 3) throw new IOException("Unexpected git cat-file output: " + header);
+      final int size;
+      try {
+        size = Integer.parseInt(parts[2]);
+      }
+      catch (NumberFormatException e) {
+        throw new IOException("Unexpected git cat-file output: " + header);
+      }
+
+      final byte[] content = new byte[size];
+      int read = 0;
+      while (read < size) {
+        final int count = myOutput.read(content, read, size - read);
+        if (count < 0) throw new EOFException("git cat-file output is truncated");
+        read += count;
+      }
+      if (myOutput.read() != '\n') throw new IOException("Unexpected end of git cat-file object");
+      return content;
+    }
+    catch (IOException e) {
+      stop();
+      if (timedOut.get()) throw new IOException("git cat-file hasn't answered in " + myTimeout + " ms");
+      throw e;
+    }
+    finally {
+      // the process may have been killed right after answering
+      if (!watchdog.cancel(false)) stop();
+    }
+  }
+
+  public synchronized boolean isRunning() {
+    return myProcess != null;
+  }
+
+  public synchronized void stop() {
+    if (myProcess == null) return;
+    try {
+      myInput.close();
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+    }
+    myProcess.destroy();
+    myProcess = null;
+    myInput = null;
+    myOutput = null;
+  }
+
+  private void start() throws IOException {
+    final GeneralCommandLine commandLine = new GeneralCommandLine();
+    commandLine.setExePath(myExecutable);
+    commandLine.setWorkDirectory(myRoot);
+    commandLine.addParameters(GitCommand.CAT_FILE.name(), "--batch");
+    try {
+      myProcess = commandLine.createProcess();
+    }
+    catch (ExecutionException e) {
+      throw new IOException(e.getMessage());
+    }
+    LOG.debug("Started git cat-file --batch in " + myRoot);
+    myInput = new BufferedOutputStream(myProcess.getOutputStream(), BUFFER_SIZE);
+    myOutput = new BufferedInputStream(myProcess.getInputStream(), BUFFER_SIZE);
+    logErrors(myProcess.getErrorStream());
+  }
+
+  private String readLine() throws IOException {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+    int b;
+    while ((b = myOutput.read()) != '\n') {
+      if (b < 0) throw new EOFException("git cat-file has exited");
+      line.write(b);
+    }
+    return line.toString(CharsetToolkit.UTF8);
+  }
+
+  private void logErrors(final InputStream errors) {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(errors));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            LOG.info("git cat-file: " + line);
+          }
+        }
+        catch (IOException e) {
+          LOG.debug(e);
+        }
+      }
+    }, "git cat-file error stream");
+    thread.setDaemon(true);
+    thread.start();
+  }
+}
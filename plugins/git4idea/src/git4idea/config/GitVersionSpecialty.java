@@ -97,6 +97,17 @@ public enum GitVersionSpecialty {
     }
   },
 
+  /**
+   * Git understands <code>'git diff --diff-algorithm'</code> and takes the algorithm from the diff.algorithm setting.
+   * Since 1.8.2.
+   */
+  KNOWS_DIFF_ALGORITHM {
+    @Override
+    public boolean existsIn(@NotNull GitVersion version) {
+      return version.isLaterOrEqual(new GitVersion(1, 8, 2, 0));
+    }
+  },
+
   DOESNT_DEFINE_HOME_ENV_VAR {
     @Override
     public boolean existsIn(@NotNull GitVersion version) {
@@ -38,6 +38,7 @@ import com.intellij.util.Consumer;
 import com.intellij.util.concurrency.Semaphore;
 import git4idea.GitBranch;
 import git4idea.GitFileRevision;
+import git4idea.GitFormatException;
 import git4idea.GitRevisionNumber;
 import git4idea.GitUtil;
 import git4idea.branch.GitBranchUtil;
@@ -49,6 +50,7 @@ import git4idea.history.browser.SymbolicRefs;
 import git4idea.history.browser.SymbolicRefsI;
 import git4idea.history.wholeTree.AbstractHash;
 import git4idea.history.wholeTree.CommitHashPlusParents;
+import git4idea.history.wholeTree.GitCommitGraph;
 import git4idea.history.wholeTree.GitCommitsSequentialIndex;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -904,6 +906,99 @@ public class GitHistoryUtils {
     consumer.finished();
   }
 
+  /**
+   * @return full hashes of the commits the given revisions point to, "--all" can be used for all refs
+   */
+  @NotNull
+  public static List<String> resolveCommits(@NotNull Project project, @NotNull VirtualFile root, @NotNull String... revisions)
+    throws VcsException {
+    final GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.LOG);
+    h.setNoSSH(true);
+    h.setSilent(true);
+    h.addParameters("--no-walk", "--pretty=format:%H");
+    h.addParameters(revisions);
+    h.endOptions();
+
+    final List<String> result = new ArrayList<String>();
+    for (String line : h.run().split("\n")) {
+      final String hash = line.trim();
+      if (hash.length() > 0) {
+        result.add(hash);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Loads the commits of all refs, which are not reachable from the given ones, parents before children.
+   */
+  public static void loadCommitGraphEntries(@NotNull Project project, @NotNull VirtualFile root, @NotNull Collection<String> excluded,
+                                            @NotNull final Consumer<GitCommitGraph.Entry> consumer) throws VcsException {
+    final GitLineHandler h = new GitLineHandler(project, root, GitCommand.LOG);
+    final GitLogParser parser = new GitLogParser(project, HASH, SHORT_HASH, PARENTS, COMMIT_TIME, AUTHOR_NAME, AUTHOR_EMAIL,
+                                                 COMMITTER_NAME, COMMITTER_EMAIL, SUBJECT);
+    h.setNoSSH(true);
+    h.setSilent(true);
+    h.setStdoutSuppressed(true);
+    h.addParameters("--all", parser.getPretty(), "--date-order", "--reverse", "--encoding=UTF-8", "--full-history", "--sparse");
+    for (String hash : excluded) {
+      h.addParameters("^" + hash);
+    }
+    h.endOptions();
+
+    final Semaphore semaphore = new Semaphore();
+    final VcsException[] exception = new VcsException[1];
+    final ProcessCanceledException[] canceled = new ProcessCanceledException[1];
+    h.addLineListener(new GitLineHandlerListener() {
+      @Override
+      public void onLineAvailable(String line, Key outputType) {
+        if (!ProcessOutputTypes.STDOUT.equals(outputType) || exception[0] != null || canceled[0] != null) return;
+        try {
+          final GitLogRecord record = parser.parseOneRecord(line);
+          if (record == null) return;
+          consumer.consume(new GitCommitGraph.Entry(record.getHash(), record.getShortHash(), record.getParentsHashes(),
+                                                    record.getLongTimeStamp() * 1000,
+                                                    record.getAuthorName() + " <" + record.getAuthorEmail() + ">",
+                                                    record.getCommitterName() + " <" + record.getCommitterEmail() + ">",
+                                                    record.getSubject()));
+        }
+        catch (ProcessCanceledException e) {
+          canceled[0] = e;
+          h.cancel();
+          semaphore.up();
+        }
+        catch (GitFormatException e) {
+          exception[0] = new VcsException(e);
+          h.cancel();
+          semaphore.up();
+        }
+      }
+
+      @Override
+      public void processTerminated(int exitCode) {
+        semaphore.up();
+      }
+
+      @Override
+      public void startFailed(Throwable exception) {
+        semaphore.up();
+      }
+    });
+    semaphore.down();
+    h.start();
+    semaphore.waitFor();
+    // the entries consumed so far are an incomplete batch, the caller mustn't take it for the whole graph
+    if (canceled[0] != null) {
+      throw canceled[0];
+    }
+    if (exception[0] != null) {
+      throw exception[0];
+    }
+    if (!h.errors().isEmpty()) {
+      throw h.errors().get(0);
+    }
+  }
+
   /**
    * Get name of the file in the last commit. If file was renamed, returns the previous name.
    *
@@ -122,6 +122,10 @@ public class ChangesFilter {
       };
     }
 
+    public Filter[] getFilters() {
+      return myFilters;
+    }
+
     @NotNull
     @Override
     public MemoryFilter getMemoryFilter() {
@@ -193,7 +197,14 @@ public class ChangesFilter {
     CommandParametersFilter getCommandParametersFilter();
   }
 
-  public static class BeforeTime implements Filter {
+  /**
+   * A filter by the commit time only, which can be applied without loading the commit.
+   */
+  public interface TimeFilter extends Filter {
+    boolean acceptTime(long time);
+  }
+
+  public static class BeforeTime implements TimeFilter {
     private final long myTs;
     private final CommandParametersFilter myCommandParametersFilter;
     private final MemoryFilter myMemoryFilter;
@@ -213,11 +224,16 @@ public class ChangesFilter {
       myMemoryFilter = new MemoryFilter() {
         @Override
         public boolean applyInMemory(GitCommit commit) {
-          return commit.getDate().getTime() <= myTs;
+          return acceptTime(commit.getDate().getTime());
         }
       };
     }
 
+    @Override
+    public boolean acceptTime(long time) {
+      return time <= myTs;
+    }
+
     @NotNull
     @Override
     public MemoryFilter getMemoryFilter() {
@@ -231,7 +247,7 @@ public class ChangesFilter {
     }
   }
 
-  public static class AfterTime implements Filter {
+  public static class AfterTime implements TimeFilter {
     private final long myTs;
     private final CommandParametersFilter myCommandParametersFilter;
     private final MemoryFilter myMemoryFilter;
@@ -251,11 +267,16 @@ public class ChangesFilter {
       myMemoryFilter = new MemoryFilter() {
         @Override
         public boolean applyInMemory(GitCommit commit) {
-          return commit.getDate().getTime() >= myTs;
+          return acceptTime(commit.getDate().getTime());
         }
       };
     }
 
+    @Override
+    public boolean acceptTime(long time) {
+      return time >= myTs;
+    }
+
     @NotNull
     @Override
     public MemoryFilter getMemoryFilter() {
@@ -294,6 +315,10 @@ public class ChangesFilter {
       };
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -346,6 +371,10 @@ public class ChangesFilter {
       };
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -373,7 +402,7 @@ public class ChangesFilter {
     }
   }
 
-  public static class BeforeDate implements Filter {
+  public static class BeforeDate implements TimeFilter {
     private final Date myDate;
     private CommandParametersFilter myCommandParametersFilter;
     private MemoryFilter myMemoryFilter;
@@ -391,11 +420,16 @@ public class ChangesFilter {
       };
       myMemoryFilter = new MemoryFilter() {
         public boolean applyInMemory(GitCommit commit) {
-          return commit.getDate().before(myDate);
+          return acceptTime(commit.getDate().getTime());
         }
       };
     }
 
+    @Override
+    public boolean acceptTime(long time) {
+      return time < myDate.getTime();
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -423,7 +457,7 @@ public class ChangesFilter {
     }
   }
 
-  public static class AfterDate implements Filter {
+  public static class AfterDate implements TimeFilter {
     private final Date myDate;
     private CommandParametersFilter myCommandParametersFilter;
     private MemoryFilter myMemoryFilter;
@@ -441,11 +475,16 @@ public class ChangesFilter {
       };
       myMemoryFilter = new MemoryFilter() {
         public boolean applyInMemory(GitCommit commit) {
-          return commit.getDate().after(myDate);
+          return acceptTime(commit.getDate().getTime());
         }
       };
     }
 
+    @Override
+    public boolean acceptTime(long time) {
+      return time > myDate.getTime();
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
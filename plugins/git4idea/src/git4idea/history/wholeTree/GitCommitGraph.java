@@ -0,0 +1,450 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.AsynchConsumer;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import com.intellij.util.io.PersistentStringEnumerator;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Persistent graph of the commits of one repository. Commits get sequential indices in the order they are appended, the parents of a
+ * commit must be appended before it. The graph itself (commit time, author, committer, parents) is kept in memory, so the commits can
+ * be listed newest first, filtered by reachability, user and time without running git; hashes and subjects are read from the disk.
+ *
+ * @see GitCommitGraphIndex
+ */
+public class GitCommitGraph {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.GitCommitGraph");
+  private static final int VERSION = 1;
+  private static final int MAX_INDEX_BITS = 30;
+  private static final long INDEX_MASK = (1L << MAX_INDEX_BITS) - 1;
+
+  private final File myDir;
+  private PersistentHashMap<String, Integer> myIndices;
+  private PersistentHashMap<Integer, Details> myDetails;
+  // "name <email>" of authors and committers
+  private PersistentStringEnumerator myUsers;
+  private final TIntObjectHashMap<String> myUserNames = new TIntObjectHashMap<String>();
+
+  private int myCount;
+  private final TLongArrayList myTimes = new TLongArrayList();
+  private final TIntArrayList myAuthors = new TIntArrayList();
+  private final TIntArrayList myCommitters = new TIntArrayList();
+  // parents of commit i are myParents[myParentsStart[i]] .. myParents[myParentsStart[i + 1] - 1]
+  private final TIntArrayList myParentsStart = new TIntArrayList();
+  private final TIntArrayList myParents = new TIntArrayList();
+  // indices of the commits, newest first
+  private int[] myOrder = ArrayUtil.EMPTY_INT_ARRAY;
+
+  private List<String> myReachableFrom;
+  private BitSet myReachable;
+
+  /**
+   * A commit as it is read from git log.
+   */
+  public static class Entry {
+    public final String hash;
+    public final String shortHash;
+    public final String[] parents;
+    public final long time;
+    public final String author;
+    public final String committer;
+    public final String subject;
+
+    /**
+     * @param parents full hashes of the parents
+     * @param time    commit time in milliseconds
+     * @param author  "name &lt;email&gt;" of the author
+     */
+    public Entry(String hash, String shortHash, String[] parents, long time, String author, String committer, String subject) {
+      this.hash = hash;
+      this.shortHash = shortHash;
+      this.parents = parents;
+      this.time = time;
+      this.author = author;
+      this.committer = committer;
+      this.subject = subject;
+    }
+  }
+
+  public interface Filter {
+    /**
+     * @param author    "name &lt;email&gt;" of the author
+     * @param committer "name &lt;email&gt;" of the committer
+     * @param time      commit time in milliseconds
+     */
+    boolean accept(@NotNull String author, @NotNull String committer, long time);
+  }
+
+  public GitCommitGraph(@NotNull File dir) throws IOException {
+    myDir = dir;
+    try {
+      open();
+    }
+    catch (IOException e) {
+      LOG.info("Commit graph in " + dir + " is rebuilt: " + e.getMessage());
+      closeStorages();
+      FileUtil.delete(dir);
+      open();
+    }
+  }
+
+  private void open() throws IOException {
+    myDir.mkdirs();
+    myIndices = new PersistentHashMap<String, Integer>(new File(myDir, "indices"), new EnumeratorStringDescriptor(),
+                                                       EnumeratorIntegerDescriptor.INSTANCE);
+    myDetails = new PersistentHashMap<Integer, Details>(new File(myDir, "details"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                        new DetailsExternalizer());
+    myUsers = new PersistentStringEnumerator(new File(myDir, "users"));
+
+    myCount = 0;
+    myTimes.clear();
+    myAuthors.clear();
+    myCommitters.clear();
+    myParentsStart.clear();
+    myParentsStart.add(0);
+    myParents.clear();
+    loadGraph();
+    rebuildOrder();
+  }
+
+  private void loadGraph() throws IOException {
+    final File stateFile = getStateFile();
+    if (!stateFile.exists()) return;
+
+    final int count;
+    final long graphLength;
+    final DataInputStream state = new DataInputStream(new FileInputStream(stateFile));
+    try {
+      if (state.readInt() != VERSION) throw new IOException("Version mismatch");
+      count = state.readInt();
+      graphLength = state.readLong();
+    }
+    finally {
+      state.close();
+    }
+
+    final File graphFile = getGraphFile();
+    if (graphFile.length() < graphLength) throw new IOException("Graph is truncated");
+    if (graphFile.length() > graphLength) {
+      // the last update hasn't completed
+      final RandomAccessFile file = new RandomAccessFile(graphFile, "rw");
+      try {
+        file.setLength(graphLength);
+      }
+      finally {
+        file.close();
+      }
+    }
+
+    final DataInputStream graph = new DataInputStream(new BufferedInputStream(new FileInputStream(graphFile)));
+    try {
+      for (int i = 0; i < count; i++) {
+        myTimes.add(graph.readLong());
+        myAuthors.add(DataInputOutputUtil.readINT(graph));
+        myCommitters.add(DataInputOutputUtil.readINT(graph));
+        final int parentsCount = DataInputOutputUtil.readINT(graph);
+        for (int j = 0; j < parentsCount; j++) {
+          myParents.add(DataInputOutputUtil.readINT(graph));
+        }
+        myParentsStart.add(myParents.size());
+      }
+    }
+    finally {
+      graph.close();
+    }
+    myCount = count;
+  }
+
+  public synchronized int getCount() {
+    return myCount;
+  }
+
+  public synchronized boolean containsAll(@NotNull Collection<String> hashes) throws IOException {
+    for (String hash : hashes) {
+      if (getIndex(hash) < 0) return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return full hashes of the commits which are not parents of any other commit, newest first
+   */
+  @NotNull
+  public synchronized List<String> getTips() throws IOException {
+    final BitSet parents = new BitSet(myCount);
+    for (int i = 0; i < myParents.size(); i++) {
+      parents.set(myParents.getQuick(i));
+    }
+    final List<String> result = new ArrayList<String>();
+    for (int index : myOrder) {
+      if (!parents.get(index)) {
+        result.add(getDetails(index).hash);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the commits which are not in the graph yet. The parents of each commit should be either in the graph or before the commit in
+   * the list; the parents which are not are ignored.
+   */
+  public synchronized void append(@NotNull List<Entry> entries) throws IOException {
+    final TObjectIntHashMap<String> newIndices = new TObjectIntHashMap<String>();
+    final List<Entry> added = new ArrayList<Entry>();
+    for (Entry entry : entries) {
+      if (newIndices.containsKey(entry.hash) || getIndex(entry.hash) >= 0) continue;
+      newIndices.put(entry.hash, myCount + added.size());
+      added.add(entry);
+    }
+    if (added.isEmpty()) return;
+    if (myCount + added.size() > INDEX_MASK) throw new IOException("Too many commits");
+
+    final DataOutputStream graph = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getGraphFile(), true)));
+    try {
+      for (Entry entry : added) {
+        final int index = newIndices.get(entry.hash);
+        final int author = myUsers.enumerate(entry.author);
+        final int committer = myUsers.enumerate(entry.committer);
+        final TIntArrayList parents = new TIntArrayList(entry.parents.length);
+        for (String parent : entry.parents) {
+          final int parentIndex = newIndices.containsKey(parent) ? newIndices.get(parent) : getIndex(parent);
+          if (parentIndex >= 0 && parentIndex < index) {
+            parents.add(parentIndex);
+          }
+        }
+
+        graph.writeLong(entry.time);
+        DataInputOutputUtil.writeINT(graph, author);
+        DataInputOutputUtil.writeINT(graph, committer);
+        DataInputOutputUtil.writeINT(graph, parents.size());
+        for (int i = 0; i < parents.size(); i++) {
+          DataInputOutputUtil.writeINT(graph, parents.getQuick(i));
+        }
+
+        myIndices.put(entry.hash, index);
+        myDetails.put(index, new Details(entry.hash, entry.shortHash, entry.subject));
+        myTimes.add(entry.time);
+        myAuthors.add(author);
+        myCommitters.add(committer);
+        myParents.add(parents.toNativeArray());
+        myParentsStart.add(myParents.size());
+      }
+    }
+    finally {
+      graph.close();
+    }
+
+    myIndices.force();
+    myDetails.force();
+    myUsers.force();
+    myCount += added.size();
+    writeState();
+    rebuildOrder();
+    myReachableFrom = null;
+    myReachable = null;
+  }
+
+  /**
+   * Passes the commits committed not later than the given time to the consumer, newest first.
+   *
+   * @param tips       full hashes of the commits the passed ones should be reachable from, all commits are passed if null
+   * @param beforeTime time in milliseconds, no limit if not positive
+   */
+  public synchronized void iterate(@Nullable List<String> tips, @Nullable Filter filter, long beforeTime, int maxCount,
+                                   @NotNull AsynchConsumer<CommitHashPlusParents> consumer) throws IOException {
+    final BitSet reachable = tips == null ? null : getReachable(tips);
+    int position = 0;
+    if (beforeTime > 0) {
+      int high = myOrder.length;
+      while (position < high) {
+        final int middle = (position + high) >>> 1;
+        if (myTimes.getQuick(myOrder[middle]) > beforeTime) {
+          position = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+    }
+
+    int count = 0;
+    for (; position < myOrder.length && (maxCount <= 0 || count < maxCount); position++) {
+      final int index = myOrder[position];
+      if (reachable != null && !reachable.get(index)) continue;
+      if (filter != null && !filter.accept(getUser(myAuthors.getQuick(index)), getUser(myCommitters.getQuick(index)),
+                                           myTimes.getQuick(index))) {
+        continue;
+      }
+      consumer.consume(createCommit(index));
+      count++;
+    }
+    consumer.finished();
+  }
+
+  public synchronized void close() {
+    closeStorages();
+  }
+
+  private BitSet getReachable(List<String> tips) throws IOException {
+    if (tips.equals(myReachableFrom)) return myReachable;
+
+    final BitSet reachable = new BitSet(myCount);
+    final TIntArrayList stack = new TIntArrayList();
+    for (String tip : tips) {
+      final int index = getIndex(tip);
+      if (index >= 0) stack.add(index);
+    }
+    while (!stack.isEmpty()) {
+      final int index = stack.remove(stack.size() - 1);
+      if (reachable.get(index)) continue;
+      reachable.set(index);
+      for (int i = myParentsStart.getQuick(index); i < myParentsStart.getQuick(index + 1); i++) {
+        final int parent = myParents.getQuick(i);
+        if (!reachable.get(parent)) stack.add(parent);
+      }
+    }
+    myReachableFrom = new ArrayList<String>(tips);
+    myReachable = reachable;
+    return reachable;
+  }
+
+  private CommitHashPlusParents createCommit(int index) throws IOException {
+    final int parentsStart = myParentsStart.getQuick(index);
+    final String[] parents = new String[myParentsStart.getQuick(index + 1) - parentsStart];
+    for (int i = 0; i < parents.length; i++) {
+      parents[i] = getDetails(myParents.getQuick(parentsStart + i)).shortHash;
+    }
+    final String author = getUser(myAuthors.getQuick(index));
+    final int emailStart = author.lastIndexOf(" <");
+    return new CommitHashPlusParents(getDetails(index).shortHash, parents, myTimes.getQuick(index),
+                                     emailStart >= 0 ? author.substring(0, emailStart) : author);
+  }
+
+  private int getIndex(String hash) throws IOException {
+    final Integer index = myIndices.get(hash);
+    // indices of a not completed update are ignored
+    return index != null && index < myCount ? index : -1;
+  }
+
+  @NotNull
+  private Details getDetails(int index) throws IOException {
+    final Details details = myDetails.get(index);
+    if (details == null) throw new IOException("No details for commit " + index);
+    return details;
+  }
+
+  private String getUser(int id) throws IOException {
+    String user = myUserNames.get(id);
+    if (user == null) {
+      user = myUsers.valueOf(id);
+      myUserNames.put(id, user);
+    }
+    return user;
+  }
+
+  private void rebuildOrder() {
+    // newest first, children of the parents with the same time first
+    final long[] keys = new long[myCount];
+    for (int i = 0; i < myCount; i++) {
+      keys[i] = Math.max(0, myTimes.getQuick(i) / 1000) << MAX_INDEX_BITS | i;
+    }
+    Arrays.sort(keys);
+    final int[] order = new int[myCount];
+    for (int i = 0; i < myCount; i++) {
+      order[i] = (int)(keys[myCount - 1 - i] & INDEX_MASK);
+    }
+    myOrder = order;
+  }
+
+  private void writeState() throws IOException {
+    final DataOutputStream state = new DataOutputStream(new FileOutputStream(getStateFile()));
+    try {
+      state.writeInt(VERSION);
+      state.writeInt(myCount);
+      state.writeLong(getGraphFile().length());
+    }
+    finally {
+      state.close();
+    }
+  }
+
+  private void closeStorages() {
+    try {
+      if (myIndices != null) myIndices.close();
+      if (myDetails != null) myDetails.close();
+      if (myUsers != null) myUsers.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    myIndices = null;
+    myDetails = null;
+    myUsers = null;
+    myUserNames.clear();
+  }
+
+  private File getStateFile() {
+    return new File(myDir, "state");
+  }
+
+  private File getGraphFile() {
+    return new File(myDir, "graph");
+  }
+
+  private static class Details {
+    private final String hash;
+    private final String shortHash;
+    private final String subject;
+
+    private Details(String hash, String shortHash, String subject) {
+      this.hash = hash;
+      this.shortHash = shortHash;
+      this.subject = subject;
+    }
+  }
+
+  private static class DetailsExternalizer implements DataExternalizer<Details> {
+    @Override
+    public void save(DataOutput out, Details value) throws IOException {
+      IOUtil.writeString(value.hash, out);
+      IOUtil.writeString(value.shortHash, out);
+      IOUtil.writeString(value.subject, out);
+    }
+
+    @Override
+    public Details read(DataInput in) throws IOException {
+      return new Details(IOUtil.readString(in), IOUtil.readString(in), IOUtil.readString(in));
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.FilePathsHelper;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.Consumer;
+import git4idea.history.GitHistoryUtils;
+import git4idea.history.browser.ChangesFilter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * !! application-level
+ *
+ * Keeps a {@link GitCommitGraph} for each repository, so that the log is loaded from git only once and then only the new commits are
+ * read. Can be switched off with -Dgit.log.commit.graph.index=false.
+ */
+public class GitCommitGraphIndex implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.GitCommitGraphIndex");
+  public static final boolean ENABLED = !"false".equals(System.getProperty("git.log.commit.graph.index"));
+
+  // the known commits excluded from the loading of new ones, the rest of them are listed by git again and skipped
+  private static final int MAX_EXCLUDED = 200;
+  private static final int APPEND_BATCH_SIZE = 10000;
+
+  private static final GitCommitGraph.Filter ACCEPT_ALL = new GitCommitGraph.Filter() {
+    @Override
+    public boolean accept(@NotNull String author, @NotNull String committer, long time) {
+      return true;
+    }
+  };
+
+  private final File myDir;
+  private final Map<String, GitCommitGraph> myGraphs = new HashMap<String, GitCommitGraph>();
+
+  public GitCommitGraphIndex() {
+    myDir = new File(new File(PathManager.getSystemPath(), "vcs"), "git_graph");
+  }
+
+  public static GitCommitGraphIndex getInstance() {
+    return ServiceManager.getService(GitCommitGraphIndex.class);
+  }
+
+  @NotNull
+  public GitCommitGraph getGraph(@NotNull VirtualFile root) throws IOException {
+    final String key = FilePathsHelper.convertPath(root);
+    synchronized (myGraphs) {
+      GitCommitGraph graph = myGraphs.get(key);
+      if (graph == null) {
+        final String name = FileUtil.sanitizeFileName(root.getName()) + "." + Integer.toHexString(key.hashCode());
+        graph = new GitCommitGraph(new File(myDir, name));
+        myGraphs.put(key, graph);
+      }
+      return graph;
+    }
+  }
+
+  /**
+   * Reads the commits which are not in the graph yet.
+   *
+   * @return full hashes of the commits the starting points refer to, of all refs if there are no starting points
+   */
+  @NotNull
+  public List<String> update(@NotNull Project project, @NotNull VirtualFile root, @NotNull Collection<String> startingPoints)
+    throws VcsException {
+    try {
+      final GitCommitGraph graph = getGraph(root);
+      final List<String> refs = GitHistoryUtils.resolveCommits(project, root, "--all");
+      if (!graph.containsAll(refs)) {
+        final List<String> tips = graph.getTips();
+        final List<GitCommitGraph.Entry> batch = new ArrayList<GitCommitGraph.Entry>();
+        final IOException[] exception = new IOException[1];
+        GitHistoryUtils.loadCommitGraphEntries(project, root, tips.subList(0, Math.min(tips.size(), MAX_EXCLUDED)),
+                                               new Consumer<GitCommitGraph.Entry>() {
+                                                 @Override
+                                                 public void consume(GitCommitGraph.Entry entry) {
+                                                   if (exception[0] != null) return;
+                                                   batch.add(entry);
+                                                   if (batch.size() >= APPEND_BATCH_SIZE) {
+                                                     try {
+                                                       graph.append(batch);
+                                                     }
+                                                     catch (IOException e) {
+                                                       exception[0] = e;
+                                                     }
+                                                     batch.clear();
+                                                   }
+                                                 }
+                                               });
+        if (exception[0] != null) throw exception[0];
+        graph.append(batch);
+        LOG.debug("Commit graph of " + root.getPath() + " has " + graph.getCount() + " commits");
+      }
+      return startingPoints.isEmpty() ? refs : GitHistoryUtils.resolveCommits(project, root, ArrayUtil.toStringArray(startingPoints));
+    }
+    catch (IOException e) {
+      throw new VcsException(e);
+    }
+  }
+
+  /**
+   * @return the filter to apply to the graph, or null if some of the filters need more than the graph has
+   */
+  @Nullable
+  public static GitCommitGraph.Filter createFilter(@NotNull Collection<ChangesFilter.Filter> filters) {
+    final List<Pattern> authors = new ArrayList<Pattern>();
+    final List<Pattern> committers = new ArrayList<Pattern>();
+    final List<ChangesFilter.TimeFilter> times = new ArrayList<ChangesFilter.TimeFilter>();
+    if (!collectFilters(filters.toArray(new ChangesFilter.Filter[filters.size()]), authors, committers, times)) return null;
+    if (authors.isEmpty() && committers.isEmpty() && times.isEmpty()) return ACCEPT_ALL;
+
+    return new GitCommitGraph.Filter() {
+      @Override
+      public boolean accept(@NotNull String author, @NotNull String committer, long time) {
+        for (ChangesFilter.TimeFilter filter : times) {
+          if (!filter.acceptTime(time)) return false;
+        }
+        if (authors.isEmpty() && committers.isEmpty()) return true;
+        // git matches any of --author and --committer, each against its own header only
+        return matchesAny(authors, author) || matchesAny(committers, committer);
+      }
+    };
+  }
+
+  private static boolean matchesAny(List<Pattern> patterns, String user) {
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(user).find()) return true;
+    }
+    return false;
+  }
+
+  private static boolean collectFilters(ChangesFilter.Filter[] filters, List<Pattern> authors, List<Pattern> committers,
+                                        List<ChangesFilter.TimeFilter> times) {
+    for (ChangesFilter.Filter filter : filters) {
+      if (filter instanceof ChangesFilter.And) {
+        if (!collectFilters(((ChangesFilter.And)filter).getFilters(), authors, committers, times)) return false;
+      }
+      else if (filter instanceof ChangesFilter.TimeFilter) {
+        times.add((ChangesFilter.TimeFilter)filter);
+      }
+      else if (filter instanceof ChangesFilter.Author) {
+        authors.add(Pattern.compile(((ChangesFilter.Author)filter).getRegexp()));
+      }
+      else if (filter instanceof ChangesFilter.Committer) {
+        committers.add(Pattern.compile(((ChangesFilter.Committer)filter).getRegexp()));
+      }
+      else if (!(filter instanceof ChangesFilter.StructureFilter && ((ChangesFilter.StructureFilter)filter).isEmpty())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void dispose() {
+    synchronized (myGraphs) {
+      for (GitCommitGraph graph : myGraphs.values()) {
+        graph.close();
+      }
+      myGraphs.clear();
+    }
+  }
+}
@@ -12,6 +12,7 @@
  */
 package git4idea.history.wholeTree;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Getter;
@@ -29,12 +30,14 @@ import git4idea.history.browser.LowLevelAccessImpl;
 import git4idea.history.browser.SymbolicRefsI;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * @author irengrig
  */
 public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlusParents> {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.LoaderAndRefresherImpl");
   private final static int ourFirstLoadCount = 15;
   private final static int ourPreload = (! parameterCheck(Integer.getInteger("git.log.preload.size"))) ? 100 : Integer.getInteger("git.log.preload.size");
 
@@ -60,6 +63,9 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
   @NotNull
   private volatile StepType myStepType;
   private final boolean myTopoOrder;
+  // not null if the commits are taken from the commit graph index
+  private GitCommitGraph.Filter myGraphFilter;
+  private List<String> myGraphTips;
 
   private static boolean parameterCheck(final Integer i) {
     return i != null && i > 0;
@@ -94,6 +100,9 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
       }
     };
     myLowLevelAccess = new LowLevelAccessImpl(myProject, myRootHolder.getRoot());
+    if (GitCommitGraphIndex.ENABLED && ! haveStructureFilter && ! topoOrder) {
+      myGraphFilter = GitCommitGraphIndex.createFilter(filters);
+    }
 
     myRealConsumer = new Consumer<List<CommitHashPlusParents>>() {
       @Override
@@ -192,6 +201,7 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
   }
 
   private void step(final int count, final boolean shouldFull, final long continuation) {
+    if (myGraphFilter != null && loadFromGraph(count, continuation)) return;
     if (shouldFull) {
       loadFull(count, continuation);
     } else {
@@ -199,6 +209,30 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
     }
   }
 
+  private boolean loadFromGraph(final int count, final long continuation) {
+    final GitCommitGraphIndex index = GitCommitGraphIndex.getInstance();
+    try {
+      if (myGraphTips == null) {
+        myGraphTips = index.update(myProject, myRootHolder.getRoot(), myStartingPoints);
+      }
+      index.getGraph(myRootHolder.getRoot()).iterate(myGraphTips, myGraphFilter, continuation, count, myRepeatingLoadConsumer);
+      return true;
+    }
+    catch (ProcessCanceledException e) {
+      interrupt();
+      return true;
+    }
+    catch (VcsException e) {
+      LOG.info(e);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    // read from git from now on
+    myGraphFilter = null;
+    return false;
+  }
+
   /*private boolean checkStartingPoints() {
     for (String point : myStartingPoints) {
       if (point.startsWith(GitBranch.REFS_REMOTES_PREFIX)) {
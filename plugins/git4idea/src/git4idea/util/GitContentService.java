@@ -0,0 +1,148 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.util;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Alarm;
+import git4idea.commands.GitCatFileBatch;
+import git4idea.config.GitVcsApplicationSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the file contents from the history through one {@link GitCatFileBatch} process per repository root, which is stopped after a
+ * minute of inactivity. The contents of files at exact revisions are cached.
+ * Can be switched off with -Dgit.content.batch=false.
+ */
+public class GitContentService implements Disposable {
+  private static final Logger LOG = Logger.getInstance(GitContentService.class.getName());
+  private static final boolean ENABLED = !"false".equals(System.getProperty("git.content.batch"));
+
+  private static final int IDLE_TIMEOUT = 60 * 1000;
+  private static final int MAX_CACHED_CONTENT = 512 * 1024;
+  private static final int MAX_CACHE_SIZE = 4 * 1024 * 1024;
+  // content at a branch or a symbolic revision may change, and an abbreviated hash may become ambiguous, so only full hashes are cached
+  private static final Pattern HASH = Pattern.compile("[0-9a-fA-F]{40}");
+
+  private final Map<VirtualFile, GitCatFileBatch> myProcesses = new HashMap<VirtualFile, GitCatFileBatch>();
+  // least recently used first, bounded by the total size of the contents
+  private final LinkedHashMap<String, byte[]> myCache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+  private int myCacheSize;
+  private final Alarm myIdleAlarm = new Alarm(Alarm.ThreadToUse.SHARED_THREAD, this);
+
+  public static GitContentService getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, GitContentService.class);
+  }
+
+  /**
+   * @return the content of the file at the revision, or null if it can't be read this way and {@code git show} should be used;
+   * the caller owns the returned array
+   */
+  @Nullable
+  public byte[] getFileContent(@NotNull VirtualFile root, @NotNull String revision, @NotNull String relativePath) {
+    if (!ENABLED) return null;
+
+    final String object = revision + ":" + relativePath;
+    final boolean cacheable = HASH.matcher(revision).matches();
+    final String key = root.getPath() + "|" + object;
+    if (cacheable) {
+      synchronized (myCache) {
+        final byte[] cached = myCache.get(key);
+        if (cached != null) return cached.clone();
+      }
+    }
+
+    final byte[] content;
+    try {
+      content = getProcess(root).read(object);
+    }
+    catch (IOException e) {
+      LOG.info("Can't read " + object + " in " + root.getPath() + ": " + e.getMessage());
+      return null;
+    }
+    finally {
+      scheduleStop();
+    }
+
+    if (content != null && cacheable && content.length <= MAX_CACHED_CONTENT) {
+      cache(key, content.clone());
+    }
+    return content;
+  }
+
+  private void cache(@NotNull String key, @NotNull byte[] content) {
+    synchronized (myCache) {
+      final byte[] previous = myCache.put(key, content);
+      myCacheSize += content.length - (previous == null ? 0 : previous.length);
+      final Iterator<byte[]> iterator = myCache.values().iterator();
+      while (myCacheSize > MAX_CACHE_SIZE && iterator.hasNext()) {
+        myCacheSize -= iterator.next().length;
+        iterator.remove();
+      }
+    }
+  }
+
+  @NotNull
+  private GitCatFileBatch getProcess(@NotNull VirtualFile root) {
+    synchronized (myProcesses) {
+      GitCatFileBatch process = myProcesses.get(root);
+      if (process == null) {
+        process = new GitCatFileBatch(GitVcsApplicationSettings.getInstance().getPathToGit(), new File(root.getPath()));
+        myProcesses.put(root, process);
+      }
+      return process;
+    }
+  }
+
+  private void scheduleStop() {
+    if (myIdleAlarm.isDisposed()) return;
+    myIdleAlarm.cancelAllRequests();
+    myIdleAlarm.addRequest(new Runnable() {
+      @Override
+      public void run() {
+        stopProcesses();
+      }
+    }, IDLE_TIMEOUT);
+  }
+
+  private void stopProcesses() {
+    final List<GitCatFileBatch> processes;
+    synchronized (myProcesses) {
+      processes = new ArrayList<GitCatFileBatch>(myProcesses.values());
+    }
+    for (GitCatFileBatch process : processes) {
+      process.stop();
+    }
+  }
+
+  @Override
+  public void dispose() {
+    stopProcesses();
+    synchronized (myCache) {
+      myCache.clear();
+      myCacheSize = 0;
+    }
+  }
+}
@@ -196,6 +196,11 @@ public class GitFileUtils {
    * @throws VcsException if there is a problem with running git
    */
   public static byte[] getFileContent(Project project, VirtualFile root, String revisionOrBranch, String relativePath) throws VcsException {
+    // one long-lived process per root; missing files and failures go through 'git show' for its error reporting
+    final byte[] content = GitContentService.getInstance(project).getFileContent(root, revisionOrBranch, relativePath);
+    if (content != null) {
+      return content;
+    }
     GitBinaryHandler h = new GitBinaryHandler(project, root, GitCommand.SHOW);
     h.setNoSSH(true);
     h.setSilent(true);
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.tests;
+
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.CapturingProcessHandler;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.util.ArrayUtil;
+import git4idea.annotate.GitAnnotationCache;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class GitAnnotationCacheTest extends TestCase {
+  private static final Pattern BLAME_HEADER = Pattern.compile("([0-9a-f]{40}) \\d+ \\d+( \\d+)?");
+
+  private File myDir;
+  private GitAnnotationCache myCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("annotationCache", null);
+    myCache = new GitAnnotationCache(myDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myCache.dispose();
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testStoredBetweenSessions() throws Exception {
+    myCache.put("a.txt@1", blame(0, 1, -1));
+    myCache.dispose();
+
+    myCache = new GitAnnotationCache(myDir);
+    final GitAnnotationCache.Blame blame = myCache.get("a.txt@1");
+    assertNotNull(blame);
+    assertEquals("[1, 2, -]", describe(blame));
+    assertEquals(2000, blame.getTime(1));
+    assertEquals("author1", blame.getAuthor(0));
+    assertNull(myCache.get("a.txt@2"));
+  }
+
+  public void testUpdateKeepsUnchangedLines() throws Exception {
+    final GitAnnotationCache.Blame previous = blame(0, 1, 0, 1);
+    // a b c d -> a x c d e
+    final GitAnnotationCache.Blame blame = GitAnnotationCache.update(previous, "@@ -2 +2 @@\n-b\n+x\n@@ -4,0 +5 @@ d\n+e\n", 5,
+                                                                     "3", 3000, "author3");
+    assertNotNull(blame);
+    assertEquals("[1, 3, 1, 2, 3]", describe(blame));
+
+    // the commits which are not referenced anymore are dropped
+    final GitAnnotationCache.Blame rewritten = GitAnnotationCache.update(blame, "@@ -2,4 +2 @@\n-x\n-c\n-d\n-e\n+y\n", 2,
+                                                                         "4", 4000, "author4");
+    assertNotNull(rewritten);
+    assertEquals("[1, 4]", describe(rewritten));
+    assertEquals(2, rewritten.getCommitCount());
+  }
+
+  public void testUpdateAtFileBounds() throws Exception {
+    final GitAnnotationCache.Blame previous = blame(0, 1);
+    final GitAnnotationCache.Blame blame = GitAnnotationCache.update(previous, "@@ -0,0 +1 @@\n+x\n@@ -2 +2,0 @@\n-b\n", 2,
+                                                                     "3", 3000, "author3");
+    assertNotNull(blame);
+    assertEquals("[3, 1]", describe(blame));
+    assertEquals("[1, 2]", describe(GitAnnotationCache.update(previous, "", 2, "3", 3000, "author3")));
+  }
+
+  public void testUpdateOfMismatchedBlame() throws Exception {
+    assertNull(GitAnnotationCache.update(blame(0), "@@ -1,2 +1 @@\n-a\n-b\n+a\n", 1, "3", 3000, "author3"));
+    assertNull(GitAnnotationCache.update(blame(0, 1), "@@ -1 +1 @@\n-a\n+x\n", 3, "3", 3000, "author3"));
+    assertNull(GitAnnotationCache.update(blame(0, 1), "@@ -2 +1 @@\n-b\n+x\n", 2, "3", 3000, "author3"));
+    assertNull(GitAnnotationCache.update(blame(0), "Binary files a/a.txt and b/a.txt differ\n", 1, "3", 3000, "author3"));
+  }
+
+  /**
+   * The blame derived commit by commit must be the one git blame -w gives, needs git in PATH or IDEA_TEST_GIT_EXECUTABLE.
+   */
+  public void testUpdateMatchesGitBlame() throws Exception {
+    final File repository = new File(myDir, "repository");
+    assertTrue(repository.mkdir());
+    git(repository, "init");
+    git(repository, "config", "user.name", "test");
+    git(repository, "config", "user.email", "test@example.com");
+
+    final String[] versions = {
+      "one\ntwo\nthree\nfour\nfive\nsix\n",
+      "one\nTWO\nthree\nthree and a half\n  four\nsix\n",
+      "zero\none\nTWO\nthree\n  four\n\tsix\nseven",
+      "zero\none\nTWO\nthree\nfour point one\nfour point two\nsix\nseven\n",
+      // repeated lines which another diff could align differently
+      "}\n}\nzero\n}\none\n}\n}\nTWO\n}\nsix\n}\n",
+      "zero\n}\n}\n}\none\n}\nthree\n}\n}\n}\n  six\n}\n}\n"
+    };
+    GitAnnotationCache.Blame blame = null;
+    for (int i = 0; i < versions.length; i++) {
+      FileUtil.writeToFile(new File(repository, "a.txt"), versions[i]);
+      git(repository, "add", "a.txt");
+      git(repository, "commit", "-m", "version " + i);
+      final String hash = git(repository, "rev-parse", "HEAD").trim();
+      final GitAnnotationCache.Blame expected = gitBlame(repository, hash);
+      if (blame == null) {
+        blame = expected;
+      }
+      else {
+        final String diff = git(repository, "diff", "-U0", "-w", "--no-color", "--no-ext-diff", "--diff-algorithm=myers",
+                                "HEAD~1", "HEAD", "--", "a.txt");
+        blame = GitAnnotationCache.update(blame, diff, expected.getLineCount(), hash, i * 1000, "test");
+      }
+      assertNotNull(blame);
+      assertEquals("version " + i, describe(expected), describe(blame));
+    }
+  }
+
+  private static GitAnnotationCache.Blame gitBlame(File repository, String revision) throws Exception {
+    final List<String> hashes = new ArrayList<String>();
+    final List<Integer> lines = new ArrayList<Integer>();
+    String hash = null;
+    for (String line : StringUtil.splitByLines(git(repository, "blame", "-p", "-w", revision, "--", "a.txt"))) {
+      final Matcher matcher = BLAME_HEADER.matcher(line);
+      if (matcher.matches()) {
+        hash = matcher.group(1);
+        if (!hashes.contains(hash)) {
+          hashes.add(hash);
+        }
+      }
+      else if (line.startsWith("\t")) {
+        lines.add(hashes.indexOf(hash));
+      }
+    }
+    final int[] commits = new int[lines.size()];
+    for (int i = 0; i < commits.length; i++) {
+      commits[i] = lines.get(i);
+    }
+    return new GitAnnotationCache.Blame(ArrayUtil.toStringArray(hashes), new long[hashes.size()], new String[hashes.size()], commits);
+  }
+
+  private static String git(File repository, String... parameters) throws Exception {
+    final String git = System.getenv("IDEA_TEST_GIT_EXECUTABLE");
+    final GeneralCommandLine commandLine = new GeneralCommandLine();
+    commandLine.setExePath(git != null ? git : SystemInfo.isWindows ? "git.exe" : "git");
+    commandLine.setWorkDirectory(repository);
+    commandLine.addParameters(parameters);
+    final ProcessOutput output = new CapturingProcessHandler(commandLine.createProcess(), CharsetToolkit.UTF8_CHARSET).runProcess(30000);
+    assertEquals(output.getStderr(), 0, output.getExitCode());
+    return output.getStdout();
+  }
+
+  private static GitAnnotationCache.Blame blame(int... lines) {
+    final String[] hashes = {"1", "2"};
+    final long[] times = {1000, 2000};
+    final String[] authors = {"author1", "author2"};
+    return new GitAnnotationCache.Blame(hashes, times, authors, lines);
+  }
+
+  private static String describe(GitAnnotationCache.Blame blame) {
+    final String[] result = new String[blame.getLineCount()];
+    for (int i = 0; i < result.length; i++) {
+      final int commit = blame.getCommit(i);
+      result[i] = commit < 0 ? "-" : blame.getHash(commit);
+    }
+    return Arrays.toString(result);
+  }
+}
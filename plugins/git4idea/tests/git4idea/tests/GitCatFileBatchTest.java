@@ -0,0 +1,186 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.tests;
+
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.CapturingProcessHandler;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import git4idea.commands.GitCatFileBatch;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads objects of a real repository, needs git in PATH or IDEA_TEST_GIT_EXECUTABLE.
+ */
+public class GitCatFileBatchTest extends TestCase {
+  private static final String GIT_EXECUTABLE_ENV = "IDEA_TEST_GIT_EXECUTABLE";
+
+  private String myGit;
+  private File myRoot;
+  private GitCatFileBatch myBatch;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    final String git = System.getenv(GIT_EXECUTABLE_ENV);
+    myGit = git != null ? git : SystemInfo.isWindows ? "git.exe" : "git";
+    myRoot = FileUtil.createTempDirectory("catFileBatch", null);
+    git("init");
+    git("config", "user.name", "test");
+    git("config", "user.email", "test@example.com");
+    myBatch = new GitCatFileBatch(myGit, myRoot);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myBatch.stop();
+    FileUtil.delete(myRoot);
+    super.tearDown();
+  }
+
+  public void testReadsFilesAtRevisions() throws Exception {
+    FileUtil.writeToFile(new File(myRoot, "a.txt"), "first\n");
+    final String first = commit();
+    FileUtil.writeToFile(new File(myRoot, "a.txt"), "second\n");
+    commit();
+
+    assertEquals("first\n", read(first + ":a.txt"));
+    assertEquals("second\n", read("HEAD:a.txt"));
+    assertEquals("first\n", read("HEAD~1:a.txt"));
+    assertTrue(myBatch.isRunning());
+  }
+
+  public void testBinaryContentIsReadExactly() throws Exception {
+    final byte[] content = new byte[70000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte)i;
+    }
+    FileUtil.writeToFile(new File(myRoot, "a.bin"), content);
+    FileUtil.writeToFile(new File(myRoot, "b.txt"), "\n\n");
+    commit();
+
+    assertTrue(Arrays.equals(content, myBatch.read("HEAD:a.bin")));
+    assertEquals("\n\n", read("HEAD:b.txt"));
+    assertTrue(Arrays.equals(content, myBatch.read("HEAD:a.bin")));
+  }
+
+  public void testMissingObjectsKeepProcessRunning() throws Exception {
+    FileUtil.writeToFile(new File(myRoot, "a.txt"), "content\n");
+    commit();
+
+    assertNull(myBatch.read("HEAD:missing.txt"));
+    assertNull(myBatch.read("0123456789012345678901234567890123456789"));
+    assertTrue(myBatch.isRunning());
+    assertEquals("content\n", read("HEAD:a.txt"));
+  }
+
+  public void testRestartsAfterStop() throws Exception {
+    FileUtil.writeToFile(new File(myRoot, "a.txt"), "content\n");
+    commit();
+
+    assertEquals("content\n", read("HEAD:a.txt"));
+    myBatch.stop();
+    assertFalse(myBatch.isRunning());
+    assertEquals("content\n", read("HEAD:a.txt"));
+    assertTrue(myBatch.isRunning());
+  }
+
+  public void testLineBreakInObjectNameIsRejected() throws Exception {
+    FileUtil.writeToFile(new File(myRoot, "a.txt"), "content\n");
+    commit();
+
+    try {
+      myBatch.read("HEAD:a.txt\nHEAD:a.txt");
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+    assertEquals("content\n", read("HEAD:a.txt"));
+  }
+
+  public void testRestartsAfterProcessHasDied() throws Exception {
+    if (SystemInfo.isWindows) return;
+    FileUtil.writeToFile(new File(myRoot, "a.txt"), "content\n");
+    commit();
+    // the first process exits at once, the next ones are real
+    final File marker = new File(myRoot, "started");
+    final File script = new File(myRoot, "dying-git");
+    FileUtil.writeToFile(script, "#!/bin/sh\n" +
+                                 "if [ ! -f '" + marker.getPath() + "' ]; then touch '" + marker.getPath() + "'; exit 1; fi\n" +
+                                 "exec '" + myGit + "' \"$@\"\n");
+    assertTrue(script.setExecutable(true));
+    final GitCatFileBatch batch = new GitCatFileBatch(script.getPath(), myRoot);
+    try {
+      try {
+        batch.read("HEAD:a.txt");
+        fail();
+      }
+      catch (IOException ignored) {
+      }
+      assertFalse(batch.isRunning());
+      assertEquals("content\n", new String(batch.read("HEAD:a.txt"), CharsetToolkit.UTF8_CHARSET));
+    }
+    finally {
+      batch.stop();
+    }
+  }
+
+  public void testHangingProcessIsKilled() throws Exception {
+    if (SystemInfo.isWindows) return;
+    final File script = new File(myRoot, "hanging-git");
+    FileUtil.writeToFile(script, "#!/bin/sh\nexec sleep 60\n");
+    assertTrue(script.setExecutable(true));
+    final GitCatFileBatch batch = new GitCatFileBatch(script.getPath(), myRoot, 500);
+
+    final long start = System.currentTimeMillis();
+    try {
+      batch.read("HEAD:a.txt");
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+    assertTrue(System.currentTimeMillis() - start < 10000);
+    assertFalse(batch.isRunning());
+  }
+
+  private String read(String object) throws IOException {
+    final byte[] content = myBatch.read(object);
+    assertNotNull(object, content);
+    return new String(content, CharsetToolkit.UTF8_CHARSET);
+  }
+
+  private String commit() throws Exception {
+    git("add", ".");
+    git("commit", "-m", "message");
+    return git("rev-parse", "HEAD").trim();
+  }
+
+  private String git(String... parameters) throws Exception {
+    final GeneralCommandLine commandLine = new GeneralCommandLine();
+    commandLine.setExePath(myGit);
+    commandLine.setWorkDirectory(myRoot);
+    commandLine.addParameters(parameters);
+    final ProcessOutput output = new CapturingProcessHandler(commandLine.createProcess(), CharsetToolkit.UTF8_CHARSET).runProcess(30000);
+    assertEquals(output.getStderr(), 0, output.getExitCode());
+    return output.getStdout();
+  }
+}
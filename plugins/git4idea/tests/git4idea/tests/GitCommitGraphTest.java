@@ -0,0 +1,186 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.tests;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.AsynchConsumer;
+import git4idea.history.browser.ChangesFilter;
+import git4idea.history.wholeTree.CommitHashPlusParents;
+import git4idea.history.wholeTree.GitCommitGraph;
+import git4idea.history.wholeTree.GitCommitGraphIndex;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class GitCommitGraphTest extends TestCase {
+  private File myDir;
+  private GitCommitGraph myGraph;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("commitGraph", null);
+    myGraph = new GitCommitGraph(myDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myGraph.close();
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  //   1 - 2 - 4 master
+  //    \- 3     feature
+  public void testOrderAndReachability() throws Exception {
+    myGraph.append(Arrays.asList(entry(1, 1000, "alice"), entry(2, 2000, "bob", 1), entry(3, 3000, "alice", 1),
+                                 entry(4, 4000, "bob", 2)));
+
+    assertEquals(Arrays.asList("4", "3", "2", "1"), list(null, null, 0, 0));
+    assertEquals(Arrays.asList("4", "2", "1"), list(Collections.singletonList(hash(4)), null, 0, 0));
+    assertEquals(Arrays.asList("3", "1"), list(Collections.singletonList(hash(3)), null, 0, 0));
+    assertEquals(Arrays.asList(hash(4), hash(3)), myGraph.getTips());
+  }
+
+  public void testParentsAreShortHashes() throws Exception {
+    myGraph.append(Arrays.asList(entry(1, 1000, "alice"), entry(2, 2000, "bob"), entry(3, 3000, "alice", 1, 2)));
+
+    final List<CommitHashPlusParents> commits = load(null, null, 0, 1);
+    assertEquals(1, commits.size());
+    assertEquals("3", commits.get(0).getHash());
+    assertEquals(2, commits.get(0).getParents().size());
+    assertEquals("1", commits.get(0).getParents().get(0).getString());
+    assertEquals("alice", commits.get(0).getAuthorName());
+  }
+
+  public void testContinuationAndFilter() throws Exception {
+    myGraph.append(Arrays.asList(entry(1, 1000, "alice"), entry(2, 2000, "bob", 1), entry(3, 3000, "alice", 2),
+                                 entry(4, 4000, "bob", 3)));
+
+    assertEquals(Arrays.asList("3", "2"), list(null, null, 3000, 2));
+    final GitCommitGraph.Filter alice = new GitCommitGraph.Filter() {
+      @Override
+      public boolean accept(@NotNull String author, @NotNull String committer, long time) {
+        return author.startsWith("alice");
+      }
+    };
+    assertEquals(Arrays.asList("3", "1"), list(null, alice, 0, 0));
+  }
+
+  public void testAuthorAndCommitterFiltersMatchTheirOwnFields() throws Exception {
+    final GitCommitGraph.Filter author = createFilter(new ChangesFilter.Author("alice"));
+    assertTrue(author.accept("alice <alice@example.com>", "bob <bob@example.com>", 1000));
+    assertFalse(author.accept("bob <bob@example.com>", "alice <alice@example.com>", 1000));
+
+    final GitCommitGraph.Filter committer = createFilter(new ChangesFilter.Committer("alice"));
+    assertTrue(committer.accept("bob <bob@example.com>", "alice <alice@example.com>", 1000));
+    assertFalse(committer.accept("alice <alice@example.com>", "bob <bob@example.com>", 1000));
+
+    // like git, a commit passes if either of them matches
+    final GitCommitGraph.Filter both = createFilter(new ChangesFilter.Author("alice"), new ChangesFilter.Committer("carol"));
+    assertTrue(both.accept("alice <alice@example.com>", "bob <bob@example.com>", 1000));
+    assertTrue(both.accept("bob <bob@example.com>", "carol <carol@example.com>", 1000));
+    assertFalse(both.accept("carol <carol@example.com>", "alice <alice@example.com>", 1000));
+  }
+
+  public void testTimeFiltersAreCombinedWithUserFilters() throws Exception {
+    final GitCommitGraph.Filter filter =
+      createFilter(new ChangesFilter.And(new ChangesFilter.AfterTime(1000), new ChangesFilter.BeforeTime(2000)),
+                   new ChangesFilter.Author("alice"));
+    assertTrue(filter.accept("alice <alice@example.com>", "bob <bob@example.com>", 1500));
+    assertFalse(filter.accept("alice <alice@example.com>", "bob <bob@example.com>", 2500));
+    assertFalse(filter.accept("bob <bob@example.com>", "alice <alice@example.com>", 1500));
+    assertNull(createFilter(new ChangesFilter.Comment("fix")));
+  }
+
+  public void testIncrementalAppendAndReopen() throws Exception {
+    myGraph.append(Arrays.asList(entry(1, 1000, "alice"), entry(2, 2000, "bob", 1)));
+    myGraph.append(Arrays.asList(entry(2, 2000, "bob", 1), entry(3, 3000, "alice", 2)));
+    assertEquals(3, myGraph.getCount());
+
+    myGraph.close();
+    myGraph = new GitCommitGraph(myDir);
+    assertEquals(3, myGraph.getCount());
+    assertTrue(myGraph.containsAll(Arrays.asList(hash(1), hash(3))));
+    assertFalse(myGraph.containsAll(Arrays.asList(hash(4))));
+    assertEquals(Arrays.asList("3", "2", "1"), list(Collections.singletonList(hash(3)), null, 0, 0));
+
+    myGraph.append(Arrays.asList(entry(4, 4000, "bob", 3)));
+    assertEquals(Arrays.asList("4", "3", "2", "1"), list(null, null, 0, 0));
+  }
+
+  public void testCorruptedStateIsRebuilt() throws Exception {
+    myGraph.append(Arrays.asList(entry(1, 1000, "alice")));
+    myGraph.close();
+    FileUtil.writeToFile(new File(myDir, "state"), "garbage");
+
+    myGraph = new GitCommitGraph(myDir);
+    assertEquals(0, myGraph.getCount());
+    myGraph.append(Arrays.asList(entry(1, 1000, "alice")));
+    assertEquals(Arrays.asList("1"), list(null, null, 0, 0));
+  }
+
+  private static GitCommitGraph.Filter createFilter(ChangesFilter.Filter... filters) {
+    return GitCommitGraphIndex.createFilter(Arrays.asList(filters));
+  }
+
+  private List<String> list(List<String> tips, GitCommitGraph.Filter filter, long beforeTime, int maxCount) throws IOException {
+    final List<String> result = new ArrayList<String>();
+    for (CommitHashPlusParents commit : load(tips, filter, beforeTime, maxCount)) {
+      result.add(commit.getHash());
+    }
+    return result;
+  }
+
+  private List<CommitHashPlusParents> load(List<String> tips, GitCommitGraph.Filter filter, long beforeTime, int maxCount)
+    throws IOException {
+    final List<CommitHashPlusParents> result = new ArrayList<CommitHashPlusParents>();
+    myGraph.iterate(tips, filter, beforeTime, maxCount, new AsynchConsumer<CommitHashPlusParents>() {
+      @Override
+      public void finished() {
+      }
+
+      @Override
+      public void consume(CommitHashPlusParents commit) {
+        result.add(commit);
+      }
+    });
+    return result;
+  }
+
+  private static GitCommitGraph.Entry entry(int id, long time, String user, int... parents) {
+    final String[] parentHashes = new String[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      parentHashes[i] = hash(parents[i]);
+    }
+    final String userWithEmail = user + " <" + user + "@example.com>";
+    return new GitCommitGraph.Entry(hash(id), String.valueOf(id), parentHashes, time, userWithEmail, userWithEmail, "commit " + id);
+  }
+
+  private static String hash(int id) {
+    final StringBuilder builder = new StringBuilder(String.valueOf(id));
+    while (builder.length() < 40) {
+      builder.insert(0, '0');
+    }
+    return builder.toString();
+  }
+}